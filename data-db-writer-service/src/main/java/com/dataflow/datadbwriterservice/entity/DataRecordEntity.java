@@ -12,6 +12,8 @@ import java.time.Instant;
 @Entity
 @Table(name = "data_records", indexes = {
         @Index(name = "idx_timestamp", columnList = "timestamp")
+}, uniqueConstraints = {
+        @UniqueConstraint(name = "uk_record_id", columnNames = "record_id")
 })
 @NoArgsConstructor
 @AllArgsConstructor
@@ -20,6 +22,9 @@ public class DataRecordEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+    /** Generator-assigned ID; redelivered records carry the same one and are skipped. */
+    @Column(name = "record_id")
+    private Long recordId;
     private Instant timestamp;
     private int randomValue;
     private String hashValue;
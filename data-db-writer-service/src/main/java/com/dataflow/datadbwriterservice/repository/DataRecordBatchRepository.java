@@ -0,0 +1,16 @@
+package com.dataflow.datadbwriterservice.repository;
+
+import com.dataflow.datadbwriterservice.entity.DataRecordEntity;
+
+import java.util.List;
+
+public interface DataRecordBatchRepository {
+
+    /**
+     * Inserts {@code records} in one JDBC batch, skipping any whose record ID is already
+     * stored, so a batch redelivered after a crash is written once.
+     *
+     * @return the number of rows inserted
+     */
+    int insertIgnoringDuplicates(List<DataRecordEntity> records);
+}
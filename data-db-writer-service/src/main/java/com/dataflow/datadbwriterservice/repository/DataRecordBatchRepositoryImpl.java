@@ -0,0 +1,44 @@
+package com.dataflow.datadbwriterservice.repository;
+
+import com.dataflow.datadbwriterservice.entity.DataRecordEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+public class DataRecordBatchRepositoryImpl implements DataRecordBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO data_records (record_id, timestamp, random_value, hash_value) "
+            + "VALUES (?, ?, ?, ?) ON CONFLICT (record_id) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DataRecordBatchRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int insertIgnoringDuplicates(List<DataRecordEntity> records) {
+        int[][] counts = jdbcTemplate.batchUpdate(INSERT_SQL, records, records.size(), (ps, record) -> {
+            if (record.getRecordId() != null) {
+                ps.setLong(1, record.getRecordId());
+            } else {
+                ps.setNull(1, Types.BIGINT);
+            }
+            ps.setTimestamp(2, Timestamp.from(record.getTimestamp()));
+            ps.setInt(3, record.getRandomValue());
+            ps.setString(4, record.getHashValue());
+        });
+
+        int inserted = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                // The driver may rewrite the batch and report no per-row counts
+                inserted += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+            }
+        }
+        return inserted;
+    }
+}
@@ -3,5 +3,5 @@ package com.dataflow.datadbwriterservice.repository;
 import com.dataflow.datadbwriterservice.entity.DataRecordEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-public interface DataRecordRepository extends JpaRepository<DataRecordEntity, Long> {
+public interface DataRecordRepository extends JpaRepository<DataRecordEntity, Long>, DataRecordBatchRepository {
 }
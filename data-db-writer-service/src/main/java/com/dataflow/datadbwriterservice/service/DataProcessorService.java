@@ -71,7 +71,10 @@ public class DataProcessorService {
             List<DataRecordEntity> entities = redisService.convertToEntities(records);
 
             if (!entities.isEmpty()) {
-                repository.saveAll(entities);
+                int inserted = repository.insertIgnoringDuplicates(entities);
+                if (inserted < entities.size()) {
+                    log.info("Skipped {} records already in the database", entities.size() - inserted);
+                }
 
                 List<RecordId> recordIds = records.stream()
                         .map(MapRecord::getId)
@@ -141,6 +141,7 @@ public class RedisService {
                         DataRecordMessage message = objectMapper.readValue(json, DataRecordMessage.class);
 
                         DataRecordEntity entity = new DataRecordEntity();
+                        entity.setRecordId(message.getId());
                         entity.setHashValue(message.getHashValue());
                         entity.setTimestamp(Instant.ofEpochMilli(message.getTimestamp()));
                         entity.setRandomValue(message.getRandomValue());
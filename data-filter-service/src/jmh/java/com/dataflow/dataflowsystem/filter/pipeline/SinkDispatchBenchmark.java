@@ -0,0 +1,125 @@
+package com.dataflow.dataflowsystem.filter.pipeline;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.config.KafkaPublishProperties;
+import com.dataflow.dataflowsystem.filter.config.PipelineProperties;
+import com.dataflow.dataflowsystem.filter.config.RuleProperties;
+import com.dataflow.dataflowsystem.filter.service.DataFilterService;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.dataflowsystem.filter.service.KafkaProducerService;
+import com.dataflow.dataflowsystem.filter.service.RuleEngineService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time for {@code DataFilterService} to take one batch from each of {@code sessions}
+ * generator sessions at once through routing and both sinks, with the stage workers on
+ * platform threads against a virtual thread per batch. The sinks block for
+ * {@code sinkMicros} per call, standing in for a broker round trip and a disk write;
+ * small batches give the higher batch rate.
+ * <p>
+ * Virtual mode may have every session's batch in flight; platform mode runs with the
+ * default stage sizes. The {@code virtual} runs need a Java 21 JVM and fail on older ones.
+ * <p>
+ * Run with {@code ./gradlew :data-filter-service:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SinkDispatchBenchmark {
+
+    @Param({"platform", "virtual"})
+    private String mode;
+
+    @Param({"64", "1024"})
+    private int sessions;
+
+    @Param({"100", "1000"})
+    private int batchRecords;
+
+    @Param("500")
+    private int sinkMicros;
+
+    private DataFilterService filter;
+    private final List<List<DataRecordMessage>> batches = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        PipelineProperties.SinkMode sinkMode = PipelineProperties.SinkMode.valueOf(mode.toUpperCase());
+        if (sinkMode == PipelineProperties.SinkMode.VIRTUAL && ThreadPerTaskDispatcher.virtualThreads("probe-").isEmpty()) {
+            throw new IllegalStateException("Virtual sink mode needs Java 21, running on " + Runtime.version());
+        }
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        long sinkNanos = TimeUnit.MICROSECONDS.toNanos(sinkMicros);
+
+        KafkaProducerService kafka = new KafkaProducerService(null, new KafkaPublishProperties(), meterRegistry, "benchmark") {
+            @Override
+            public CompletableFuture<Void> sendBatch(List<DataRecordMessage> messages) {
+                LockSupport.parkNanos(sinkNanos);
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        FileProperties fileProperties = new FileProperties();
+        fileProperties.setPaths(new FileProperties.Paths());
+        fileProperties.getPaths().setFiltered(Files.createTempDirectory("sink-benchmark").toString());
+        FileWriterService files = new FileWriterService(fileProperties) {
+            @Override
+            public void writeBatch(List<DataRecordMessage> records) {
+                LockSupport.parkNanos(sinkNanos);
+            }
+        };
+        RuleEngineService rules = new RuleEngineService(new RuleProperties(), new DefaultResourceLoader(), meterRegistry);
+        rules.init();
+
+        PipelineProperties properties = new PipelineProperties();
+        properties.setSinkMode(sinkMode);
+        properties.setMaxConcurrentBatches(sessions);
+        filter = new DataFilterService(kafka, files, rules, properties, meterRegistry);
+        filter.start();
+
+        SplittableRandom random = new SplittableRandom(42);
+        long id = 0;
+        for (int s = 0; s < sessions; s++) {
+            List<DataRecordMessage> batch = new ArrayList<>(batchRecords);
+            for (int i = 0; i < batchRecords; i++) {
+                batch.add(new DataRecordMessage(id++, System.currentTimeMillis(), random.nextInt(101),
+                        String.format("%02X", random.nextInt(256))));
+            }
+            batches.add(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        filter.stop();
+    }
+
+    @Benchmark
+    public void oneBatchPerSession() throws InterruptedException {
+        CountDownLatch processed = new CountDownLatch(sessions);
+        for (List<DataRecordMessage> batch : batches) {
+            filter.submitBatch(batch, processed::countDown);
+        }
+        processed.await();
+    }
+}
@@ -0,0 +1,136 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.dataflowsystem.filter.config.RuleProperties;
+import com.dataflow.dataflowsystem.filter.service.RuleEngineService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jeasy.rules.annotation.Action;
+import org.jeasy.rules.annotation.Condition;
+import org.jeasy.rules.annotation.Fact;
+import org.jeasy.rules.annotation.Rule;
+import org.jeasy.rules.api.Facts;
+import org.jeasy.rules.api.Rules;
+import org.jeasy.rules.api.RulesEngine;
+import org.jeasy.rules.core.DefaultRulesEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per record of routing with the compiled rules against the Easy Rules engine they
+ * replaced, evaluated the way {@code RuleEngineService} used to: a new {@link Facts} per
+ * record, a reflective {@code @Condition} and the threshold checked again afterwards.
+ * The batch benchmarks go through {@link RuleEngineService#select}, per-rule timers
+ * included, as the filter pipeline does; they include transposing the records into columns
+ * and report time per record.
+ * <p>
+ * Run with {@code ./gradlew :data-filter-service:jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RuleEvaluationBenchmark {
+
+    private static final int RECORDS = 1024;
+
+    private final DataRecordMessage[] records = new DataRecordMessage[RECORDS];
+    private final RecordColumns columns = new RecordColumns();
+    private List<DataRecordMessage> batch;
+    private int next;
+
+    private RuleSet highValue;
+    private RuleSet compound;
+    private RuleEngineService highValueEngine;
+    private RuleEngineService compoundEngine;
+    private Rules easyRules;
+    private RulesEngine easyRulesEngine;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < RECORDS; i++) {
+            records[i] = new DataRecordMessage((long) i, System.currentTimeMillis(), random.nextInt(101),
+                    String.format("%02X", random.nextInt(256)));
+        }
+        batch = Arrays.asList(records);
+        highValue = RuleSet.parse("high-value: value > 90", "benchmark");
+        compound = RuleSet.parse("""
+                suspicious: hash startsWith 'F' and value < 10
+                high-value: value > 90 and hash != null
+                """, "benchmark");
+        highValueEngine = engine(highValue);
+        compoundEngine = engine(compound);
+        easyRules = new Rules();
+        easyRules.register(new HighValueRule());
+        easyRulesEngine = new DefaultRulesEngine();
+    }
+
+    @Benchmark
+    public boolean compiledHighValue() {
+        return highValue.match(nextRecord()) != null;
+    }
+
+    @Benchmark
+    public boolean compiledTwoRules() {
+        return compound.match(nextRecord()) != null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long[] batchHighValue() {
+        columns.load(batch);
+        return highValueEngine.select(columns);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long[] batchTwoRules() {
+        columns.load(batch);
+        return compoundEngine.select(columns);
+    }
+
+    @Benchmark
+    public boolean easyRulesHighValue() {
+        DataRecordMessage record = nextRecord();
+        Facts facts = new Facts();
+        facts.put("value", record.getRandomValue());
+        easyRulesEngine.fire(easyRules, facts);
+        Integer value = facts.get("value");
+        return value != null && value > 90;
+    }
+
+    private DataRecordMessage nextRecord() {
+        return records[next++ & (RECORDS - 1)];
+    }
+
+    private static RuleEngineService engine(RuleSet rules) {
+        RuleEngineService engine = new RuleEngineService(new RuleProperties(), new DefaultResourceLoader(),
+                new SimpleMeterRegistry());
+        engine.replace(rules.getSource(), "benchmark");
+        return engine;
+    }
+
+    @Rule(name = "High Value Rule", description = "Filters values greater than 90")
+    public static class HighValueRule {
+
+        @Condition
+        public boolean isHighValue(@Fact("value") int value) {
+            return value > 90;
+        }
+
+        @Action
+        public void processHighValue() {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.model.DataRecordMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Time per record to write a 1000-record batch with {@link FileWriterService} against the
+ * {@code BufferedWriter} sink it replaced: {@code String.format} per record, a formatter
+ * built per record for the path, and a flush per batch. Durability is {@code none} on both
+ * sides, so this is the cost of getting records into the page cache. Iterations are short
+ * and the files are deleted after each, as the sink writes several hundred MB/s. The
+ * {@code segment} format adds the cost of compressing each block.
+ * <p>
+ * Run with {@code ./gradlew :data-filter-service:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileSinkBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param("none")
+    private String durability;
+
+    @Param({"text", "segment"})
+    private String format;
+
+    private Path directory;
+    private FileWriterService fileWriter;
+    private final Map<String, BufferedWriter> writers = new ConcurrentHashMap<>();
+    private final List<DataRecordMessage> batch = new ArrayList<>(RECORDS);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("file-sink-benchmark");
+        FileProperties properties = new FileProperties();
+        properties.setPaths(new FileProperties.Paths());
+        properties.getPaths().setFiltered(directory.toString());
+        properties.setDurability(FileProperties.Durability.valueOf(durability.toUpperCase()));
+        properties.setFormat(FileProperties.Format.valueOf(format.toUpperCase()));
+        fileWriter = new FileWriterService(properties);
+
+        SplittableRandom random = new SplittableRandom(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < RECORDS; i++) {
+            batch.add(new DataRecordMessage((long) i, now + i, random.nextInt(101),
+                    String.format("%08X", random.nextInt())));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteFiles() throws IOException {
+        fileWriter.closeAllWriters();
+        for (BufferedWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+        try (var files = Files.list(directory)) {
+            files.forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void groupCommitSink() {
+        fileWriter.writeBatch(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void bufferedWriterSink() throws IOException {
+        Map<String, List<DataRecordMessage>> recordsByPath = batch.stream()
+                .collect(Collectors.groupingBy(this::baselinePath));
+        for (Map.Entry<String, List<DataRecordMessage>> entry : recordsByPath.entrySet()) {
+            BufferedWriter writer = writers.computeIfAbsent(entry.getKey(), path -> {
+                try {
+                    return new BufferedWriter(new FileWriter(path, true), 8192);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            synchronized (writer) {
+                for (DataRecordMessage record : entry.getValue()) {
+                    writer.write(String.format("%d,%d,%s,%d%n", record.getTimestamp(), record.getRandomValue(),
+                            record.getHashValue(), record.getId()));
+                }
+                writer.flush();
+            }
+        }
+    }
+
+    private String baselinePath(DataRecordMessage record) {
+        String timeWindow = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm")
+                .format(Instant.ofEpochMilli(record.getTimestamp()).atZone(ZoneId.systemDefault()));
+        return String.format("%s/baseline-%s.txt", directory, timeWindow);
+    }
+}
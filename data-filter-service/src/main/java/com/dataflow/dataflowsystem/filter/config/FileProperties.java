@@ -14,6 +14,26 @@ public class FileProperties {
     private Paths paths;
     private Retention retention;
     private long flushIntervalMs;
+    /** When written records are forced to disk. */
+    private Durability durability = Durability.PERIODIC;
+    /** Size of each pooled direct buffer that records are encoded into. */
+    private int bufferBytes = 256 * 1024;
+    /** Released buffers kept for reuse. */
+    private int pooledBuffers = 64;
+    /** {@code text} CSV lines, or {@code segment} compressed binary blocks. */
+    private Format format = Format.TEXT;
+    /** Most records per block in segment files. */
+    private int segmentBlockRecords = 4096;
+    /** Records per entry of the sparse index kept for each file written. */
+    private int indexRecords = 1024;
+    private Compaction compaction = new Compaction();
+    private Query query = new Query();
+
+    /** Whether closed minute files are merged into archives; see {@link Compaction#enabled}. */
+    public boolean isCompactionEnabled() {
+        Boolean enabled = compaction.getEnabled();
+        return enabled != null ? enabled : format == Format.TEXT;
+    }
 
     @Getter
     @Setter
@@ -28,4 +48,47 @@ public class FileProperties {
     public static class Retention {
         private Integer days;
     }
+
+    @Getter
+    @Setter
+    public static class Compaction {
+        /**
+         * Unset by default, which compacts text files and leaves segment files alone: segment
+         * blocks are already compressed, so merging them frees little space for the IO it
+         * costs. The generator replays text archives from {@code paths.archive} as well as
+         * minute files. Retention runs either way.
+         */
+        private Boolean enabled;
+        /** Archive window that closed minute files are merged into. */
+        private Granularity granularity = Granularity.HOURLY;
+        private long intervalMs = 60000;
+        /** How long after an archive window ends its minute files are left alone. */
+        private long graceMs = 300000;
+        /** Disk bandwidth compaction may use; 0 for no limit. */
+        private long maxBytesPerSecond = 32L * 1024 * 1024;
+    }
+
+    @Getter
+    @Setter
+    public static class Query {
+        /** Most records a {@code /records} request returns; streams are not limited. */
+        private int maxRecords = 100_000;
+    }
+
+    public enum Granularity {
+        HOURLY, DAILY
+    }
+
+    public enum Format {
+        TEXT, SEGMENT
+    }
+
+    public enum Durability {
+        /** Left to the OS to write back. */
+        NONE,
+        /** Forced every {@code flush-interval-ms}. */
+        PERIODIC,
+        /** Forced after every group write, before the writers return. */
+        GROUP
+    }
 }
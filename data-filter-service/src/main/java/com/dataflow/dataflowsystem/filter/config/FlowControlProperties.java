@@ -0,0 +1,24 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "flow-control")
+@Getter
+@Setter
+public class FlowControlProperties {
+    /** Grant credits to the generator; when off it pushes at its own pace. */
+    private boolean enabled = true;
+    /** Records that may be granted or in processing at once while the sinks are healthy. */
+    private long maxInFlight = 10_000;
+    /** Batch processing time above which the window shrinks proportionally. */
+    private Duration targetLatency = Duration.ofMillis(200);
+    /** Smallest credit worth a control message while the generator still has credit left. */
+    private long minGrant = 500;
+    private long refreshIntervalMs = 1000;
+}
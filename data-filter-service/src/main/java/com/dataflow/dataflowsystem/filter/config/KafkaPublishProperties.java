@@ -0,0 +1,49 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "kafka.publish")
+@Getter
+@Setter
+public class KafkaPublishProperties {
+    /**
+     * Record key: {@code hash} keeps each hash value on one partition and in order,
+     * {@code time-bucket} keeps each {@link #timeBucket} of records together, {@code none}
+     * leaves placement to the partitioner.
+     */
+    private KeyStrategy key = KeyStrategy.HASH;
+    private Duration timeBucket = Duration.ofSeconds(1);
+    /** Records sent but not yet acknowledged before sending blocks. */
+    private int maxInFlightRecords = 50_000;
+    /** Estimated bytes sent but not yet acknowledged before sending blocks; keep it below the producer's buffer-memory. */
+    private long maxInFlightBytes = 16 * 1024 * 1024;
+    private Spill spill = new Spill();
+
+    /**
+     * Where batches go that Kafka did not take, after retries or while the circuit breaker
+     * is open, to be replayed in order once it has closed.
+     */
+    @Getter
+    @Setter
+    public static class Spill {
+        /** Directory of the spill log; unset, failed batches are dropped. */
+        private String directory;
+        private int segmentBytes = 64 * 1024 * 1024;
+        /** Disk the spill log may take; batches beyond it are dropped. */
+        private long maxBytes = 4L * 1024 * 1024 * 1024;
+        /** Records replayed per second once the circuit breaker has closed. */
+        private int drainRecordsPerSecond = 20_000;
+        /** Wait between checks while the log is empty or the breaker is not closed, and after a failed replay. */
+        private long retryIntervalMs = 1000;
+    }
+
+    public enum KeyStrategy {
+        HASH, TIME_BUCKET, NONE
+    }
+}
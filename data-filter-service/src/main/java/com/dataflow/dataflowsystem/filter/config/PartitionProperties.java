@@ -0,0 +1,33 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Splits the generator stream between the filter instances registered in a ZooKeeper
+ * group, each subscribing to its share of the hash partitions.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "partitioning")
+@Getter
+@Setter
+public class PartitionProperties {
+    /** When off, this instance receives the whole stream its subscription selects. */
+    private boolean enabled = false;
+    private String connectString = "localhost:2181";
+    /** Parent of the members' ephemeral nodes; instances sharing it share the stream. */
+    private String groupPath = "/dataflow/filter/members";
+    /** This instance's node name in the group; a random one if unset. Must be unique. */
+    private String memberId;
+    /** Hash partitions the stream is split into; more members than this leaves some idle. */
+    private int partitions = 64;
+    /** How long a member that stopped responding keeps its share. */
+    private Duration sessionTimeout = Duration.ofSeconds(15);
+    private Duration connectionTimeout = Duration.ofSeconds(5);
+    /** How long a member keeps partitions it lost, until their new owner has subscribed to them. */
+    private Duration handoffDelay = Duration.ofSeconds(2);
+}
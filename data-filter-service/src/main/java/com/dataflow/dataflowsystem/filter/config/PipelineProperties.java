@@ -0,0 +1,55 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "pipeline")
+@Getter
+@Setter
+public class PipelineProperties {
+    /** Evaluate and sink batches on stage worker threads; when off, everything runs on the socket thread. */
+    private boolean enabled = true;
+    /** Batches a stage queues before the stage feeding it blocks. */
+    private int queueCapacity = 64;
+    private int evaluateWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int kafkaWorkers = 2;
+    private int fileWorkers = 1;
+    /** Most records a sink worker takes from its queue for one send or write. */
+    private int maxSinkBatchRecords = 10_000;
+    /** How long shutdown waits for queued batches to drain. */
+    private Duration drainTimeout = Duration.ofSeconds(10);
+    /**
+     * {@code platform} sinks on the stage workers; {@code virtual} routes and sinks each batch on a
+     * virtual thread of its own, Kafka and files in parallel. Virtual needs a Java 21 runtime and
+     * falls back to platform otherwise.
+     */
+    private SinkMode sinkMode = SinkMode.PLATFORM;
+    /** Batches in flight at once in virtual mode before submitting blocks. */
+    private int maxConcurrentBatches = 256;
+    private Dedup dedup = new Dedup();
+
+    public enum SinkMode {
+        PLATFORM, VIRTUAL
+    }
+
+    /**
+     * Drops records seen recently, by ID or, for records without one, by timestamp, value and
+     * hash, before they are routed.
+     */
+    @Getter
+    @Setter
+    public static class Dedup {
+        private boolean enabled = false;
+        /** How long a record is at least remembered, unless more than {@link #expectedRecords} arrive in it. */
+        private Duration window = Duration.ofMinutes(5);
+        /** Records per window the filters are sized for. */
+        private long expectedRecords = 2_000_000;
+        /** Share of unique records wrongly dropped as duplicates. */
+        private double falsePositiveRate = 0.001;
+    }
+}
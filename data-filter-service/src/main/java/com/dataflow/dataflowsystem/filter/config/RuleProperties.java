@@ -0,0 +1,17 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "rules")
+@Getter
+@Setter
+public class RuleProperties {
+    /** Rules file; a {@code file:} location is watched and reloaded when it changes. */
+    private String location = "classpath:rules/filter.rules";
+    /** How often a {@code file:} location is checked for changes. */
+    private long reloadIntervalMs = 5000;
+}
@@ -0,0 +1,41 @@
+package com.dataflow.dataflowsystem.filter.config;
+
+import com.dataflow.model.Subscription;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Part of the generator stream this instance asks for. Leaving everything unset
+ * subscribes to the full stream.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "websocket.generator.subscription")
+@Getter
+@Setter
+public class SubscriptionProperties {
+    /** Smallest value to receive, inclusive. */
+    private Integer minValue;
+    /** Largest value to receive, inclusive. */
+    private Integer maxValue;
+    /** Only hashes starting with this prefix, case-insensitive. */
+    private String hashPrefix;
+    /** Fraction of the matching records to receive, from 0 to 1. */
+    private Double sampleRatio;
+
+    /**
+     * @return the subscription to send on connect, or null for the full stream
+     */
+    public Subscription toSubscription() {
+        if (minValue == null && maxValue == null && hashPrefix == null && sampleRatio == null) {
+            return null;
+        }
+        Subscription subscription = new Subscription();
+        subscription.setMinValue(minValue);
+        subscription.setMaxValue(maxValue);
+        subscription.setHashPrefix(hashPrefix);
+        subscription.setSampleRatio(sampleRatio);
+        return subscription;
+    }
+}
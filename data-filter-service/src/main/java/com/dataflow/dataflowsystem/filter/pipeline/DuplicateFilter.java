@@ -0,0 +1,196 @@
+package com.dataflow.dataflowsystem.filter.pipeline;
+
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Drops records seen recently, keyed on a 64-bit hash of the record ID, which a record keeps
+ * when it is retried, resent or replayed. Records without an ID are keyed on timestamp,
+ * value and hash value instead.
+ * Membership is kept in two Bloom filters, the current generation and the one before it.
+ * A new generation starts once the current one is {@code window} old or has seen
+ * {@code expectedRecords}, checked before each batch, so a record is remembered from when
+ * it was last seen for at least a window, or that many records if they come faster, and
+ * at most two. Memory stays at two filters sized for {@code expectedRecords} at
+ * {@code falsePositiveRate}, whatever the record rate.
+ * <p>
+ * A false positive drops a record that was not a duplicate; each generation is sized for
+ * half the rate, as a record is looked up in both. Two copies of a record checked at the
+ * same instant on different threads may both pass.
+ * <p>
+ * Metrics: {@code filter.dedup.duplicates} (records dropped), {@code filter.dedup.rotations}
+ * and {@code filter.dedup.memory} (bytes of both filters). Thread-safe.
+ */
+public class DuplicateFilter {
+
+    private final long windowNanos;
+    private final long expectedRecords;
+    private final long bits;
+    private final int hashes;
+    private final ReentrantLock rotation = new ReentrantLock();
+    private volatile Generations generations;
+
+    private final Counter duplicates;
+    private final Counter rotations;
+
+    private record Generations(Bloom current, Bloom previous, long startedAt) {
+    }
+
+    public DuplicateFilter(Duration window, long expectedRecords, double falsePositiveRate, MeterRegistry meterRegistry) {
+        if (expectedRecords <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Dedup needs expected records > 0 and a false-positive rate in (0, 1), was "
+                    + expectedRecords + " and " + falsePositiveRate);
+        }
+        this.windowNanos = window.toNanos();
+        this.expectedRecords = expectedRecords;
+        double perGeneration = falsePositiveRate / 2;
+        long optimalBits = (long) Math.ceil(-expectedRecords * Math.log(perGeneration) / (Math.log(2) * Math.log(2)));
+        this.bits = Math.max(Long.SIZE, (optimalBits + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedRecords * Math.log(2)));
+        this.generations = new Generations(new Bloom(bits), new Bloom(bits), System.nanoTime());
+
+        this.duplicates = Counter.builder("filter.dedup.duplicates")
+                .description("Records dropped as duplicates of recently seen ones")
+                .register(meterRegistry);
+        this.rotations = Counter.builder("filter.dedup.rotations")
+                .description("Times the oldest dedup generation was discarded")
+                .register(meterRegistry);
+        Gauge.builder("filter.dedup.memory", this, filter -> 2.0 * filter.bits / Byte.SIZE)
+                .description("Memory held by the dedup filters")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The records of {@code records} not seen within the window, in order; {@code records}
+     * itself when there are none to drop.
+     */
+    public List<DataRecordMessage> filter(List<DataRecordMessage> records) {
+        Generations current = rotateIfDue();
+        List<DataRecordMessage> unique = null;
+        for (int i = 0; i < records.size(); i++) {
+            DataRecordMessage record = records.get(i);
+            long key = key(record);
+            boolean seen = current.previous.contains(key, hashes);
+            seen |= !current.current.add(key, hashes);
+            if (seen && unique == null) {
+                unique = new ArrayList<>(records.subList(0, i));
+            } else if (!seen && unique != null) {
+                unique.add(record);
+            }
+        }
+        current.current.checked.addAndGet(records.size());
+        if (unique == null) {
+            return records;
+        }
+        duplicates.increment(records.size() - unique.size());
+        return unique;
+    }
+
+    private Generations rotateIfDue() {
+        Generations current = generations;
+        if (!isDue(current) || !rotation.tryLock()) {
+            return current;
+        }
+        try {
+            current = generations;
+            if (isDue(current)) {
+                current = new Generations(new Bloom(bits), current.current, System.nanoTime());
+                generations = current;
+                rotations.increment();
+            }
+            return current;
+        } finally {
+            rotation.unlock();
+        }
+    }
+
+    private boolean isDue(Generations current) {
+        return System.nanoTime() - current.startedAt >= windowNanos || current.current.checked.get() >= expectedRecords;
+    }
+
+    /**
+     * A 64-bit hash of the record ID or, without one, of the fields that identify a record;
+     * nulls hash apart from any value. Generated records in the same millisecond with the
+     * same value have the same hash value, so only the ID tells them apart.
+     */
+    private static long key(DataRecordMessage record) {
+        if (record.getId() != null) {
+            return mix(record.getId() ^ 0x5851F42D4C957F2DL);
+        }
+        long h = mix(record.getTimestamp() == null ? 0x9E3779B97F4A7C15L : record.getTimestamp());
+        h = mix(h ^ (record.getRandomValue() == null ? 0xC2B2AE3D27D4EB4FL : record.getRandomValue() + 1L));
+        String hash = record.getHashValue();
+        if (hash == null) {
+            return mix(h ^ 0x165667B19E3779F9L);
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            h = h * 31 + hash.charAt(i);
+        }
+        return mix(h + hash.length());
+    }
+
+    /** The finalizer of MurmurHash3, spreading every input bit over the output. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** A Bloom filter probed by double hashing of one 64-bit key. */
+    private static final class Bloom {
+        private final AtomicLongArray words;
+        private final long bits;
+        /** Records checked against this generation while it was current, counted per batch. */
+        private final AtomicLong checked = new AtomicLong();
+
+        private Bloom(long bits) {
+            this.words = new AtomicLongArray(Math.toIntExact(bits / Long.SIZE));
+            this.bits = bits;
+        }
+
+        boolean contains(long key, int hashes) {
+            long step = mix(key) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(key + i * step, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sets the key's bits.
+         *
+         * @return whether any bit was not set before, i.e. the key is new
+         */
+        boolean add(long key, int hashes) {
+            long step = mix(key) | 1;
+            boolean added = false;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(key + i * step, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long previous = words.get(word);
+                if ((previous & mask) == 0) {
+                    previous = words.getAndUpdate(word, value -> value | mask);
+                    added |= (previous & mask) == 0;
+                }
+            }
+            return added;
+        }
+    }
+}
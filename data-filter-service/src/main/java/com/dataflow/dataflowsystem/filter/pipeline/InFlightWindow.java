@@ -0,0 +1,86 @@
+package com.dataflow.dataflowsystem.filter.pipeline;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the records and bytes handed to an asynchronous sink but not yet completed.
+ * {@link #acquire} blocks while either limit would be exceeded and {@link #release} gives
+ * the room back. A batch larger than a limit on its own is let through once nothing else
+ * is in flight, so it waits rather than blocking forever.
+ */
+public class InFlightWindow {
+
+    private final int maxRecords;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long records;
+    private long bytes;
+
+    public InFlightWindow(int maxRecords, long maxBytes) {
+        if (maxRecords <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("In-flight limits must be positive: " + maxRecords + " records, "
+                    + maxBytes + " bytes");
+        }
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Waits for room for {@code count} records of {@code size} bytes and takes it.
+     *
+     * @return whether it had to wait
+     */
+    public boolean acquire(int count, long size) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            boolean waited = false;
+            while (!fits(count, size)) {
+                waited = true;
+                released.await();
+            }
+            records += count;
+            bytes += size;
+            return waited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(int count, long size) {
+        lock.lock();
+        try {
+            records -= count;
+            bytes -= size;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(int count, long size) {
+        if (records == 0) {
+            return true;
+        }
+        return records + count <= maxRecords && bytes + size <= maxBytes;
+    }
+
+    public long getRecords() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
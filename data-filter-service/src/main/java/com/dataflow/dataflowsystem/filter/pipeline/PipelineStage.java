@@ -0,0 +1,173 @@
+package com.dataflow.dataflowsystem.filter.pipeline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * One stage of the filter pipeline: a bounded queue of work items drained by a fixed set
+ * of worker threads. {@link #put} blocks while the queue is full, so a slow stage holds
+ * back the stage before it and, in the end, the socket reader.
+ * <p>
+ * A worker takes one item and then whatever else is queued until it holds at least
+ * {@code maxRecords} records, and hands them to the handler together, so a backlog is worked off in fewer,
+ * larger calls. The handler must not throw; what it cannot process it must account for
+ * itself.
+ * <p>
+ * Metrics, all tagged with the stage name: {@code filter.pipeline.queue.depth},
+ * {@code filter.pipeline.records} (throughput), {@code filter.pipeline.queue.wait},
+ * {@code filter.pipeline.latency} (handler time per call) and {@code filter.pipeline.blocked}
+ * (puts that had to wait for room).
+ */
+@Slf4j
+public class PipelineStage<T> {
+
+    private static final long POLL_MS = 100;
+
+    /** A queued item and when it was queued. */
+    private record Queued<T>(T item, long queuedAt) {
+    }
+
+    private final String name;
+    private final BlockingQueue<Queued<T>> queue;
+    private final int workers;
+    private final int maxRecords;
+    private final ToIntFunction<T> recordCount;
+    private final Consumer<List<T>> handler;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean closing;
+
+    private final Counter records;
+    private final Counter blocked;
+    private final Timer queueWait;
+    private final Timer latency;
+
+    public PipelineStage(String name, int capacity, int workers, int maxRecords, ToIntFunction<T> recordCount,
+                         Consumer<List<T>> handler, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workers = workers;
+        this.maxRecords = maxRecords;
+        this.recordCount = recordCount;
+        this.handler = handler;
+
+        Gauge.builder("filter.pipeline.queue.depth", queue, BlockingQueue::size)
+                .description("Batches waiting for the stage")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.records = Counter.builder("filter.pipeline.records")
+                .description("Records processed by the stage")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.blocked = Counter.builder("filter.pipeline.blocked")
+                .description("Batches that waited for room in the stage queue")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("filter.pipeline.queue.wait")
+                .description("Time batches wait in the stage queue")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.latency = Timer.builder("filter.pipeline.latency")
+                .description("Time the stage takes to process what a worker took from the queue")
+                .tag("stage", name)
+                .register(meterRegistry);
+    }
+
+    public synchronized void start() {
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "pipeline-" + name + "-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues {@code item}, waiting for room if the stage is behind.
+     */
+    public void put(T item) throws InterruptedException {
+        if (closing) {
+            throw new IllegalStateException("Pipeline stage " + name + " is stopped");
+        }
+        Queued<T> queued = new Queued<>(item, System.nanoTime());
+        if (!queue.offer(queued)) {
+            blocked.increment();
+            queue.put(queued);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops taking new items and waits up to {@code timeout} for the workers to finish
+     * what is queued.
+     */
+    public void stop(Duration timeout) throws InterruptedException {
+        closing = true;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Pipeline stage {} stopped with {} batches unprocessed", name, queue.size());
+        }
+    }
+
+    private void work() {
+        List<Queued<T>> taken = new ArrayList<>();
+        List<T> items = new ArrayList<>();
+        while (true) {
+            try {
+                Queued<T> first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closing) {
+                        return;
+                    }
+                    continue;
+                }
+                taken.add(first);
+                int count = recordCount.applyAsInt(first.item());
+                Queued<T> next;
+                while (count < maxRecords && (next = queue.poll()) != null) {
+                    taken.add(next);
+                    count += recordCount.applyAsInt(next.item());
+                }
+
+                long start = System.nanoTime();
+                for (Queued<T> queued : taken) {
+                    queueWait.record(start - queued.queuedAt(), TimeUnit.NANOSECONDS);
+                    items.add(queued.item());
+                }
+                handler.accept(items);
+                latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                records.increment(count);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Pipeline stage {} failed on {} batches: {}", name, taken.size(), e.getMessage(), e);
+            } finally {
+                taken.clear();
+                items.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.dataflow.dataflowsystem.filter.pipeline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each submitted task on a thread of its own, meant for virtual threads: a task may
+ * block on a sink for as long as it likes without holding up the others or a worker pool.
+ * At most {@code maxConcurrent} tasks run at once; {@link #submit} blocks beyond that, so
+ * a slow sink still holds back the socket reader.
+ * <p>
+ * Within a task, {@link #forkJoin} runs two pieces of work in parallel and returns only
+ * when both are done, so no forked thread outlives the task that forked it.
+ * <p>
+ * Metrics, tagged with the dispatcher name as {@code stage}: {@code filter.pipeline.in.flight},
+ * {@code filter.pipeline.latency} (time per task) and {@code filter.pipeline.blocked}
+ * (submissions that had to wait for a slot).
+ */
+@Slf4j
+public class ThreadPerTaskDispatcher {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore slots;
+    private final ThreadFactory threadFactory;
+    private volatile boolean closing;
+
+    private final Counter blocked;
+    private final Timer latency;
+
+    public ThreadPerTaskDispatcher(String name, int maxConcurrent, ThreadFactory threadFactory,
+                                   MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.slots = new Semaphore(maxConcurrent);
+        this.threadFactory = threadFactory;
+
+        Gauge.builder("filter.pipeline.in.flight", this, ThreadPerTaskDispatcher::getInFlight)
+                .description("Tasks running on the dispatcher")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.blocked = Counter.builder("filter.pipeline.blocked")
+                .description("Tasks that waited for a free slot")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.latency = Timer.builder("filter.pipeline.latency")
+                .description("Time a dispatched task takes")
+                .tag("stage", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A factory for virtual threads named {@code prefix0}, {@code prefix1}, ..., or empty
+     * before Java 21. Looked up reflectively so the service still builds for Java 17.
+     */
+    public static Optional<ThreadFactory> virtualThreads(String prefix) {
+        if (Runtime.version().feature() < 21) {
+            return Optional.empty();
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return Optional.of((ThreadFactory) builderType.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Virtual threads are not available: {}", e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Starts {@code task} on a new thread, first waiting for a slot if {@code maxConcurrent}
+     * tasks are running. The task must not throw.
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        if (closing) {
+            throw new IllegalStateException("Dispatcher " + name + " is stopped");
+        }
+        if (!slots.tryAcquire()) {
+            blocked.increment();
+            slots.acquire();
+        }
+        long start = System.nanoTime();
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Unhandled error in {} task: {}", name, e.getMessage(), e);
+                } finally {
+                    latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    slots.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs {@code forked} on a new thread and {@code inline} on this one, and returns once
+     * both have finished, even if {@code inline} throws. Neither should throw; an error in
+     * {@code forked} is logged.
+     */
+    public void forkJoin(Runnable forked, Runnable inline) {
+        Thread thread = threadFactory.newThread(() -> {
+            try {
+                forked.run();
+            } catch (RuntimeException e) {
+                log.error("Unhandled error in forked {} task: {}", name, e.getMessage(), e);
+            }
+        });
+        thread.start();
+        try {
+            inline.run();
+        } finally {
+            joinUninterruptibly(thread);
+        }
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    /**
+     * Stops taking new tasks and waits up to {@code timeout} for running ones to finish.
+     */
+    public void stop(Duration timeout) throws InterruptedException {
+        closing = true;
+        if (slots.tryAcquire(maxConcurrent, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            slots.release(maxConcurrent);
+        } else {
+            log.warn("Dispatcher {} stopped with {} tasks still running", name, getInFlight());
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.dataflow.dataflowsystem.filter.query;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.util.List;
+
+public record QueryResult(List<DataRecordMessage> records, QueryStats stats) {
+}
@@ -0,0 +1,33 @@
+package com.dataflow.dataflowsystem.filter.query;
+
+import lombok.Getter;
+
+/**
+ * What a query did: files read, bytes parsed or decoded, records returned, and whether the
+ * limit cut it short.
+ */
+@Getter
+public class QueryStats {
+    private int filesRead;
+    private long bytesRead;
+    private long records;
+    private boolean truncated;
+    private long elapsedMs;
+
+    void fileRead(long bytes) {
+        filesRead++;
+        bytesRead += bytes;
+    }
+
+    void recordReturned() {
+        records++;
+    }
+
+    void truncate() {
+        truncated = true;
+    }
+
+    void finish(long elapsedNanos) {
+        elapsedMs = elapsedNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,50 @@
+package com.dataflow.dataflowsystem.filter.query;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.time.Instant;
+
+/**
+ * Stored records with timestamps in {@code [from, to)}, narrowed by the optional value
+ * criteria, which combine with AND as in a generator subscription. At most {@code limit}
+ * records are returned.
+ *
+ * @param minValue   smallest {@code randomValue}, inclusive, or null
+ * @param maxValue   largest {@code randomValue}, inclusive, or null
+ * @param hashPrefix case-insensitive prefix of {@code hashValue}, or null
+ */
+public record RecordQuery(long from, long to, Integer minValue, Integer maxValue, String hashPrefix, int limit) {
+
+    public RecordQuery {
+        if (from >= to) {
+            throw new IllegalArgumentException("Query range is empty: from must be before to");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Query limit must be positive, was " + limit);
+        }
+        if (hashPrefix != null && hashPrefix.isEmpty()) {
+            hashPrefix = null;
+        }
+    }
+
+    public static RecordQuery of(Instant from, Instant to, Integer minValue, Integer maxValue, String hashPrefix,
+                                 int limit) {
+        return new RecordQuery(from.toEpochMilli(), to.toEpochMilli(), minValue, maxValue, hashPrefix, limit);
+    }
+
+    /**
+     * Whether the record meets the value criteria; the time range is checked by the reader.
+     */
+    public boolean matches(DataRecordMessage record) {
+        Integer value = record.getRandomValue();
+        if (minValue != null && (value == null || value < minValue)) {
+            return false;
+        }
+        if (maxValue != null && (value == null || value > maxValue)) {
+            return false;
+        }
+        String hash = record.getHashValue();
+        return hashPrefix == null
+                || (hash != null && hash.regionMatches(true, 0, hashPrefix, 0, hashPrefix.length()));
+    }
+}
@@ -0,0 +1,108 @@
+package com.dataflow.dataflowsystem.filter.query;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.model.DataRecordMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code GET /records?from=2024-01-01T10:00:00Z&to=2024-01-01T10:05:00Z} returns the stored
+ * regular records in that range, oldest first, with what the query read. It can be
+ * narrowed with {@code minValue}, {@code maxValue} and {@code hashPrefix}, and returns at
+ * most {@code limit} records (1000 unless given, up to {@code storage.query.max-records}).
+ * {@code GET /records/stream} takes the same parameters and streams every match as
+ * newline-delimited JSON.
+ */
+@RestController
+@RequestMapping("/records")
+@Slf4j
+public class RecordQueryController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final RecordQueryService queryService;
+    private final ObjectMapper objectMapper;
+    private final FileProperties properties;
+
+    public RecordQueryController(RecordQueryService queryService, ObjectMapper objectMapper, FileProperties properties) {
+        this.queryService = queryService;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> query(@RequestParam Instant from,
+                                   @RequestParam Instant to,
+                                   @RequestParam(required = false) Integer minValue,
+                                   @RequestParam(required = false) Integer maxValue,
+                                   @RequestParam(required = false) String hashPrefix,
+                                   @RequestParam(defaultValue = "1000") int limit) {
+        try {
+            int maxRecords = properties.getQuery().getMaxRecords();
+            if (limit > maxRecords) {
+                throw new IllegalArgumentException("Query limit is at most " + maxRecords + ", was " + limit);
+            }
+            RecordQuery query = RecordQuery.of(from, to, minValue, maxValue, hashPrefix, limit);
+            List<DataRecordMessage> records = new ArrayList<>();
+            QueryStats stats = queryService.query(query, records::add);
+            return ResponseEntity.ok(new QueryResult(records, stats));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected record query: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            log.error("Record query failed: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<?> stream(@RequestParam Instant from,
+                                    @RequestParam Instant to,
+                                    @RequestParam(required = false) Integer minValue,
+                                    @RequestParam(required = false) Integer maxValue,
+                                    @RequestParam(required = false) String hashPrefix) {
+        RecordQuery query;
+        try {
+            query = RecordQuery.of(from, to, minValue, maxValue, hashPrefix, Integer.MAX_VALUE);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected record stream: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        StreamingResponseBody body = response -> {
+            OutputStream out = new BufferedOutputStream(response, 64 * 1024);
+            try {
+                QueryStats stats = queryService.query(query, record -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(record));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                out.flush();
+                log.debug("Streamed {} records from {} files in {} ms", stats.getRecords(), stats.getFilesRead(),
+                        stats.getElapsedMs());
+            } catch (UncheckedIOException e) {
+                // Usually the client going away mid-stream
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+}
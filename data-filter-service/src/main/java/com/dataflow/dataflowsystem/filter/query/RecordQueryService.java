@@ -0,0 +1,256 @@
+package com.dataflow.dataflowsystem.filter.query;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.dataflowsystem.filter.sink.FileIndex;
+import com.dataflow.dataflowsystem.filter.sink.RecordFileReader;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFormat;
+import com.dataflow.dataflowsystem.filter.sink.TextRecordFile;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Answers time-range queries from the files this service stores: minute files in
+ * {@code paths.filtered} of every instance, and the archives in {@code paths.archive}.
+ * <p>
+ * Files are picked by the time window in their name. Minute files written since startup
+ * are read through their {@link FileIndex}, so a query for a few minutes of a busy file
+ * parses only those minutes' bytes. Records come out in timestamp order: files are read by
+ * window start, and a match is passed on as soon as no file left to read can hold an
+ * earlier one. At most {@code limit} matches are held; once that many are, the remaining
+ * files are read only up to the latest of them, and those starting after it not at all.
+ * <p>
+ * A file compacted while a query runs may be missed or read twice, from both sides of the
+ * move.
+ */
+@Service
+@Slf4j
+public class RecordQueryService {
+
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm");
+    private static final int MINUTE_PREFIX = 16;
+    private static final int HOUR_PREFIX = 13;
+    private static final int DAY_PREFIX = 10;
+    private static final String CLAIMED = ".compacting";
+    private static final String TEXT_ARCHIVE = TextRecordFile.EXTENSION + ".gz";
+
+    private final FileProperties properties;
+    private final FileWriterService fileWriter;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Timer queries;
+
+    private enum Kind {
+        TEXT, SEGMENT, GZIP_TEXT
+    }
+
+    private record Source(Path path, Kind kind, FileIndex index, long start, long end) {
+    }
+
+
+    public RecordQueryService(FileProperties properties, FileWriterService fileWriter, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.fileWriter = fileWriter;
+        this.queries = Timer.builder("filter.query.duration")
+                .description("Time to answer a stored-record query")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Passes the matching records to {@code consumer}, oldest first, up to the query's limit.
+     */
+    public QueryStats query(RecordQuery query, Consumer<DataRecordMessage> consumer) throws IOException {
+        long started = System.nanoTime();
+        QueryStats stats = new QueryStats();
+        Pending pending = new Pending(query.limit(), stats);
+        for (Source source : sources(query)) {
+            // Files left to read hold nothing older than their window start
+            pending.emitBefore(source.start(), consumer);
+            long to = query.to();
+            if (pending.isFull()) {
+                if (pending.isEmpty() || source.start() > pending.latest()) {
+                    stats.truncate();
+                    break;
+                }
+                // Later records could not displace any held; equal ones still mark the cut
+                to = Math.min(to, pending.latest() + 1);
+            }
+            read(source, query, to, pending, stats);
+        }
+        pending.emitBefore(Long.MAX_VALUE, consumer);
+        long elapsed = System.nanoTime() - started;
+        stats.finish(elapsed);
+        queries.record(elapsed, TimeUnit.NANOSECONDS);
+        return stats;
+    }
+
+    /**
+     * Reads {@code source} up to {@code to}, which may be before the query's end.
+     */
+    private void read(Source source, RecordQuery query, long to, Consumer<DataRecordMessage> matches,
+                      QueryStats stats) throws IOException {
+        Consumer<DataRecordMessage> matching = record -> {
+            if (query.matches(record)) {
+                matches.accept(record);
+            }
+        };
+        try {
+            long bytes = switch (source.kind()) {
+                case TEXT -> RecordFileReader.readText(source.path(), source.index(), query.from(), to, matching);
+                case SEGMENT -> RecordFileReader.readSegment(source.path(), source.index(), query.from(), to, matching);
+                case GZIP_TEXT -> RecordFileReader.readGzipText(source.path(), query.from(), to, matching);
+            };
+            stats.fileRead(bytes);
+        } catch (NoSuchFileException e) {
+            log.debug("{} was compacted or deleted during a query", source.path());
+        }
+    }
+
+    /**
+     * The files whose windows overlap the query, by window start.
+     */
+    private List<Source> sources(RecordQuery query) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        for (Path path : list(properties.getPaths().getFiltered())) {
+            String name = path.getFileName().toString();
+            boolean claimed = name.endsWith(CLAIMED);
+            String fileName = claimed ? name.substring(0, name.length() - CLAIMED.length()) : name;
+            Kind kind = fileName.endsWith(SegmentFormat.EXTENSION) ? Kind.SEGMENT
+                    : fileName.endsWith(TextRecordFile.EXTENSION) ? Kind.TEXT
+                    : null;
+            LocalDateTime start = windowStart(fileName, MINUTE_PREFIX);
+            if (kind != null && start != null) {
+                FileIndex index = claimed ? null : fileWriter.getIndex(fileName);
+                add(sources, query, new Source(path, kind, index, millis(start), millis(start.plusMinutes(1))));
+            }
+        }
+        boolean daily = properties.getCompaction().getGranularity() == FileProperties.Granularity.DAILY;
+        for (Path path : list(properties.getPaths().getArchive())) {
+            String name = path.getFileName().toString();
+            Kind kind = name.endsWith(SegmentFormat.EXTENSION) ? Kind.SEGMENT
+                    : name.endsWith(TEXT_ARCHIVE) ? Kind.GZIP_TEXT
+                    : null;
+            LocalDateTime start = windowStart(name, daily ? DAY_PREFIX : HOUR_PREFIX);
+            if (kind != null && start != null) {
+                LocalDateTime end = daily ? start.plusDays(1) : start.plusHours(1);
+                add(sources, query, new Source(path, kind, null, millis(start), millis(end)));
+            }
+        }
+        sources.sort(Comparator.comparingLong(Source::start));
+        return sources;
+    }
+
+    private static void add(List<Source> sources, RecordQuery query, Source source) {
+        if (source.start() < query.to() && source.end() > query.from()) {
+            sources.add(source);
+        }
+    }
+
+    /**
+     * The start of the window a file name begins with, {@code yyyy-MM-dd[-HH[-mm]]} as long
+     * as {@code length}, or null if it has none.
+     */
+    private static LocalDateTime windowStart(String name, int length) {
+        if (name.length() <= length || name.charAt(length) != '-') {
+            return null;
+        }
+        String window = name.substring(0, length);
+        try {
+            return switch (length) {
+                case MINUTE_PREFIX -> LocalDateTime.parse(window, MINUTE_FORMAT);
+                case HOUR_PREFIX -> LocalDateTime.parse(window + "-00", MINUTE_FORMAT);
+                default -> LocalDate.parse(window).atStartOfDay();
+            };
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private long millis(LocalDateTime time) {
+        return time.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    private static List<Path> list(String directory) throws IOException {
+        if (directory == null || !Files.isDirectory(Path.of(directory))) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(Path.of(directory))) {
+            return files.toList();
+        }
+    }
+
+    /**
+     * Matches read but not yet passed on, by timestamp and then in the order read. Holds
+     * no more than the limit has room for; past that, an earlier match displaces the latest.
+     */
+    private static final class Pending implements Consumer<DataRecordMessage> {
+
+        private record Match(DataRecordMessage record, long timestamp, long sequence) {
+        }
+
+        private final TreeSet<Match> matches = new TreeSet<>(Comparator.comparingLong(Match::timestamp)
+                .thenComparingLong(Match::sequence));
+        private final int limit;
+        private final QueryStats stats;
+        private long sequence;
+
+        Pending(int limit, QueryStats stats) {
+            this.limit = limit;
+            this.stats = stats;
+        }
+
+        @Override
+        public void accept(DataRecordMessage record) {
+            Match match = new Match(record, record.getTimestamp(), sequence++);
+            if (!isFull()) {
+                matches.add(match);
+                return;
+            }
+            stats.truncate();
+            // A later sequence loses a tie, so only a strictly earlier record gets in
+            if (!matches.isEmpty() && match.timestamp() < matches.last().timestamp()) {
+                matches.pollLast();
+                matches.add(match);
+            }
+        }
+
+        boolean isFull() {
+            return stats.getRecords() + matches.size() >= limit;
+        }
+
+        boolean isEmpty() {
+            return matches.isEmpty();
+        }
+
+        long latest() {
+            return matches.last().timestamp();
+        }
+
+        /** Passes on, oldest first, the matches older than {@code timestamp}. */
+        void emitBefore(long timestamp, Consumer<DataRecordMessage> consumer) {
+            while (!matches.isEmpty() && matches.first().timestamp() < timestamp) {
+                consumer.accept(matches.pollFirst().record());
+                stats.recordReturned();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * The column loops rules compile to. Range checks build one bitmap word per 64 records,
+ * setting a record's bit when its value lies in the range. On a Java 21 or later runtime
+ * started with {@code --add-modules jdk.incubator.vector}, as the service image is, and
+ * with registers wider than one long, they use {@link VectorKernels} instead; both produce
+ * the same bitmap. The 17 JIT compiles the vector mask conversions poorly enough that the
+ * scalar loop is faster there.
+ */
+@Slf4j
+final class ColumnKernels {
+
+    private static final boolean VECTORIZED = vectorSupported();
+
+    private ColumnKernels() {
+    }
+
+    /** Sets the bits of records whose value lies in {@code [lo, hi]}. */
+    static void intRange(int[] column, int size, long lo, long hi, long[] out) {
+        int words = RecordColumns.wordsFor(size);
+        if (lo > Integer.MAX_VALUE || hi < Integer.MIN_VALUE || lo > hi) {
+            Arrays.fill(out, 0, words, 0L);
+            return;
+        }
+        int from = (int) Math.max(lo, Integer.MIN_VALUE);
+        int to = (int) Math.min(hi, Integer.MAX_VALUE);
+        if (VECTORIZED) {
+            VectorKernels.intRange(column, size, from, to, out);
+            return;
+        }
+        for (int w = 0, base = 0; base < size; w++, base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            for (int i = base; i < end; i++) {
+                int v = column[i];
+                if (v >= from && v <= to) {
+                    word |= 1L << (i - base);
+                }
+            }
+            out[w] = word;
+        }
+    }
+
+    /** Sets the bits of records whose value lies in {@code [lo, hi]}. */
+    static void longRange(long[] column, int size, long lo, long hi, long[] out) {
+        if (VECTORIZED) {
+            VectorKernels.longRange(column, size, lo, hi, out);
+            return;
+        }
+        for (int w = 0, base = 0; base < size; w++, base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            for (int i = base; i < end; i++) {
+                long v = column[i];
+                if (v >= lo && v <= hi) {
+                    word |= 1L << (i - base);
+                }
+            }
+            out[w] = word;
+        }
+    }
+
+    /** Inverts the first {@code size} bits of {@code bits}, keeping the tail clear. */
+    static void not(long[] bits, int size) {
+        int words = RecordColumns.wordsFor(size);
+        for (int w = 0; w < words; w++) {
+            bits[w] = ~bits[w];
+        }
+        clearTail(bits, size);
+    }
+
+    static void fill(long[] bits, int size) {
+        int words = RecordColumns.wordsFor(size);
+        Arrays.fill(bits, 0, words, -1L);
+        clearTail(bits, size);
+    }
+
+    static void and(long[] bits, long[] other, int words) {
+        for (int w = 0; w < words; w++) {
+            bits[w] &= other[w];
+        }
+    }
+
+    static void andNot(long[] bits, long[] other, int words) {
+        for (int w = 0; w < words; w++) {
+            bits[w] &= ~other[w];
+        }
+    }
+
+    static void or(long[] bits, long[] other, int words) {
+        for (int w = 0; w < words; w++) {
+            bits[w] |= other[w];
+        }
+    }
+
+    private static void clearTail(long[] bits, int size) {
+        if ((size & 63) != 0) {
+            bits[size >>> 6] &= -1L >>> (64 - (size & 63));
+        }
+    }
+
+    private static boolean vectorSupported() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("Evaluating rules with scalar loops; start with --add-modules jdk.incubator.vector for SIMD");
+            return false;
+        }
+        if (Runtime.version().feature() < 21) {
+            log.info("Evaluating rules with scalar loops; the Vector API kernels need Java 21 or later");
+            return false;
+        }
+        try {
+            boolean supported = VectorKernels.isUseful();
+            log.info("Evaluating rules with {} loops", supported ? "vector" : "scalar");
+            return supported;
+        } catch (LinkageError e) {
+            log.warn("Vector API unavailable, evaluating rules with scalar loops: {}", e.getMessage());
+            return false;
+        }
+    }
+}
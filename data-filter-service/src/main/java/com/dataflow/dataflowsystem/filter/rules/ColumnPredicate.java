@@ -0,0 +1,15 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+/**
+ * A rule evaluated a batch at a time over {@link RecordColumns}.
+ */
+@FunctionalInterface
+public interface ColumnPredicate {
+
+    /**
+     * Overwrites the first {@link RecordColumns#words()} words of {@code selection} with one
+     * bit per record, bit {@code i % 64} of word {@code i / 64} set when record {@code i}
+     * matches. Bits past the last record are left clear.
+     */
+    void evaluate(RecordColumns columns, long[] selection);
+}
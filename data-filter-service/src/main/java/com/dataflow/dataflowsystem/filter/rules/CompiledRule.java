@@ -0,0 +1,56 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.model.DataRecordMessage;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A named rule compiled for single records and for column batches, counting the records
+ * it matched.
+ */
+@Getter
+public final class CompiledRule {
+
+    private final String name;
+    private final String expression;
+    private final Predicate<DataRecordMessage> predicate;
+    private final ColumnPredicate columnPredicate;
+    private final LongAdder hits = new LongAdder();
+
+    public CompiledRule(String name, String expression, Predicate<DataRecordMessage> predicate,
+                        ColumnPredicate columnPredicate) {
+        this.name = name;
+        this.expression = expression;
+        this.predicate = predicate;
+        this.columnPredicate = columnPredicate;
+    }
+
+    public boolean test(DataRecordMessage record) {
+        return predicate.test(record);
+    }
+
+    /**
+     * Adds the records of {@code columns} this rule matches and no earlier rule did to
+     * {@code selection}, crediting this rule with them.
+     */
+    public void select(RecordColumns columns, long[] selection) {
+        long[] matched = columns.borrow();
+        columnPredicate.evaluate(columns, matched);
+        long newlyMatched = 0;
+        for (int w = 0; w < columns.words(); w++) {
+            long fresh = matched[w] & ~selection[w];
+            newlyMatched += Long.bitCount(fresh);
+            selection[w] |= fresh;
+        }
+        columns.release(matched);
+        if (newlyMatched > 0) {
+            hits.add(newlyMatched);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+}
@@ -0,0 +1,148 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of records transposed into primitive columns, so rules run over plain arrays
+ * instead of boxed fields. Missing values are stored as zero with their bit clear in the
+ * column's presence bitmap.
+ * <p>
+ * Instances are reused from batch to batch and only grow, so they are not thread-safe;
+ * keep one per thread.
+ */
+public final class RecordColumns {
+
+    private int size;
+    private int words;
+    private long[] ids = new long[0];
+    private long[] timestamps = new long[0];
+    private int[] values = new int[0];
+    private String[] hashes = new String[0];
+    private long[] idPresent = new long[0];
+    private long[] timestampPresent = new long[0];
+    private long[] valuePresent = new long[0];
+    private long[] selection = new long[0];
+    private final ArrayDeque<long[]> masks = new ArrayDeque<>();
+
+    /**
+     * Replaces the columns with {@code records}.
+     */
+    public void load(List<DataRecordMessage> records) {
+        int count = records.size();
+        ensureCapacity(count);
+        size = count;
+        words = wordsFor(count);
+        Arrays.fill(idPresent, 0, words, 0L);
+        Arrays.fill(timestampPresent, 0, words, 0L);
+        Arrays.fill(valuePresent, 0, words, 0L);
+        for (int i = 0; i < count; i++) {
+            DataRecordMessage record = records.get(i);
+            long bit = 1L << i;
+            int word = i >>> 6;
+            Long id = record.getId();
+            if (id != null) {
+                ids[i] = id;
+                idPresent[word] |= bit;
+            } else {
+                ids[i] = 0;
+            }
+            Long timestamp = record.getTimestamp();
+            if (timestamp != null) {
+                timestamps[i] = timestamp;
+                timestampPresent[word] |= bit;
+            } else {
+                timestamps[i] = 0;
+            }
+            Integer value = record.getRandomValue();
+            if (value != null) {
+                values[i] = value;
+                valuePresent[word] |= bit;
+            } else {
+                values[i] = 0;
+            }
+            hashes[i] = record.getHashValue();
+        }
+        Arrays.fill(hashes, count, hashes.length, null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Words in a bitmap over this batch. */
+    public int words() {
+        return words;
+    }
+
+    /**
+     * The bitmap rule sets select into; overwritten by the next selection.
+     */
+    public long[] selection() {
+        return selection;
+    }
+
+    static int wordsFor(int records) {
+        return (records + 63) >>> 6;
+    }
+
+    long[] ids() {
+        return ids;
+    }
+
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    int[] values() {
+        return values;
+    }
+
+    String[] hashes() {
+        return hashes;
+    }
+
+    long[] idPresent() {
+        return idPresent;
+    }
+
+    long[] timestampPresent() {
+        return timestampPresent;
+    }
+
+    long[] valuePresent() {
+        return valuePresent;
+    }
+
+    /** A scratch bitmap for combining sub-expressions; hand it back with {@link #release}. */
+    long[] borrow() {
+        long[] mask = masks.poll();
+        return mask != null ? mask : new long[selection.length];
+    }
+
+    void release(long[] mask) {
+        if (mask.length == selection.length) {
+            masks.push(mask);
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(count, ids.length * 2);
+        int bitmapWords = wordsFor(capacity);
+        ids = new long[capacity];
+        timestamps = new long[capacity];
+        values = new int[capacity];
+        hashes = new String[capacity];
+        idPresent = new long[bitmapWords];
+        timestampPresent = new long[bitmapWords];
+        valuePresent = new long[bitmapWords];
+        selection = new long[bitmapWords];
+        masks.clear();
+    }
+}
@@ -0,0 +1,408 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Compiles a rule expression into a plain {@link Predicate} over records, so evaluating a
+ * rule is a few direct getter calls and comparisons with no lookups, boxing of facts or
+ * reflection.
+ * <pre>
+ *   expr       := and ( ( "||" | "or" ) and )*
+ *   and        := unary ( ( "&amp;&amp;" | "and" ) unary )*
+ *   unary      := ( "!" | "not" ) unary | "(" expr ")" | "true" | "false" | comparison
+ *   comparison := field ( "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;=" ) literal
+ *               | "hash" ( "startsWith" | "endsWith" | "contains" ) string
+ *   field      := "value" | "timestamp" | "id" | "hash"
+ *   literal    := integer | 'string' | "string" | null
+ * </pre>
+ * {@code value}, {@code timestamp} and {@code id} compare as numbers, {@code hash}
+ * as a string. A comparison involving a missing field is false; test for one with
+ * {@code == null}. Numeric comparisons are normalised to an inclusive range, so each
+ * compiles to one of two lambdas per field.
+ * <p>
+ * Every expression compiles twice from the same parse: to a {@link Predicate} for single
+ * records and to a {@link ColumnPredicate} that evaluates a whole {@link RecordColumns}
+ * batch into a bitmap, where {@code and}, {@code or} and {@code not} become word-wide
+ * bit operations and comparisons become loops over one primitive column.
+ */
+public final class RuleParser {
+
+    private enum Field { VALUE, TIMESTAMP, ID, HASH }
+
+    /** One sub-expression in both compiled forms. */
+    private record Node(Predicate<DataRecordMessage> row, ColumnPredicate columns) {
+    }
+
+    private static final Node TRUE = new Node(record -> true, (columns, out) -> ColumnKernels.fill(out, columns.size()));
+    private static final Node FALSE = new Node(record -> false, (columns, out) -> Arrays.fill(out, 0, columns.words(), 0L));
+
+    private final String source;
+    private final int line;
+    private int pos;
+
+    private RuleParser(String source, int line) {
+        this.source = source;
+        this.line = line;
+    }
+
+    public static Predicate<DataRecordMessage> compile(String expression) {
+        return parse(expression, 1).row();
+    }
+
+    public static ColumnPredicate compileColumns(String expression) {
+        return parse(expression, 1).columns();
+    }
+
+    /**
+     * @param line reported in syntax errors, for expressions read from a rules file
+     */
+    public static CompiledRule compileRule(String name, String expression, int line) {
+        Node node = parse(expression, line);
+        return new CompiledRule(name, expression, node.row(), node.columns());
+    }
+
+    private static Node parse(String expression, int line) {
+        RuleParser parser = new RuleParser(expression, line);
+        Node node = parser.or();
+        parser.skipWhitespace();
+        if (parser.pos < expression.length()) {
+            throw parser.error("unexpected '" + expression.substring(parser.pos) + "'");
+        }
+        return node;
+    }
+
+    private Node or() {
+        Node left = and();
+        while (accept("||") || acceptWord("or")) {
+            Node a = left;
+            Node b = and();
+            left = new Node(
+                    record -> a.row().test(record) || b.row().test(record),
+                    (columns, out) -> {
+                        a.columns().evaluate(columns, out);
+                        long[] other = columns.borrow();
+                        b.columns().evaluate(columns, other);
+                        ColumnKernels.or(out, other, columns.words());
+                        columns.release(other);
+                    });
+        }
+        return left;
+    }
+
+    private Node and() {
+        Node left = unary();
+        while (accept("&&") || acceptWord("and")) {
+            Node a = left;
+            Node b = unary();
+            left = new Node(
+                    record -> a.row().test(record) && b.row().test(record),
+                    (columns, out) -> {
+                        a.columns().evaluate(columns, out);
+                        long[] other = columns.borrow();
+                        b.columns().evaluate(columns, other);
+                        ColumnKernels.and(out, other, columns.words());
+                        columns.release(other);
+                    });
+        }
+        return left;
+    }
+
+    private Node unary() {
+        if (accept("!") || acceptWord("not")) {
+            Node operand = unary();
+            return new Node(
+                    record -> !operand.row().test(record),
+                    (columns, out) -> {
+                        operand.columns().evaluate(columns, out);
+                        ColumnKernels.not(out, columns.size());
+                    });
+        }
+        if (accept("(")) {
+            Node inner = or();
+            expect(")");
+            return inner;
+        }
+        if (acceptWord("true")) {
+            return TRUE;
+        }
+        if (acceptWord("false")) {
+            return FALSE;
+        }
+        return comparison();
+    }
+
+    private Node comparison() {
+        skipWhitespace();
+        int fieldAt = pos;
+        String name = word();
+        Field field;
+        switch (name) {
+            case "value" -> field = Field.VALUE;
+            case "timestamp" -> field = Field.TIMESTAMP;
+            case "id" -> field = Field.ID;
+            case "hash" -> field = Field.HASH;
+            default -> {
+                pos = fieldAt;
+                throw error(name.isEmpty() ? "expected a field" : "unknown field '" + name + "'");
+            }
+        }
+
+        if (field == Field.HASH) {
+            if (acceptWord("startsWith")) {
+                String prefix = string();
+                return hashTest(hash -> hash.startsWith(prefix));
+            }
+            if (acceptWord("endsWith")) {
+                String suffix = string();
+                return hashTest(hash -> hash.endsWith(suffix));
+            }
+            if (acceptWord("contains")) {
+                String part = string();
+                return hashTest(hash -> hash.contains(part));
+            }
+        }
+
+        String operator = operator();
+        skipWhitespace();
+        if (acceptWord("null")) {
+            if (!operator.equals("==") && !operator.equals("!=")) {
+                throw error("null only compares with == or !=");
+            }
+            return nullCheck(field, operator.equals("=="));
+        }
+        return field == Field.HASH ? stringComparison(operator, string()) : numericComparison(field, operator, number());
+    }
+
+    private static Node nullCheck(Field field, boolean isNull) {
+        Predicate<DataRecordMessage> row = switch (field) {
+            case VALUE -> isNull ? record -> record.getRandomValue() == null : record -> record.getRandomValue() != null;
+            case TIMESTAMP -> isNull ? record -> record.getTimestamp() == null : record -> record.getTimestamp() != null;
+            case ID -> isNull ? record -> record.getId() == null : record -> record.getId() != null;
+            case HASH -> isNull ? record -> record.getHashValue() == null : record -> record.getHashValue() != null;
+        };
+        ColumnPredicate columns = (batch, out) -> {
+            switch (field) {
+                case VALUE -> System.arraycopy(batch.valuePresent(), 0, out, 0, batch.words());
+                case TIMESTAMP -> System.arraycopy(batch.timestampPresent(), 0, out, 0, batch.words());
+                case ID -> System.arraycopy(batch.idPresent(), 0, out, 0, batch.words());
+                case HASH -> hashBits(batch, out, hash -> true);
+            }
+            if (isNull) {
+                ColumnKernels.not(out, batch.size());
+            }
+        };
+        return new Node(row, columns);
+    }
+
+    private Node numericComparison(Field field, String operator, long literal) {
+        long min = Long.MIN_VALUE;
+        long max = Long.MAX_VALUE;
+        boolean outside = false;
+        switch (operator) {
+            case "==" -> min = max = literal;
+            case "!=" -> {
+                min = max = literal;
+                outside = true;
+            }
+            case "<" -> {
+                if (literal == Long.MIN_VALUE) {
+                    return FALSE;
+                }
+                max = literal - 1;
+            }
+            case "<=" -> max = literal;
+            case ">" -> {
+                if (literal == Long.MAX_VALUE) {
+                    return FALSE;
+                }
+                min = literal + 1;
+            }
+            case ">=" -> min = literal;
+            default -> throw new IllegalStateException(operator);
+        }
+        long lo = min;
+        long hi = max;
+        boolean invert = outside;
+        Predicate<DataRecordMessage> row = switch (field) {
+            case VALUE -> outside
+                    ? record -> {
+                        Integer v = record.getRandomValue();
+                        return v != null && (v < lo || v > hi);
+                    }
+                    : record -> {
+                        Integer v = record.getRandomValue();
+                        return v != null && v >= lo && v <= hi;
+                    };
+            case TIMESTAMP -> outside
+                    ? record -> {
+                        Long v = record.getTimestamp();
+                        return v != null && (v < lo || v > hi);
+                    }
+                    : record -> {
+                        Long v = record.getTimestamp();
+                        return v != null && v >= lo && v <= hi;
+                    };
+            case ID -> outside
+                    ? record -> {
+                        Long v = record.getId();
+                        return v != null && (v < lo || v > hi);
+                    }
+                    : record -> {
+                        Long v = record.getId();
+                        return v != null && v >= lo && v <= hi;
+                    };
+            case HASH -> throw new IllegalStateException("hash is not numeric");
+        };
+        ColumnPredicate columns = switch (field) {
+            case VALUE -> (batch, out) -> {
+                ColumnKernels.intRange(batch.values(), batch.size(), lo, hi, out);
+                present(batch, out, batch.valuePresent(), invert);
+            };
+            case TIMESTAMP -> (batch, out) -> {
+                ColumnKernels.longRange(batch.timestamps(), batch.size(), lo, hi, out);
+                present(batch, out, batch.timestampPresent(), invert);
+            };
+            case ID -> (batch, out) -> {
+                ColumnKernels.longRange(batch.ids(), batch.size(), lo, hi, out);
+                present(batch, out, batch.idPresent(), invert);
+            };
+            case HASH -> throw new IllegalStateException("hash is not numeric");
+        };
+        return new Node(row, columns);
+    }
+
+    /** Inverts an in-range bitmap if asked, then drops records missing the field. */
+    private static void present(RecordColumns batch, long[] out, long[] present, boolean invert) {
+        if (invert) {
+            ColumnKernels.not(out, batch.size());
+        }
+        ColumnKernels.and(out, present, batch.words());
+    }
+
+    private static Node stringComparison(String operator, String literal) {
+        return hashTest(switch (operator) {
+            case "==" -> literal::equals;
+            case "!=" -> hash -> !hash.equals(literal);
+            case "<" -> hash -> hash.compareTo(literal) < 0;
+            case "<=" -> hash -> hash.compareTo(literal) <= 0;
+            case ">" -> hash -> hash.compareTo(literal) > 0;
+            case ">=" -> hash -> hash.compareTo(literal) >= 0;
+            default -> throw new IllegalStateException(operator);
+        });
+    }
+
+    /** A test on the hash, false for records without one. */
+    private static Node hashTest(Predicate<String> test) {
+        return new Node(
+                record -> {
+                    String hash = record.getHashValue();
+                    return hash != null && test.test(hash);
+                },
+                (columns, out) -> hashBits(columns, out, test));
+    }
+
+    private static void hashBits(RecordColumns columns, long[] out, Predicate<String> test) {
+        String[] hashes = columns.hashes();
+        int size = columns.size();
+        for (int w = 0, base = 0; base < size; w++, base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            for (int i = base; i < end; i++) {
+                String hash = hashes[i];
+                if (hash != null && test.test(hash)) {
+                    word |= 1L << (i - base);
+                }
+            }
+            out[w] = word;
+        }
+    }
+
+    private String operator() {
+        skipWhitespace();
+        for (String operator : new String[]{"==", "!=", "<=", ">=", "<", ">"}) {
+            if (source.startsWith(operator, pos)) {
+                pos += operator.length();
+                return operator;
+            }
+        }
+        throw error("expected a comparison operator");
+    }
+
+    private long number() {
+        skipWhitespace();
+        int start = pos;
+        if (pos < source.length() && source.charAt(pos) == '-') {
+            pos++;
+        }
+        while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+            pos++;
+        }
+        try {
+            return Long.parseLong(source.substring(start, pos));
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error("expected a number");
+        }
+    }
+
+    private String string() {
+        skipWhitespace();
+        if (pos >= source.length() || (source.charAt(pos) != '\'' && source.charAt(pos) != '"')) {
+            throw error("expected a quoted string");
+        }
+        char quote = source.charAt(pos);
+        int end = source.indexOf(quote, pos + 1);
+        if (end < 0) {
+            throw error("unterminated string");
+        }
+        String value = source.substring(pos + 1, end);
+        pos = end + 1;
+        return value;
+    }
+
+    private String word() {
+        int start = pos;
+        while (pos < source.length() && Character.isLetter(source.charAt(pos))) {
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private boolean acceptWord(String keyword) {
+        skipWhitespace();
+        int end = pos + keyword.length();
+        if (source.startsWith(keyword, pos) && (end == source.length() || !Character.isLetterOrDigit(source.charAt(end)))) {
+            pos = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(String token) {
+        skipWhitespace();
+        if (source.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error("expected '" + token + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private RuleSyntaxException error(String message) {
+        return new RuleSyntaxException("line " + line + ", column " + (pos + 1) + ": " + message);
+    }
+}
@@ -0,0 +1,95 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.model.DataRecordMessage;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, ordered list of compiled rules. A record matches the set when any rule
+ * matches it; rules are tried in order and the first match is credited with the hit.
+ * <p>
+ * Source format, one rule per line:
+ * <pre>
+ *   # comment
+ *   high-value: value &gt; 90
+ *   suspicious: hash startsWith 'FF' and value &lt; 10
+ * </pre>
+ * See {@link RuleParser} for the expression grammar.
+ */
+public final class RuleSet {
+
+    public static final RuleSet EMPTY = new RuleSet(List.of(), "", "none", Instant.EPOCH);
+
+    private static final Pattern RULE_LINE = Pattern.compile("([A-Za-z0-9_.-]+)\\s*:(.*)");
+
+    @Getter
+    private final List<CompiledRule> rules;
+    private final CompiledRule[] ordered;
+    @Getter
+    private final String source;
+    /** Where the rules came from, for status reporting. */
+    @Getter
+    private final String origin;
+    @Getter
+    private final Instant loadedAt;
+
+    private RuleSet(List<CompiledRule> rules, String source, String origin, Instant loadedAt) {
+        this.rules = List.copyOf(rules);
+        this.ordered = rules.toArray(new CompiledRule[0]);
+        this.source = source;
+        this.origin = origin;
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * Compiles every rule in {@code source}; any error rejects the whole set.
+     *
+     * @throws RuleSyntaxException naming the offending line
+     */
+    public static RuleSet parse(String source, String origin) {
+        List<CompiledRule> rules = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        String[] lines = source.split("\r?\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Matcher matcher = RULE_LINE.matcher(line);
+            if (!matcher.matches()) {
+                throw new RuleSyntaxException("line " + (i + 1) + ": expected 'name: expression'");
+            }
+            String name = matcher.group(1);
+            if (!names.add(name)) {
+                throw new RuleSyntaxException("line " + (i + 1) + ": duplicate rule '" + name + "'");
+            }
+            String expression = matcher.group(2).strip();
+            rules.add(RuleParser.compileRule(name, expression, i + 1));
+        }
+        return new RuleSet(rules, source, origin, Instant.now());
+    }
+
+    /**
+     * @return the first rule matching {@code record}, or null
+     */
+    public CompiledRule match(DataRecordMessage record) {
+        for (CompiledRule rule : ordered) {
+            if (rule.test(record)) {
+                rule.getHits().increment();
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return ordered.length;
+    }
+}
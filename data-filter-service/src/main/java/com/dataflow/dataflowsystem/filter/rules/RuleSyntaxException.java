@@ -0,0 +1,11 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+/**
+ * A rule source that does not parse; the message says where.
+ */
+public class RuleSyntaxException extends IllegalArgumentException {
+
+    public RuleSyntaxException(String message) {
+        super(message);
+    }
+}
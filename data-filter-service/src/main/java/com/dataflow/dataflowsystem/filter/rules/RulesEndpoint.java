@@ -0,0 +1,60 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import com.dataflow.dataflowsystem.filter.service.RuleEngineService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code GET /actuator/rules} lists the active rules with their hit counts;
+ * {@code POST /actuator/rules} with {@code {"source": "..."}} compiles and activates a new
+ * rule set. Rules posted here replace the file's until the file next changes or the
+ * service restarts.
+ */
+@Component
+@Endpoint(id = "rules")
+public class RulesEndpoint {
+
+    private final RuleEngineService ruleEngineService;
+
+    public RulesEndpoint(RuleEngineService ruleEngineService) {
+        this.ruleEngineService = ruleEngineService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> rules() {
+        return describe(ruleEngineService.getRuleSet());
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> replace(String source) {
+        try {
+            return new WebEndpointResponse<>(describe(ruleEngineService.replace(source, "actuator")));
+        } catch (RuleSyntaxException e) {
+            return new WebEndpointResponse<>(Map.of("error", e.getMessage()), WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+    }
+
+    private static Map<String, Object> describe(RuleSet ruleSet) {
+        List<Map<String, Object>> rules = ruleSet.getRules().stream()
+                .map(rule -> {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("name", rule.getName());
+                    entry.put("expression", rule.getExpression());
+                    entry.put("hits", rule.getHitCount());
+                    return entry;
+                })
+                .toList();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("origin", ruleSet.getOrigin());
+        status.put("loadedAt", ruleSet.getLoadedAt());
+        status.put("rules", rules);
+        return status;
+    }
+}
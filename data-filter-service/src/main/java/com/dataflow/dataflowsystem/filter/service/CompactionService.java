@@ -0,0 +1,378 @@
+package com.dataflow.dataflowsystem.filter.service;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFile;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFormat;
+import com.dataflow.dataflowsystem.filter.sink.SegmentReader;
+import com.dataflow.dataflowsystem.filter.sink.TextRecordFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Merges this instance's closed minute files into hourly or daily archives, and deletes
+ * files older than {@code storage.retention.days}. Merging follows
+ * {@link FileProperties#isCompactionEnabled()}, on for text files and off for segments
+ * unless {@code compaction.enabled} says otherwise; retention always runs.
+ * <p>
+ * A minute file is claimed once its archive window has been over for
+ * {@code compaction.grace-ms}, by renaming it to {@code .compacting} while no writer has it
+ * open. The archive is rebuilt in {@code paths.temp} with the claimed files appended, as
+ * another gzip member for text files or as their blocks for segments, forced to disk and
+ * moved over the old one in {@code paths.archive}; only then are the claimed files deleted.
+ * Claimed files left by a crash are picked up by the next pass. A crash between the move
+ * and the deletes appends those files again, so readers should skip repeated record IDs.
+ * <p>
+ * Passes run on a single low-priority thread, throttled to
+ * {@code compaction.max-bytes-per-second}, so they never hold up {@code writeBatch}.
+ */
+@Service
+@Slf4j
+public class CompactionService {
+
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm");
+    private static final int MINUTE_PREFIX = 16;
+    private static final String CLAIMED = ".compacting";
+    private static final String STAGED = ".staged";
+    private static final String TEXT_ARCHIVE = TextRecordFile.EXTENSION + ".gz";
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final FileProperties properties;
+    private final FileWriterService fileWriter;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ScheduledExecutorService executor;
+    private final Throttle throttle;
+    private final AtomicLong lagMs = new AtomicLong();
+    private volatile boolean warnedNotAtomic;
+
+    private final Counter compactionReclaimed;
+    private final Counter retentionReclaimed;
+    private final Counter filesCompacted;
+    private final Timer passes;
+
+    private record MinuteFile(Path path, String archiveName, long windowEnd, boolean claimed) {
+    }
+
+    public CompactionService(FileProperties properties, FileWriterService fileWriter, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.fileWriter = fileWriter;
+        this.throttle = new Throttle(properties.getCompaction().getMaxBytesPerSecond());
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        this.compactionReclaimed = Counter.builder("filter.compaction.bytes.reclaimed")
+                .description("Disk space freed by compressing minute files or deleting expired files")
+                .baseUnit("bytes")
+                .tag("reason", "compaction")
+                .register(meterRegistry);
+        this.retentionReclaimed = Counter.builder("filter.compaction.bytes.reclaimed")
+                .description("Disk space freed by compressing minute files or deleting expired files")
+                .baseUnit("bytes")
+                .tag("reason", "retention")
+                .register(meterRegistry);
+        this.filesCompacted = Counter.builder("filter.compaction.files")
+                .description("Minute files merged into archives")
+                .register(meterRegistry);
+        this.passes = Timer.builder("filter.compaction.duration")
+                .description("Time per compaction and retention pass")
+                .register(meterRegistry);
+        Gauge.builder("filter.compaction.lag", lagMs, lag -> lag.get() / 1000.0)
+                .description("How long the oldest minute file due for compaction has been waiting")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        FileProperties.Compaction compaction = properties.getCompaction();
+        executor.scheduleWithFixedDelay(this::runPass, compaction.getIntervalMs(), compaction.getIntervalMs(),
+                TimeUnit.MILLISECONDS);
+        if (properties.isCompactionEnabled()) {
+            log.info("Compacting closed files into {} archives in {}", compaction.getGranularity().name().toLowerCase(),
+                    properties.getPaths().getArchive());
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void runPass() {
+        Timer.Sample sample = Timer.start();
+        try {
+            if (properties.isCompactionEnabled()) {
+                compact();
+            }
+            applyRetention();
+        } catch (Exception e) {
+            log.error("Compaction pass failed: {}", e.getMessage(), e);
+        } finally {
+            sample.stop(passes);
+        }
+    }
+
+    /**
+     * Merges every minute file whose archive window is over into its archive.
+     */
+    public void compact() throws IOException {
+        Path filtered = Path.of(properties.getPaths().getFiltered());
+        Path archive = Files.createDirectories(Path.of(properties.getPaths().getArchive()));
+        Path temp = Files.createDirectories(Path.of(properties.getPaths().getTemp()));
+        long now = System.currentTimeMillis();
+        long due = now - properties.getCompaction().getGraceMs();
+
+        Map<String, List<Path>> claimedByArchive = new TreeMap<>();
+        long oldestWaiting = Long.MAX_VALUE;
+        for (Path path : list(filtered)) {
+            MinuteFile file = parse(path);
+            if (file == null || (!file.claimed && file.windowEnd > due)) {
+                continue;
+            }
+            Path claimed = file.path;
+            if (!file.claimed) {
+                String name = path.getFileName().toString();
+                if (!fileWriter.renameIfClosed(name, name + CLAIMED)) {
+                    oldestWaiting = Math.min(oldestWaiting, file.windowEnd);
+                    continue;
+                }
+                claimed = path.resolveSibling(name + CLAIMED);
+            }
+            claimedByArchive.computeIfAbsent(file.archiveName, name -> new ArrayList<>()).add(claimed);
+        }
+
+        for (Map.Entry<String, List<Path>> entry : claimedByArchive.entrySet()) {
+            try {
+                merge(entry.getValue(), archive.resolve(entry.getKey()), temp.resolve(entry.getKey() + STAGED));
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                log.error("Failed to compact {} files into {}: {}", entry.getValue().size(), entry.getKey(), e.getMessage());
+                for (Path claimed : entry.getValue()) {
+                    MinuteFile file = parse(claimed);
+                    oldestWaiting = Math.min(oldestWaiting, file == null ? now : file.windowEnd);
+                }
+            }
+        }
+        lagMs.set(oldestWaiting == Long.MAX_VALUE ? 0 : Math.max(0, due - oldestWaiting));
+    }
+
+    /**
+     * Deletes archives and minute files last modified more than {@code retention.days} ago.
+     */
+    public void applyRetention() throws IOException {
+        FileProperties.Retention retention = properties.getRetention();
+        if (retention == null || retention.getDays() == null || retention.getDays() <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retention.getDays());
+        List<Path> candidates = new ArrayList<>(list(Path.of(properties.getPaths().getArchive())));
+        for (Path path : list(Path.of(properties.getPaths().getFiltered()))) {
+            if (minuteStart(path.getFileName().toString()) != null) {
+                candidates.add(path);
+            }
+        }
+        for (Path path : candidates) {
+            try {
+                if (Files.isRegularFile(path) && Files.getLastModifiedTime(path).toMillis() < cutoff) {
+                    long size = Files.size(path);
+                    if (Files.deleteIfExists(path)) {
+                        retentionReclaimed.increment(size);
+                        log.info("Deleted expired file: {}", path);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to delete expired file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds {@code target} in {@code staged} with {@code sources} appended, moves it into
+     * place and deletes the sources.
+     */
+    private void merge(List<Path> sources, Path target, Path staged) throws IOException {
+        Files.deleteIfExists(staged);
+        long before = Files.exists(target) ? Files.size(target) : 0;
+        if (before > 0) {
+            copy(target, staged);
+        }
+        long sourceBytes = 0;
+        if (target.getFileName().toString().endsWith(SegmentFormat.EXTENSION)) {
+            SegmentFile segment = SegmentFile.open(staged, false, properties.getSegmentBlockRecords());
+            try {
+                for (Path source : sources) {
+                    sourceBytes += Files.size(source);
+                    throttle.acquire(Files.size(source));
+                    segment.append(SegmentReader.open(source));
+                }
+            } finally {
+                segment.close();
+            }
+        } else {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(staged,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), COPY_BUFFER_BYTES)) {
+                for (Path source : sources) {
+                    sourceBytes += Files.size(source);
+                    try (InputStream in = Files.newInputStream(source)) {
+                        transfer(in, out);
+                    }
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        move(staged, target);
+        for (Path source : sources) {
+            Files.delete(source);
+        }
+
+        long added = Files.size(target) - before;
+        compactionReclaimed.increment(Math.max(0, sourceBytes - added));
+        filesCompacted.increment(sources.size());
+        log.info("Compacted {} files ({} bytes) into {} (+{} bytes)", sources.size(), sourceBytes, target, added);
+    }
+
+    private void copy(Path source, Path target) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = Files.newOutputStream(target)) {
+            transfer(in, out);
+        }
+    }
+
+    private void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            throttle.acquire(read);
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private void move(Path staged, Path target) throws IOException {
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            if (!warnedNotAtomic) {
+                warnedNotAtomic = true;
+                log.warn("{} and {} are on different file systems; archives are not replaced atomically",
+                        staged.getParent(), target.getParent());
+            }
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A minute file of this instance, claimed or not, or null for any other file.
+     */
+    private MinuteFile parse(Path path) {
+        String name = path.getFileName().toString();
+        boolean claimed = name.endsWith(CLAIMED);
+        if (claimed) {
+            name = name.substring(0, name.length() - CLAIMED.length());
+        }
+        String extension = name.endsWith(SegmentFormat.EXTENSION) ? SegmentFormat.EXTENSION
+                : name.endsWith(TextRecordFile.EXTENSION) ? TextRecordFile.EXTENSION
+                : null;
+        LocalDateTime minute = minuteStart(name);
+        if (extension == null || minute == null
+                || !name.substring(MINUTE_PREFIX).equals("-" + fileWriter.getInstanceId() + extension)) {
+            return null;
+        }
+
+        ZonedDateTime windowEnd;
+        String window;
+        if (properties.getCompaction().getGranularity() == FileProperties.Granularity.DAILY) {
+            windowEnd = minute.toLocalDate().plusDays(1).atStartOfDay(zone);
+            window = name.substring(0, 10);
+        } else {
+            windowEnd = minute.withMinute(0).plusHours(1).atZone(zone);
+            window = name.substring(0, 13);
+        }
+        String archiveName = window + "-" + fileWriter.getInstanceId()
+                + (extension.equals(SegmentFormat.EXTENSION) ? SegmentFormat.EXTENSION : TEXT_ARCHIVE);
+        return new MinuteFile(path, archiveName, windowEnd.toInstant().toEpochMilli(), claimed);
+    }
+
+    private static LocalDateTime minuteStart(String name) {
+        if (name.length() <= MINUTE_PREFIX || name.charAt(MINUTE_PREFIX) != '-') {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(name.substring(0, MINUTE_PREFIX), MINUTE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    /**
+     * Paces one thread's IO to a byte rate by sleeping off what it has used.
+     */
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private long nextFreeNanos = System.nanoTime();
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long bytes) throws InterruptedIOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now) + bytes * 1_000_000_000L / bytesPerSecond;
+            try {
+                TimeUnit.NANOSECONDS.sleep(nextFreeNanos - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compaction interrupted");
+            }
+        }
+    }
+}
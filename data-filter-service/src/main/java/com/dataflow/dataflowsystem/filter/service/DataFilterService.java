@@ -1,28 +1,155 @@
 package com.dataflow.dataflowsystem.filter.service;
 
 import com.dataflow.dataflowsystem.filter.aop.MonitorMetrics;
+import com.dataflow.dataflowsystem.filter.config.PipelineProperties;
+import com.dataflow.dataflowsystem.filter.pipeline.DuplicateFilter;
+import com.dataflow.dataflowsystem.filter.pipeline.PipelineStage;
+import com.dataflow.dataflowsystem.filter.pipeline.ThreadPerTaskDispatcher;
+import com.dataflow.dataflowsystem.filter.rules.RecordColumns;
 import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Routes each batch with the rule engine: records matching a rule go to Kafka, the rest to
+ * files. A batch is transposed into primitive columns and evaluated as a whole into a
+ * selection bitmap, which then splits it into the two sub-batches. With
+ * {@code pipeline.dedup.enabled}, records seen within the dedup window are dropped first.
+ * <p>
+ * Submitted batches run through a staged pipeline so the socket reader only decodes:
+ * {@code evaluate} workers route batches onto the {@code kafka} and {@code files} sink
+ * stages, whose workers combine queued sub-batches into larger sends and writes. Every
+ * stage queue is bounded, so a slow broker or disk fills its queue, then the evaluate
+ * queue, and finally blocks the socket reader; Kafka workers block once the producer's
+ * in-flight window is full. A batch counts as processed once both of its parts have been
+ * sunk, the Kafka part when the broker has acknowledged it.
+ * <p>
+ * With {@code pipeline.sink-mode: virtual} the stages are bypassed: each batch is routed on
+ * a virtual thread of its own, which sends the Kafka part on a forked virtual thread while
+ * it writes the file part, and completes once both are done. Sinks then block only their
+ * own batch, and the number of batches in flight, not a worker count, bounds the work.
+ */
 @Service
 @Slf4j
 public class DataFilterService implements DataProcessor {
+    private final ThreadLocal<RecordColumns> columns = ThreadLocal.withInitial(RecordColumns::new);
     private final KafkaProducerService kafkaProducer;
     private final FileWriterService fileWriter;
     private final RuleEngineService ruleEngineService;
+    private final PipelineProperties properties;
+    private final PipelineStage<Batch> evaluateStage;
+    private final PipelineStage<Part> kafkaStage;
+    private final PipelineStage<Part> fileStage;
+    /** Set only in virtual sink mode. */
+    private final ThreadPerTaskDispatcher dispatcher;
+    /** Column buffers for virtual threads, which would each get a fresh thread-local one. */
+    private final Queue<RecordColumns> columnPool = new ConcurrentLinkedQueue<>();
+    /** Set only with {@code pipeline.dedup.enabled}. */
+    private final DuplicateFilter duplicates;
 
     public DataFilterService(
             KafkaProducerService kafkaProducer,
             FileWriterService fileWriter,
-            RuleEngineService ruleEngineService) {
+            RuleEngineService ruleEngineService,
+            PipelineProperties properties,
+            MeterRegistry meterRegistry) {
         this.kafkaProducer = kafkaProducer;
         this.fileWriter = fileWriter;
         this.ruleEngineService = ruleEngineService;
+        this.properties = properties;
+        this.evaluateStage = new PipelineStage<>("evaluate", properties.getQueueCapacity(),
+                properties.getEvaluateWorkers(), 1, batch -> batch.records.size(), this::evaluate, meterRegistry);
+        this.kafkaStage = new PipelineStage<>("kafka", properties.getQueueCapacity(),
+                properties.getKafkaWorkers(), properties.getMaxSinkBatchRecords(), part -> part.records.size(),
+                this::sendToKafka, meterRegistry);
+        this.fileStage = new PipelineStage<>("files", properties.getQueueCapacity(),
+                properties.getFileWorkers(), properties.getMaxSinkBatchRecords(), part -> part.records.size(),
+                this::writeToFiles, meterRegistry);
+        this.dispatcher = properties.getSinkMode() == PipelineProperties.SinkMode.VIRTUAL
+                ? virtualDispatcher(properties, meterRegistry)
+                : null;
+        PipelineProperties.Dedup dedup = properties.getDedup();
+        this.duplicates = dedup.isEnabled()
+                ? new DuplicateFilter(dedup.getWindow(), dedup.getExpectedRecords(), dedup.getFalsePositiveRate(), meterRegistry)
+                : null;
+    }
+
+    private static ThreadPerTaskDispatcher virtualDispatcher(PipelineProperties properties, MeterRegistry meterRegistry) {
+        return ThreadPerTaskDispatcher.virtualThreads("sink-")
+                .map(threads -> new ThreadPerTaskDispatcher("virtual", properties.getMaxConcurrentBatches(),
+                        threads, meterRegistry))
+                .orElseGet(() -> {
+                    log.warn("Virtual sink mode needs Java 21, running on {}; using platform stages",
+                            Runtime.version());
+                    return null;
+                });
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isEnabled() && dispatcher == null) {
+            fileStage.start();
+            kafkaStage.start();
+            evaluateStage.start();
+        }
+    }
+
+    /**
+     * Lets queued batches drain, upstream stages first.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.stop(properties.getDrainTimeout());
+        } else if (properties.isEnabled()) {
+            evaluateStage.stop(properties.getDrainTimeout());
+            kafkaStage.stop(properties.getDrainTimeout());
+            fileStage.stop(properties.getDrainTimeout());
+        }
+    }
+
+    /**
+     * Queues the batch for the pipeline, blocking while the evaluate stage is full, or in
+     * virtual mode while {@code max-concurrent-batches} are in flight.
+     */
+    @Override
+    public void submitBatch(List<DataRecordMessage> records, Runnable onProcessed) {
+        if (!properties.isEnabled()) {
+            DataProcessor.super.submitBatch(records, onProcessed);
+            return;
+        }
+        if (records == null || records.isEmpty()) {
+            onProcessed.run();
+            return;
+        }
+        try {
+            // The caller may reuse its list once this returns
+            List<DataRecordMessage> copy = new ArrayList<>(records);
+            if (dispatcher != null) {
+                dispatcher.submit(() -> dispatch(copy, onProcessed));
+            } else {
+                evaluateStage.put(new Batch(copy, onProcessed));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onProcessed.run();
+            log.warn("Interrupted while queueing a batch of {} records, dropping it", records.size());
+        }
     }
 
+    /**
+     * Routes and sinks the batch on the calling thread.
+     */
     @Override
     @MonitorMetrics(value = "data_filter", operation = "process_batch")
     public void processBatch(List<DataRecordMessage> records) {
@@ -31,25 +158,16 @@ public class DataFilterService implements DataProcessor {
         }
 
         try {
-            List<DataRecordMessage> kafkaMessages = new ArrayList<>();
-            List<DataRecordMessage> fileMessages = new ArrayList<>();
-
-            records.forEach(record -> {
-                if (ruleEngineService.evaluateRules(record)) {
-                    kafkaMessages.add(record);
-                } else {
-                    fileMessages.add(record);
-                }
-            });
+            Routed routed = route(records, columns.get());
 
-            if (!kafkaMessages.isEmpty()) {
-                kafkaProducer.sendBatch(kafkaMessages);
-                log.info("Sent batch of {} messages to database queue and mongodb queue", kafkaMessages.size());
+            if (!routed.kafka.isEmpty()) {
+                kafkaProducer.sendBatch(routed.kafka).join();
+                log.info("Sent batch of {} messages to database queue and mongodb queue", routed.kafka.size());
             }
 
-            if (!fileMessages.isEmpty()) {
-                fileWriter.writeBatch(fileMessages);
-                log.info("Written batch of {} messages to file", fileMessages.size());
+            if (!routed.files.isEmpty()) {
+                fileWriter.writeBatch(routed.files);
+                log.info("Written batch of {} messages to file", routed.files.size());
             }
 
         } catch (Exception e) {
@@ -57,4 +175,156 @@ public class DataFilterService implements DataProcessor {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    private Routed route(List<DataRecordMessage> batchRecords, RecordColumns batch) {
+        List<DataRecordMessage> records = duplicates == null ? batchRecords : duplicates.filter(batchRecords);
+        if (records.isEmpty()) {
+            return new Routed(List.of(), List.of());
+        }
+        batch.load(records);
+        long[] selection = ruleEngineService.select(batch);
+
+        int selected = 0;
+        for (int w = 0; w < batch.words(); w++) {
+            selected += Long.bitCount(selection[w]);
+        }
+        List<DataRecordMessage> kafkaMessages = new ArrayList<>(selected);
+        List<DataRecordMessage> fileMessages = new ArrayList<>(records.size() - selected);
+        for (int i = 0; i < records.size(); i++) {
+            if ((selection[i >>> 6] & (1L << i)) != 0) {
+                kafkaMessages.add(records.get(i));
+            } else {
+                fileMessages.add(records.get(i));
+            }
+        }
+        return new Routed(kafkaMessages, fileMessages);
+    }
+
+    private void evaluate(List<Batch> batches) {
+        for (Batch batch : batches) {
+            try {
+                Routed routed = route(batch.records, columns.get());
+                batch.parts.set((routed.kafka.isEmpty() ? 0 : 1) + (routed.files.isEmpty() ? 0 : 1));
+                if (batch.parts.get() == 0) {
+                    // Every record was a duplicate
+                    batch.onProcessed.run();
+                }
+                if (!routed.kafka.isEmpty()) {
+                    kafkaStage.put(new Part(routed.kafka, batch));
+                }
+                if (!routed.files.isEmpty()) {
+                    fileStage.put(new Part(routed.files, batch));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.onProcessed.run();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Error routing batch of {} records: {}", batch.records.size(), e.getMessage(), e);
+                batch.onProcessed.run();
+            }
+        }
+    }
+
+    /**
+     * One batch in virtual mode, on its own virtual thread.
+     */
+    private void dispatch(List<DataRecordMessage> records, Runnable onProcessed) {
+        RecordColumns batch = columnPool.poll();
+        if (batch == null) {
+            batch = new RecordColumns();
+        }
+        try {
+            Routed routed = route(records, batch);
+            if (routed.files.isEmpty()) {
+                sendRecords(routed.kafka).join();
+            } else if (routed.kafka.isEmpty()) {
+                writeRecords(routed.files);
+            } else {
+                dispatcher.forkJoin(() -> sendRecords(routed.kafka).join(), () -> writeRecords(routed.files));
+            }
+        } catch (RuntimeException e) {
+            log.error("Error routing batch of {} records: {}", records.size(), e.getMessage(), e);
+        } finally {
+            columnPool.offer(batch);
+            onProcessed.run();
+        }
+    }
+
+    /**
+     * Returns once the records are sent; the parts are done when Kafka has acknowledged them.
+     */
+    private void sendToKafka(List<Part> parts) {
+        sendRecords(merge(parts)).whenComplete((ignored, e) -> parts.forEach(Part::done));
+    }
+
+    private void writeToFiles(List<Part> parts) {
+        try {
+            writeRecords(merge(parts));
+        } finally {
+            parts.forEach(Part::done);
+        }
+    }
+
+    /**
+     * Completes, never exceptionally, once the records are acknowledged or have failed.
+     */
+    private CompletableFuture<Void> sendRecords(List<DataRecordMessage> records) {
+        try {
+            return kafkaProducer.sendBatch(records).handle((ignored, e) -> {
+                if (e == null) {
+                    log.info("Sent batch of {} messages to database queue and mongodb queue", records.size());
+                } else {
+                    log.error("Error sending batch of {} records to Kafka: {}", records.size(), e.getMessage());
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Error sending batch of {} records to Kafka: {}", records.size(), e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void writeRecords(List<DataRecordMessage> records) {
+        try {
+            fileWriter.writeBatch(records);
+            log.info("Written batch of {} messages to file", records.size());
+        } catch (RuntimeException e) {
+            log.error("Error writing batch of {} records to file: {}", records.size(), e.getMessage());
+        }
+    }
+
+    private static List<DataRecordMessage> merge(List<Part> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0).records;
+        }
+        List<DataRecordMessage> records = new ArrayList<>(parts.stream().mapToInt(part -> part.records.size()).sum());
+        parts.forEach(part -> records.addAll(part.records));
+        return records;
+    }
+
+    private record Routed(List<DataRecordMessage> kafka, List<DataRecordMessage> files) {
+    }
+
+    /** A submitted batch, complete once each of its routed parts has been sunk. */
+    private static final class Batch {
+        private final List<DataRecordMessage> records;
+        private final Runnable onProcessed;
+        private final AtomicInteger parts = new AtomicInteger();
+
+        private Batch(List<DataRecordMessage> records, Runnable onProcessed) {
+            this.records = records;
+            this.onProcessed = onProcessed;
+        }
+    }
+
+    /** The records of a batch bound for one sink. */
+    private record Part(List<DataRecordMessage> records, Batch batch) {
+
+        void done() {
+            if (batch.parts.decrementAndGet() == 0) {
+                batch.onProcessed.run();
+            }
+        }
+    }
+}
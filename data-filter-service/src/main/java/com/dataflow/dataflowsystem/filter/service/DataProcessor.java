@@ -7,4 +7,18 @@ import java.util.List;
 
 public interface DataProcessor {
     void processBatch(List<DataRecordMessage> record);
+
+    /**
+     * Accepts a batch that may be processed later on another thread; {@code records} is
+     * only read before this returns. The default processes it right away.
+     *
+     * @param onProcessed run once the batch has been processed, whether or not successfully
+     */
+    default void submitBatch(List<DataRecordMessage> records, Runnable onProcessed) {
+        try {
+            processBatch(records);
+        } finally {
+            onProcessed.run();
+        }
+    }
 }
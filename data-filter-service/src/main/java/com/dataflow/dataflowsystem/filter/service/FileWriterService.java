@@ -1,6 +1,13 @@
 package com.dataflow.dataflowsystem.filter.service;
 
 import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.sink.DirectBufferPool;
+import com.dataflow.dataflowsystem.filter.sink.FileIndex;
+import com.dataflow.dataflowsystem.filter.sink.GroupCommitFile;
+import com.dataflow.dataflowsystem.filter.sink.RecordFile;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFile;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFormat;
+import com.dataflow.dataflowsystem.filter.sink.TextRecordFile;
 import com.dataflow.model.DataRecordMessage;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
@@ -10,31 +17,63 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Appends filtered records to one file per minute window and instance, as CSV lines or
+ * compressed binary segments ({@code storage.format}). Records are encoded by the calling
+ * thread, and each file is a {@link GroupCommitFile}, so batches written to the same file
+ * at the same time go out in one write. How often data is forced to disk is
+ * {@code storage.durability}.
+ * <p>
+ * Every file written since startup has a sparse {@link FileIndex}, kept until the file is
+ * compacted or deleted, so time-range queries read only the parts of a file they need.
+ */
 @Service
 @Slf4j
 public class FileWriterService {
     private static final String DATE_FORMAT = "yyyy-MM-dd-HH";
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm")  // Group by minute
+            .withZone(ZoneId.systemDefault());
+    private static final long MINUTE_MS = 60_000L;
+    private static final int PATH_CACHE_SIZE = 64;
+
     private final FileProperties properties;
     @Getter
-    private final Map<String, BufferedWriter> writers = new ConcurrentHashMap<>();
+    private final Map<String, RecordFile> files = new ConcurrentHashMap<>();
+    private final Map<String, FileIndex> indexes = new ConcurrentHashMap<>();
+    @Getter
     private final String instanceId;
+    private final DirectBufferPool bufferPool;
+    // Locks rather than monitors: a virtual thread blocked on file IO inside synchronized
+    // would pin its carrier thread
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    // Racy on purpose: entries are immutable and a lost update only means formatting again
+    private final MinutePath[] pathCache = new MinutePath[PATH_CACHE_SIZE];
+
+    private record MinutePath(long minute, String path) {
+    }
 
     public FileWriterService(FileProperties properties) {
         this.properties = properties;
+        this.bufferPool = new DirectBufferPool(properties.getBufferBytes(), properties.getPooledBuffers());
         String hostname;
         try {
             hostname = InetAddress.getLocalHost().getHostName();
@@ -68,7 +107,7 @@ public class FileWriterService {
         String currentTimeWindow = DateTimeFormatter.ofPattern(DATE_FORMAT)
                 .format(Instant.now().atZone(ZoneId.systemDefault()));
 
-        writers.entrySet().removeIf(entry -> {
+        files.entrySet().removeIf(entry -> {
             if (!entry.getKey().contains(currentTimeWindow)) {
                 try {
                     entry.getValue().close();
@@ -80,10 +119,14 @@ public class FileWriterService {
             }
             return false;
         });
+        indexes.keySet().removeIf(filePath -> !files.containsKey(filePath) && !Files.exists(Path.of(filePath)));
     }
 
-    @Scheduled(fixedRate = 5000)
+    @Scheduled(fixedRateString = "${storage.flush-interval-ms:5000}")
     public void periodicFlush() {
+        if (properties.getDurability() != FileProperties.Durability.PERIODIC) {
+            return;
+        }
         try {
             flushAllBuffers();
         } catch (Exception e) {
@@ -91,30 +134,42 @@ public class FileWriterService {
         }
     }
 
-    public synchronized void closeAllWriters() {
-        writers.values().forEach(writer -> {
-            try {
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                log.error("Error closing writer: {}", e.getMessage());
-            }
-        });
-        writers.clear();
+    public void closeAllWriters() {
+        maintenanceLock.lock();
+        try {
+            files.values().forEach(file -> {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    log.error("Error closing writer: {}", e.getMessage());
+                }
+            });
+            files.clear();
+        } finally {
+            maintenanceLock.unlock();
+        }
     }
 
-    public synchronized void flushAllBuffers() {
-        writers.forEach((filePath, writer) -> {
-            try {
-                synchronized (writer) {
-                    writer.flush();
-                    log.debug("Flushed buffer for file: {}", filePath);
+    /**
+     * Forces everything written so far to disk.
+     */
+    public void flushAllBuffers() {
+        maintenanceLock.lock();
+        try {
+            files.forEach((filePath, file) -> {
+                try {
+                    file.sync();
+                    log.debug("Synced file: {}", filePath);
+                } catch (ClosedChannelException e) {
+                    // Closed by the cleanup since; closing wrote it out
+                } catch (IOException e) {
+                    log.error("Error flushing buffer for file {}: {}", filePath, e.getMessage());
+                    discard(filePath, file);
                 }
-            } catch (IOException e) {
-                log.error("Error flushing buffer for file {}: {}", filePath, e.getMessage());
-                writers.remove(filePath);
-            }
-        });
+            });
+        } finally {
+            maintenanceLock.unlock();
+        }
     }
 
     @Retry(name = "fileWriterRetry", fallbackMethod = "fallbackWriteBatch")
@@ -124,67 +179,129 @@ public class FileWriterService {
             return;
         }
 
-        Map<String, List<DataRecordMessage>> recordsByPath = records.stream()
-                .collect(Collectors.groupingBy(this::generateFilePath));
+        Map<String, List<DataRecordMessage>> recordsByPath = new HashMap<>(4);
+        List<DataRecordMessage> pathRecords = null;
+        long minute = 0;
+        for (DataRecordMessage record : records) {
+            long recordMinute = Math.floorDiv(record.getTimestamp(), MINUTE_MS);
+            if (pathRecords == null || recordMinute != minute) {
+                minute = recordMinute;
+                pathRecords = recordsByPath.computeIfAbsent(pathFor(minute), path -> new ArrayList<>(records.size()));
+            }
+            pathRecords.add(record);
+        }
+        recordsByPath.forEach(this::append);
+    }
+
+    public void fallbackWriteBatch(List<DataRecordMessage> records, Throwable t) {
+        log.warn("File write failed after retries: {}", t.getMessage(), t);
+    }
 
-        recordsByPath.forEach((filePath, pathRecords) -> {
-            BufferedWriter writer = null;
+    private void append(String filePath, List<DataRecordMessage> pathRecords) {
+        try {
+            RecordFile file = files.computeIfAbsent(filePath, this::open);
             try {
-                writer = writers.computeIfAbsent(filePath, this::createWriter);
-                synchronized (writer) {
-                    for (DataRecordMessage record : pathRecords) {
-                        writer.write(formatRecord(record));
-                    }
-                    writer.flush();
-                }
-                log.debug("Successfully wrote batch of {} records to file: {}", pathRecords.size(), filePath);
-            } catch (Exception e) {
-                log.error("Error writing batch to file {}: {}", filePath, e.getMessage());
-                if (writer != null) {
-                    writers.remove(filePath);
+                file.write(pathRecords);
+            } catch (ClosedChannelException e) {
+                // Closed by the cleanup between lookup and write; nothing was written
+                files.remove(filePath, file);
+                files.computeIfAbsent(filePath, this::open).write(pathRecords);
+            }
+            log.debug("Successfully wrote batch of {} records to file: {}", pathRecords.size(), filePath);
+        } catch (Exception e) {
+            log.error("Error writing batch to file {}: {}", filePath, e.getMessage());
+            RecordFile failed = files.get(filePath);
+            if (failed != null) {
+                discard(filePath, failed);
+            }
+            throw new RuntimeException("File write error", e);  // Ensure circuit breaker tracks the failure
+        }
+    }
+
+    /**
+     * Renames a file in the filtered directory, unless a writer has it open, and keeps
+     * writers from opening it meanwhile. A record that arrives for it later starts a new
+     * file under the old name.
+     *
+     * @return whether the file was renamed
+     */
+    public boolean renameIfClosed(String fileName, String newName) throws IOException {
+        String directoryPath = properties.getPaths().getFiltered();
+        boolean[] renamed = {false};
+        try {
+            files.compute(directoryPath + "/" + fileName, (filePath, open) -> {
+                if (open == null) {
                     try {
-                        writer.close();
-                    } catch (IOException ioe) {
-                        log.error("Error closing failed writer: {}", ioe.getMessage());
+                        Files.move(Path.of(filePath), Path.of(directoryPath, newName), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                    indexes.remove(filePath);
+                    renamed[0] = true;
                 }
-                throw new RuntimeException("File write error", e);  // Ensure circuit breaker tracks the failure
-            }
-        });
+                return open;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return renamed[0];
     }
 
-
-
-    public void fallbackWriteBatch(List<DataRecordMessage> records, Throwable t) {
-        log.warn("File write failed after retries: {}", t.getMessage(), t);
+    /**
+     * The index of a file in the filtered directory, or null if it has not been written
+     * since startup.
+     */
+    public FileIndex getIndex(String fileName) {
+        return indexes.get(properties.getPaths().getFiltered() + "/" + fileName);
     }
 
-    public BufferedWriter createWriter(String filePath) {
+    private RecordFile open(String filePath) {
+        boolean syncEachGroup = properties.getDurability() == FileProperties.Durability.GROUP;
+        Path path = Path.of(filePath);
+        FileIndex index = indexes.computeIfAbsent(filePath,
+                key -> new FileIndex(properties.getIndexRecords(), !Files.exists(path)));
         try {
-            File file = new File(filePath);
-            File parentDir = file.getParentFile();
-            if (!parentDir.exists() && !parentDir.mkdirs()) {
-                throw new IOException("Failed to create directory: " + parentDir);
-            }
-            return new BufferedWriter(new FileWriter(file, true), 8192); // 8KB buffer
+            return properties.getFormat() == FileProperties.Format.SEGMENT
+                    ? SegmentFile.open(path, syncEachGroup, properties.getSegmentBlockRecords(), index)
+                    : new TextRecordFile(path, syncEachGroup, bufferPool, index);
         } catch (IOException e) {
             throw new RuntimeException("Failed to create writer for file: " + filePath, e);
         }
     }
 
-    private String formatRecord(DataRecordMessage record) {
-        return String.format("%d,%d,%s%n",
-                record.getTimestamp(),
-                record.getRandomValue(),
-                record.getHashValue());
+    private void discard(String filePath, RecordFile file) {
+        if (files.remove(filePath, file)) {
+            // A failed write may have been indexed; the next open starts a partial index
+            indexes.remove(filePath);
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.error("Error closing failed writer: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The file for a minute window, formatted once per minute rather than per record. Epoch
+     * minutes line up with local ones because zone offsets are whole minutes.
+     */
+    private String pathFor(long minute) {
+        int slot = (int) (minute & (PATH_CACHE_SIZE - 1));
+        MinutePath cached = pathCache[slot];
+        if (cached == null || cached.minute != minute) {
+            cached = new MinutePath(minute, generateFilePath(minute * MINUTE_MS));
+            pathCache[slot] = cached;
+        }
+        return cached.path;
     }
 
-    private String generateFilePath(DataRecordMessage record) {
+    private String generateFilePath(long timestamp) {
         String directoryPath = properties.getPaths().getFiltered();
-        String timeWindow = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm")  // Group by minute
-                .format(Instant.ofEpochMilli(record.getTimestamp())
-                        .atZone(ZoneId.systemDefault()));
+        String timeWindow = MINUTE_FORMAT.format(Instant.ofEpochMilli(timestamp));
 
-        return String.format("%s/%s-%s.txt", directoryPath, timeWindow, instanceId);
+        String extension = properties.getFormat() == FileProperties.Format.SEGMENT
+                ? SegmentFormat.EXTENSION
+                : TextRecordFile.EXTENSION;
+        return String.format("%s/%s-%s%s", directoryPath, timeWindow, instanceId, extension);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package com.dataflow.dataflowsystem.filter.service;
+
+import com.dataflow.dataflowsystem.filter.config.FlowControlProperties;
+import com.dataflow.model.ControlMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Grants the generator record credits over the data WebSocket so it never sends more
+ * than this instance can absorb.
+ * <p>
+ * The window is {@code max-in-flight} records while batches are processed within
+ * {@code target-latency}, and shrinks in proportion when the sinks slow down. Credit
+ * granted is the window minus records already granted but not yet received
+ * ({@code outstanding}) and records received but not yet processed ({@code in-flight}).
+ */
+@Service
+@Slf4j
+public class FlowControlService {
+
+    static final int SEND_TIME_LIMIT_MS = 5000;
+    static final int SEND_BUFFER_LIMIT_BYTES = 64 * 1024;
+    /** Weight of the newest sample in the latency moving average. */
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final FlowControlProperties properties;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile WebSocketSession session;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile double latencyNanos;
+    /** Not a monitor: grants are sent from sink threads, which may be virtual, and sending blocks. */
+    private final ReentrantLock grantLock = new ReentrantLock();
+
+    private final Timer sinkLatency;
+    private final Counter creditsGranted;
+    private final Counter stalls;
+
+    public FlowControlService(FlowControlProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        Gauge.builder("flow.control.outstanding", outstanding, AtomicLong::get)
+                .description("Records granted to the generator but not yet received")
+                .register(meterRegistry);
+        Gauge.builder("flow.control.in.flight", inFlight, AtomicLong::get)
+                .description("Records received but not yet processed")
+                .register(meterRegistry);
+        Gauge.builder("flow.control.window", this, FlowControlService::getWindow)
+                .description("Current credit window in records")
+                .register(meterRegistry);
+        this.sinkLatency = Timer.builder("flow.control.batch.latency")
+                .description("Time to process one received batch")
+                .register(meterRegistry);
+        this.creditsGranted = Counter.builder("flow.control.credits.granted")
+                .description("Records of credit granted to the generator")
+                .register(meterRegistry);
+        this.stalls = Counter.builder("flow.control.stalls")
+                .description("Times the generator was left without credit because the window was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts flow control on a new generator session; credit from a previous session is void.
+     * A session already decorated for concurrent sends is used as it is.
+     */
+    public void attach(WebSocketSession generatorSession) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        session = generatorSession instanceof ConcurrentWebSocketSessionDecorator ? generatorSession
+                : new ConcurrentWebSocketSessionDecorator(generatorSession, SEND_TIME_LIMIT_MS, SEND_BUFFER_LIMIT_BYTES);
+        outstanding.set(0);
+        grant();
+    }
+
+    public void detach() {
+        session = null;
+    }
+
+    public void onReceived(int records) {
+        outstanding.updateAndGet(current -> Math.max(0, current - records));
+        inFlight.addAndGet(records);
+    }
+
+    public void onProcessed(int records, long elapsedNanos) {
+        inFlight.addAndGet(-records);
+        sinkLatency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        double previous = latencyNanos;
+        latencyNanos = previous == 0 ? elapsedNanos : previous + LATENCY_ALPHA * (elapsedNanos - previous);
+        grant();
+    }
+
+    @Scheduled(fixedDelayString = "${flow-control.refresh-interval-ms:1000}")
+    public void refresh() {
+        grant();
+    }
+
+    public long getWindow() {
+        long maxInFlight = properties.getMaxInFlight();
+        double target = properties.getTargetLatency().toNanos();
+        if (latencyNanos <= target) {
+            return maxInFlight;
+        }
+        return Math.max(properties.getMinGrant(), (long) (maxInFlight * target / latencyNanos));
+    }
+
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    private void grant() {
+        grantLock.lock();
+        try {
+            grantLocked();
+        } finally {
+            grantLock.unlock();
+        }
+    }
+
+    private void grantLocked() {
+        WebSocketSession current = session;
+        if (current == null || !current.isOpen()) {
+            return;
+        }
+        long available = getWindow() - outstanding.get() - inFlight.get();
+        if (available <= 0) {
+            if (outstanding.get() == 0) {
+                stalls.increment();
+            }
+            return;
+        }
+        // Small top-ups are batched up unless the generator has nothing left to send with
+        if (available < properties.getMinGrant() && outstanding.get() > 0) {
+            return;
+        }
+        // Counted before sending: records sent against this credit may arrive before sendMessage returns
+        outstanding.addAndGet(available);
+        try {
+            current.sendMessage(new TextMessage(objectMapper.writeValueAsString(ControlMessage.credit(available))));
+            creditsGranted.increment(available);
+            log.debug("Granted {} records of credit (in flight: {}, window: {})", available, inFlight.get(), getWindow());
+        } catch (IOException e) {
+            outstanding.addAndGet(-available);
+            log.warn("Failed to send credit to generator: {}", e.getMessage());
+        }
+    }
+}
@@ -1,40 +1,284 @@
 package com.dataflow.dataflowsystem.filter.service;
 
 import com.dataflow.dataflowsystem.filter.aop.MonitorMetrics;
+import com.dataflow.dataflowsystem.filter.config.KafkaPublishProperties;
+import com.dataflow.dataflowsystem.filter.pipeline.InFlightWindow;
+import com.dataflow.dataflowsystem.filter.sink.SpillLog;
 import com.dataflow.model.DataRecordMessage;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Publishes routed records to Kafka without waiting for each send. Records are keyed by
+ * {@code kafka.publish.key}, and {@link #sendBatch} returns a future that completes once the
+ * broker has acknowledged every record of the batch, or fails with the first error, so the
+ * retry and circuit breaker see broker failures. A retried batch is sent again in full, so
+ * records the broker already took may be published twice.
+ * <p>
+ * Sends are bounded by an {@link InFlightWindow} over records and estimated bytes:
+ * {@code sendBatch} blocks until the batch fits, which holds back the pipeline and through
+ * it the generator's credit.
+ * <p>
+ * A broker failure fails the future, so the retry sends the batch again; only an open
+ * circuit breaker or exhausted retries hand it to a fallback. Batches the fallbacks give
+ * up on are appended to a {@link SpillLog} when {@code kafka.publish.spill.directory} is
+ * set, and replayed by {@link SpillDrainer}; they are dropped only when the log is full
+ * or spilling is off.
+ * <p>
+ * Futures complete on a {@code kafka-acks} thread rather than the producer's network thread.
+ * Metrics: {@code kafka.producer.ack.latency} (send to acknowledgement per record),
+ * {@code kafka.producer.in.flight.records} and {@code .bytes}, {@code kafka.producer.blocked}
+ * (batches that waited for the window), {@code kafka.producer.failed} (records the broker
+ * refused), {@code kafka.producer.dropped} (records given up on by the fallbacks and not
+ * spilled), and for the spill log {@code kafka.spill.records}, {@code kafka.spill.bytes},
+ * {@code kafka.spill.oldest.age} and {@code kafka.spill.appended}.
+ */
 @Service
 @Slf4j
 public class KafkaProducerService {
+    /** Rough JSON size of a record apart from its hash. */
+    private static final int RECORD_OVERHEAD_BYTES = 80;
+
     private final KafkaTemplate<String, DataRecordMessage> kafkaTemplate;
+    private final KafkaPublishProperties properties;
+    private final String topic;
+    private final InFlightWindow window;
+    private final ExecutorService ackExecutor;
+    private final Executor acks;
+    /** Null when spilling is off. */
+    private final SpillLog spill;
 
-    @Value("${kafka.topic.name}")
-    private String topic;
+    private final Timer ackLatency;
+    private final Counter blocked;
+    private final Counter failed;
+    private final Counter dropped;
+    private final Counter spilled;
 
-    public KafkaProducerService(KafkaTemplate<String, DataRecordMessage> kafkaTemplate) {
+    public KafkaProducerService(KafkaTemplate<String, DataRecordMessage> kafkaTemplate,
+                                KafkaPublishProperties properties,
+                                MeterRegistry meterRegistry,
+                                @Value("${kafka.topic.name}") String topic) {
         this.kafkaTemplate = kafkaTemplate;
+        this.properties = properties;
+        this.topic = topic;
+        this.window = new InFlightWindow(properties.getMaxInFlightRecords(), properties.getMaxInFlightBytes());
+        this.ackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kafka-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Late acknowledgements during shutdown complete on the network thread instead of hanging
+        this.acks = command -> {
+            try {
+                ackExecutor.execute(command);
+            } catch (RejectedExecutionException e) {
+                command.run();
+            }
+        };
+
+        this.spill = openSpill(properties.getSpill());
+
+        this.ackLatency = Timer.builder("kafka.producer.ack.latency")
+                .description("Time from sending a record to its acknowledgement")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("kafka.producer.in.flight.records", window, InFlightWindow::getRecords)
+                .description("Records sent but not yet acknowledged")
+                .register(meterRegistry);
+        Gauge.builder("kafka.producer.in.flight.bytes", window, InFlightWindow::getBytes)
+                .description("Estimated bytes sent but not yet acknowledged")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.blocked = Counter.builder("kafka.producer.blocked")
+                .description("Batches that waited for room in the in-flight window")
+                .register(meterRegistry);
+        this.failed = Counter.builder("kafka.producer.failed")
+                .description("Records the broker did not acknowledge")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("kafka.producer.dropped")
+                .description("Records given up on after retries or with the circuit open and not spilled")
+                .register(meterRegistry);
+        this.spilled = Counter.builder("kafka.spill.appended")
+                .description("Records appended to the spill log")
+                .register(meterRegistry);
+        if (spill != null) {
+            Gauge.builder("kafka.spill.records", spill, SpillLog::getRecords)
+                    .description("Records in the spill log waiting to be replayed")
+                    .register(meterRegistry);
+            Gauge.builder("kafka.spill.bytes", spill, SpillLog::getBytes)
+                    .description("Encoded size of the records in the spill log")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            Gauge.builder("kafka.spill.oldest.age", spill, KafkaProducerService::oldestAgeSeconds)
+                    .description("Age of the oldest record in the spill log")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    private static SpillLog openSpill(KafkaPublishProperties.Spill properties) {
+        if (properties.getDirectory() == null) {
+            log.warn("No kafka.publish.spill.directory, batches Kafka does not take will be dropped");
+            return null;
+        }
+        try {
+            SpillLog spill = SpillLog.open(Path.of(properties.getDirectory()), properties.getSegmentBytes(),
+                    properties.getMaxBytes());
+            if (spill.getRecords() > 0) {
+                log.info("Spill log in {} holds {} records to replay", properties.getDirectory(), spill.getRecords());
+            }
+            return spill;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spill log in " + properties.getDirectory(), e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        kafkaTemplate.flush();
+        ackExecutor.shutdown();
+        ackExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.error("Error closing spill log: {}", e.getMessage(), e);
+            }
+        }
     }
 
     @CircuitBreaker(name = "kafkaCircuitBreaker", fallbackMethod = "fallbackSendBatch")
     @Retry(name = "kafkaRetry", fallbackMethod = "fallbackRetrySendBatch")
     @MonitorMetrics(value = "kafka", operation = "send_batch")
-    public void sendBatch(List<DataRecordMessage> messages) {
-        messages.forEach(message -> kafkaTemplate.send(topic, message));
-        log.info("Sent {} messages with Kafka’s internal batching.", messages.size());
+    public CompletableFuture<Void> sendBatch(List<DataRecordMessage> messages) {
+        return publish(messages);
+    }
+
+    /**
+     * Sends {@code messages} like {@link #sendBatch}, but without retries, circuit breaker or
+     * spilling: the returned future fails if the broker does.
+     */
+    public CompletableFuture<Void> publish(List<DataRecordMessage> messages) {
+        int count = messages.size();
+        long bytes = estimateBytes(messages);
+        try {
+            if (window.acquire(count, bytes)) {
+                blocked.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long started = System.nanoTime();
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[count];
+        int sent = 0;
+        try {
+            for (; sent < count; sent++) {
+                DataRecordMessage message = messages.get(sent);
+                sends[sent] = kafkaTemplate.send(topic, key(message), message).whenComplete((result, e) -> {
+                    if (e == null) {
+                        ackLatency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    } else {
+                        failed.increment();
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            // The producer refused outright, e.g. metadata unavailable; wait for what did go out
+            failed.increment(count - sent);
+            sends[sent++] = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> acknowledged = CompletableFuture.allOf(sent == count ? sends : Arrays.copyOf(sends, sent));
+        return acknowledged.handleAsync((ignored, e) -> {
+            window.release(count, bytes);
+            if (e != null) {
+                throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+            }
+            log.debug("{} messages acknowledged in {} ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return null;
+        }, acks);
+    }
+
+    /**
+     * Only for calls the open circuit breaker refused; any other failure goes on to the retry.
+     */
+    public CompletableFuture<Void> fallbackSendBatch(List<DataRecordMessage> messages, CallNotPermittedException e) {
+        return spill(messages, "circuit breaker is open", e);
+    }
+
+    public CompletableFuture<Void> fallbackRetrySendBatch(List<DataRecordMessage> messages, Throwable t) {
+        return spill(messages, "failed after retries", t);
+    }
+
+    /**
+     * The log of batches waiting to be replayed, or null when spilling is off.
+     */
+    public SpillLog getSpill() {
+        return spill;
+    }
+
+    private CompletableFuture<Void> spill(List<DataRecordMessage> messages, String reason, Throwable t) {
+        if (spill != null) {
+            try {
+                if (spill.append(messages)) {
+                    spilled.increment(messages.size());
+                    log.debug("Kafka batch of {} messages spilled, {}: {}", messages.size(), reason, t.getMessage());
+                    return CompletableFuture.completedFuture(null);
+                }
+                log.error("Spill log is full at {} bytes", spill.getDiskBytes());
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not spill Kafka batch of {} messages: {}", messages.size(), e.getMessage(), e);
+            }
+        }
+        dropped.increment(messages.size());
+        log.warn("Kafka batch of {} messages dropped, {}. Error: {}", messages.size(), reason, t.getMessage(), t);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static double oldestAgeSeconds(SpillLog spill) {
+        long oldest = spill.getOldestTimestamp();
+        return oldest == SpillLog.NONE ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
     }
 
-    public void fallbackSendBatch(List<DataRecordMessage> messages, Throwable t) {
-        log.warn("Kafka batch send failed after retries. Error: {}", t.getMessage(), t);
+    private String key(DataRecordMessage message) {
+        return switch (properties.getKey()) {
+            case HASH -> message.getHashValue();
+            case TIME_BUCKET -> message.getTimestamp() == null ? null
+                    : Long.toString(Math.floorDiv(message.getTimestamp(), properties.getTimeBucket().toMillis()));
+            case NONE -> null;
+        };
     }
 
-    public void fallbackRetrySendBatch(List<DataRecordMessage> messages, Throwable t) {
-        log.warn("Kafka batch send failed after retries. Error: {}", t.getMessage(), t);
+    private static long estimateBytes(List<DataRecordMessage> messages) {
+        long bytes = 0;
+        for (DataRecordMessage message : messages) {
+            bytes += RECORD_OVERHEAD_BYTES + (message.getHashValue() == null ? 0 : message.getHashValue().length());
+        }
+        return bytes;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+package com.dataflow.dataflowsystem.filter.service;
+
+import com.dataflow.dataflowsystem.filter.config.PartitionProperties;
+import com.dataflow.model.Subscription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the generator stream between the filter instances in a ZooKeeper group. Each
+ * instance keeps an ephemeral node under {@code partitioning.group-path} and watches the
+ * others'; the members, sorted by id, split the hash partitions into contiguous ranges of
+ * equal size, so every record goes to exactly one instance and adding one adds capacity.
+ * The share is sent to the generator as part of the subscription, and sent again whenever
+ * a member joins or leaves.
+ * <p>
+ * A member subscribes to partitions it gains at once and lets go of the ones it loses only
+ * after {@code handoff-delay}, so a rebalance briefly duplicates records rather than losing
+ * them. Until it has seen the group, an instance subscribes to no partitions. While
+ * ZooKeeper is unreachable the last share is kept; a member whose session expires is
+ * dropped from the others' view and its partitions duplicated until it rejoins.
+ * <p>
+ * Metrics: {@code partition.members}, {@code partition.owned} (partitions subscribed to)
+ * and {@code partition.rebalances} (changes to this instance's assignment).
+ */
+@Service
+@Slf4j
+public class PartitionCoordinator {
+
+    private final PartitionProperties properties;
+    private final String memberId;
+    private final ScheduledExecutorService executor;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private CuratorFramework client;
+    private PathChildrenCache group;
+    private PersistentNode member;
+    private volatile boolean initialized;
+
+    /** Partitions subscribed to: those assigned and, during a handoff, those lost. */
+    private volatile List<Integer> owned = List.of();
+    private volatile int members;
+    /** Only used on the executor thread. */
+    private List<Integer> assigned = List.of();
+    private long assignment;
+
+    private final Counter rebalances;
+
+    public PartitionCoordinator(PartitionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.memberId = properties.getMemberId() != null ? properties.getMemberId() : UUID.randomUUID().toString();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "partition-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("partition.members", this, coordinator -> coordinator.members)
+                .description("Filter instances sharing the stream")
+                .register(meterRegistry);
+        Gauge.builder("partition.owned", this, coordinator -> coordinator.owned.size())
+                .description("Partitions this instance subscribes to")
+                .register(meterRegistry);
+        this.rebalances = Counter.builder("partition.rebalances")
+                .description("Changes to the partitions assigned to this instance")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Joins the group in the background; Curator keeps retrying while ZooKeeper is down.
+     */
+    @PostConstruct
+    public void start() throws Exception {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        client = CuratorFrameworkFactory.builder()
+                .connectString(properties.getConnectString())
+                .sessionTimeoutMs((int) properties.getSessionTimeout().toMillis())
+                .connectionTimeoutMs((int) properties.getConnectionTimeout().toMillis())
+                .retryPolicy(new ExponentialBackoffRetry(1000, 5))
+                .build();
+        client.start();
+
+        group = new PathChildrenCache(client, properties.getGroupPath(), false);
+        group.getListenable().addListener((curator, event) -> {
+            switch (event.getType()) {
+                case INITIALIZED -> {
+                    initialized = true;
+                    scheduleRebalance();
+                }
+                case CHILD_ADDED, CHILD_REMOVED -> scheduleRebalance();
+                default -> {
+                }
+            }
+        });
+        group.start(PathChildrenCache.StartMode.POST_INITIALIZED_EVENT);
+
+        member = new PersistentNode(client, CreateMode.EPHEMERAL, false,
+                ZKPaths.makePath(properties.getGroupPath(), memberId), new byte[0]);
+        member.start();
+        log.info("Joining partition group {} at {} as {}", properties.getGroupPath(),
+                properties.getConnectString(), memberId);
+    }
+
+    /**
+     * Leaves the group, so the other members take over this instance's partitions at once.
+     */
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        CloseableUtils.closeQuietly(member);
+        CloseableUtils.closeQuietly(group);
+        CloseableUtils.closeQuietly(client);
+    }
+
+    /**
+     * Calls {@code listener}, on the coordinator's thread, whenever the partitions to
+     * subscribe to change.
+     */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * @return the partitions to subscribe to, sorted, or null if partitioning is off
+     */
+    public List<Integer> getPartitions() {
+        return properties.isEnabled() ? owned : null;
+    }
+
+    /**
+     * Narrows {@code subscription}, which may be null for the full stream, to this
+     * instance's share; unchanged if partitioning is off.
+     */
+    public Subscription applyTo(Subscription subscription) {
+        if (!properties.isEnabled()) {
+            return subscription;
+        }
+        Subscription partitioned = subscription != null ? subscription : new Subscription();
+        partitioned.setPartitionCount(properties.getPartitions());
+        partitioned.setPartitions(owned);
+        return partitioned;
+    }
+
+    /**
+     * The partitions of member {@code index} of {@code members}: a contiguous range, the
+     * ranges of any two members differing in size by at most one.
+     */
+    static List<Integer> assign(int index, int members, int partitions) {
+        List<Integer> assigned = new ArrayList<>();
+        long end = (long) (index + 1) * partitions / members;
+        for (int partition = (int) ((long) index * partitions / members); partition < end; partition++) {
+            assigned.add(partition);
+        }
+        return assigned;
+    }
+
+    private void scheduleRebalance() {
+        try {
+            executor.execute(this::rebalance);
+        } catch (RejectedExecutionException e) {
+            log.debug("Ignoring group change after shutdown");
+        }
+    }
+
+    private void rebalance() {
+        if (!initialized) {
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        for (ChildData child : group.getCurrentData()) {
+            ids.add(ZKPaths.getNodeFromPath(child.getPath()));
+        }
+        ids.sort(null);
+        members = ids.size();
+        int index = ids.indexOf(memberId);
+        List<Integer> target = index < 0 ? List.of() : assign(index, ids.size(), properties.getPartitions());
+        if (target.equals(assigned)) {
+            return;
+        }
+        assigned = target;
+        rebalances.increment();
+        long version = ++assignment;
+
+        TreeSet<Integer> handoff = new TreeSet<>(owned);
+        handoff.addAll(target);
+        update(List.copyOf(handoff), ids.size());
+        if (handoff.size() > target.size()) {
+            executor.schedule(() -> {
+                if (version == assignment) {
+                    update(target, members);
+                }
+            }, properties.getHandoffDelay().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void update(List<Integer> partitions, int memberCount) {
+        if (partitions.equals(owned)) {
+            return;
+        }
+        owned = partitions;
+        log.info("Subscribing to {} of {} partitions, {} members in the group", partitions.size(),
+                properties.getPartitions(), memberCount);
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.error("Error applying partition change: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
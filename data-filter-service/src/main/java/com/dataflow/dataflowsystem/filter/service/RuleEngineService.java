@@ -1,33 +1,194 @@
 package com.dataflow.dataflowsystem.filter.service;
 
-import com.dataflow.dataflowsystem.filter.rules.HighValueRule;
-import com.dataflow.model.DataRecordMessage;
+import com.dataflow.dataflowsystem.filter.config.RuleProperties;
+import com.dataflow.dataflowsystem.filter.rules.CompiledRule;
+import com.dataflow.dataflowsystem.filter.rules.RecordColumns;
+import com.dataflow.dataflowsystem.filter.rules.RuleSet;
+import com.dataflow.dataflowsystem.filter.rules.RuleSyntaxException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
-import org.jeasy.rules.api.*;
-import org.jeasy.rules.core.DefaultRulesEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Routes records with the compiled rules from {@code rules.location}: a record matching
+ * any rule goes to Kafka, the rest to files.
+ * <p>
+ * The active {@link RuleSet} is swapped atomically, either when a watched rules file
+ * changes or through the {@code rules} actuator endpoint, so evaluation never sees a
+ * half-loaded set and needs no locking. A set that fails to compile is rejected and the
+ * current one stays active.
+ * <p>
+ * Hits are counted per rule. Batches are evaluated a column at a time by {@link #select}
+ * and each rule is timed per batch.
+ */
 @Service
+@Slf4j
 public class RuleEngineService {
 
-    private Rules rules;
-    private RulesEngine rulesEngine;
+    private final RuleProperties properties;
+    private final ResourceLoader resourceLoader;
+    private final MeterRegistry meterRegistry;
+    private final Counter reloads;
+    private final Counter failedReloads;
 
+    private volatile Active active = new Active(RuleSet.EMPTY, new Timer[0], List.of());
+    private long loadedLastModified;
+
+    public RuleEngineService(RuleProperties properties, ResourceLoader resourceLoader, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.resourceLoader = resourceLoader;
+        this.meterRegistry = meterRegistry;
+        this.reloads = Counter.builder("filter.rules.reloads")
+                .description("Rule sets loaded and swapped in")
+                .tag("outcome", "success")
+                .register(meterRegistry);
+        this.failedReloads = Counter.builder("filter.rules.reloads")
+                .description("Rule sets loaded and swapped in")
+                .tag("outcome", "failure")
+                .register(meterRegistry);
+        Gauge.builder("filter.rules.active", this, service -> service.getRuleSet().size())
+                .description("Rules in the active rule set")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the configured rules; unlike a reload, a broken rules file fails startup.
+     */
     @PostConstruct
     public void init() {
-        rules = new Rules();
-        rulesEngine = new DefaultRulesEngine();
-        rules.register(new HighValueRule());
+        Resource resource = resourceLoader.getResource(properties.getLocation());
+        try {
+            long lastModified = lastModified(resource);
+            replace(read(resource), properties.getLocation());
+            loadedLastModified = lastModified;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read rules from " + properties.getLocation(), e);
+        }
+    }
+
+    /**
+     * Reloads a {@code file:} rules location when its modification time changes.
+     */
+    @Scheduled(fixedDelayString = "${rules.reload-interval-ms:5000}")
+    public void reloadIfChanged() {
+        Resource resource = resourceLoader.getResource(properties.getLocation());
+        if (!resource.isFile()) {
+            return;
+        }
+        try {
+            long lastModified = lastModified(resource);
+            if (lastModified == loadedLastModified) {
+                return;
+            }
+            loadedLastModified = lastModified;
+            replace(read(resource), properties.getLocation());
+        } catch (IOException e) {
+            log.warn("Cannot reload rules from {}: {}", properties.getLocation(), e.getMessage());
+        } catch (RuleSyntaxException e) {
+            log.error("Rejected rules from {}, keeping {} active rules: {}",
+                    properties.getLocation(), getRuleSet().size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles {@code source} and makes it the active rule set.
+     *
+     * @throws RuleSyntaxException if any rule does not compile; the active set is kept
+     */
+    public synchronized RuleSet replace(String source, String origin) {
+        RuleSet ruleSet;
+        try {
+            ruleSet = RuleSet.parse(source, origin);
+        } catch (RuleSyntaxException e) {
+            failedReloads.increment();
+            throw e;
+        }
+        // Old meters go first, so rules kept under the same name register fresh ones bound to the new set
+        active.meters.forEach(meterRegistry::remove);
+        active = activate(ruleSet);
+        reloads.increment();
+        log.info("Activated {} rules from {}", ruleSet.size(), origin);
+        return ruleSet;
+    }
+
+    public RuleSet getRuleSet() {
+        return active.ruleSet;
+    }
+
+    /**
+     * Evaluates every record in {@code columns} at once.
+     *
+     * @return {@link RecordColumns#selection()}, a bit set for each record matching a rule
+     */
+    public long[] select(RecordColumns columns) {
+        Active current = active;
+        List<CompiledRule> rules = current.ruleSet.getRules();
+        long[] selection = columns.selection();
+        Arrays.fill(selection, 0, columns.words(), 0L);
+        for (int i = 0; i < rules.size(); i++) {
+            long start = System.nanoTime();
+            rules.get(i).select(columns, selection);
+            current.timers[i].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return selection;
+    }
+
+    private Active activate(RuleSet ruleSet) {
+        List<CompiledRule> rules = ruleSet.getRules();
+        Timer[] timers = new Timer[rules.size()];
+        List<Meter> meters = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            CompiledRule rule = rules.get(i);
+            timers[i] = Timer.builder("filter.rule.evaluation")
+                    .description("Time to evaluate a batch against the rule")
+                    .tag("rule", rule.getName())
+                    .register(meterRegistry);
+            meters.add(timers[i]);
+            meters.add(FunctionCounter.builder("filter.rule.hits", rule, CompiledRule::getHitCount)
+                    .description("Records the rule matched first")
+                    .tag("rule", rule.getName())
+                    .register(meterRegistry));
+        }
+        return new Active(ruleSet, timers, meters);
+    }
+
+    private static String read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
     }
 
-    public boolean evaluateRules(DataRecordMessage message) {
-        Facts facts = new Facts();
-        facts.put("value", message.getRandomValue());
+    private static long lastModified(Resource resource) throws IOException {
+        return resource.isFile() ? resource.lastModified() : 0;
+    }
 
-        rulesEngine.fire(rules, facts);
+    /** The active rule set with the timers for its rules, swapped as one. */
+    private static final class Active {
+        private final RuleSet ruleSet;
+        private final Timer[] timers;
+        private final List<Meter> meters;
 
-        Integer evaluatedValue = facts.get("value");
-        return evaluatedValue != null && evaluatedValue > 90;
+        private Active(RuleSet ruleSet, Timer[] timers, List<Meter> meters) {
+            this.ruleSet = ruleSet;
+            this.timers = timers;
+            this.meters = meters;
+        }
     }
 }
@@ -0,0 +1,124 @@
+package com.dataflow.dataflowsystem.filter.service;
+
+import com.dataflow.dataflowsystem.filter.config.KafkaPublishProperties;
+import com.dataflow.dataflowsystem.filter.sink.SpillLog;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the spill log to Kafka, oldest batch first, while {@code kafkaCircuitBreaker} is
+ * closed. A batch leaves the log only once the broker has acknowledged all of it, so a
+ * failed replay or a restart sends it again. Replay is paced to
+ * {@code kafka.publish.spill.drain-records-per-second}, leaving the broker room for live
+ * traffic, which is not held back while the log drains.
+ * <p>
+ * Metrics: {@code kafka.spill.drained} (records replayed) and {@code kafka.spill.drain.failures}.
+ */
+@Service
+@Slf4j
+public class SpillDrainer {
+
+    private static final String CIRCUIT_BREAKER = "kafkaCircuitBreaker";
+
+    private final KafkaProducerService kafkaProducer;
+    private final KafkaPublishProperties.Spill properties;
+    private final CircuitBreaker circuitBreaker;
+    private final ExecutorService executor;
+    private volatile boolean running;
+
+    private final Counter drained;
+    private final Counter failures;
+
+    public SpillDrainer(KafkaProducerService kafkaProducer,
+                        KafkaPublishProperties properties,
+                        CircuitBreakerRegistry circuitBreakerRegistry,
+                        MeterRegistry meterRegistry) {
+        this.kafkaProducer = kafkaProducer;
+        this.properties = properties.getSpill();
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(CIRCUIT_BREAKER);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spill-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.drained = Counter.builder("kafka.spill.drained")
+                .description("Spilled records replayed to Kafka")
+                .register(meterRegistry);
+        this.failures = Counter.builder("kafka.spill.drain.failures")
+                .description("Spilled batches whose replay failed and will be retried")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        SpillLog spill = kafkaProducer.getSpill();
+        if (spill != null) {
+            running = true;
+            executor.execute(() -> drain(spill));
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void drain(SpillLog spill) {
+        long retryNanos = TimeUnit.MILLISECONDS.toNanos(properties.getRetryIntervalMs());
+        double nanosPerRecord = 1e9 / properties.getDrainRecordsPerSecond();
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                SpillLog.Entry entry = circuitBreaker.getState() == CircuitBreaker.State.CLOSED ? spill.peek() : null;
+                if (entry == null) {
+                    TimeUnit.NANOSECONDS.sleep(retryNanos);
+                    continue;
+                }
+                long started = System.nanoTime();
+                kafkaProducer.publish(entry.records()).get();
+                spill.commit(entry);
+                drained.increment(entry.records().size());
+                log.debug("Replayed {} spilled records, {} left", entry.records().size(), spill.getRecords());
+
+                long pause = (long) (entry.records().size() * nanosPerRecord) - (System.nanoTime() - started);
+                if (pause > 0) {
+                    TimeUnit.NANOSECONDS.sleep(pause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                failures.increment();
+                log.warn("Replaying spilled records failed, retrying in {} ms: {}", properties.getRetryIntervalMs(),
+                        e.getCause().getMessage());
+                pause(retryNanos);
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                log.error("Error reading spill log: {}", e.getMessage(), e);
+                pause(retryNanos);
+            }
+        }
+    }
+
+    private static void pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.dataflow.dataflowsystem.filter.service;
+
+import com.dataflow.model.DataRecordMessage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decodes JSON record batches ({@code [{"id":..,"timestamp":..,"randomValue":..,"hashValue":..}, ...]})
+ * as they arrive, one WebSocket fragment at a time, on Jackson's non-blocking parser.
+ * Nothing holds the whole message: tokens are consumed as soon as a fragment completes
+ * them, and every {@code chunkRecords} records are handed to the sink, so memory per
+ * message is bounded by the fragment and chunk sizes rather than the batch size.
+ * <p>
+ * The list passed to the sink is reused for the next chunk; the sink must copy what it
+ * keeps. Records themselves are new objects, since the routing stage hands them on.
+ * <p>
+ * One decoder serves one session; fragments of a message must be fed in order.
+ */
+public class StreamingRecordDecoder {
+
+    private enum State { START, ARRAY, OBJECT, VALUE, SKIP, DONE }
+
+    private final JsonFactory jsonFactory;
+    private final int chunkRecords;
+    private final Consumer<List<DataRecordMessage>> sink;
+    private final List<DataRecordMessage> chunk;
+
+    private JsonParser parser;
+    private boolean discarding;
+    private State state = State.START;
+    private String field;
+    private int skipDepth;
+    private long decoded;
+
+    private Long id;
+    private Long timestamp;
+    private Integer randomValue;
+    private String hashValue;
+
+    public StreamingRecordDecoder(JsonFactory jsonFactory, int chunkRecords, Consumer<List<DataRecordMessage>> sink) {
+        this.jsonFactory = jsonFactory;
+        this.chunkRecords = chunkRecords;
+        this.sink = sink;
+        this.chunk = new ArrayList<>(chunkRecords);
+    }
+
+    /**
+     * Decodes one fragment, passing on every completed chunk; the last fragment also
+     * passes on the remaining records.
+     *
+     * @return records decoded so far in the current message, including this fragment's
+     * @throws IOException if the message is not a JSON array of records. Records already
+     *                     passed on stay passed on and the rest of the message is skipped.
+     */
+    public long feed(byte[] data, int offset, int length, boolean last) throws IOException {
+        if (discarding) {
+            discarding = !last;
+            return 0;
+        }
+        try {
+            if (parser == null) {
+                parser = jsonFactory.createNonBlockingByteArrayParser();
+            }
+            ByteArrayFeeder feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            feeder.feedInput(data, offset, offset + length);
+            if (last) {
+                feeder.endOfInput();
+            }
+            drain();
+            if (!last) {
+                return decoded;
+            }
+            if (state != State.DONE) {
+                throw new JsonParseException(parser, "Message ended inside the record array");
+            }
+            flush();
+            long total = decoded;
+            reset();
+            return total;
+        } catch (IOException | RuntimeException e) {
+            reset();
+            discarding = !last;
+            throw e;
+        }
+    }
+
+    /**
+     * Drops any partial message, e.g. after the session fails mid-message.
+     */
+    public void reset() {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException ignored) {
+                // Nothing to release for an in-memory parser
+            }
+            parser = null;
+        }
+        discarding = false;
+        chunk.clear();
+        state = State.START;
+        field = null;
+        skipDepth = 0;
+        decoded = 0;
+        clearRecord();
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (state) {
+                case START -> {
+                    expect(token, JsonToken.START_ARRAY);
+                    state = State.ARRAY;
+                }
+                case ARRAY -> {
+                    if (token == JsonToken.END_ARRAY) {
+                        state = State.DONE;
+                    } else {
+                        expect(token, JsonToken.START_OBJECT);
+                        state = State.OBJECT;
+                    }
+                }
+                case OBJECT -> {
+                    if (token == JsonToken.END_OBJECT) {
+                        emit();
+                        state = State.ARRAY;
+                    } else {
+                        expect(token, JsonToken.FIELD_NAME);
+                        field = parser.currentName();
+                        state = State.VALUE;
+                    }
+                }
+                case VALUE -> value(token);
+                case SKIP -> {
+                    if (token.isStructStart()) {
+                        skipDepth++;
+                    } else if (token.isStructEnd() && --skipDepth == 0) {
+                        state = State.OBJECT;
+                    }
+                }
+                case DONE -> throw new JsonParseException(parser, "Unexpected " + token + " after the record array");
+            }
+        }
+    }
+
+    private void value(JsonToken token) throws IOException {
+        state = State.OBJECT;
+        switch (field) {
+            case "id" -> id = longValue(token);
+            case "timestamp" -> timestamp = longValue(token);
+            case "randomValue" -> {
+                Long value = longValue(token);
+                randomValue = value == null ? null : Math.toIntExact(value);
+            }
+            case "hashValue" -> hashValue = token == JsonToken.VALUE_NULL ? null : parser.getText();
+            default -> {
+                // Unknown fields are ignored, including nested ones
+                if (token.isStructStart()) {
+                    skipDepth = 1;
+                    state = State.SKIP;
+                }
+            }
+        }
+    }
+
+    private Long longValue(JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> parser.getLongValue();
+            case VALUE_STRING -> {
+                try {
+                    yield Long.parseLong(parser.getText());
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException(parser, "Field '" + field + "' is not a number");
+                }
+            }
+            default -> throw new JsonParseException(parser, "Field '" + field + "' is not a number");
+        };
+    }
+
+    private void emit() {
+        chunk.add(new DataRecordMessage(id, timestamp, randomValue, hashValue));
+        decoded++;
+        clearRecord();
+        if (chunk.size() >= chunkRecords) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!chunk.isEmpty()) {
+            try {
+                sink.accept(chunk);
+            } finally {
+                chunk.clear();
+            }
+        }
+    }
+
+    private void clearRecord() {
+        id = null;
+        timestamp = null;
+        randomValue = null;
+        hashValue = null;
+    }
+
+    private void expect(JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
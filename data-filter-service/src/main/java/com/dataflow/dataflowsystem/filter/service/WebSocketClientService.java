@@ -1,53 +1,139 @@
 package com.dataflow.dataflowsystem.filter.service;
 
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.retry.annotation.Retry;
+import com.dataflow.dataflowsystem.filter.config.SubscriptionProperties;
+import com.dataflow.model.Subscription;
+import com.dataflow.model.codec.BinaryFrameCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.client.WebSocketClient;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one WebSocket session open to the generator. Whenever the session drops, or the
+ * generator cannot be reached, a reconnect is scheduled with jittered exponential backoff,
+ * so a brief outage is bridged within milliseconds and a longer one does not have every
+ * filter instance reconnecting in lockstep.
+ * <p>
+ * The sequence of the last batch processed outlives the session: after reconnecting the
+ * handler asks the generator to resume after it, and only the missed batches are sent.
+ * <p>
+ * With partitioning on, the subscription is narrowed to the partitions the
+ * {@link PartitionCoordinator} assigns this instance, and sent again when they change.
+ */
 @Service
 @Slf4j
 public class WebSocketClientService {
-    private WebSocketSession session;
+    private volatile WebSocketSession session;
     private final DataProcessor dataProcessor;
+    private final FlowControlService flowControlService;
+    private final SubscriptionProperties subscriptionProperties;
+    private final PartitionCoordinator partitionCoordinator;
+    private volatile WebSocketHandler handler;
+    private final AtomicLong lastSequence = new AtomicLong(BinaryFrameCodec.NO_SEQUENCE);
+    private final ScheduledExecutorService reconnectExecutor;
+    private final AtomicBoolean reconnectPending = new AtomicBoolean();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final Counter reconnects;
+    private volatile boolean stopping;
+    private volatile boolean everConnected;
 
     @Value("${websocket.generator.url}")
     private String serverUri;
+    @Value("${websocket.generator.binary:true}")
+    private boolean binary;
+    @Value("${websocket.generator.max-message-bytes:4194304}")
+    private int maxMessageBytes;
+    @Value("${websocket.generator.text-fragment-bytes:65536}")
+    private int textFragmentBytes;
+    @Value("${websocket.generator.decode-chunk-records:1000}")
+    private int decodeChunkRecords;
+    @Value("${websocket.generator.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+    @Value("${websocket.generator.reconnect.initial-delay-ms:100}")
+    private long initialDelayMs;
+    @Value("${websocket.generator.reconnect.max-delay-ms:30000}")
+    private long maxDelayMs;
     private volatile boolean connected = false;
 
-    public WebSocketClientService(DataProcessor dataProcessor) {
+    public WebSocketClientService(DataProcessor dataProcessor, FlowControlService flowControlService,
+                                  SubscriptionProperties subscriptionProperties, PartitionCoordinator partitionCoordinator,
+                                  MeterRegistry meterRegistry) {
         this.dataProcessor = dataProcessor;
+        this.flowControlService = flowControlService;
+        this.subscriptionProperties = subscriptionProperties;
+        this.partitionCoordinator = partitionCoordinator;
+        partitionCoordinator.onChange(this::resubscribe);
+        this.reconnectExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "generator-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reconnects = Counter.builder("websocket.client.reconnects")
+                .description("Sessions re-established with the generator after a disconnect")
+                .register(meterRegistry);
+        Gauge.builder("websocket.client.connected", this, service -> service.isConnected() ? 1 : 0)
+                .description("1 while a session to the generator is open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Connects in the background, so the filter starts even while the generator is down.
+     */
+    @PostConstruct
+    public void start() {
+        reconnectPending.set(true);
+        reconnectExecutor.execute(this::attemptConnect);
     }
 
     @PreDestroy
     public void disconnect() {
-        if (session != null && session.isOpen()) {
-            try {
-                session.close();
-                connected = false;
-                log.info("WebSocket session closed.");
-            } catch (Exception e) {
-                log.error("Error closing WebSocket session: {}", e.getMessage());
-            }
-        }
+        stopping = true;
+        reconnectExecutor.shutdownNow();
+        closeSession();
     }
 
-    @PostConstruct
-    @CircuitBreaker(name = "webSocketCircuitBreaker", fallbackMethod = "fallbackConnect")
-    @Retry(name = "websocketRetry", fallbackMethod = "fallbackConnect")
     public void connect() {
         try {
-            WebSocketClient client = new StandardWebSocketClient();
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            container.setDefaultMaxBinaryMessageBufferSize(maxMessageBytes);
+            // JSON batches are decoded fragment by fragment, so the text buffer only bounds a fragment
+            container.setDefaultMaxTextMessageBufferSize(textFragmentBytes);
+            WebSocketClient client = new StandardWebSocketClient(container);
+
+            // Ask for binary frames first; the generator falls back to JSON if it does not offer them
+            WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+            headers.setSecWebSocketProtocol(binary
+                    ? List.of(BinaryFrameCodec.SUBPROTOCOL, BinaryFrameCodec.JSON_SUBPROTOCOL)
+                    : List.of(BinaryFrameCodec.JSON_SUBPROTOCOL));
+
+            handler = new WebSocketHandler(dataProcessor, flowControlService, this::subscription,
+                    lastSequence, this::onDisconnected, decodeChunkRecords, maxMessageBytes);
             session = client.execute(
-                    new WebSocketHandler(dataProcessor),
-                    serverUri
-            ).get();
+                    handler,
+                    headers,
+                    URI.create(serverUri)
+            ).get(connectTimeoutMs, TimeUnit.MILLISECONDS);
             connected = true;
             log.info("Successfully connected to WebSocket at: {}", serverUri);
         } catch (Exception e) {
@@ -57,24 +143,99 @@ public class WebSocketClientService {
         }
     }
 
-    public void fallbackConnect(Throwable t) {
-        log.warn("WebSocket connection failed after retries: {}", t.getMessage(), t);
-        connected = false;
-    }
-
     public boolean isConnected() {
         return session != null && session.isOpen() && connected;
     }
 
-    @CircuitBreaker(name = "webSocketCircuitBreaker", fallbackMethod = "reconnectFallback")
+    /**
+     * @return the sequence of the last batch processed, or {@link BinaryFrameCodec#NO_SEQUENCE}
+     */
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * Drops the current session and connects again right away.
+     */
     public void reconnect() {
         log.info("Attempting to reconnect to WebSocket");
-        disconnect();
-        connect();
+        closeSession();
+        attempts.set(0);
+        scheduleReconnect();
+    }
+
+    /**
+     * Delay before reconnect attempt {@code attempt} (0-based): exponential from
+     * {@code initialDelayMs} up to {@code maxDelayMs}, drawn from the upper half of that
+     * range so instances spread out but never retry in a tight loop.
+     */
+    static long backoffDelay(int attempt, long initialDelayMs, long maxDelayMs) {
+        long ceiling = Math.min(maxDelayMs, initialDelayMs << Math.min(attempt, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
     }
 
-    private void reconnectFallback(Exception e) {
-        log.error("Circuit breaker triggered for WebSocket reconnection: {}", e.getMessage());
+    private void onDisconnected() {
         connected = false;
+        if (!stopping) {
+            log.warn("Lost connection to generator after sequence {}", lastSequence.get());
+            scheduleReconnect();
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (stopping || !reconnectPending.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = backoffDelay(attempts.getAndIncrement(), initialDelayMs, maxDelayMs);
+        log.info("Reconnecting to generator in {} ms", delay);
+        try {
+            reconnectExecutor.schedule(this::attemptConnect, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            reconnectPending.set(false);
+        }
+    }
+
+    private void attemptConnect() {
+        reconnectPending.set(false);
+        if (stopping || isConnected()) {
+            return;
+        }
+        try {
+            connect();
+            attempts.set(0);
+            if (everConnected) {
+                reconnects.increment();
+            }
+            everConnected = true;
+        } catch (RuntimeException e) {
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * @return the subscription to send, or null for the full stream
+     */
+    private Subscription subscription() {
+        return partitionCoordinator.applyTo(subscriptionProperties.toSubscription());
+    }
+
+    private void resubscribe() {
+        WebSocketHandler current = handler;
+        if (current != null) {
+            current.resubscribe();
+        }
+    }
+
+    private void closeSession() {
+        WebSocketSession current = session;
+        if (current != null && current.isOpen()) {
+            try {
+                current.close();
+                connected = false;
+                log.info("WebSocket session closed.");
+            } catch (Exception e) {
+                log.error("Error closing WebSocket session: {}", e.getMessage());
+            }
+        }
     }
-}
\ No newline at end of file
+}
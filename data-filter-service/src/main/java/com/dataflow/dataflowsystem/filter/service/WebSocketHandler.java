@@ -1,37 +1,132 @@
 package com.dataflow.dataflowsystem.filter.service;
 
+import com.dataflow.model.ControlMessage;
 import com.dataflow.model.DataRecordMessage;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.dataflow.model.Subscription;
+import com.dataflow.model.codec.BinaryFrameCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 @Slf4j
-public class WebSocketHandler extends TextWebSocketHandler {
+public class WebSocketHandler extends AbstractWebSocketHandler {
     private final DataProcessor dataProcessor;
+    private final FlowControlService flowControl;
+    /** Read each time it is sent, as it changes when the partitions are rebalanced. */
+    private final Supplier<Subscription> subscription;
+    /** Sequence of the last batch processed, shared with the sessions before and after this one. */
+    private final AtomicLong lastSequence;
+    private final Runnable onDisconnected;
     private final ObjectMapper objectMapper;
+    private final BinaryFrameCodec frameCodec;
+    private final StreamingRecordDecoder jsonDecoder;
+    private final int maxMessageBytes;
+    /** The open session, safe for the control messages sent from other threads. */
+    private volatile WebSocketSession controlSession;
+    /** Fragments of a binary frame split by the container, until its last one arrives. */
+    private ByteBuffer binaryFragments;
+    /** Set while skipping the rest of a binary frame that exceeded {@code maxMessageBytes}. */
+    private boolean droppingBinary;
 
-    public WebSocketHandler(DataProcessor dataProcessor) {
+    /**
+     * @param decodeChunkRecords JSON batches are routed in chunks of at most this many records
+     * @param maxMessageBytes    largest binary frame reassembled from fragments
+     */
+    public WebSocketHandler(DataProcessor dataProcessor, FlowControlService flowControl, Supplier<Subscription> subscription,
+                            AtomicLong lastSequence, Runnable onDisconnected, int decodeChunkRecords, int maxMessageBytes) {
         this.dataProcessor = dataProcessor;
+        this.flowControl = flowControl;
+        this.subscription = subscription;
+        this.lastSequence = lastSequence;
+        this.onDisconnected = onDisconnected;
         this.objectMapper = new ObjectMapper();
+        this.frameCodec = new BinaryFrameCodec();
+        this.jsonDecoder = new StreamingRecordDecoder(objectMapper.getFactory(), decodeChunkRecords, this::process);
+        this.maxMessageBytes = maxMessageBytes;
     }
 
+    /**
+     * JSON batches are decoded as their fragments arrive instead of after the container has
+     * buffered the whole message.
+     */
     @Override
-    @CircuitBreaker(name = "websocketHandlerCircuitBreaker", fallbackMethod = "fallbackHandleTextMessage")
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+    public boolean supportsPartialMessages() {
+        return true;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        log.info("Connected to generator, session {} using protocol: {}", session.getId(),
+                session.getAcceptedProtocol() != null ? session.getAcceptedProtocol() : "json");
+        WebSocketSession control = new ConcurrentWebSocketSessionDecorator(session,
+                FlowControlService.SEND_TIME_LIMIT_MS, FlowControlService.SEND_BUFFER_LIMIT_BYTES);
+        controlSession = control;
+        // Subscribe before the first credit grant so the generator never sends records we would discard
+        resubscribe();
+        // Resume after subscribing so the missed batches are selected by the same subscription
+        long resumeAfter = lastSequence.get();
+        if (resumeAfter != BinaryFrameCodec.NO_SEQUENCE) {
+            try {
+                control.sendMessage(new TextMessage(objectMapper.writeValueAsString(ControlMessage.resume(resumeAfter))));
+                log.info("Resuming after sequence {}", resumeAfter);
+            } catch (IOException e) {
+                log.error("Failed to send resume request, batches sent while disconnected are lost: {}", e.getMessage());
+            }
+        }
+        flowControl.attach(control);
+    }
+
+    /**
+     * Sends the current subscription over the open session, if there is one; the generator
+     * applies it from its next batch on. Synchronized so the latest subscription is the one
+     * sent last.
+     */
+    public synchronized void resubscribe() {
+        WebSocketSession control = controlSession;
+        Subscription current = subscription.get();
+        if (control == null || !control.isOpen() || current == null) {
+            return;
+        }
         try {
-            List<DataRecordMessage> dataRecords = objectMapper.readValue(
-                    message.getPayload(), new TypeReference<>() {
-                    });
+            control.sendMessage(new TextMessage(objectMapper.writeValueAsString(ControlMessage.subscribe(current))));
+            log.info("Subscribed to {}", current);
+        } catch (IOException e) {
+            log.error("Failed to send subscription {}: {}", current, e.getMessage());
+        }
+    }
 
-            log.info("Received batch of {} messages", dataRecords.size());
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        log.info("Generator session {} closed: {}", session.getId(), status);
+        controlSession = null;
+        jsonDecoder.reset();
+        binaryFragments = null;
+        droppingBinary = false;
+        flowControl.detach();
+        onDisconnected.run();
+    }
 
-            dataProcessor.processBatch(dataRecords);
+    @Override
+    @CircuitBreaker(name = "websocketHandlerCircuitBreaker", fallbackMethod = "fallbackHandleTextMessage")
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        try {
+            byte[] fragment = message.asBytes();
+            long decoded = jsonDecoder.feed(fragment, 0, fragment.length, message.isLast());
+            if (message.isLast()) {
+                log.info("Received batch of {} messages", decoded);
+            }
         } catch (Exception e) {
             log.error("Error processing WebSocket batch message: {}", e.getMessage(), e);
         }
@@ -40,4 +135,77 @@ public class WebSocketHandler extends TextWebSocketHandler {
     public void fallbackHandleTextMessage(WebSocketSession session, TextMessage message, Throwable t) {
         log.warn("WebSocket handler circuit breaker triggered: {}", t.getMessage());
     }
+
+    @Override
+    @CircuitBreaker(name = "websocketHandlerCircuitBreaker", fallbackMethod = "fallbackHandleBinaryMessage")
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            ByteBuffer frame = reassemble(message);
+            if (frame == null) {
+                return;
+            }
+            long sequence = BinaryFrameCodec.sequenceOf(frame);
+            List<DataRecordMessage> dataRecords = frameCodec.decode(frame);
+
+            log.info("Received binary batch {} of {} messages", sequence, dataRecords.size());
+
+            process(dataRecords);
+            // Resumed batches may arrive after a newer live one, so keep the highest
+            if (sequence != BinaryFrameCodec.NO_SEQUENCE) {
+                lastSequence.accumulateAndGet(sequence, Math::max);
+            }
+        } catch (Exception e) {
+            log.error("Error processing WebSocket binary batch message: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the whole frame once its last fragment has arrived, otherwise null
+     */
+    private ByteBuffer reassemble(BinaryMessage message) {
+        ByteBuffer payload = message.getPayload();
+        if (droppingBinary) {
+            droppingBinary = !message.isLast();
+            return null;
+        }
+        if (message.isLast() && binaryFragments == null) {
+            return payload;
+        }
+        long needed = (binaryFragments == null ? 0L : binaryFragments.position()) + payload.remaining();
+        if (needed > maxMessageBytes) {
+            log.error("Dropping binary frame larger than {} bytes", maxMessageBytes);
+            binaryFragments = null;
+            droppingBinary = !message.isLast();
+            return null;
+        }
+        if (binaryFragments == null || binaryFragments.remaining() < payload.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min(maxMessageBytes, needed * 2));
+            if (binaryFragments != null) {
+                grown.put(binaryFragments.flip());
+            }
+            binaryFragments = grown;
+        }
+        binaryFragments.put(payload);
+        if (!message.isLast()) {
+            return null;
+        }
+        ByteBuffer frame = binaryFragments.flip();
+        binaryFragments = null;
+        return frame;
+    }
+
+    /**
+     * Hands the batch on, blocking while the pipeline is full; credit is returned once it
+     * has been sunk, which may be after this returns.
+     */
+    private void process(List<DataRecordMessage> dataRecords) {
+        int size = dataRecords.size();
+        flowControl.onReceived(size);
+        long start = System.nanoTime();
+        dataProcessor.submitBatch(dataRecords, () -> flowControl.onProcessed(size, System.nanoTime() - start));
+    }
+
+    public void fallbackHandleBinaryMessage(WebSocketSession session, BinaryMessage message, Throwable t) {
+        log.warn("WebSocket handler circuit breaker triggered: {}", t.getMessage());
+    }
 }
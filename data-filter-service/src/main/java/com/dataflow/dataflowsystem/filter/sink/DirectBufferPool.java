@@ -0,0 +1,40 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Direct buffers of one size, reused so that encoding a batch neither allocates nor
+ * leaves garbage, and the channel writes them without copying to a temporary buffer.
+ * Up to {@code maxPooled} released buffers are kept; beyond that they are left to the GC.
+ */
+public class DirectBufferPool {
+
+    private final int bufferBytes;
+    private final BlockingQueue<ByteBuffer> pooled;
+
+    public DirectBufferPool(int bufferBytes, int maxPooled) {
+        this.bufferBytes = bufferBytes;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferBytes) {
+            pooled.offer(buffer.clear());
+        }
+    }
+
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public int getPooled() {
+        return pooled.size();
+    }
+}
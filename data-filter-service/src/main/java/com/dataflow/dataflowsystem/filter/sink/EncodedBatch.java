@@ -0,0 +1,139 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records encoded as the lines of a filtered-records file, {@code timestamp,value,hash[,id]},
+ * into pooled buffers. Numbers are written digit by digit and ASCII hashes byte by byte
+ * into a line scratch array, which is then copied to the buffer, so encoding neither
+ * formats nor allocates per record. Nulls are written as {@code null},
+ * as {@code String.format} used to.
+ * <p>
+ * Not thread-safe. {@link #release} returns the buffers to the pool once written.
+ */
+public class EncodedBatch {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    /** Longest line without the hash: three numbers of up to 20 characters and separators. */
+    private static final int FIXED_BYTES = 3 * 20 + 3 + 8;
+
+    private final DirectBufferPool pool;
+    private final List<ByteBuffer> buffers = new ArrayList<>(2);
+    private ByteBuffer current;
+    /** One line is encoded here, then copied into the buffer in one go. */
+    private byte[] line = new byte[FIXED_BYTES + 64];
+    private int records;
+
+    public EncodedBatch(DirectBufferPool pool) {
+        this.pool = pool;
+    }
+
+    public void add(DataRecordMessage record) {
+        String hash = record.getHashValue();
+        int maxBytes = FIXED_BYTES + (hash == null ? NULL.length : hash.length() * 3);
+        if (line.length < maxBytes) {
+            line = new byte[maxBytes];
+        }
+        byte[] bytes = line;
+        int n = putLong(bytes, 0, record.getTimestamp());
+        bytes[n++] = ',';
+        Integer value = record.getRandomValue();
+        n = value == null ? putBytes(bytes, n, NULL) : putLong(bytes, n, value);
+        bytes[n++] = ',';
+        n = putString(bytes, n, hash);
+        Long id = record.getId();
+        if (id != null) {
+            bytes[n++] = ',';
+            n = putLong(bytes, n, id);
+        }
+        n = putBytes(bytes, n, LINE_SEPARATOR);
+        ensure(n);
+        current.put(bytes, 0, n);
+        records++;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * The encoded bytes, ready to be written; empty if nothing was added.
+     */
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] ready = new ByteBuffer[buffers.size()];
+        for (int i = 0; i < ready.length; i++) {
+            ready[i] = buffers.get(i).duplicate().flip();
+        }
+        return ready;
+    }
+
+    public void release() {
+        buffers.forEach(pool::release);
+        buffers.clear();
+        current = null;
+    }
+
+    private void ensure(int bytes) {
+        if (current != null && current.remaining() >= bytes) {
+            return;
+        }
+        // A line longer than a pooled buffer gets a buffer of its own, which the pool will not keep
+        current = bytes <= pool.getBufferBytes() ? pool.acquire() : ByteBuffer.allocate(bytes);
+        buffers.add(current);
+    }
+
+    private static int putBytes(byte[] bytes, int n, byte[] value) {
+        System.arraycopy(value, 0, bytes, n, value.length);
+        return n + value.length;
+    }
+
+    private static int putString(byte[] bytes, int n, String value) {
+        if (value == null) {
+            return putBytes(bytes, n, NULL);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return putBytes(bytes, n, value.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[n++] = (byte) c;
+        }
+        return n;
+    }
+
+    private static int putLong(byte[] bytes, int n, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return putBytes(bytes, n, LONG_MIN);
+            }
+            bytes[n++] = '-';
+            value = -value;
+        }
+        int end = n + digits(value);
+        int position = end;
+        do {
+            bytes[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private static int digits(long value) {
+        long bound = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < bound) {
+                return digits;
+            }
+            bound *= 10;
+        }
+        return 19;
+    }
+}
@@ -0,0 +1,76 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sparse index of a record file: for each run of about {@code recordsPerEntry} records,
+ * where its bytes are and the time range it covers. Entries are added by the file's writers
+ * in file order, as their bytes are queued, so an entry may end past what is on disk yet.
+ * <p>
+ * An index is complete when it was started with the file; one started for a file that
+ * already had records, such as after a restart, only covers what was written since.
+ */
+public final class FileIndex {
+
+    public record Entry(long offset, long length, int count, long minTimestamp, long maxTimestamp) {
+
+        public long end() {
+            return offset + length;
+        }
+
+        public boolean overlaps(long from, long to) {
+            return minTimestamp < to && maxTimestamp >= from;
+        }
+    }
+
+    private final int recordsPerEntry;
+    private final boolean complete;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public FileIndex(int recordsPerEntry, boolean complete) {
+        this.recordsPerEntry = recordsPerEntry;
+        this.complete = complete;
+    }
+
+    /**
+     * Indexes {@code count} records written at {@code offset}, merging them into the last
+     * entry while it holds fewer than {@code recordsPerEntry} and ends where they start.
+     */
+    public synchronized void add(long offset, long length, int count, long minTimestamp, long maxTimestamp) {
+        if (count == 0) {
+            return;
+        }
+        int last = entries.size() - 1;
+        if (last >= 0) {
+            Entry previous = entries.get(last);
+            if (previous.count() < recordsPerEntry && previous.end() == offset) {
+                entries.set(last, new Entry(previous.offset(), previous.length() + length, previous.count() + count,
+                        Math.min(previous.minTimestamp(), minTimestamp), Math.max(previous.maxTimestamp(), maxTimestamp)));
+                return;
+            }
+        }
+        entries.add(new Entry(offset, length, count, minTimestamp, maxTimestamp));
+    }
+
+    /**
+     * Entries that may hold records with timestamps in {@code [from, to)}, in file order.
+     */
+    public synchronized List<Entry> entries(long from, long to) {
+        List<Entry> overlapping = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.overlaps(from, to)) {
+                overlapping.add(entry);
+            }
+        }
+        return overlapping;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+}
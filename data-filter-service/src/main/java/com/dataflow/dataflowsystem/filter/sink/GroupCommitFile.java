@@ -0,0 +1,209 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * An append-only file written with group commit. Callers that append while a write is in
+ * progress queue their buffers; when the write completes, one of them writes everything
+ * queued with a single gathering write, and optionally one fsync, on behalf of all. A
+ * busy file therefore sees one system call per group rather than per batch, and
+ * {@link #append} returns only once the caller's bytes are written.
+ * <p>
+ * After a write fails the file is broken: that group's callers and all later ones get the
+ * error, and the owner should close and reopen it. Appending to a closed file throws
+ * {@link ClosedChannelException} before anything is queued.
+ */
+public class GroupCommitFile implements Closeable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean syncEachGroup;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    private long appended;
+    private long committed;
+    /** File size once everything queued is written. */
+    private long size;
+    private boolean writing;
+    private boolean closed;
+    private IOException failure;
+
+    private long groups;
+    private long writes;
+
+    public GroupCommitFile(Path path, boolean syncEachGroup) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.syncEachGroup = syncEachGroup;
+        this.size = channel.size();
+    }
+
+    /**
+     * Appends the buffers' remaining bytes, in order and without interleaving with other
+     * appends, and waits until they are written (and synced, if syncing each group). The
+     * buffers stay the caller's; they are not touched once this returns or throws.
+     */
+    public void append(ByteBuffer... buffers) throws IOException {
+        append(null, buffers);
+    }
+
+    /**
+     * As {@link #append(ByteBuffer...)}, first passing {@code atOffset} the file offset the
+     * buffers will be written at. It is called in append order, under the file's lock.
+     */
+    public void append(LongConsumer atOffset, ByteBuffer... buffers) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (failure != null) {
+                throw new IOException("Earlier write to " + path + " failed", failure);
+            }
+            if (atOffset != null) {
+                atOffset.accept(size);
+            }
+            for (ByteBuffer buffer : buffers) {
+                size += buffer.remaining();
+            }
+            Collections.addAll(pending, buffers);
+            writes++;
+            commit(++appended);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces what has been written to disk.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Writes what is queued and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        close(null);
+    }
+
+    /**
+     * Writes what is queued, then the buffers {@code trailer} returns for the offset they
+     * will be written at, and closes the file. The trailer is taken once no more appends
+     * can be queued, under the file's lock.
+     */
+    public void close(LongFunction<ByteBuffer[]> trailer) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (trailer != null && failure == null) {
+                    ByteBuffer[] last = trailer.apply(size);
+                    for (ByteBuffer buffer : last) {
+                        size += buffer.remaining();
+                    }
+                    Collections.addAll(pending, last);
+                    appended++;
+                }
+                commit(appended);
+            } finally {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Batches per group write so far, which is above 1 when appends are being coalesced.
+     */
+    public double getBatchesPerGroup() {
+        lock.lock();
+        try {
+            return groups == 0 ? 0 : (double) writes / groups;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until everything up to {@code ticket} is written, writing the queue itself
+     * whenever no other caller is. Called and returns with the lock held.
+     */
+    private void commit(long ticket) throws IOException {
+        while (committed < ticket) {
+            if (failure != null) {
+                throw new IOException("Write to " + path + " failed", failure);
+            }
+            if (writing) {
+                written.awaitUninterruptibly();
+                continue;
+            }
+            writing = true;
+            ByteBuffer[] group = pending.toArray(new ByteBuffer[0]);
+            pending.clear();
+            long through = appended;
+            lock.unlock();
+            IOException error = null;
+            try {
+                write(group);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                lock.lock();
+                writing = false;
+                groups++;
+                if (error == null) {
+                    committed = through;
+                } else {
+                    failure = error;
+                    pending.clear();
+                }
+                written.signalAll();
+            }
+        }
+    }
+
+    private void write(ByteBuffer[] group) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : group) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(group);
+        }
+        if (syncEachGroup) {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+
+/**
+ * A file that filtered records are appended to, in one of the {@code storage.format}s.
+ * Safe for concurrent writers; each {@link #write} lands in one piece.
+ */
+public interface RecordFile extends Closeable {
+
+    /**
+     * Appends {@code records} and returns once they are written.
+     *
+     * @throws ClosedChannelException if the file was closed; nothing was written
+     */
+    void write(List<DataRecordMessage> records) throws IOException;
+
+    /**
+     * Forces what has been written to disk.
+     */
+    void sync() throws IOException;
+}
@@ -0,0 +1,140 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records with timestamps in {@code [from, to)} from a record file, in file
+ * order. Files are memory-mapped, and with a complete {@link FileIndex} only the byte
+ * ranges of its overlapping entries are parsed; without one the whole file is, though
+ * segments still skip blocks outside the range. Gzipped text archives can only be read
+ * through.
+ * <p>
+ * Each method returns the number of bytes it read, as a measure of the work done.
+ */
+public final class RecordFileReader {
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private RecordFileReader() {
+    }
+
+    public static long readText(Path path, FileIndex index, long from, long to, Consumer<DataRecordMessage> consumer)
+            throws IOException {
+        Consumer<DataRecordMessage> inRange = inRange(from, to, consumer);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer content = map(channel, path);
+            int size = content.limit();
+            if (index == null || !index.isComplete()) {
+                TextRecordParser.parse(content, 0, size, inRange);
+                return size;
+            }
+            long read = 0;
+            for (FileIndex.Entry entry : index.entries(from, to)) {
+                if (entry.offset() >= size) {
+                    break;
+                }
+                // An entry past the end is still being written; its complete lines are read
+                int end = (int) Math.min(entry.end(), size);
+                TextRecordParser.parse(content, (int) entry.offset(), end, inRange);
+                read += end - entry.offset();
+            }
+            return read;
+        }
+    }
+
+    public static long readSegment(Path path, FileIndex index, long from, long to, Consumer<DataRecordMessage> consumer)
+            throws IOException {
+        if (index == null || !index.isComplete()) {
+            SegmentReader segment = SegmentReader.open(path);
+            long read = 0;
+            for (SegmentFormat.Block block : segment.getBlocks()) {
+                if (block.overlaps(from, to)) {
+                    segment.read(block).forEach(inRange(from, to, consumer));
+                    read += segment.raw(block).remaining();
+                }
+            }
+            return read;
+        }
+        Consumer<DataRecordMessage> inRange = inRange(from, to, consumer);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer content = map(channel, path);
+            long read = 0;
+            for (FileIndex.Entry entry : index.entries(from, to)) {
+                long offset = entry.offset();
+                long end = Math.min(entry.end(), content.limit());
+                while (offset < end) {
+                    // Null for a block that is not all on disk yet
+                    SegmentFormat.Block block = SegmentFormat.blockAt(content, offset);
+                    if (block == null) {
+                        break;
+                    }
+                    long blockEnd = SegmentFormat.blockEnd(content, block);
+                    if (block.overlaps(from, to)) {
+                        SegmentFormat.decodeBlock(content, block).forEach(inRange);
+                        read += blockEnd - offset;
+                    }
+                    offset = blockEnd;
+                }
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Reads a gzipped text archive, which may hold several gzip members one after another.
+     */
+    public static long readGzipText(Path path, long from, long to, Consumer<DataRecordMessage> consumer)
+            throws IOException {
+        Consumer<DataRecordMessage> inRange = inRange(from, to, consumer);
+        long read = 0;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), CHUNK_BYTES)) {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            int filled = 0;
+            for (int n; (n = in.read(chunk, filled, chunk.length - filled)) > 0; ) {
+                filled += n;
+                read += n;
+                int lineEnd = filled - 1;
+                while (lineEnd >= 0 && chunk[lineEnd] != '\n') {
+                    lineEnd--;
+                }
+                if (lineEnd < 0) {
+                    if (filled == chunk.length) {
+                        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    }
+                    continue;
+                }
+                TextRecordParser.parse(ByteBuffer.wrap(chunk), 0, lineEnd + 1, inRange);
+                filled -= lineEnd + 1;
+                System.arraycopy(chunk, lineEnd + 1, chunk, 0, filled);
+            }
+        }
+        return read;
+    }
+
+    private static ByteBuffer map(FileChannel channel, Path path) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + path);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private static Consumer<DataRecordMessage> inRange(long from, long to, Consumer<DataRecordMessage> consumer) {
+        return record -> {
+            if (record.getTimestamp() >= from && record.getTimestamp() < to) {
+                consumer.accept(record);
+            }
+        };
+    }
+}
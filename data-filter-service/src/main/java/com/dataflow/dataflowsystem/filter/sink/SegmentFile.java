@@ -0,0 +1,134 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records in the {@link SegmentFormat binary segment format}. Each write becomes one or
+ * more blocks of up to {@code blockRecords} records, encoded before the group commit so
+ * compression runs in parallel across writers. Closing writes the footer.
+ * <p>
+ * Reopening a segment, after a restart or a late record for a closed minute, takes the
+ * footer back off, or if the previous writer died, cuts off a torn last block, and appends
+ * after the last intact block.
+ */
+@Slf4j
+public class SegmentFile implements RecordFile {
+
+    private final GroupCommitFile file;
+    private final int blockRecords;
+    private final FileIndex index;
+    /** Guarded by the group commit lock, so it is in file order. */
+    private final List<SegmentFormat.Block> blocks;
+
+    private SegmentFile(GroupCommitFile file, int blockRecords, FileIndex index, List<SegmentFormat.Block> blocks) {
+        this.file = file;
+        this.blockRecords = blockRecords;
+        this.index = index;
+        this.blocks = blocks;
+    }
+
+    public static SegmentFile open(Path path, boolean syncEachGroup, int blockRecords) throws IOException {
+        return open(path, syncEachGroup, blockRecords, null);
+    }
+
+    /**
+     * Opens the segment with its blocks added to {@code index} as they are written.
+     */
+    public static SegmentFile open(Path path, boolean syncEachGroup, int blockRecords, FileIndex index)
+            throws IOException {
+        List<SegmentFormat.Block> blocks = Files.exists(path) ? recover(path) : new ArrayList<>();
+        GroupCommitFile file = new GroupCommitFile(path, syncEachGroup);
+        SegmentFile segment = new SegmentFile(file, blockRecords, index, blocks);
+        if (blocks.isEmpty() && Files.size(path) == 0) {
+            file.append(SegmentFormat.header());
+        }
+        return segment;
+    }
+
+    @Override
+    public void write(List<DataRecordMessage> records) throws IOException {
+        int count = records.size();
+        ByteBuffer[] encoded = new ByteBuffer[(count + blockRecords - 1) / blockRecords];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = SegmentFormat.encodeBlock(records.subList(i * blockRecords, Math.min(count, (i + 1) * blockRecords)));
+        }
+        file.append(offset -> {
+            for (ByteBuffer block : encoded) {
+                blocks.add(new SegmentFormat.Block(offset, block.getInt(8), block.getLong(20), block.getLong(28)));
+                if (index != null) {
+                    index.add(offset, block.remaining(), block.getInt(8), block.getLong(20), block.getLong(28));
+                }
+                offset += block.remaining();
+            }
+        }, encoded);
+    }
+
+    /**
+     * Appends the blocks of another segment as they are stored, without decoding them.
+     */
+    public void append(SegmentReader source) throws IOException {
+        List<SegmentFormat.Block> sourceBlocks = source.getBlocks();
+        ByteBuffer[] raw = new ByteBuffer[sourceBlocks.size()];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = source.raw(sourceBlocks.get(i));
+        }
+        file.append(offset -> {
+            for (int i = 0; i < raw.length; i++) {
+                SegmentFormat.Block block = sourceBlocks.get(i);
+                blocks.add(new SegmentFormat.Block(offset, block.count(), block.minTimestamp(), block.maxTimestamp()));
+                offset += raw[i].remaining();
+            }
+        }, raw);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        file.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close(offset -> new ByteBuffer[]{SegmentFormat.footer(blocks, offset)});
+    }
+
+    /**
+     * The blocks of an existing segment, with the file cut back to just after the last one.
+     */
+    private static List<SegmentFormat.Block> recover(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            ByteBuffer content = SegmentReader.read(channel, path);
+            if (!SegmentFormat.isHeader(content)) {
+                throw new IOException("Not a segment file: " + path);
+            }
+            List<SegmentFormat.Block> blocks = SegmentFormat.readFooter(content);
+            long end;
+            if (blocks != null) {
+                end = size - SegmentFormat.footer(blocks, 0).remaining();
+            } else {
+                blocks = SegmentFormat.scanBlocks(content);
+                end = blocks.isEmpty()
+                        ? SegmentFormat.HEADER_BYTES
+                        : SegmentFormat.blockEnd(content, blocks.get(blocks.size() - 1));
+                if (end < size) {
+                    log.warn("Segment {} was not closed; dropping {} bytes after its last intact block", path, size - end);
+                }
+            }
+            channel.truncate(end);
+            return new ArrayList<>(blocks);
+        }
+    }
+}
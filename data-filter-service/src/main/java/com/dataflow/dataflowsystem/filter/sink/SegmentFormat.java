@@ -0,0 +1,341 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary segment files for filtered records: a header, blocks of records, and once the
+ * file is closed a footer indexing the blocks. All numbers are big-endian.
+ * <pre>
+ *   header   magic i32 "DFSG" | version u8 1 | 3 reserved bytes
+ *   block    magic i32 "SEGB" | flags u8 | hashWidth u8 | reserved u16 | count i32
+ *            | rawBytes i32 | storedBytes i32 | minTimestamp i64 | maxTimestamp i64
+ *            | crc32 i32 of the stored payload | payload
+ *   payload  [count x i64 id delta] | count x timestamp delta | count x i32 value
+ *            | count x hashWidth hash bytes | [id null bitmap | value null bitmap]
+ *   footer   magic i32 "SEGF" | blocks i32 | blocks x (offset i64 | count i32 | minTimestamp i64
+ *            | maxTimestamp i64) | footerOffset i64 | magic i32 "SEGT"
+ * </pre>
+ * Columns are fixed-width. IDs and timestamps are stored as the difference to the previous
+ * record. The first ID's is to zero; the first timestamp's is to the block's
+ * {@code minTimestamp}, so timestamps fit i32 unless the block spans more than about 24
+ * days, and are i64 otherwise. Blocks written before that have no {@code FLAG_MIN_BASE},
+ * and their first timestamp difference is to zero.
+ * Hashes are UTF-8, zero-padded to the longest in the block; an empty slot is
+ * {@code null}. The payload is deflated when that makes it smaller.
+ * <p>
+ * A file without a valid footer, because the writer did not close it, is read by walking
+ * the blocks from the header; a torn last block is where the file ends.
+ */
+public final class SegmentFormat {
+
+    public static final String EXTENSION = ".seg";
+
+    static final int FILE_MAGIC = 0x44465347;
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int BLOCK_MAGIC = 0x53454742;
+    static final int BLOCK_HEADER_BYTES = 40;
+    static final int FOOTER_MAGIC = 0x53454746;
+    static final int TRAILER_MAGIC = 0x53454754;
+    static final int FOOTER_ENTRY_BYTES = 28;
+    static final int TRAILER_BYTES = 12;
+
+    public static final int FLAG_DEFLATE = 1;
+    public static final int FLAG_IDS = 2;
+    public static final int FLAG_NULLS = 4;
+    public static final int FLAG_WIDE_TIMESTAMPS = 8;
+    public static final int FLAG_MIN_BASE = 16;
+
+    private static final int MAX_HASH_WIDTH = 255;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    /** Where a block is and what it holds, as listed in the footer. */
+    public record Block(long offset, int count, long minTimestamp, long maxTimestamp) {
+
+        public boolean overlaps(long from, long to) {
+            return maxTimestamp >= from && minTimestamp < to;
+        }
+    }
+
+    private SegmentFormat() {
+    }
+
+    static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(FILE_MAGIC).put(VERSION).put(new byte[3]).flip();
+    }
+
+    static boolean isHeader(ByteBuffer file) {
+        return file.limit() >= HEADER_BYTES && file.getInt(0) == FILE_MAGIC && file.get(4) == VERSION;
+    }
+
+    /**
+     * Encodes {@code records} as one block. Timestamps must be set.
+     */
+    public static ByteBuffer encodeBlock(List<DataRecordMessage> records) {
+        int count = records.size();
+        boolean ids = false;
+        boolean idNulls = false;
+        boolean valueNulls = false;
+        int hashWidth = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        byte[][] hashes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            DataRecordMessage record = records.get(i);
+            long timestamp = record.getTimestamp();
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+            ids |= record.getId() != null;
+            idNulls |= record.getId() == null;
+            valueNulls |= record.getRandomValue() == null;
+            String hash = record.getHashValue();
+            if (hash != null) {
+                hashes[i] = hash.getBytes(StandardCharsets.UTF_8);
+                if (hashes[i].length > MAX_HASH_WIDTH) {
+                    throw new IllegalArgumentException("Hash longer than " + MAX_HASH_WIDTH + " bytes: " + hash);
+                }
+                hashWidth = Math.max(hashWidth, hashes[i].length);
+            }
+        }
+        // Without an ID column every ID is null, which needs no bitmap
+        boolean nulls = ids && idNulls || valueNulls;
+        boolean wide = false;
+        long previous = min;
+        for (DataRecordMessage record : records) {
+            long delta = record.getTimestamp() - previous;
+            wide |= delta != (int) delta;
+            previous = record.getTimestamp();
+        }
+
+        int bitmapBytes = (count + 7) >>> 3;
+        int rawBytes = count * ((ids ? Long.BYTES : 0) + (wide ? Long.BYTES : Integer.BYTES) + Integer.BYTES + hashWidth)
+                + (nulls ? 2 * bitmapBytes : 0);
+        ByteBuffer raw = ByteBuffer.allocate(rawBytes);
+        if (ids) {
+            long previousId = 0;
+            for (DataRecordMessage record : records) {
+                long id = record.getId() != null ? record.getId() : previousId;
+                raw.putLong(id - previousId);
+                previousId = id;
+            }
+        }
+        previous = min;
+        for (DataRecordMessage record : records) {
+            long timestamp = record.getTimestamp();
+            if (wide) {
+                raw.putLong(timestamp - previous);
+            } else {
+                raw.putInt((int) (timestamp - previous));
+            }
+            previous = timestamp;
+        }
+        for (DataRecordMessage record : records) {
+            raw.putInt(record.getRandomValue() != null ? record.getRandomValue() : 0);
+        }
+        for (byte[] hash : hashes) {
+            int length = hash == null ? 0 : hash.length;
+            if (length > 0) {
+                raw.put(hash);
+            }
+            raw.position(raw.position() + hashWidth - length);
+        }
+        if (nulls) {
+            byte[] idBitmap = new byte[bitmapBytes];
+            byte[] valueBitmap = new byte[bitmapBytes];
+            for (int i = 0; i < count; i++) {
+                if (records.get(i).getId() == null) {
+                    idBitmap[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+                if (records.get(i).getRandomValue() == null) {
+                    valueBitmap[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            raw.put(idBitmap).put(valueBitmap);
+        }
+
+        byte[] payload = raw.array();
+        int storedBytes = rawBytes;
+        int flags = FLAG_MIN_BASE | (ids ? FLAG_IDS : 0) | (nulls ? FLAG_NULLS : 0) | (wide ? FLAG_WIDE_TIMESTAMPS : 0);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] deflated = new byte[rawBytes];
+        int deflatedBytes = deflater.deflate(deflated);
+        if (deflater.finished() && deflatedBytes < rawBytes) {
+            payload = deflated;
+            storedBytes = deflatedBytes;
+            flags |= FLAG_DEFLATE;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, storedBytes);
+        return ByteBuffer.allocate(BLOCK_HEADER_BYTES + storedBytes)
+                .putInt(BLOCK_MAGIC)
+                .put((byte) flags)
+                .put((byte) hashWidth)
+                .putShort((short) 0)
+                .putInt(count)
+                .putInt(rawBytes)
+                .putInt(storedBytes)
+                .putLong(min)
+                .putLong(max)
+                .putInt((int) crc.getValue())
+                .put(payload, 0, storedBytes)
+                .flip();
+    }
+
+    /**
+     * Reads the header of the block at {@code offset}, or returns null if there is no
+     * complete, intact block there.
+     */
+    static Block blockAt(ByteBuffer file, long offset) {
+        if (offset > file.limit() - BLOCK_HEADER_BYTES) {
+            return null;
+        }
+        int at = (int) offset;
+        if (file.getInt(at) != BLOCK_MAGIC) {
+            return null;
+        }
+        int count = file.getInt(at + 8);
+        int storedBytes = file.getInt(at + 16);
+        if (count < 0 || storedBytes < 0 || storedBytes > file.limit() - at - BLOCK_HEADER_BYTES) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.slice(at + BLOCK_HEADER_BYTES, storedBytes));
+        if ((int) crc.getValue() != file.getInt(at + 36)) {
+            return null;
+        }
+        return new Block(offset, count, file.getLong(at + 20), file.getLong(at + 28));
+    }
+
+    static long blockEnd(ByteBuffer file, Block block) {
+        return block.offset() + BLOCK_HEADER_BYTES + file.getInt((int) block.offset() + 16);
+    }
+
+    /**
+     * Decodes the block at {@code block.offset()}.
+     */
+    public static List<DataRecordMessage> decodeBlock(ByteBuffer file, Block block) throws IOException {
+        int at = (int) block.offset();
+        if (file.getInt(at) != BLOCK_MAGIC) {
+            throw new IOException("No block at offset " + at);
+        }
+        int flags = file.get(at + 4);
+        int hashWidth = file.get(at + 5) & 0xFF;
+        int count = file.getInt(at + 8);
+        int rawBytes = file.getInt(at + 12);
+        int storedBytes = file.getInt(at + 16);
+        ByteBuffer payload = file.slice(at + BLOCK_HEADER_BYTES, storedBytes);
+        if ((flags & FLAG_DEFLATE) != 0) {
+            byte[] inflated = new byte[rawBytes];
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(payload);
+            try {
+                if (inflater.inflate(inflated) != rawBytes || !inflater.finished()) {
+                    throw new IOException("Block at offset " + at + " inflates to the wrong size");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Block at offset " + at + " is corrupt", e);
+            }
+            payload = ByteBuffer.wrap(inflated);
+        }
+
+        boolean ids = (flags & FLAG_IDS) != 0;
+        boolean nulls = (flags & FLAG_NULLS) != 0;
+        boolean wide = (flags & FLAG_WIDE_TIMESTAMPS) != 0;
+        int timestampsAt = ids ? count * Long.BYTES : 0;
+        int valuesAt = timestampsAt + count * (wide ? Long.BYTES : Integer.BYTES);
+        int hashesAt = valuesAt + count * Integer.BYTES;
+        int idNullsAt = hashesAt + count * hashWidth;
+        int valueNullsAt = idNullsAt + ((count + 7) >>> 3);
+
+        List<DataRecordMessage> records = new ArrayList<>(count);
+        byte[] hash = new byte[hashWidth];
+        long id = 0;
+        long timestamp = (flags & FLAG_MIN_BASE) != 0 ? file.getLong(at + 20) : 0;
+        for (int i = 0; i < count; i++) {
+            id += ids ? payload.getLong(i * Long.BYTES) : 0;
+            timestamp += wide ? payload.getLong(timestampsAt + i * Long.BYTES) : payload.getInt(timestampsAt + i * Integer.BYTES);
+            int value = payload.getInt(valuesAt + i * Integer.BYTES);
+            boolean idNull = !ids || nulls && isSet(payload, idNullsAt, i);
+            boolean valueNull = nulls && isSet(payload, valueNullsAt, i);
+            payload.get(hashesAt + i * hashWidth, hash);
+            int length = hashWidth;
+            while (length > 0 && hash[length - 1] == 0) {
+                length--;
+            }
+            records.add(new DataRecordMessage(idNull ? null : id, timestamp, valueNull ? null : value,
+                    length == 0 ? null : new String(hash, 0, length, StandardCharsets.UTF_8)));
+        }
+        return records;
+    }
+
+    static ByteBuffer footer(List<Block> blocks, long footerOffset) {
+        ByteBuffer footer = ByteBuffer.allocate(8 + blocks.size() * FOOTER_ENTRY_BYTES + TRAILER_BYTES)
+                .putInt(FOOTER_MAGIC)
+                .putInt(blocks.size());
+        for (Block block : blocks) {
+            footer.putLong(block.offset()).putInt(block.count()).putLong(block.minTimestamp()).putLong(block.maxTimestamp());
+        }
+        return footer.putLong(footerOffset).putInt(TRAILER_MAGIC).flip();
+    }
+
+    /**
+     * The blocks listed in the footer, or null if the file does not end in a valid one.
+     */
+    static List<Block> readFooter(ByteBuffer file) {
+        int limit = file.limit();
+        if (limit < HEADER_BYTES + 8 + TRAILER_BYTES || file.getInt(limit - 4) != TRAILER_MAGIC) {
+            return null;
+        }
+        long footerOffset = file.getLong(limit - TRAILER_BYTES);
+        if (footerOffset < HEADER_BYTES || footerOffset > limit - 8 - TRAILER_BYTES
+                || file.getInt((int) footerOffset) != FOOTER_MAGIC) {
+            return null;
+        }
+        int at = (int) footerOffset;
+        int count = file.getInt(at + 4);
+        if (count < 0 || (long) count * FOOTER_ENTRY_BYTES != limit - TRAILER_BYTES - at - 8) {
+            return null;
+        }
+        List<Block> blocks = new ArrayList<>(count);
+        for (int i = 0, entry = at + 8; i < count; i++, entry += FOOTER_ENTRY_BYTES) {
+            blocks.add(new Block(file.getLong(entry), file.getInt(entry + 8), file.getLong(entry + 12),
+                    file.getLong(entry + 20)));
+        }
+        return blocks;
+    }
+
+    /**
+     * The blocks found by walking the file from the header, for a file without footer.
+     * Stops at the first position that does not hold an intact block.
+     */
+    static List<Block> scanBlocks(ByteBuffer file) {
+        List<Block> blocks = new ArrayList<>();
+        long offset = HEADER_BYTES;
+        Block block;
+        while ((block = blockAt(file, offset)) != null) {
+            blocks.add(block);
+            offset = blockEnd(file, block);
+        }
+        return blocks;
+    }
+
+    private static boolean isSet(ByteBuffer payload, int bitmapAt, int index) {
+        return (payload.get(bitmapAt + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+}
@@ -0,0 +1,126 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a segment file, memory-mapped. The block list comes from the footer, or for a
+ * segment that is still being written or was never closed, from walking the blocks. A time
+ * range is read by decoding only the blocks whose min/max timestamps overlap it.
+ */
+public final class SegmentReader {
+
+    private final Path path;
+    private final ByteBuffer content;
+    private final List<SegmentFormat.Block> blocks;
+    private final boolean closed;
+
+    private SegmentReader(Path path, ByteBuffer content, List<SegmentFormat.Block> blocks, boolean closed) {
+        this.path = path;
+        this.content = content;
+        this.blocks = blocks;
+        this.closed = closed;
+    }
+
+    public static SegmentReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large to map: " + path);
+            }
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (!SegmentFormat.isHeader(content)) {
+                throw new IOException("Not a segment file: " + path);
+            }
+            List<SegmentFormat.Block> blocks = SegmentFormat.readFooter(content);
+            return blocks != null
+                    ? new SegmentReader(path, content, List.copyOf(blocks), true)
+                    : new SegmentReader(path, content, List.copyOf(SegmentFormat.scanBlocks(content)), false);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<SegmentFormat.Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Whether the segment ends in a footer, i.e. its writer closed it.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getRecordCount() {
+        return blocks.stream().mapToLong(SegmentFormat.Block::count).sum();
+    }
+
+    public long getSizeBytes() {
+        return content.limit();
+    }
+
+    public List<DataRecordMessage> read(SegmentFormat.Block block) throws IOException {
+        return SegmentFormat.decodeBlock(content, block);
+    }
+
+    /**
+     * The block's bytes as stored, header included.
+     */
+    ByteBuffer raw(SegmentFormat.Block block) {
+        return content.slice((int) block.offset(), (int) (SegmentFormat.blockEnd(content, block) - block.offset()));
+    }
+
+    /**
+     * Passes every record to {@code consumer}, in file order.
+     */
+    public void forEach(Consumer<DataRecordMessage> consumer) throws IOException {
+        for (SegmentFormat.Block block : blocks) {
+            read(block).forEach(consumer);
+        }
+    }
+
+    /**
+     * Passes the records with timestamps in {@code [from, to)} to {@code consumer}, in file
+     * order, decoding only the blocks that can hold them.
+     */
+    public void forEach(long from, long to, Consumer<DataRecordMessage> consumer) throws IOException {
+        for (SegmentFormat.Block block : blocks) {
+            if (block.overlaps(from, to)) {
+                for (DataRecordMessage record : read(block)) {
+                    if (record.getTimestamp() >= from && record.getTimestamp() < to) {
+                        consumer.accept(record);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The whole of a file that is being recovered, read rather than mapped since it is
+     * about to be truncated.
+     */
+    static ByteBuffer read(FileChannel channel, Path path) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Segment too large to recover: " + path);
+        }
+        ByteBuffer content = ByteBuffer.allocate((int) size);
+        while (content.hasRemaining()) {
+            if (channel.read(content, content.position()) < 0) {
+                throw new EOFException("Segment shrank while recovering: " + path);
+            }
+        }
+        return content.flip();
+    }
+}
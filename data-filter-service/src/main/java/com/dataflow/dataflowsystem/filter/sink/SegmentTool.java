@@ -0,0 +1,110 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line access to segment files:
+ * <pre>
+ *   info &lt;file&gt;...                     blocks, records, time range and bytes per record
+ *   csv [--from ms] [--to ms] &lt;file&gt;...  records as the CSV lines of the text format, to stdout
+ * </pre>
+ * Run with {@code ./gradlew :data-filter-service:segmentTool --args="info <file>"}, or from
+ * the service jar with
+ * {@code java -cp app.jar -Dloader.main=com.dataflow.dataflowsystem.filter.sink.SegmentTool
+ * org.springframework.boot.loader.launch.PropertiesLauncher info <file>}.
+ */
+public final class SegmentTool {
+
+    private SegmentTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        List<String> rest = Arrays.asList(args).subList(1, args.length);
+        switch (args[0]) {
+            case "info" -> {
+                for (String file : rest) {
+                    info(SegmentReader.open(Path.of(file)), System.out);
+                }
+            }
+            case "csv" -> csv(rest);
+            default -> usage();
+        }
+    }
+
+    private static void info(SegmentReader segment, PrintStream out) {
+        List<SegmentFormat.Block> blocks = segment.getBlocks();
+        long records = segment.getRecordCount();
+        out.printf("%s%n", segment.getPath());
+        out.printf("  closed:  %s%n", segment.isClosed());
+        out.printf("  blocks:  %d%n", blocks.size());
+        out.printf("  records: %d%n", records);
+        if (!blocks.isEmpty()) {
+            long min = blocks.stream().mapToLong(SegmentFormat.Block::minTimestamp).min().orElseThrow();
+            long max = blocks.stream().mapToLong(SegmentFormat.Block::maxTimestamp).max().orElseThrow();
+            out.printf("  range:   %s .. %s%n", Instant.ofEpochMilli(min), Instant.ofEpochMilli(max));
+        }
+        out.printf("  bytes:   %d (%.1f per record)%n", segment.getSizeBytes(),
+                records == 0 ? 0.0 : (double) segment.getSizeBytes() / records);
+    }
+
+    private static void csv(List<String> args) throws IOException {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        int i = 0;
+        for (; i + 1 < args.size() && args.get(i).startsWith("--"); i += 2) {
+            switch (args.get(i)) {
+                case "--from" -> from = Long.parseLong(args.get(i + 1));
+                case "--to" -> to = Long.parseLong(args.get(i + 1));
+                default -> {
+                    usage();
+                    return;
+                }
+            }
+        }
+        DirectBufferPool pool = new DirectBufferPool(256 * 1024, 4);
+        WritableByteChannel out = Channels.newChannel(System.out);
+        for (String file : args.subList(i, args.size())) {
+            SegmentReader segment = SegmentReader.open(Path.of(file));
+            for (SegmentFormat.Block block : segment.getBlocks()) {
+                if (!block.overlaps(from, to)) {
+                    continue;
+                }
+                EncodedBatch lines = new EncodedBatch(pool);
+                try {
+                    for (DataRecordMessage record : segment.read(block)) {
+                        if (record.getTimestamp() >= from && record.getTimestamp() < to) {
+                            lines.add(record);
+                        }
+                    }
+                    for (ByteBuffer buffer : lines.buffers()) {
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                } finally {
+                    lines.release();
+                }
+            }
+        }
+        System.out.flush();
+    }
+
+    private static void usage() {
+        System.err.println("usage: SegmentTool info <file>...");
+        System.err.println("       SegmentTool csv [--from epochMillis] [--to epochMillis] <file>...");
+    }
+}
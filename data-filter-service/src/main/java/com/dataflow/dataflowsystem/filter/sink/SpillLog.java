@@ -0,0 +1,352 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A first-in, first-out log of record batches on disk, for records that could not be
+ * published. Batches are appended as {@link SegmentFormat} blocks to memory-mapped segment
+ * files {@code spill-<n>.seg} of {@code segmentBytes} each, so spilling costs an encode and
+ * a memory copy and the heap holds only the segment being read. The blocks' CRCs mark where
+ * the written part of a segment ends; the rest of the file is zeros.
+ * <p>
+ * {@link #peek} returns the oldest batch and {@link #commit} removes it, after which the
+ * read position is saved to {@code spill.checkpoint}. Segments are deleted once read. After
+ * a restart the log carries on from the checkpoint, so a batch that was peeked but not
+ * committed is returned again. Mapped writes reach the page cache at once and survive the
+ * process dying; they are forced to disk when a segment fills and on close.
+ * <p>
+ * {@link #append} refuses a batch once the segments would take more than {@code maxBytes}.
+ * Instances are thread-safe.
+ */
+public class SpillLog implements Closeable {
+
+    public static final long NONE = -1;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spill-(\\d+)\\" + SegmentFormat.EXTENSION);
+    private static final String CHECKPOINT = "spill.checkpoint";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FileChannel checkpoint;
+    /** Segment number to file size, oldest first. */
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private long diskBytes;
+
+    private long writeSegment = NONE;
+    private MappedByteBuffer writeBuffer;
+    private int writeOffset;
+
+    private long readSegment = NONE;
+    private ByteBuffer readBuffer;
+    private int readOffset;
+
+    private long bytes;
+    private long records;
+    private long oldestTimestamp = NONE;
+
+    /** A batch at the head of the log. */
+    public record Entry(List<DataRecordMessage> records, long segment, int offset, int next) {
+    }
+
+    private SpillLog(Path directory, int segmentBytes, long maxBytes, FileChannel checkpoint) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Opens the log in {@code directory}, creating it if needed, and picks up where the last
+     * instance stopped.
+     */
+    public static SpillLog open(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        if (segmentBytes <= SegmentFormat.HEADER_BYTES) {
+            throw new IllegalArgumentException("Spill segments must be larger than " + SegmentFormat.HEADER_BYTES
+                    + " bytes, was " + segmentBytes);
+        }
+        Files.createDirectories(directory);
+        FileChannel checkpoint = FileChannel.open(directory.resolve(CHECKPOINT),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SpillLog log = new SpillLog(directory, segmentBytes, maxBytes, checkpoint);
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                Matcher name = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (name.matches()) {
+                    long size = Files.size(path);
+                    segments.put(Long.parseLong(name.group(1)), size);
+                    diskBytes += size;
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        writeSegment = segments.lastKey();
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+        writeOffset = SegmentFormat.HEADER_BYTES;
+        for (SegmentFormat.Block block : SegmentFormat.scanBlocks(writeBuffer)) {
+            writeOffset = (int) SegmentFormat.blockEnd(writeBuffer, block);
+        }
+
+        ByteBuffer saved = ByteBuffer.allocate(2 * Long.BYTES);
+        checkpoint.read(saved, 0);
+        long savedSegment = saved.position() == saved.capacity() ? saved.getLong(0) : NONE;
+        if (segments.containsKey(savedSegment)) {
+            readSegment = savedSegment;
+            readOffset = (int) saved.getLong(Long.BYTES);
+        } else {
+            readSegment = segments.firstKey();
+            readOffset = SegmentFormat.HEADER_BYTES;
+        }
+        readBuffer = readSegment == writeSegment ? writeBuffer : map(readSegment, FileChannel.MapMode.READ_ONLY);
+        skipExhausted();
+
+        for (long segment : segments.tailMap(readSegment, true).keySet()) {
+            ByteBuffer buffer = segment == readSegment ? readBuffer
+                    : segment == writeSegment ? writeBuffer
+                    : map(segment, FileChannel.MapMode.READ_ONLY);
+            long offset = segment == readSegment ? readOffset : SegmentFormat.HEADER_BYTES;
+            SegmentFormat.Block block;
+            while ((block = SegmentFormat.blockAt(buffer, offset)) != null) {
+                long end = SegmentFormat.blockEnd(buffer, block);
+                bytes += end - offset;
+                records += block.count();
+                offset = end;
+            }
+        }
+        oldestTimestamp = headTimestamp();
+    }
+
+    /**
+     * Appends {@code batch} behind everything already spilled. Timestamps must be set.
+     *
+     * @return false if the log is full
+     */
+    public boolean append(List<DataRecordMessage> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        ByteBuffer block = SegmentFormat.encodeBlock(batch);
+        int size = block.remaining();
+        long minTimestamp = Long.MAX_VALUE;
+        for (DataRecordMessage record : batch) {
+            minTimestamp = Math.min(minTimestamp, record.getTimestamp());
+        }
+
+        lock.lock();
+        try {
+            if (writeBuffer == null || size > writeBuffer.capacity() - writeOffset) {
+                if (!roll(size)) {
+                    return false;
+                }
+            }
+            writeBuffer.put(writeOffset, block, 0, size);
+            writeOffset += size;
+            bytes += size;
+            records += batch.size();
+            if (oldestTimestamp == NONE) {
+                oldestTimestamp = minTimestamp;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The oldest batch, or null if the log is empty. It stays in the log until committed.
+     */
+    public Entry peek() throws IOException {
+        lock.lock();
+        try {
+            if (records == 0) {
+                return null;
+            }
+            SegmentFormat.Block block = SegmentFormat.blockAt(readBuffer, readOffset);
+            if (block == null) {
+                throw new IOException("Spill segment " + readSegment + " has no intact block at " + readOffset);
+            }
+            List<DataRecordMessage> batch = SegmentFormat.decodeBlock(readBuffer, block);
+            return new Entry(batch, readSegment, readOffset, (int) SegmentFormat.blockEnd(readBuffer, block));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes {@code entry}, which must be the batch {@link #peek} last returned.
+     */
+    public void commit(Entry entry) throws IOException {
+        lock.lock();
+        try {
+            if (entry.segment() != readSegment || entry.offset() != readOffset) {
+                throw new IllegalStateException("Spill entry at " + entry.segment() + ":" + entry.offset()
+                        + " is not the head of the log, " + readSegment + ":" + readOffset);
+            }
+            readOffset = entry.next();
+            bytes -= entry.next() - entry.offset();
+            records -= entry.records().size();
+            skipExhausted();
+            oldestTimestamp = headTimestamp();
+            checkpoint.write(ByteBuffer.allocate(2 * Long.BYTES).putLong(readSegment).putLong(readOffset).flip(), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRecords() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The earliest record timestamp in the oldest batch, or {@link #NONE} if the log is empty.
+     */
+    public long getOldestTimestamp() {
+        lock.lock();
+        try {
+            return oldestTimestamp;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Disk space taken by the segments, written or not. */
+    public long getDiskBytes() {
+        lock.lock();
+        try {
+            return diskBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (writeBuffer != null) {
+                writeBuffer.force();
+            }
+            checkpoint.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment large enough for a block of {@code size} bytes.
+     */
+    private boolean roll(int size) throws IOException {
+        long length = Math.max(segmentBytes, (long) SegmentFormat.HEADER_BYTES + size);
+        if (diskBytes + length > maxBytes) {
+            return false;
+        }
+        if (writeBuffer != null) {
+            writeBuffer.force();
+        }
+        long segment = writeSegment + 1;
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        writeBuffer.put(0, SegmentFormat.header(), 0, SegmentFormat.HEADER_BYTES);
+        writeSegment = segment;
+        writeOffset = SegmentFormat.HEADER_BYTES;
+        segments.put(segment, length);
+        diskBytes += length;
+        if (readSegment == NONE || records == 0 && readSegment != writeSegment) {
+            // Nothing left to read behind the new segment
+            dropReadSegment();
+            readSegment = segment;
+            readBuffer = writeBuffer;
+            readOffset = SegmentFormat.HEADER_BYTES;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the read position past fully read segments, deleting them.
+     */
+    private void skipExhausted() throws IOException {
+        while (readSegment != writeSegment && SegmentFormat.blockAt(readBuffer, readOffset) == null) {
+            long next = segments.higherKey(readSegment);
+            dropReadSegment();
+            readSegment = next;
+            readBuffer = next == writeSegment ? writeBuffer : map(next, FileChannel.MapMode.READ_ONLY);
+            readOffset = SegmentFormat.HEADER_BYTES;
+        }
+    }
+
+    private void dropReadSegment() throws IOException {
+        if (readSegment == NONE) {
+            return;
+        }
+        Long size = segments.remove(readSegment);
+        if (size != null) {
+            diskBytes -= size;
+            Files.deleteIfExists(segmentPath(readSegment));
+        }
+    }
+
+    private long headTimestamp() {
+        if (records == 0) {
+            return NONE;
+        }
+        SegmentFormat.Block block = SegmentFormat.blockAt(readBuffer, readOffset);
+        return block == null ? NONE : block.minTimestamp();
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = mode == FileChannel.MapMode.READ_ONLY
+                ? FileChannel.open(segmentPath(segment), StandardOpenOption.READ)
+                : FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, channel.size());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("spill-%012d%s", segment, SegmentFormat.EXTENSION));
+    }
+}
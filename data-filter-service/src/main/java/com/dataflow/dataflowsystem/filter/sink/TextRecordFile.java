@@ -0,0 +1,71 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Records as CSV lines, {@code timestamp,value,hash[,id]}. Each write is added to the
+ * file's index, if it has one.
+ */
+public class TextRecordFile implements RecordFile {
+
+    public static final String EXTENSION = ".txt";
+
+    private final GroupCommitFile file;
+    private final DirectBufferPool bufferPool;
+    private final FileIndex index;
+
+    public TextRecordFile(Path path, boolean syncEachGroup, DirectBufferPool bufferPool) throws IOException {
+        this(path, syncEachGroup, bufferPool, null);
+    }
+
+    public TextRecordFile(Path path, boolean syncEachGroup, DirectBufferPool bufferPool, FileIndex index)
+            throws IOException {
+        this.file = new GroupCommitFile(path, syncEachGroup);
+        this.bufferPool = bufferPool;
+        this.index = index;
+    }
+
+    @Override
+    public void write(List<DataRecordMessage> records) throws IOException {
+        EncodedBatch batch = new EncodedBatch(bufferPool);
+        try {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (DataRecordMessage record : records) {
+                batch.add(record);
+                min = Math.min(min, record.getTimestamp());
+                max = Math.max(max, record.getTimestamp());
+            }
+            ByteBuffer[] buffers = batch.buffers();
+            if (index == null) {
+                file.append(buffers);
+                return;
+            }
+            long length = 0;
+            for (ByteBuffer buffer : buffers) {
+                length += buffer.remaining();
+            }
+            long bytes = length;
+            long minTimestamp = min;
+            long maxTimestamp = max;
+            file.append(offset -> index.add(offset, bytes, records.size(), minTimestamp, maxTimestamp), buffers);
+        } finally {
+            batch.release();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        file.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
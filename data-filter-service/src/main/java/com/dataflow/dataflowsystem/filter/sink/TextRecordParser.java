@@ -0,0 +1,112 @@
+package com.dataflow.dataflowsystem.filter.sink;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Parses the CSV lines of {@link TextRecordFile}s, {@code timestamp,value,hash[,id]},
+ * straight from a (typically mapped) buffer.
+ */
+public final class TextRecordParser {
+
+    private static final int MAX_HASH_BYTES = 1024;
+
+    private TextRecordParser() {
+    }
+
+    /**
+     * Parses the complete lines in {@code [from, to)} of {@code buffer}. A last line without
+     * its newline is left out, as it may still be being written.
+     *
+     * @return the number of malformed lines skipped
+     */
+    public static int parse(ByteBuffer buffer, int from, int to, Consumer<DataRecordMessage> consumer) {
+        byte[] hash = new byte[MAX_HASH_BYTES];
+        int skipped = 0;
+        int pos = from;
+        while (pos < to) {
+            int lineEnd = pos;
+            while (lineEnd < to && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == to) {
+                break;
+            }
+            int end = lineEnd;
+            if (end > pos && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > pos) {
+                DataRecordMessage record = parseLine(buffer, pos, end, hash);
+                if (record != null) {
+                    consumer.accept(record);
+                } else {
+                    skipped++;
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        return skipped;
+    }
+
+    private static DataRecordMessage parseLine(ByteBuffer buffer, int start, int end, byte[] hash) {
+        int firstComma = indexOf(buffer, start, end);
+        int secondComma = firstComma < 0 ? -1 : indexOf(buffer, firstComma + 1, end);
+        int thirdComma = secondComma < 0 ? -1 : indexOf(buffer, secondComma + 1, end);
+        int hashEnd = thirdComma < 0 ? end : thirdComma;
+        int hashLength = hashEnd - secondComma - 1;
+        if (secondComma < 0 || hashLength > hash.length) {
+            return null;
+        }
+        long timestamp;
+        long value;
+        Long id = null;
+        try {
+            timestamp = parseLong(buffer, start, firstComma);
+            value = parseLong(buffer, firstComma + 1, secondComma);
+            if (thirdComma >= 0) {
+                id = parseLong(buffer, thirdComma + 1, end);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        buffer.get(secondComma + 1, hash, 0, hashLength);
+        String hashValue = new String(hash, 0, hashLength, StandardCharsets.UTF_8);
+        return new DataRecordMessage(id, timestamp, (int) value, "null".equals(hashValue) ? null : hashValue);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseLong(ByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to || to - i > 19) {
+            throw new NumberFormatException();
+        }
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            result = result * 10 + digit;
+            if (result < 0 && !(negative && result == Long.MIN_VALUE && i == to - 1)) {
+                throw new NumberFormatException();
+            }
+        }
+        return negative ? -result : result;
+    }
+}
@@ -0,0 +1,248 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.service.CompactionService;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.dataflowsystem.filter.sink.SegmentReader;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactionServiceTest {
+
+    /** 2024-01-01 10:00 local time, long enough ago for its hour to be due. */
+    private static final long HOUR = LocalDateTime.of(2024, 1, 1, 10, 0)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    @TempDir
+    Path directory;
+
+    private FileProperties fileProperties;
+    private FileWriterService fileWriterService;
+    private SimpleMeterRegistry meterRegistry;
+    private CompactionService compactionService;
+
+    @BeforeEach
+    void setup() {
+        FileProperties.Paths paths = new FileProperties.Paths();
+        paths.setFiltered(directory.resolve("filtered").toString());
+        paths.setArchive(directory.resolve("archive").toString());
+        paths.setTemp(directory.resolve("temp").toString());
+        FileProperties.Retention retention = new FileProperties.Retention();
+        retention.setDays(30);
+        fileProperties = new FileProperties();
+        fileProperties.setPaths(paths);
+        fileProperties.setRetention(retention);
+        fileProperties.setFlushIntervalMs(60000L);
+        fileProperties.setSegmentBlockRecords(100);
+        fileProperties.getCompaction().setMaxBytesPerSecond(0);
+        createServices();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        fileWriterService.closeAllWriters();
+        compactionService.stop();
+    }
+
+    @Test
+    void whenHourIsOver_thenItsMinuteFilesAreMergedIntoOneArchive() throws Exception {
+        fileWriterService.writeBatch(batch(HOUR, 0, 300));
+        fileWriterService.writeBatch(batch(HOUR + 60_000, 300, 300));
+        fileWriterService.closeAllWriters();
+        List<String> lines = new ArrayList<>();
+        for (Path file : list("filtered")) {
+            lines.addAll(Files.readAllLines(file));
+        }
+
+        compactionService.compact();
+
+        assertTrue(list("filtered").isEmpty());
+        assertTrue(list("temp").isEmpty());
+        Path archive = onlyFile("archive");
+        assertEquals("2024-01-01-10-" + fileWriterService.getInstanceId() + ".txt.gz", archive.getFileName().toString());
+        assertEquals(lines, gunzip(archive));
+        assertEquals(2.0, meterRegistry.get("filter.compaction.files").counter().count());
+        assertTrue(meterRegistry.get("filter.compaction.bytes.reclaimed").tag("reason", "compaction").counter().count() > 0);
+    }
+
+    @Test
+    void whenLateRecordsArrive_thenTheyAreAppendedToTheArchive() throws Exception {
+        fileWriterService.writeBatch(batch(HOUR, 0, 10));
+        fileWriterService.closeAllWriters();
+        compactionService.compact();
+
+        fileWriterService.writeBatch(batch(HOUR + 120_000, 10, 5));
+        fileWriterService.closeAllWriters();
+        compactionService.compact();
+
+        List<String> lines = gunzip(onlyFile("archive"));
+        assertEquals(15, lines.size());
+        assertTrue(lines.get(14).endsWith(",14"));
+    }
+
+    @Test
+    void whenFileIsStillOpen_thenItWaitsAndLagIsReported() throws Exception {
+        fileWriterService.writeBatch(batch(HOUR, 0, 10));
+
+        compactionService.compact();
+
+        assertEquals(1, list("filtered").size());
+        assertTrue(list("archive").isEmpty());
+        assertTrue(meterRegistry.get("filter.compaction.lag").gauge().value() > TimeUnit.DAYS.toSeconds(1));
+
+        fileWriterService.closeAllWriters();
+        compactionService.compact();
+
+        assertTrue(list("filtered").isEmpty());
+        assertEquals(0.0, meterRegistry.get("filter.compaction.lag").gauge().value());
+    }
+
+    @Test
+    void whenWindowIsCurrent_thenFilesAreLeftAlone() throws Exception {
+        fileWriterService.writeBatch(batch(System.currentTimeMillis(), 0, 10));
+        fileWriterService.closeAllWriters();
+
+        compactionService.compact();
+
+        assertEquals(1, list("filtered").size());
+        assertTrue(list("archive").isEmpty());
+    }
+
+    @Test
+    void whenFormatIsSegment_thenScheduledPassesLeaveMinuteFilesUnlessEnabled() throws Exception {
+        assertTrue(fileProperties.isCompactionEnabled());
+        fileProperties.setFormat(FileProperties.Format.SEGMENT);
+        assertFalse(fileProperties.isCompactionEnabled());
+        fileProperties.getCompaction().setEnabled(true);
+        assertTrue(fileProperties.isCompactionEnabled());
+        fileProperties.getCompaction().setEnabled(null);
+        fileProperties.getCompaction().setIntervalMs(10);
+        createServices();
+        fileWriterService.writeBatch(batch(HOUR, 0, 10));
+        fileWriterService.closeAllWriters();
+
+        compactionService.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("filter.compaction.duration").timer().count() < 2) {
+            assertTrue(System.nanoTime() < deadline, "no compaction pass ran within 5s");
+            Thread.sleep(5);
+        }
+
+        assertEquals(1, list("filtered").size());
+        assertTrue(list("archive").isEmpty());
+        assertEquals(0.0, meterRegistry.get("filter.compaction.files").counter().count());
+    }
+
+    @Test
+    void whenFilesAreSegments_thenBlocksAreCopiedIntoASegmentArchive() throws Exception {
+        fileProperties.setFormat(FileProperties.Format.SEGMENT);
+        fileProperties.getCompaction().setGranularity(FileProperties.Granularity.DAILY);
+        createServices();
+        List<DataRecordMessage> records = new ArrayList<>(batch(HOUR, 0, 250));
+        records.addAll(batch(HOUR + 3_600_000, 250, 50));
+        fileWriterService.writeBatch(records);
+        fileWriterService.closeAllWriters();
+
+        compactionService.compact();
+
+        Path archive = onlyFile("archive");
+        assertEquals("2024-01-01-" + fileWriterService.getInstanceId() + ".seg", archive.getFileName().toString());
+        SegmentReader segment = SegmentReader.open(archive);
+        assertTrue(segment.isClosed());
+        List<DataRecordMessage> read = new ArrayList<>();
+        segment.forEach(read::add);
+        assertEquals(records, read);
+    }
+
+    @Test
+    void whenCompactionWasInterrupted_thenClaimedFilesAreMergedNextPass() throws Exception {
+        fileWriterService.writeBatch(batch(HOUR, 0, 10));
+        fileWriterService.closeAllWriters();
+        Path file = onlyFile("filtered");
+        Files.move(file, file.resolveSibling(file.getFileName() + ".compacting"));
+        Files.createDirectories(directory.resolve("temp"));
+        Files.writeString(directory.resolve("temp").resolve("2024-01-01-10-" + fileWriterService.getInstanceId()
+                + ".txt.gz.staged"), "partial");
+
+        compactionService.compact();
+
+        assertTrue(list("filtered").isEmpty());
+        assertTrue(list("temp").isEmpty());
+        assertEquals(10, gunzip(onlyFile("archive")).size());
+    }
+
+    @Test
+    void whenFilesAreOlderThanRetention_thenTheyAreDeleted() throws Exception {
+        Path archive = Files.createDirectories(directory.resolve("archive"));
+        Path expired = Files.writeString(archive.resolve("2023-01-01-10-other.txt.gz"), "expired");
+        Path kept = Files.writeString(archive.resolve("2024-01-01-10-other.txt.gz"), "kept");
+        Files.setLastModifiedTime(expired, FileTime.from(Instant.now().minus(Duration.ofDays(31))));
+
+        compactionService.applyRetention();
+
+        assertFalse(Files.exists(expired));
+        assertTrue(Files.exists(kept));
+        assertEquals(7.0, meterRegistry.get("filter.compaction.bytes.reclaimed").tag("reason", "retention").counter().count());
+    }
+
+    private void createServices() {
+        if (fileWriterService != null) {
+            fileWriterService.closeAllWriters();
+        }
+        fileWriterService = new FileWriterService(fileProperties);
+        meterRegistry = new SimpleMeterRegistry();
+        compactionService = new CompactionService(fileProperties, fileWriterService, meterRegistry);
+    }
+
+    private static List<DataRecordMessage> batch(long start, int from, int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            records.add(new DataRecordMessage((long) i, start + i, i % 101, "ABCDEF"));
+        }
+        return records;
+    }
+
+    private static List<String> gunzip(Path archive) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archive))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+    }
+
+    private Path onlyFile(String subdirectory) throws IOException {
+        List<Path> files = list(subdirectory);
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> list(String subdirectory) throws IOException {
+        Path path = directory.resolve(subdirectory);
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.pipeline.DuplicateFilter;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateFilterTest {
+
+    private static final long TIMESTAMP = 1_700_000_040_000L;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void whenRecordsRepeat_thenOnlyTheirFirstOccurrenceIsKept() {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMinutes(5), 10_000, 0.001, meterRegistry);
+        List<DataRecordMessage> first = records(0, 100);
+
+        assertSame(first, filter.filter(first));
+
+        List<DataRecordMessage> resent = new ArrayList<>(records(90, 20));
+        resent.add(resent.get(15));
+        assertEquals(records(100, 10), filter.filter(resent));
+        assertEquals(11.0, meterRegistry.get("filter.dedup.duplicates").counter().count());
+    }
+
+    @Test
+    void whenRecordsShareTheMillisecondAndValue_thenDifferentIdsAreAllKept() {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMinutes(5), 10_000, 0.001, meterRegistry);
+        List<DataRecordMessage> sameInstant = List.of(new DataRecordMessage(1L, TIMESTAMP, 42, "AB"),
+                new DataRecordMessage(2L, TIMESTAMP, 42, "AB"));
+
+        assertSame(sameInstant, filter.filter(sameInstant));
+
+        // A resend keeps its ID, so it is a duplicate whatever else it carries
+        assertEquals(List.of(), filter.filter(List.of(new DataRecordMessage(2L, TIMESTAMP, 42, "AB"),
+                new DataRecordMessage(1L, TIMESTAMP + 5, 7, "CD"))));
+        assertEquals(2.0, meterRegistry.get("filter.dedup.duplicates").counter().count());
+    }
+
+    @Test
+    void whenRecordsHaveNoId_thenTheirFieldsIdentifyThem() {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMinutes(5), 10_000, 0.001, meterRegistry);
+
+        filter.filter(List.of(new DataRecordMessage(null, TIMESTAMP, 42, "AB"), new DataRecordMessage(null, null, null, null)));
+
+        assertEquals(List.of(), filter.filter(List.of(new DataRecordMessage(null, TIMESTAMP, 42, "AB"),
+                new DataRecordMessage(null, null, null, null))));
+        assertEquals(1, filter.filter(List.of(new DataRecordMessage(null, TIMESTAMP, 43, "AB"))).size());
+        assertEquals(1, filter.filter(List.of(new DataRecordMessage(null, TIMESTAMP, 42, "BA"))).size());
+        assertEquals(1, filter.filter(List.of(new DataRecordMessage(null, TIMESTAMP, null, "AB"))).size());
+        assertEquals(1, filter.filter(List.of(new DataRecordMessage(7L, TIMESTAMP, 42, "AB"))).size());
+    }
+
+    @Test
+    void whenTwoWindowsHavePassed_thenRecordsAreForgotten() throws InterruptedException {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMillis(50), 10_000, 0.001, meterRegistry);
+        filter.filter(records(0, 10));
+
+        Thread.sleep(60);
+        assertEquals(List.of(), filter.filter(records(0, 10)), "the previous generation still remembers them");
+        Thread.sleep(60);
+        filter.filter(records(1000, 1));
+        Thread.sleep(60);
+
+        assertEquals(records(0, 10), filter.filter(records(0, 10)));
+        assertEquals(3.0, meterRegistry.get("filter.dedup.rotations").counter().count());
+    }
+
+    @Test
+    void whenMoreRecordsArriveThanExpected_thenGenerationsRotateEarly() {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMinutes(5), 1_000, 1e-6, meterRegistry);
+        for (int i = 0; i < 10; i++) {
+            filter.filter(records(i * 500, 500));
+        }
+
+        assertEquals(4.0, meterRegistry.get("filter.dedup.rotations").counter().count());
+
+        // Rotates again: only the last 1000 records are still remembered
+        assertEquals(records(3000, 1000), filter.filter(records(3000, 2000)));
+        assertEquals(5.0, meterRegistry.get("filter.dedup.rotations").counter().count());
+    }
+
+    @Test
+    void whenRecordsAreUnique_thenFalsePositivesStayNearTheConfiguredRate() {
+        DuplicateFilter filter = new DuplicateFilter(Duration.ofMinutes(5), 100_000, 0.01, meterRegistry);
+        for (int i = 0; i < 100_000; i += 1000) {
+            filter.filter(records(i, 1000));
+        }
+
+        int kept = 0;
+        for (int i = 1_000_000; i < 1_100_000; i += 1000) {
+            kept += filter.filter(records(i, 1000)).size();
+        }
+
+        double falsePositives = (100_000 - kept) / 100_000.0;
+        assertTrue(falsePositives < 0.01, "false-positive rate " + falsePositives);
+    }
+
+    private static List<DataRecordMessage> records(int from, int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            records.add(new DataRecordMessage((long) i, TIMESTAMP + i, i % 101,
+                    String.format("%08X", i * 2654435761L & 0xFFFFFFFFL)));
+        }
+        return records;
+    }
+}
@@ -3,112 +3,153 @@ package com.dataflow.dataflowsystem.filter;
 import com.dataflow.dataflowsystem.filter.config.FileProperties;
 import com.dataflow.dataflowsystem.filter.service.FileWriterService;
 import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.Mock;
-import org.mockito.Mockito;
-import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.test.util.ReflectionTestUtils;
+import org.junit.jupiter.api.io.TempDir;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
 
-import java.lang.reflect.Field;
-import java.util.concurrent.ConcurrentHashMap;
+class FileWriterServiceTest {
 
-import static org.mockito.Mockito.*;
+    private static final long MINUTE = 1_700_000_040_000L;
 
-@ExtendWith(MockitoExtension.class)
-class FileWriterServiceTest {
+    @TempDir
+    Path directory;
 
-    @Mock
     private FileProperties fileProperties;
-
     private FileWriterService fileWriterService;
-    private Map<String, BufferedWriter> mockWriters;
 
     @BeforeEach
-    void setup() throws Exception {
+    void setup() {
         FileProperties.Paths paths = new FileProperties.Paths();
-        paths.setFiltered("/tmp/test-directory");
-        lenient().when(fileProperties.getPaths()).thenReturn(paths);
-        lenient().when(fileProperties.getFlushIntervalMs()).thenReturn(60000L);
-
+        paths.setFiltered(directory.toString());
+        fileProperties = new FileProperties();
+        fileProperties.setPaths(paths);
+        fileProperties.setFlushIntervalMs(60000L);
         fileWriterService = new FileWriterService(fileProperties);
+    }
 
-        mockWriters = new ConcurrentHashMap<>();
-        BufferedWriter mockWriter1 = mock(BufferedWriter.class);
-        BufferedWriter mockWriter2 = mock(BufferedWriter.class);
-        mockWriters.put("file1.txt", mockWriter1);
-        mockWriters.put("file2.txt", mockWriter2);
+    @AfterEach
+    void tearDown() {
+        fileWriterService.closeAllWriters();
+    }
 
-        ReflectionTestUtils.setField(fileWriterService, "writers", mockWriters);
+    @Test
+    void whenRecordsAreWritten_thenLinesKeepTheFormat() throws Exception {
+        List<DataRecordMessage> records = List.of(
+                new DataRecordMessage(7L, MINUTE, 95, "A1B2"),
+                new DataRecordMessage(null, MINUTE + 1, 3, "FF"),
+                new DataRecordMessage(-12L, MINUTE + 2, null, null),
+                new DataRecordMessage(Long.MAX_VALUE, MINUTE + 3, Integer.MIN_VALUE, "ÄÖ"));
+
+        fileWriterService.writeBatch(records);
+
+        List<String> expected = new ArrayList<>();
+        for (DataRecordMessage record : records) {
+            expected.add(format(record));
+        }
+        assertEquals(expected, Files.readAllLines(onlyFile()));
     }
 
     @Test
-    void testPeriodicFlush() throws Exception {
-        fileWriterService.flushAllBuffers();
+    void whenBatchSpansMinutes_thenEachMinuteHasItsFile() throws Exception {
+        fileWriterService.writeBatch(List.of(
+                new DataRecordMessage(1L, MINUTE, 10, "01"),
+                new DataRecordMessage(2L, MINUTE + 60_000, 20, "02"),
+                new DataRecordMessage(3L, MINUTE + 59_999, 30, "03")));
+
+        List<Path> files = files();
+        assertEquals(2, files.size());
+        assertEquals(2, Files.readAllLines(files.get(0)).size());
+        assertEquals(List.of(format(new DataRecordMessage(2L, MINUTE + 60_000, 20, "02"))),
+                Files.readAllLines(files.get(1)));
+    }
 
-        for (BufferedWriter writer : mockWriters.values()) {
-            Mockito.verify(writer, Mockito.times(1)).flush();
+    @Test
+    void whenRecordsOverflowABuffer_thenTheyContinueInTheNext() throws Exception {
+        fileProperties.setBufferBytes(128);
+        fileWriterService = new FileWriterService(fileProperties);
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            records.add(new DataRecordMessage((long) i, MINUTE, i, i == 25 ? "AB".repeat(100) : "C" + i));
+        }
+
+        fileWriterService.writeBatch(records);
+
+        List<String> lines = Files.readAllLines(onlyFile());
+        assertEquals(50, lines.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(format(records.get(i)), lines.get(i));
         }
     }
 
     @Test
-    void testFlushWithNoWriters() throws Exception {
-        Field writersField = FileWriterService.class.getDeclaredField("writers");
-        writersField.setAccessible(true);
-        writersField.set(fileWriterService, new HashMap<>());
+    void whenManyThreadsWrite_thenEveryLineArrivesWhole() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long thread = t;
+            writes.add(executor.submit(() -> {
+                for (int b = 0; b < 100; b++) {
+                    List<DataRecordMessage> batch = new ArrayList<>();
+                    for (int i = 0; i < 50; i++) {
+                        batch.add(new DataRecordMessage(thread * 1_000_000 + b * 100 + i, MINUTE, i, "ABCDEF"));
+                    }
+                    fileWriterService.writeBatch(batch);
+                }
+            }));
+        }
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        executor.shutdown();
 
-        fileWriterService.flushAllBuffers();
+        Set<String> lines = new HashSet<>(Files.readAllLines(onlyFile()));
+        assertEquals(8 * 100 * 50, lines.size());
+        assertTrue(lines.contains(format(new DataRecordMessage(7_009_949L, MINUTE, 49, "ABCDEF"))));
     }
 
     @Test
-    void testFlushWithIOException() throws Exception {
-        BufferedWriter mockWriter = mock(BufferedWriter.class);
-        Mockito.doThrow(new IOException("Test exception")).when(mockWriter).flush();
-
-        mockWriters.put("fileWithError.txt", mockWriter);
+    void whenWritersAreClosed_thenLaterBatchesAppend() throws Exception {
+        fileWriterService.flushAllBuffers();
+        fileWriterService.writeBatch(List.of(new DataRecordMessage(1L, MINUTE, 1, "01")));
         fileWriterService.flushAllBuffers();
+        fileWriterService.closeAllWriters();
+        assertTrue(fileWriterService.getFiles().isEmpty());
+
+        fileWriterService.writeBatch(List.of(new DataRecordMessage(2L, MINUTE, 2, "02")));
 
-        Mockito.verify(mockWriter, Mockito.times(1)).flush();
+        assertEquals(2, Files.readAllLines(onlyFile()).size());
     }
 
-//    @Test
-//    void testWriteCreatesBufferedWriter() throws Exception {
-//        ReflectionTestUtils.setField(fileWriterService, "instanceId", "TestInstance");
-//
-//        DataRecordMessage record = new DataRecordMessage();
-//        record.setTimestamp(Instant.now().toEpochMilli());
-//        record.setRandomValue(50);
-//        record.setHashValue("test-hash");
-//
-//        FileWriterService spyService = spy(fileWriterService);
-//        BufferedWriter mockWriter = mock(BufferedWriter.class);
-//        doReturn(mockWriter).when(spyService).createWriter(anyString());
-//
-//        spyService.write(record);
-//
-//        // Updated file path to include minutes
-//        String expectedFilePath = String.format("/tmp/test-directory/%s-TestInstance.txt",
-//                DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm") // Now grouping by minute
-//                        .format(Instant.ofEpochMilli(record.getTimestamp()).atZone(ZoneId.systemDefault()))
-//        );
-//        verify(spyService).createWriter(expectedFilePath);
-//        verify(mockWriter).write(contains("50,test-hash"));
-//    }
-//
-//
-//    @Test
-//    void testWriteHandlesNullRecord() {
-//        FileWriterService spyService = spy(fileWriterService);
-//        spyService.write(null);
-//        verify(spyService, never()).createWriter(anyString());
-//    }
+    private Path onlyFile() throws IOException {
+        List<Path> files = files();
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static String format(DataRecordMessage record) {
+        return record.getId() != null
+                ? String.format("%d,%d,%s,%d", record.getTimestamp(), record.getRandomValue(), record.getHashValue(), record.getId())
+                : String.format("%d,%d,%s", record.getTimestamp(), record.getRandomValue(), record.getHashValue());
+    }
 }
@@ -0,0 +1,111 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.FlowControlProperties;
+import com.dataflow.dataflowsystem.filter.service.FlowControlService;
+import com.dataflow.model.ControlMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FlowControlServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FlowControlProperties properties;
+    private FlowControlService flowControl;
+    private WebSocketSession session;
+
+    @BeforeEach
+    void setup() {
+        properties = new FlowControlProperties();
+        properties.setMaxInFlight(1000);
+        properties.setMinGrant(100);
+        properties.setTargetLatency(Duration.ofMillis(100));
+        flowControl = new FlowControlService(properties, meterRegistry);
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("generator");
+        when(session.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    void whenAttached_thenFullWindowIsGranted() throws Exception {
+        flowControl.attach(session);
+
+        assertEquals(List.of(1000L), grantedCredits());
+        assertEquals(1000, flowControl.getOutstanding());
+    }
+
+    @Test
+    void whenRecordsAreProcessed_thenCreditIsReplenished() throws Exception {
+        flowControl.attach(session);
+
+        flowControl.onReceived(600);
+        assertEquals(400, flowControl.getOutstanding());
+        assertEquals(600, flowControl.getInFlight());
+        flowControl.onProcessed(600, TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(List.of(1000L, 600L), grantedCredits());
+        assertEquals(1000, flowControl.getOutstanding());
+        assertEquals(0, flowControl.getInFlight());
+    }
+
+    @Test
+    void whenTopUpIsBelowMinGrant_thenItWaits() throws Exception {
+        flowControl.attach(session);
+
+        flowControl.onReceived(50);
+        flowControl.onProcessed(50, TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(List.of(1000L), grantedCredits());
+    }
+
+    @Test
+    void whenSinksAreSlow_thenWindowShrinks() throws Exception {
+        flowControl.attach(session);
+
+        flowControl.onReceived(1000);
+        flowControl.onProcessed(1000, TimeUnit.MILLISECONDS.toNanos(400));
+
+        assertEquals(250, flowControl.getWindow());
+        assertEquals(List.of(1000L, 250L), grantedCredits());
+    }
+
+    @Test
+    void whenDisabled_thenNoCreditIsSent() throws Exception {
+        properties.setEnabled(false);
+
+        flowControl.attach(session);
+        flowControl.refresh();
+
+        verify(session, never()).sendMessage(any());
+    }
+
+    private List<Long> grantedCredits() throws Exception {
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(session, atLeastOnce()).sendMessage(captor.capture());
+        return captor.getAllValues().stream()
+                .map(message -> readCredit(message.getPayload()))
+                .toList();
+    }
+
+    private Long readCredit(String payload) {
+        try {
+            ControlMessage message = objectMapper.readValue(payload, ControlMessage.class);
+            assertEquals(ControlMessage.Type.CREDIT, message.getType());
+            return message.getRecords();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.KafkaPublishProperties;
+import com.dataflow.dataflowsystem.filter.service.KafkaProducerService;
+import com.dataflow.dataflowsystem.filter.service.SpillDrainer;
+import com.dataflow.model.DataRecordMessage;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.autoconfigure.CircuitBreakerAutoConfiguration;
+import io.github.resilience4j.retry.autoconfigure.RetryAutoConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KafkaProducerServiceTest {
+
+    private static final long TIMESTAMP = 1_700_000_040_000L;
+
+    @TempDir
+    Path directory;
+
+    private KafkaPublishProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private RecordingTemplate template;
+    private KafkaProducerService producer;
+    private SpillDrainer drainer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void setup() {
+        properties = new KafkaPublishProperties();
+        properties.setMaxInFlightRecords(10);
+        meterRegistry = new SimpleMeterRegistry();
+        template = new RecordingTemplate();
+        createProducer();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        if (drainer != null) {
+            drainer.stop();
+        }
+        producer.stop();
+    }
+
+    @Test
+    void whenRecordsAreSent_thenTheyAreKeyedByHash() {
+        producer.sendBatch(records(3));
+
+        assertEquals(List.of("H0", "H1", "H2"), template.keys);
+        assertTrue(template.sends.stream().allMatch(send -> send.topic.equals("data-topic")));
+    }
+
+    @Test
+    void whenKeyedByTimeBucket_thenRecordsOfABucketShareAKey() {
+        properties.setKey(KafkaPublishProperties.KeyStrategy.TIME_BUCKET);
+        properties.setTimeBucket(Duration.ofMillis(2));
+        createProducer();
+
+        producer.sendBatch(records(4));
+
+        long bucket = TIMESTAMP / 2;
+        assertEquals(List.of(Long.toString(bucket), Long.toString(bucket), Long.toString(bucket + 1),
+                Long.toString(bucket + 1)), template.keys);
+    }
+
+    @Test
+    void whenEveryRecordIsAcknowledged_thenTheBatchCompletes() throws Exception {
+        CompletableFuture<Void> batch = producer.sendBatch(records(3));
+
+        template.acknowledge(0, 2);
+        assertThrows(TimeoutException.class, () -> batch.get(50, TimeUnit.MILLISECONDS));
+        template.acknowledge(2, 3);
+
+        batch.get(1, TimeUnit.SECONDS);
+        assertEquals(3, meterRegistry.get("kafka.producer.ack.latency").timer().count());
+        assertEquals(0.0, inFlightRecords());
+    }
+
+    @Test
+    void whenTheWindowIsFull_thenSendingBlocksUntilAcknowledgements() throws Exception {
+        producer.sendBatch(records(8));
+
+        Future<CompletableFuture<Void>> second = executor.submit(() -> producer.sendBatch(records(5)));
+
+        assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+        assertEquals(8, template.sends.size());
+        assertEquals(8.0, inFlightRecords());
+
+        template.acknowledge(0, 8);
+
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals(13, template.sends.size());
+        assertEquals(1.0, meterRegistry.get("kafka.producer.blocked").counter().count());
+    }
+
+    @Test
+    void whenABatchExceedsTheWindow_thenItIsSentOnceNothingElseIsInFlight() throws Exception {
+        producer.sendBatch(records(25));
+
+        assertEquals(25, template.sends.size());
+        assertEquals(25.0, inFlightRecords());
+    }
+
+    @Test
+    void whenTheBrokerRejectsARecord_thenTheBatchFailsAndReleasesItsWindow() throws Exception {
+        CompletableFuture<Void> batch = producer.sendBatch(records(3));
+
+        template.acknowledge(0, 2);
+        template.sends.get(2).future.completeExceptionally(new IllegalStateException("NOT_LEADER_OR_FOLLOWER"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> batch.get(1, TimeUnit.SECONDS));
+        assertEquals("NOT_LEADER_OR_FOLLOWER", e.getCause().getMessage());
+        assertEquals(1.0, meterRegistry.get("kafka.producer.failed").counter().count());
+        assertEquals(0.0, inFlightRecords());
+    }
+
+    @Test
+    void whenSendingThrows_thenTheBatchFailsOnceSentRecordsComplete() throws Exception {
+        template.failAfter = 2;
+        CompletableFuture<Void> batch = producer.sendBatch(records(5));
+
+        assertThrows(TimeoutException.class, () -> batch.get(50, TimeUnit.MILLISECONDS));
+        template.acknowledge(0, 2);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> batch.get(1, TimeUnit.SECONDS));
+        assertEquals("Topic data-topic not present in metadata", e.getCause().getMessage());
+        assertEquals(3.0, meterRegistry.get("kafka.producer.failed").counter().count());
+        assertEquals(0.0, inFlightRecords());
+    }
+
+    @Test
+    void whenSpillingIsOff_thenFallbackDropsTheBatch() {
+        producer.fallbackSendBatch(records(3), circuitOpen());
+
+        assertNull(producer.getSpill());
+        assertEquals(3.0, meterRegistry.get("kafka.producer.dropped").counter().count());
+    }
+
+    @Test
+    void whenFallbackSpills_thenTheBatchIsReplayedOnceTheBreakerCloses() throws Exception {
+        properties.getSpill().setDirectory(directory.toString());
+        properties.getSpill().setRetryIntervalMs(10);
+        createProducer();
+        CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.ofDefaults();
+        circuitBreakers.circuitBreaker("kafkaCircuitBreaker").transitionToOpenState();
+        drainer = new SpillDrainer(producer, properties, circuitBreakers, meterRegistry);
+        drainer.start();
+
+        producer.fallbackSendBatch(records(3), circuitOpen());
+        producer.fallbackRetrySendBatch(records(2), new IllegalStateException("broker down"));
+
+        assertEquals(5.0, meterRegistry.get("kafka.spill.records").gauge().value());
+        assertEquals(0.0, meterRegistry.get("kafka.producer.dropped").counter().count());
+        Thread.sleep(100);
+        assertTrue(template.sends.isEmpty());
+
+        circuitBreakers.circuitBreaker("kafkaCircuitBreaker").transitionToClosedState();
+        waitUntil(() -> template.sends.size() == 3);
+        template.sends.get(0).future.completeExceptionally(new IllegalStateException("NOT_LEADER_OR_FOLLOWER"));
+        template.acknowledge(1, 3);
+        waitUntil(() -> template.sends.size() == 6);
+        template.acknowledge(3, 6);
+        waitUntil(() -> template.sends.size() == 8);
+        template.acknowledge(6, 8);
+
+        waitUntil(() -> producer.getSpill().getRecords() == 0);
+        assertEquals(List.of("H0", "H1", "H2", "H0", "H1", "H2", "H0", "H1"), template.keys);
+        assertEquals(5.0, meterRegistry.get("kafka.spill.drained").counter().count());
+        assertEquals(1.0, meterRegistry.get("kafka.spill.drain.failures").counter().count());
+    }
+
+    @Test
+    void whenTheBrokerFailsOnce_thenTheBatchIsRetriedRatherThanSpilled() throws Exception {
+        properties.getSpill().setDirectory(directory.toString());
+        resilientContext().run(context -> {
+            KafkaProducerService resilient = context.getBean(KafkaProducerService.class);
+
+            CompletableFuture<Void> batch = resilient.sendBatch(records(2));
+            waitUntil(() -> template.sends.size() == 2);
+            template.sends.get(0).future.completeExceptionally(new IllegalStateException("NOT_LEADER_OR_FOLLOWER"));
+            template.acknowledge(1, 2);
+            waitUntil(() -> template.sends.size() == 4);
+            template.acknowledge(2, 4);
+
+            batch.get(1, TimeUnit.SECONDS);
+            assertEquals(0, resilient.getSpill().getRecords());
+            assertEquals(0.0, meterRegistry.get("kafka.spill.appended").counter().count());
+        });
+    }
+
+    @Test
+    void whenTheBreakerIsOpen_thenTheBatchIsSpilledWithoutSending() throws Exception {
+        properties.getSpill().setDirectory(directory.toString());
+        resilientContext().run(context -> {
+            KafkaProducerService resilient = context.getBean(KafkaProducerService.class);
+            context.getBean(CircuitBreakerRegistry.class).circuitBreaker("kafkaCircuitBreaker").transitionToOpenState();
+
+            resilient.sendBatch(records(3)).get(1, TimeUnit.SECONDS);
+
+            assertTrue(template.sends.isEmpty());
+            assertEquals(3, resilient.getSpill().getRecords());
+        });
+    }
+
+    /** The service behind the real circuit breaker and retry aspects, retrying after 10 ms. */
+    private ApplicationContextRunner resilientContext() throws InterruptedException {
+        producer.stop();
+        return new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(AopAutoConfiguration.class,
+                        CircuitBreakerAutoConfiguration.class, RetryAutoConfiguration.class))
+                .withPropertyValues("resilience4j.retry.instances.kafkaRetry.max-attempts=3",
+                        "resilience4j.retry.instances.kafkaRetry.wait-duration=10ms")
+                .withBean(KafkaProducerService.class, () -> {
+                    createProducer();
+                    return producer;
+                });
+    }
+
+    private static CallNotPermittedException circuitOpen() {
+        return CallNotPermittedException.createCallNotPermittedException(CircuitBreaker.ofDefaults("kafkaCircuitBreaker"));
+    }
+
+    private void createProducer() {
+        meterRegistry = new SimpleMeterRegistry();
+        producer = new KafkaProducerService(template, properties, meterRegistry, "data-topic");
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 5s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private double inFlightRecords() {
+        return meterRegistry.get("kafka.producer.in.flight.records").gauge().value();
+    }
+
+    private static List<DataRecordMessage> records(int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new DataRecordMessage((long) i, TIMESTAMP + i, 95, "H" + i));
+        }
+        return records;
+    }
+
+    private record Send(String topic, String key, CompletableFuture<SendResult<String, DataRecordMessage>> future) {
+    }
+
+    /** Keeps each send pending until the test acknowledges it. */
+    private static class RecordingTemplate extends KafkaTemplate<String, DataRecordMessage> {
+        private final List<Send> sends = new CopyOnWriteArrayList<>();
+        private final List<String> keys = new CopyOnWriteArrayList<>();
+        private int failAfter = Integer.MAX_VALUE;
+
+        RecordingTemplate() {
+            super(() -> null);
+        }
+
+        @Override
+        public CompletableFuture<SendResult<String, DataRecordMessage>> send(String topic, String key,
+                                                                           DataRecordMessage data) {
+            if (sends.size() == failAfter) {
+                throw new IllegalStateException("Topic " + topic + " not present in metadata");
+            }
+            Send send = new Send(topic, key, new CompletableFuture<>());
+            sends.add(send);
+            keys.add(key);
+            return send.future;
+        }
+
+        /** The producer factory gives no producer, and nothing is buffered outside {@link #sends}. */
+        @Override
+        public void flush() {
+        }
+
+        void acknowledge(int from, int to) {
+            for (int i = from; i < to; i++) {
+                sends.get(i).future.complete(null);
+            }
+        }
+    }
+}
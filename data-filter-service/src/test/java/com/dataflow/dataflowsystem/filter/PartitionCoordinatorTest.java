@@ -0,0 +1,122 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.PartitionProperties;
+import com.dataflow.dataflowsystem.filter.service.PartitionCoordinator;
+import com.dataflow.model.Subscription;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionCoordinatorTest {
+
+    private static final int PARTITIONS = 12;
+
+    private TestingServer zookeeper;
+    private final List<PartitionCoordinator> coordinators = new ArrayList<>();
+
+    @BeforeEach
+    void setup() throws Exception {
+        zookeeper = new TestingServer(true);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        coordinators.forEach(PartitionCoordinator::stop);
+        zookeeper.close();
+    }
+
+    @Test
+    void whenMembersJoin_thenThePartitionsAreSplitBetweenThem() throws Exception {
+        PartitionCoordinator a = join("a", Duration.ofMillis(10));
+        waitUntil(() -> a.getPartitions().equals(range(0, 12)));
+
+        PartitionCoordinator b = join("b", Duration.ofMillis(10));
+        PartitionCoordinator c = join("c", Duration.ofMillis(10));
+
+        waitUntil(() -> a.getPartitions().equals(range(0, 4)) && b.getPartitions().equals(range(4, 8))
+                && c.getPartitions().equals(range(8, 12)));
+        Subscription subscription = c.applyTo(null);
+        assertEquals(PARTITIONS, subscription.getPartitionCount().intValue());
+        assertEquals(range(8, 12), subscription.getPartitions());
+    }
+
+    @Test
+    void whenAMemberLeaves_thenTheOthersTakeOverItsPartitions() throws Exception {
+        PartitionCoordinator a = join("a", Duration.ofMillis(10));
+        PartitionCoordinator b = join("b", Duration.ofMillis(10));
+        PartitionCoordinator c = join("c", Duration.ofMillis(10));
+        waitUntil(() -> c.getPartitions().equals(range(8, 12)) && a.getPartitions().size() == 4);
+
+        c.stop();
+
+        waitUntil(() -> a.getPartitions().equals(range(0, 6)) && b.getPartitions().equals(range(6, 12)));
+    }
+
+    @Test
+    void whenPartitionsMove_thenLostOnesAreKeptForTheHandoffDelay() throws Exception {
+        PartitionCoordinator a = join("a", Duration.ofSeconds(1));
+        waitUntil(() -> a.getPartitions().equals(range(0, 12)));
+        AtomicInteger changes = new AtomicInteger();
+        a.onChange(changes::incrementAndGet);
+
+        PartitionCoordinator b = join("b", Duration.ofSeconds(1));
+        waitUntil(() -> b.getPartitions().equals(range(6, 12)));
+
+        assertEquals(range(0, 12), a.getPartitions());
+        waitUntil(() -> a.getPartitions().equals(range(0, 6)));
+        assertEquals(1, changes.get());
+    }
+
+    @Test
+    void whenDisabled_thenTheSubscriptionIsLeftAsItIs() throws Exception {
+        PartitionCoordinator coordinator = new PartitionCoordinator(new PartitionProperties(), new SimpleMeterRegistry());
+        coordinators.add(coordinator);
+        coordinator.start();
+        Subscription subscription = new Subscription();
+        subscription.setMinValue(91);
+
+        assertNull(coordinator.getPartitions());
+        assertSame(subscription, coordinator.applyTo(subscription));
+        assertNull(subscription.getPartitions());
+        assertNull(coordinator.applyTo(null));
+    }
+
+    private PartitionCoordinator join(String memberId, Duration handoffDelay) throws Exception {
+        PartitionProperties properties = new PartitionProperties();
+        properties.setEnabled(true);
+        properties.setConnectString(zookeeper.getConnectString());
+        properties.setMemberId(memberId);
+        properties.setPartitions(PARTITIONS);
+        properties.setHandoffDelay(handoffDelay);
+        PartitionCoordinator coordinator = new PartitionCoordinator(properties, new SimpleMeterRegistry());
+        coordinators.add(coordinator);
+        coordinator.start();
+        return coordinator;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().toList();
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 5s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
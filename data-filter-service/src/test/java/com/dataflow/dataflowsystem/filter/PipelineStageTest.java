@@ -0,0 +1,113 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.pipeline.PipelineStage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineStageTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<List<Integer>> calls = new CopyOnWriteArrayList<>();
+
+    @Test
+    void whenItemsQueueUp_thenWorkerTakesThemTogether() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage<Integer> stage = stage(4, 10, items -> {
+            calls.add(List.copyOf(items));
+            await(release);
+        });
+        stage.start();
+
+        stage.put(1);
+        waitUntil(() -> calls.size() == 1);
+        stage.put(4);
+        stage.put(4);
+        stage.put(4);
+        release.countDown();
+        stage.stop(Duration.ofSeconds(5));
+
+        assertEquals(List.of(List.of(1), List.of(4, 4, 4)), calls);
+        assertEquals(13.0, meterRegistry.get("filter.pipeline.records").tag("stage", "test").counter().count());
+    }
+
+    @Test
+    void whenQueueIsFull_thenPutBlocksUntilTheStageCatchesUp() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage<Integer> stage = stage(1, 1, items -> {
+            calls.add(List.copyOf(items));
+            await(release);
+        });
+        stage.start();
+        stage.put(1);
+        waitUntil(() -> calls.size() == 1);
+        stage.put(2);
+
+        AtomicBoolean third = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            try {
+                stage.put(3);
+                third.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(200);
+        assertFalse(third.get());
+        assertEquals(1, stage.getQueueDepth());
+
+        release.countDown();
+        producer.join(5000);
+        assertTrue(third.get());
+        stage.stop(Duration.ofSeconds(5));
+        assertEquals(List.of(List.of(1), List.of(2), List.of(3)), calls);
+        assertEquals(1.0, meterRegistry.get("filter.pipeline.blocked").tag("stage", "test").counter().count());
+    }
+
+    @Test
+    void whenHandlerFails_thenWorkerCarriesOn() throws Exception {
+        PipelineStage<Integer> stage = stage(4, 1, items -> {
+            calls.add(List.copyOf(items));
+            if (items.contains(1)) {
+                throw new IllegalStateException("sink down");
+            }
+        });
+        stage.start();
+        stage.put(1);
+        stage.put(2);
+        stage.stop(Duration.ofSeconds(5));
+
+        assertEquals(List.of(List.of(1), List.of(2)), calls);
+        assertThrows(IllegalStateException.class, () -> stage.put(3));
+    }
+
+    private PipelineStage<Integer> stage(int capacity, int maxRecords, Consumer<List<Integer>> handler) {
+        return new PipelineStage<>("test", capacity, 1, maxRecords, Integer::intValue, handler, meterRegistry);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
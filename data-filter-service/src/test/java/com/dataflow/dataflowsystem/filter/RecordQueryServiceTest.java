@@ -0,0 +1,191 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.query.QueryStats;
+import com.dataflow.dataflowsystem.filter.query.RecordQuery;
+import com.dataflow.dataflowsystem.filter.query.RecordQueryService;
+import com.dataflow.dataflowsystem.filter.service.CompactionService;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordQueryServiceTest {
+
+    private static final long HOUR = LocalDateTime.of(2024, 1, 1, 10, 0)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    /** Records per minute, 20 ms apart. */
+    private static final int PER_MINUTE = 3000;
+
+    @TempDir
+    Path directory;
+
+    private FileProperties fileProperties;
+    private FileWriterService fileWriterService;
+    private RecordQueryService queryService;
+
+    @BeforeEach
+    void setup() {
+        FileProperties.Paths paths = new FileProperties.Paths();
+        paths.setFiltered(directory.resolve("filtered").toString());
+        paths.setArchive(directory.resolve("archive").toString());
+        paths.setTemp(directory.resolve("temp").toString());
+        fileProperties = new FileProperties();
+        fileProperties.setPaths(paths);
+        fileProperties.setFlushIntervalMs(60000L);
+        fileProperties.setIndexRecords(500);
+        fileProperties.setSegmentBlockRecords(100);
+        fileProperties.getCompaction().setMaxBytesPerSecond(0);
+        createServices();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileWriterService.closeAllWriters();
+    }
+
+    @Test
+    void whenRangeIsPartOfAMinute_thenOnlyItsIndexedBytesAreRead() throws Exception {
+        List<DataRecordMessage> records = writeMinutes(3);
+        long from = HOUR + 60_000 + 10_000;
+        long to = from + 5_000;
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        QueryStats stats = queryService.query(new RecordQuery(from, to, null, null, null, 100_000), found::add);
+
+        assertEquals(inRange(records, from, to), found);
+        assertEquals(1, stats.getFilesRead());
+        long fileBytes = Files.size(directory.resolve("filtered").resolve(fileName(HOUR + 60_000, ".txt")));
+        assertTrue(stats.getBytesRead() * 4 < fileBytes, stats.getBytesRead() + " of " + fileBytes + " bytes read");
+    }
+
+    @Test
+    void whenValueCriteriaAreGiven_thenOnlyMatchingRecordsAreReturned() throws Exception {
+        List<DataRecordMessage> records = writeMinutes(2);
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        queryService.query(new RecordQuery(HOUR, HOUR + 120_000, 90, 95, "a", 100_000), found::add);
+
+        List<DataRecordMessage> expected = records.stream()
+                .filter(record -> record.getRandomValue() >= 90 && record.getRandomValue() <= 95)
+                .filter(record -> record.getHashValue().startsWith("A"))
+                .toList();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    void whenLimitIsReached_thenResultIsTruncated() throws Exception {
+        List<DataRecordMessage> records = writeMinutes(2);
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        QueryStats stats = queryService.query(new RecordQuery(HOUR, HOUR + 120_000, null, null, null, 10), found::add);
+
+        assertEquals(records.subList(0, 10), found);
+        assertTrue(stats.isTruncated());
+    }
+
+    @Test
+    void whenFilesAreSegmentsStillBeingWritten_thenTheyAreQueriedThroughTheIndex() throws Exception {
+        fileProperties.setFormat(FileProperties.Format.SEGMENT);
+        createServices();
+        List<DataRecordMessage> records = writeMinutes(2);
+        long from = HOUR + 30_000;
+        long to = HOUR + 90_000;
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        queryService.query(new RecordQuery(from, to, null, null, null, 100_000), found::add);
+
+        assertEquals(inRange(records, from, to), found);
+    }
+
+    @Test
+    void whenFilesPredateTheService_thenTheyAreScannedWhole() throws Exception {
+        List<DataRecordMessage> records = writeMinutes(2);
+        fileWriterService.closeAllWriters();
+        createServices();
+        long from = HOUR + 50_000;
+        long to = HOUR + 70_000;
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        queryService.query(new RecordQuery(from, to, null, null, null, 100_000), found::add);
+
+        assertEquals(inRange(records, from, to), found);
+    }
+
+    @Test
+    void whenFilesAreArchived_thenArchivesAndLateFilesAreReadInOrder() throws Exception {
+        List<DataRecordMessage> records = new ArrayList<>(writeMinutes(2));
+        fileWriterService.closeAllWriters();
+        new CompactionService(fileProperties, fileWriterService, new SimpleMeterRegistry()).compact();
+        List<DataRecordMessage> late = List.of(new DataRecordMessage(-1L, HOUR + 30_001, 50, "LATE"));
+        fileWriterService.writeBatch(late);
+        records.addAll(late);
+        records.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        QueryStats stats = queryService.query(new RecordQuery(HOUR + 30_000, HOUR + 30_100, null, null, null, 100), found::add);
+
+        assertEquals(2, stats.getFilesRead());
+        assertEquals(inRange(records, HOUR + 30_000, HOUR + 30_100), found);
+        assertEquals("LATE", found.get(1).getHashValue());
+    }
+
+    @Test
+    void whenTheLimitIsHeld_thenFilesStartingAfterItAreNotRead() throws Exception {
+        List<DataRecordMessage> records = writeMinutes(2);
+        fileWriterService.closeAllWriters();
+        new CompactionService(fileProperties, fileWriterService, new SimpleMeterRegistry()).compact();
+        fileWriterService.writeBatch(List.of(new DataRecordMessage(-1L, HOUR + 90_001, 50, "LATE")));
+
+        List<DataRecordMessage> found = new ArrayList<>();
+        QueryStats stats = queryService.query(new RecordQuery(HOUR, HOUR + 120_000, null, null, null, 10), found::add);
+
+        assertEquals(records.subList(0, 10), found);
+        assertEquals(1, stats.getFilesRead());
+        assertTrue(stats.isTruncated());
+    }
+
+    private void createServices() {
+        fileWriterService = new FileWriterService(fileProperties);
+        queryService = new RecordQueryService(fileProperties, fileWriterService, new SimpleMeterRegistry());
+    }
+
+    private List<DataRecordMessage> writeMinutes(int minutes) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < minutes * PER_MINUTE; i++) {
+            records.add(new DataRecordMessage((long) i, HOUR + i * 20L, i % 101,
+                    String.format("%08X", i * 2654435761L & 0xFFFFFFFFL)));
+        }
+        for (int i = 0; i < records.size(); i += 100) {
+            fileWriterService.writeBatch(records.subList(i, i + 100));
+        }
+        return records;
+    }
+
+    private String fileName(long minute, String extension) {
+        String window = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm")
+                .withZone(ZoneId.systemDefault()).format(Instant.ofEpochMilli(minute));
+        return window + "-" + fileWriterService.getInstanceId() + extension;
+    }
+
+    private static List<DataRecordMessage> inRange(List<DataRecordMessage> records, long from, long to) {
+        return records.stream()
+                .filter(record -> record.getTimestamp() >= from && record.getTimestamp() < to)
+                .toList();
+    }
+}
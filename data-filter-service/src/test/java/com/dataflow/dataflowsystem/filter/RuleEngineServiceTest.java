@@ -0,0 +1,160 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.RuleProperties;
+import com.dataflow.dataflowsystem.filter.rules.RecordColumns;
+import com.dataflow.dataflowsystem.filter.rules.RuleParser;
+import com.dataflow.dataflowsystem.filter.rules.RuleSet;
+import com.dataflow.dataflowsystem.filter.rules.RuleSyntaxException;
+import com.dataflow.dataflowsystem.filter.service.RuleEngineService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleEngineServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private RuleProperties properties;
+    private RuleEngineService ruleEngine;
+
+    @BeforeEach
+    void setup() {
+        properties = new RuleProperties();
+        ruleEngine = new RuleEngineService(properties, new DefaultResourceLoader(), meterRegistry);
+    }
+
+    @Test
+    void whenDefaultRulesAreLoaded_thenValuesAboveNinetyMatch() {
+        ruleEngine.init();
+
+        assertTrue(matches(record(91, "AB")));
+        assertFalse(matches(record(90, "AB")));
+        assertFalse(matches(record(null, "AB")));
+        assertEquals(1, ruleEngine.getRuleSet().getRules().get(0).getHitCount());
+        assertEquals(1.0, meterRegistry.get("filter.rule.hits").tag("rule", "high-value").functionCounter().count());
+    }
+
+    @Test
+    void whenExpressionsCombineComparisons_thenPrecedenceAndNullsAreRespected() {
+        Predicate<DataRecordMessage> rule = RuleParser.compile("value >= 10 and not value == 20 or hash startsWith 'F'");
+
+        assertTrue(rule.test(record(10, "00")));
+        assertFalse(rule.test(record(20, "00")));
+        assertTrue(rule.test(record(20, "FA")));
+        assertFalse(rule.test(record(null, null)));
+        assertTrue(RuleParser.compile("hash == null").test(record(5, null)));
+        assertTrue(RuleParser.compile("(value < 5 || value > 95) && hash != 'AA'").test(record(99, "AB")));
+        assertFalse(RuleParser.compile("value != 5").test(record(null, "AB")));
+    }
+
+    @Test
+    void whenBatchIsEvaluatedByColumn_thenSelectionMatchesRecordByRecord() {
+        String[] expressions = {
+                "value > 90", "value != 50", "value <= -1", "value < 0 or value >= 2147483647",
+                "timestamp >= 1000 and timestamp < 5000", "id == null", "not id > 100",
+                "hash startsWith 'F' && value < 10", "hash == null or hash >= 'C0'", "value == null", "true", "false"};
+        SplittableRandom random = new SplittableRandom(7);
+        RecordColumns columns = new RecordColumns();
+        for (int size : new int[]{1, 63, 64, 65, 130, 1000}) {
+            List<DataRecordMessage> batch = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                batch.add(new DataRecordMessage(
+                        random.nextInt(8) == 0 ? null : (long) random.nextInt(200),
+                        random.nextInt(8) == 0 ? null : (long) random.nextInt(6000),
+                        random.nextInt(8) == 0 ? null : random.nextInt(-5, 101),
+                        random.nextInt(8) == 0 ? null : String.format("%02X", random.nextInt(256))));
+            }
+            columns.load(batch);
+            for (String expression : expressions) {
+                Predicate<DataRecordMessage> row = RuleParser.compile(expression);
+                long[] selection = new long[columns.words()];
+                RuleParser.compileColumns(expression).evaluate(columns, selection);
+                for (int i = 0; i < size; i++) {
+                    assertEquals(row.test(batch.get(i)), (selection[i >>> 6] & (1L << i)) != 0,
+                            expression + " on record " + i + " of " + size);
+                }
+                assertEquals(0, size % 64 == 0 ? 0 : selection[size >>> 6] >>> (size % 64), expression + " tail");
+            }
+        }
+    }
+
+    @Test
+    void whenBatchIsSelected_thenEachRecordIsCreditedToItsFirstRule() {
+        ruleEngine.replace("high: value > 90\ntop: value >= 95\n", "test");
+        RecordColumns columns = new RecordColumns();
+        columns.load(List.of(record(99, "AB"), record(10, "AB"), record(91, "AB"), record(null, "AB")));
+
+        long[] selection = ruleEngine.select(columns);
+
+        assertEquals(0b0101L, selection[0]);
+        assertEquals(2, ruleEngine.getRuleSet().getRules().get(0).getHitCount());
+        assertEquals(0, ruleEngine.getRuleSet().getRules().get(1).getHitCount());
+    }
+
+    @Test
+    void whenExpressionIsInvalid_thenErrorNamesLineAndColumn() {
+        RuleSyntaxException unknownField = assertThrows(RuleSyntaxException.class,
+                () -> RuleSet.parse("# rules\nbad: value > 1 and size < 3", "test"));
+        assertEquals("line 2, column 15: unknown field 'size'", unknownField.getMessage());
+
+        assertThrows(RuleSyntaxException.class, () -> RuleParser.compile("value > 'x'"));
+        assertThrows(RuleSyntaxException.class, () -> RuleParser.compile("(value > 1"));
+        assertThrows(RuleSyntaxException.class, () -> RuleParser.compile("value < null"));
+        assertThrows(RuleSyntaxException.class, () -> RuleSet.parse("a: true\na: false", "test"));
+    }
+
+    @Test
+    void whenReplacementDoesNotCompile_thenActiveRulesAreKept() {
+        ruleEngine.init();
+
+        assertThrows(RuleSyntaxException.class, () -> ruleEngine.replace("low: value <", "test"));
+        assertTrue(matches(record(95, "AB")));
+
+        ruleEngine.replace("low: value < 10", "test");
+        assertFalse(matches(record(95, "AB")));
+        assertTrue(matches(record(5, "AB")));
+        assertEquals("test", ruleEngine.getRuleSet().getOrigin());
+        assertThrows(Exception.class, () -> meterRegistry.get("filter.rule.hits").tag("rule", "high-value").functionCounter());
+    }
+
+    @Test
+    void whenRulesFileChanges_thenItIsReloaded(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("filter.rules");
+        Files.writeString(file, "high: value > 50\n");
+        properties.setLocation(file.toUri().toString());
+        ruleEngine.init();
+        assertTrue(matches(record(60, "AB")));
+
+        Files.writeString(file, "high: value > 70\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        ruleEngine.reloadIfChanged();
+        assertFalse(matches(record(60, "AB")));
+
+        Files.writeString(file, "high: value >\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        ruleEngine.reloadIfChanged();
+        assertTrue(matches(record(80, "AB")));
+    }
+
+    private boolean matches(DataRecordMessage record) {
+        RecordColumns columns = new RecordColumns();
+        columns.load(List.of(record));
+        return (ruleEngine.select(columns)[0] & 1L) != 0;
+    }
+
+    private static DataRecordMessage record(Integer value, String hash) {
+        return new DataRecordMessage(1L, System.currentTimeMillis(), value, hash);
+    }
+}
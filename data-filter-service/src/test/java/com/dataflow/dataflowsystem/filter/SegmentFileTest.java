@@ -0,0 +1,183 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.config.FileProperties;
+import com.dataflow.dataflowsystem.filter.service.FileWriterService;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFile;
+import com.dataflow.dataflowsystem.filter.sink.SegmentFormat;
+import com.dataflow.dataflowsystem.filter.sink.SegmentReader;
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentFileTest {
+
+    private static final long MINUTE = 1_700_000_040_000L;
+
+    @TempDir
+    Path directory;
+
+    private FileProperties fileProperties;
+    private FileWriterService fileWriterService;
+
+    @BeforeEach
+    void setup() {
+        FileProperties.Paths paths = new FileProperties.Paths();
+        paths.setFiltered(directory.toString());
+        fileProperties = new FileProperties();
+        fileProperties.setPaths(paths);
+        fileProperties.setFlushIntervalMs(60000L);
+        fileProperties.setFormat(FileProperties.Format.SEGMENT);
+        fileProperties.setSegmentBlockRecords(100);
+        fileWriterService = new FileWriterService(fileProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileWriterService.closeAllWriters();
+    }
+
+    @Test
+    void whenRecordsAreWritten_thenTheyReadBackUnchanged() throws Exception {
+        List<DataRecordMessage> records = List.of(
+                new DataRecordMessage(7L, MINUTE, 95, "A1B2"),
+                new DataRecordMessage(null, MINUTE + 1, 3, "FF"),
+                new DataRecordMessage(-12L, MINUTE + 2, null, null),
+                new DataRecordMessage(Long.MAX_VALUE, MINUTE + 3, Integer.MIN_VALUE, "ÄÖ"));
+
+        fileWriterService.writeBatch(records);
+        fileWriterService.closeAllWriters();
+
+        SegmentReader segment = SegmentReader.open(onlyFile());
+        assertTrue(segment.isClosed());
+        assertEquals(records, readAll(segment));
+    }
+
+    @Test
+    void whenSegmentIsReopened_thenLaterBatchesAppend() throws Exception {
+        List<DataRecordMessage> first = batch(0, 250);
+        List<DataRecordMessage> second = batch(250, 30);
+
+        fileWriterService.writeBatch(first);
+        fileWriterService.closeAllWriters();
+        fileWriterService.writeBatch(second);
+        fileWriterService.closeAllWriters();
+
+        SegmentReader segment = SegmentReader.open(onlyFile());
+        assertTrue(segment.isClosed());
+        assertEquals(4, segment.getBlocks().size());
+        List<DataRecordMessage> expected = new ArrayList<>(first);
+        expected.addAll(second);
+        assertEquals(expected, readAll(segment));
+    }
+
+    @Test
+    void whenSegmentWasNotClosed_thenBlocksAreFoundWithoutTheFooter() throws Exception {
+        fileWriterService.writeBatch(batch(0, 150));
+
+        SegmentReader segment = SegmentReader.open(onlyFile());
+        assertFalse(segment.isClosed());
+        assertEquals(150, segment.getRecordCount());
+    }
+
+    @Test
+    void whenLastBlockIsTorn_thenReopeningCutsItOff() throws Exception {
+        Path path = directory.resolve("torn.seg");
+        List<DataRecordMessage> records = batch(0, 150);
+        SegmentFile file = SegmentFile.open(path, false, 100);
+        file.write(records);
+        // Simulate a crash mid-write: no footer, and the last block half there
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 20);
+        }
+
+        SegmentFile reopened = SegmentFile.open(path, false, 100);
+        reopened.write(batch(150, 10));
+        reopened.close();
+
+        List<DataRecordMessage> expected = new ArrayList<>(records.subList(0, 100));
+        expected.addAll(batch(150, 10));
+        assertEquals(expected, readAll(SegmentReader.open(path)));
+    }
+
+    @Test
+    void whenReadingATimeRange_thenOnlyMatchingRecordsArePassed() throws Exception {
+        fileWriterService.writeBatch(batch(0, 500));
+        fileWriterService.closeAllWriters();
+
+        SegmentReader segment = SegmentReader.open(onlyFile());
+        List<DataRecordMessage> read = new ArrayList<>();
+        segment.forEach(MINUTE + 120, MINUTE + 130, read::add);
+
+        assertEquals(batch(0, 500).subList(120, 130), read);
+        assertEquals(1, segment.getBlocks().stream().filter(block -> block.overlaps(MINUTE + 120, MINUTE + 130)).count());
+    }
+
+    @Test
+    void whenRecordsRepeat_thenSegmentIsSmallerThanText() throws Exception {
+        List<DataRecordMessage> records = batch(0, 2000);
+        fileWriterService.writeBatch(records);
+        fileWriterService.closeAllWriters();
+        long segmentBytes = Files.size(onlyFile());
+
+        fileProperties.setFormat(FileProperties.Format.TEXT);
+        FileWriterService textWriter = new FileWriterService(fileProperties);
+        textWriter.writeBatch(records);
+        textWriter.closeAllWriters();
+        long textBytes = Files.size(files().stream().filter(path -> path.toString().endsWith(".txt")).findFirst().orElseThrow());
+
+        assertTrue(segmentBytes * 2 < textBytes, segmentBytes + " bytes vs " + textBytes + " as text");
+    }
+
+    @Test
+    void whenRecordsArriveMillisecondsApart_thenTimestampsAreStoredNarrow() throws Exception {
+        List<DataRecordMessage> records = batch(0, 4096);
+
+        ByteBuffer block = SegmentFormat.encodeBlock(records);
+
+        // The flags byte follows the block magic
+        assertEquals(0, block.get(4) & SegmentFormat.FLAG_WIDE_TIMESTAMPS);
+        fileWriterService.writeBatch(records);
+        fileWriterService.closeAllWriters();
+        assertEquals(records, readAll(SegmentReader.open(onlyFile())));
+    }
+
+    private static List<DataRecordMessage> batch(int from, int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            records.add(new DataRecordMessage(1_000_000L + i, MINUTE + i, i % 101, String.format("%08X", i * 2654435761L & 0xFFFFFFFFL)));
+        }
+        return records;
+    }
+
+    private static List<DataRecordMessage> readAll(SegmentReader segment) throws IOException {
+        List<DataRecordMessage> records = new ArrayList<>();
+        segment.forEach(records::add);
+        return records;
+    }
+
+    private Path onlyFile() throws IOException {
+        List<Path> files = files();
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.sink.SpillLog;
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillLogTest {
+
+    private static final long TIMESTAMP = 1_700_000_040_000L;
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    private SpillLog spill;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    @Test
+    void whenBatchesAreCommitted_thenTheyComeOutInOrderAndReadSegmentsAreDeleted() throws Exception {
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 1 << 20);
+        List<List<DataRecordMessage>> batches = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            batches.add(batch(i * 20, 20));
+            assertTrue(spill.append(batches.get(i)));
+        }
+        assertEquals(800, spill.getRecords());
+        assertEquals(TIMESTAMP, spill.getOldestTimestamp());
+        assertTrue(segmentFiles().size() > 2, "batches should span several segments");
+
+        for (List<DataRecordMessage> expected : batches) {
+            SpillLog.Entry entry = spill.peek();
+            assertEquals(expected, entry.records());
+            assertEquals(expected, spill.peek().records());
+            spill.commit(entry);
+        }
+
+        assertNull(spill.peek());
+        assertEquals(0, spill.getRecords());
+        assertEquals(0, spill.getBytes());
+        assertEquals(SpillLog.NONE, spill.getOldestTimestamp());
+        assertEquals(1, segmentFiles().size());
+    }
+
+    @Test
+    void whenReopened_thenUncommittedBatchesAreReplayedFromTheCheckpoint() throws Exception {
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 1 << 20);
+        for (int i = 0; i < 30; i++) {
+            spill.append(batch(i * 20, 20));
+        }
+        for (int i = 0; i < 12; i++) {
+            spill.commit(spill.peek());
+        }
+        SpillLog.Entry uncommitted = spill.peek();
+        spill.close();
+
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 1 << 20);
+
+        assertEquals(18 * 20, spill.getRecords());
+        assertEquals(uncommitted.records(), spill.peek().records());
+        assertEquals(TIMESTAMP + 12 * 20, spill.getOldestTimestamp());
+        spill.append(batch(600, 20));
+        List<DataRecordMessage> replayed = new ArrayList<>();
+        SpillLog.Entry entry;
+        while ((entry = spill.peek()) != null) {
+            replayed.addAll(entry.records());
+            spill.commit(entry);
+        }
+        assertEquals(batch(240, 380), replayed);
+    }
+
+    @Test
+    void whenTheLastAppendWasTorn_thenReopeningDropsOnlyThatBatch() throws Exception {
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 1 << 20);
+        spill.append(batch(0, 20));
+        spill.append(batch(20, 20));
+        spill.close();
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Flip a byte of the second block's payload
+            long at = 8 + blockBytes(channel, 8) + 50;
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), at);
+        }
+
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 1 << 20);
+
+        assertEquals(20, spill.getRecords());
+        assertTrue(spill.append(batch(100, 5)));
+        spill.commit(spill.peek());
+        assertEquals(batch(100, 5), spill.peek().records());
+    }
+
+    @Test
+    void whenTheLogIsFull_thenAppendIsRefused() throws Exception {
+        spill = SpillLog.open(directory, SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        int appended = 0;
+        while (spill.append(batch(appended * 20, 20))) {
+            appended++;
+        }
+
+        assertTrue(appended > 2);
+        assertEquals(appended * 20L, spill.getRecords());
+        assertEquals(2 * SEGMENT_BYTES, spill.getDiskBytes());
+
+        while (spill.getDiskBytes() == 2 * SEGMENT_BYTES) {
+            spill.commit(spill.peek());
+        }
+        assertTrue(spill.append(batch(10_000, 20)));
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("spill-")).sorted().toList();
+        }
+    }
+
+    /** Size of the block at {@code offset}: a 40 byte header and its stored payload. */
+    private static long blockBytes(FileChannel channel, long offset) throws IOException {
+        ByteBuffer storedBytes = ByteBuffer.allocate(4);
+        channel.read(storedBytes, offset + 16);
+        return 40 + storedBytes.flip().getInt();
+    }
+
+    private static List<DataRecordMessage> batch(int from, int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            records.add(new DataRecordMessage((long) i, TIMESTAMP + i, i % 101, String.format("%08X", i * 2654435761L & 0xFFFFFFFFL)));
+        }
+        return records;
+    }
+}
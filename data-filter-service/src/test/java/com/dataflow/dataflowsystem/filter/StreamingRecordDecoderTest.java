@@ -0,0 +1,95 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.service.StreamingRecordDecoder;
+import com.dataflow.model.DataRecordMessage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingRecordDecoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<DataRecordMessage> decoded = new ArrayList<>();
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private StreamingRecordDecoder decoder;
+
+    @BeforeEach
+    void setup() {
+        decoder = new StreamingRecordDecoder(new JsonFactory(), 3, chunk -> {
+            chunkSizes.add(chunk.size());
+            decoded.addAll(chunk);
+        });
+    }
+
+    @Test
+    void whenMessageArrivesWhole_thenRecordsArePassedOnInChunks() throws Exception {
+        List<DataRecordMessage> records = records(7);
+        byte[] json = objectMapper.writeValueAsBytes(records);
+
+        assertEquals(7, decoder.feed(json, 0, json.length, true));
+
+        assertEquals(records, decoded);
+        assertEquals(List.of(3, 3, 1), chunkSizes);
+    }
+
+    @Test
+    void whenMessageIsFragmentedAnywhere_thenSameRecordsAreDecoded() throws Exception {
+        List<DataRecordMessage> records = records(4);
+        byte[] json = objectMapper.writeValueAsBytes(records);
+
+        for (int split = 0; split <= json.length; split++) {
+            decoded.clear();
+            decoder.feed(json, 0, split, false);
+            decoder.feed(json, split, json.length - split, true);
+            assertEquals(records, decoded, "split at " + split);
+        }
+    }
+
+    @Test
+    void whenRecordsHaveNullsAndUnknownFields_thenTheyAreDecoded() throws Exception {
+        feed("""
+                [{"id":null,"timestamp":"1700000000000","randomValue":91,"hashValue":null,
+                  "meta":{"tags":[1,{"x":[]}],"source":"replay"}},
+                 {"hashValue":"AB","extra":[[]],"randomValue":-3}]""");
+
+        assertEquals(List.of(
+                new DataRecordMessage(null, 1700000000000L, 91, null),
+                new DataRecordMessage(null, null, -3, "AB")), decoded);
+    }
+
+    @Test
+    void whenMessageIsMalformed_thenRestOfItIsSkippedAndNextMessageDecodes() throws Exception {
+        byte[] bad = "[{\"timestamp\":1,\"randomValue\":5},{\"randomValue\":true,".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> decoder.feed(bad, 0, bad.length, false));
+        byte[] tail = ",\"hashValue\":\"AB\"}]".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, decoder.feed(tail, 0, tail.length, true));
+        assertTrue(decoded.isEmpty());
+
+        feed(objectMapper.writeValueAsString(records(2)));
+        assertEquals(records(2), decoded);
+
+        assertThrows(IOException.class, () -> feed("[{\"randomValue\":1}"));
+        assertThrows(IOException.class, () -> feed("{\"randomValue\":1}"));
+    }
+
+    private void feed(String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        decoder.feed(bytes, 0, bytes.length, true);
+    }
+
+    private static List<DataRecordMessage> records(int count) {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new DataRecordMessage(1000L + i, 1700000000000L + i, i * 13 % 101, String.format("%02X", i * 37 % 256)));
+        }
+        return records;
+    }
+}
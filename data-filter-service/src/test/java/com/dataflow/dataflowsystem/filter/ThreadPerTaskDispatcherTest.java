@@ -0,0 +1,88 @@
+package com.dataflow.dataflowsystem.filter;
+
+import com.dataflow.dataflowsystem.filter.pipeline.ThreadPerTaskDispatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadPerTaskDispatcherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // Platform threads stand in for virtual ones, so this runs on any JVM
+    private final ThreadFactory threads = runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    @Test
+    void whenForkJoinReturns_thenBothHaveRunInParallel() {
+        ThreadPerTaskDispatcher dispatcher = new ThreadPerTaskDispatcher("test", 4, threads, meterRegistry);
+        CountDownLatch inlineStarted = new CountDownLatch(1);
+        AtomicBoolean forkedDone = new AtomicBoolean();
+
+        dispatcher.forkJoin(() -> {
+            // Only completes if the inline part runs at the same time
+            await(inlineStarted);
+            sleep(100);
+            forkedDone.set(true);
+        }, inlineStarted::countDown);
+
+        assertTrue(forkedDone.get());
+    }
+
+    @Test
+    void whenAllSlotsAreTaken_thenSubmitBlocksUntilOneFrees() throws Exception {
+        ThreadPerTaskDispatcher dispatcher = new ThreadPerTaskDispatcher("test", 1, threads, meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch secondRan = new CountDownLatch(1);
+        dispatcher.submit(() -> await(release));
+
+        Thread producer = new Thread(() -> {
+            try {
+                dispatcher.submit(secondRan::countDown);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(secondRan.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, dispatcher.getInFlight());
+
+        release.countDown();
+        assertTrue(secondRan.await(5, TimeUnit.SECONDS));
+        producer.join(5000);
+        dispatcher.stop(Duration.ofSeconds(5));
+        assertEquals(0, dispatcher.getInFlight());
+        assertEquals(1.0, meterRegistry.get("filter.pipeline.blocked").tag("stage", "test").counter().count());
+        assertThrows(IllegalStateException.class, () -> dispatcher.submit(() -> { }));
+    }
+
+    @Test
+    void virtualThreadsAreOfferedFromJava21() {
+        assertEquals(Runtime.version().feature() >= 21, ThreadPerTaskDispatcher.virtualThreads("test-").isPresent());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
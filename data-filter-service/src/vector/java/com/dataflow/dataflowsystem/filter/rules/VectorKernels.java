@@ -0,0 +1,71 @@
+package com.dataflow.dataflowsystem.filter.rules;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the {@link ColumnKernels} range checks, in their own source set
+ * so only this class is compiled against the incubator module. Only loaded once
+ * {@link ColumnKernels} has found the module, so the service still starts without it.
+ * Each 64-record word is built from whole-register compares, whose lane masks are already
+ * in bitmap order; records past the last full register are checked one at a time.
+ * {@code lo <= v <= hi} is tested as one unsigned compare, {@code v - lo <= hi - lo},
+ * which also holds across the full range where the subtraction wraps.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {
+    }
+
+    /** Worth using only if a register holds more than one long. */
+    static boolean isUseful() {
+        return LONGS.length() > 1;
+    }
+
+    static void intRange(int[] column, int size, int lo, int hi, long[] out) {
+        int lanes = INTS.length();
+        IntVector min = IntVector.broadcast(INTS, lo);
+        IntVector span = IntVector.broadcast(INTS, hi - lo);
+        for (int w = 0, base = 0; base < size; w++, base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            int i = base;
+            for (; i + lanes <= end; i += lanes) {
+                word |= IntVector.fromArray(INTS, column, i).sub(min)
+                        .compare(VectorOperators.UNSIGNED_LE, span).toLong() << (i - base);
+            }
+            for (; i < end; i++) {
+                if (column[i] >= lo && column[i] <= hi) {
+                    word |= 1L << (i - base);
+                }
+            }
+            out[w] = word;
+        }
+    }
+
+    static void longRange(long[] column, int size, long lo, long hi, long[] out) {
+        int lanes = LONGS.length();
+        LongVector min = LongVector.broadcast(LONGS, lo);
+        LongVector span = LongVector.broadcast(LONGS, hi - lo);
+        for (int w = 0, base = 0; base < size; w++, base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            int i = base;
+            for (; i + lanes <= end; i += lanes) {
+                word |= LongVector.fromArray(LONGS, column, i).sub(min)
+                        .compare(VectorOperators.UNSIGNED_LE, span).toLong() << (i - base);
+            }
+            for (; i < end; i++) {
+                if (column[i] >= lo && column[i] <= hi) {
+                    word |= 1L << (i - base);
+                }
+            }
+            out[w] = word;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.dataflow.dataflowsystem.generator.batch;
+
+import com.dataflow.dataflowsystem.generator.buffer.BatchBuffer;
+import com.dataflow.dataflowsystem.generator.engine.RecordSink;
+import com.dataflow.dataflowsystem.generator.service.DataGeneratorService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides when a batch leaves the generator: as soon as {@code batch.size} records are
+ * buffered, or when the oldest buffered record has waited {@code batch.linger-ms},
+ * whichever comes first. With the fast lane enabled, a record above the threshold
+ * triggers an immediate flush of everything buffered ahead of it.
+ * <p>
+ * Generated records enter through {@link #accept}; the flush itself is
+ * {@link DataGeneratorService#sendBatch}, run on a dedicated thread. The pending count
+ * only covers records offered by this instance, so the batcher also polls the buffer
+ * once per linger period to pick up anything else that landed there. Records also leave
+ * the buffer without being sent here, evicted on overflow or drained by another instance,
+ * so after each flush the count is capped at what the buffer still holds.
+ */
+@Component
+@Slf4j
+public class AdaptiveBatcher implements RecordSink {
+
+    private final BatchBuffer batchBuffer;
+    private final DataGeneratorService dataGeneratorService;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final boolean fastLaneEnabled;
+    private final int fastLaneThreshold;
+
+    private final AtomicLong pending = new AtomicLong();
+    private volatile long firstPendingNanos;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean fastLaneRequested;
+    private volatile boolean running;
+    private Thread flusher;
+
+    private final DistributionSummary fillRatio;
+    private final Timer recordWait;
+    private final Counter sizeFlushes;
+    private final Counter lingerFlushes;
+    private final Counter fastLaneFlushes;
+
+    public AdaptiveBatcher(BatchBuffer batchBuffer,
+                           DataGeneratorService dataGeneratorService,
+                           MeterRegistry meterRegistry,
+                           @Value("${batch.size:100}") int batchSize,
+                           @Value("${batch.linger-ms:100}") long lingerMs,
+                           @Value("${batch.fast-lane.enabled:false}") boolean fastLaneEnabled,
+                           @Value("${batch.fast-lane.threshold:90}") int fastLaneThreshold) {
+        this.batchBuffer = batchBuffer;
+        this.dataGeneratorService = dataGeneratorService;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, lingerMs));
+        this.fastLaneEnabled = fastLaneEnabled;
+        this.fastLaneThreshold = fastLaneThreshold;
+
+        this.fillRatio = DistributionSummary.builder("generator.batch.fill.ratio")
+                .description("Records per sent batch as a fraction of batch.size")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(0.01)
+                .maximumExpectedValue(1.0)
+                .register(meterRegistry);
+        this.recordWait = Timer.builder("generator.batch.record.wait")
+                .description("Time from record creation until its batch was handed to the sessions")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.sizeFlushes = flushCounter(meterRegistry, "size");
+        this.lingerFlushes = flushCounter(meterRegistry, "linger");
+        this.fastLaneFlushes = flushCounter(meterRegistry, "fast-lane");
+    }
+
+    private static Counter flushCounter(MeterRegistry meterRegistry, String trigger) {
+        return Counter.builder("generator.batch.flushes")
+                .description("Batches sent, by what triggered the flush")
+                .tag("trigger", trigger)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void accept(long id, long timestamp, int randomValue, String hashValue) {
+        if (!batchBuffer.offer(id, timestamp, randomValue, hashValue)) {
+            return;
+        }
+        long count = pending.incrementAndGet();
+        if (count == 1) {
+            firstPendingNanos = System.nanoTime();
+        }
+        if (fastLaneEnabled && randomValue > fastLaneThreshold) {
+            fastLaneRequested = true;
+            wake();
+        } else if (count >= batchSize) {
+            wake();
+        }
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::run, "generator-batcher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Adaptive batcher started: size={}, linger={}ms, fastLane={}",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(lingerNanos),
+                fastLaneEnabled ? ">" + fastLaneThreshold : "off");
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flusher = null;
+        }
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    private void wake() {
+        if (flushRequested.compareAndSet(false, true)) {
+            Thread thread = flusher;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void run() {
+        // If records are pending but a flush sent nothing (no credit, send failure), wait a full
+        // linger period before trying again so a stalled consumer does not turn into a busy loop
+        long backoffUntil = 0;
+        while (running) {
+            long deadline = pending.get() > 0 ? firstPendingNanos + lingerNanos : System.nanoTime() + lingerNanos;
+            deadline = Math.max(deadline, backoffUntil);
+            long now;
+            while (running && deadline - (now = System.nanoTime()) > 0
+                    && !(flushRequested.get() && now - backoffUntil >= 0)) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+            if (!running) {
+                break;
+            }
+            boolean requested = flushRequested.getAndSet(false);
+            Counter trigger = !requested ? lingerFlushes : fastLaneRequested ? fastLaneFlushes : sizeFlushes;
+            fastLaneRequested = false;
+            boolean sent = false;
+            try {
+                sent = flush(trigger);
+            } catch (RuntimeException e) {
+                log.error("Batch flush failed: {}", e.getMessage(), e);
+            }
+            backoffUntil = sent || pending.get() == 0 ? 0 : System.nanoTime() + lingerNanos;
+        }
+    }
+
+    /**
+     * Sends batches back to back while they come out full, then brings the pending count
+     * back in line with the buffer. Records left over keep the linger clock of the oldest
+     * pending record, as they may have been waiting as long.
+     *
+     * @return whether anything was sent
+     */
+    private boolean flush(Counter trigger) {
+        boolean sentAny = false;
+        List<DataRecordMessage> sent;
+        do {
+            sent = dataGeneratorService.sendBatch();
+            if (sent == null || sent.isEmpty()) {
+                break;
+            }
+            sentAny = true;
+            trigger.increment();
+            record(sent);
+            int sentCount = sent.size();
+            if (pending.updateAndGet(current -> Math.max(0, current - sentCount)) == 0) {
+                break;
+            }
+        } while (running && sent.size() >= batchSize);
+        long buffered = batchBuffer.size();
+        pending.updateAndGet(current -> Math.min(current, buffered));
+        return sentAny;
+    }
+
+    private void record(List<DataRecordMessage> batch) {
+        fillRatio.record((double) batch.size() / batchSize);
+        long now = System.currentTimeMillis();
+        for (DataRecordMessage record : batch) {
+            if (record.getTimestamp() != null) {
+                recordWait.record(Math.max(0, now - record.getTimestamp()), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.util.List;
+
+/**
+ * Holds generated records until the next batch is sent. Selected with
+ * {@code batch.buffer.mode}: {@code redis} (shared list, the default) or
+ * {@code local} (in-process ring buffer for single-instance deployments).
+ */
+public interface BatchBuffer {
+
+    /**
+     * @return false if the record was rejected because the buffer is full
+     */
+    boolean offer(long id, long timestamp, int randomValue, String hashValue);
+
+    /**
+     * Removes and returns up to {@code maxRecords} records in insertion order.
+     */
+    List<DataRecordMessage> drain(int maxRecords);
+
+    long size();
+}
@@ -0,0 +1,87 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process {@link BatchBuffer} on top of a {@link RecordRingBuffer}. Keeps Redis
+ * out of the generation hot path; records do not survive a restart and are not
+ * shared between generator instances.
+ */
+@Slf4j
+public class LocalBatchBuffer implements BatchBuffer {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final RecordRingBuffer ring;
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder overflows = new LongAdder();
+
+    public LocalBatchBuffer(int capacity, OverflowPolicy overflowPolicy, MeterRegistry meterRegistry) {
+        this.ring = new RecordRingBuffer(capacity);
+        this.overflowPolicy = overflowPolicy;
+
+        Gauge.builder("batch.buffer.occupancy", ring, RecordRingBuffer::size)
+                .description("Records waiting in the local batch buffer")
+                .register(meterRegistry);
+        Gauge.builder("batch.buffer.capacity", ring, RecordRingBuffer::capacity)
+                .register(meterRegistry);
+        FunctionCounter.builder("batch.buffer.overflow", overflows, LongAdder::sum)
+                .description("Records dropped or delayed because the local batch buffer was full")
+                .tag("policy", overflowPolicy.name().toLowerCase())
+                .register(meterRegistry);
+        log.info("Local batch buffer initialized: capacity={}, overflowPolicy={}", ring.capacity(), overflowPolicy);
+    }
+
+    @Override
+    public boolean offer(long id, long timestamp, int randomValue, String hashValue) {
+        if (ring.offer(id, timestamp, randomValue, hashValue)) {
+            return true;
+        }
+        overflows.increment();
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                return false;
+            case DROP_OLDEST:
+                do {
+                    ring.poll(null);
+                } while (!ring.offer(id, timestamp, randomValue, hashValue));
+                return true;
+            case BLOCK:
+            default:
+                do {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                } while (!ring.offer(id, timestamp, randomValue, hashValue));
+                return true;
+        }
+    }
+
+    @Override
+    public List<DataRecordMessage> drain(int maxRecords) {
+        List<DataRecordMessage> batch = new ArrayList<>(Math.min(maxRecords, ring.size()));
+        ring.drain((id, timestamp, randomValue, hashValue) ->
+                batch.add(RecordRingBuffer.toMessage(id, timestamp, randomValue, hashValue)), maxRecords);
+        return batch;
+    }
+
+    @Override
+    public long size() {
+        return ring.size();
+    }
+
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+}
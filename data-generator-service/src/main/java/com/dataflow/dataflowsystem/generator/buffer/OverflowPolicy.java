@@ -0,0 +1,16 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import java.util.Locale;
+
+public enum OverflowPolicy {
+    /** Evict the oldest buffered record to make room for the new one. */
+    DROP_OLDEST,
+    /** Reject the new record. */
+    DROP_NEWEST,
+    /** Wait for the consumer to make room, which slows the generator down. */
+    BLOCK;
+
+    public static OverflowPolicy from(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
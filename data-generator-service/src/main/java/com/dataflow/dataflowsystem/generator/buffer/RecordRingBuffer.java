@@ -0,0 +1,134 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.dataflowsystem.generator.engine.RecordSink;
+import com.dataflow.model.DataRecordMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring of pre-allocated record slots.
+ * <p>
+ * Records are stored column-wise in primitive arrays, so offering a record does not
+ * allocate. Each slot carries a sequence number (Vyukov's bounded queue): producers
+ * claim a position by CAS on {@code tail}, write the slot and then publish it by
+ * advancing the slot sequence; the consumer does the mirror image on {@code head}.
+ * Any number of producers may offer concurrently. Polling is also CAS-based, so the
+ * regular drain can run alongside producers evicting the oldest record on overflow.
+ * Records without an ID are stored with {@link #NO_ID}.
+ */
+public final class RecordRingBuffer {
+
+    /** Stored in place of a missing record ID; the generator never assigns 0. */
+    public static final long NO_ID = 0;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] ids;
+    private final long[] timestamps;
+    private final int[] values;
+    private final String[] hashes;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public RecordRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2 || requestedCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Ring capacity must be between 2 and 2^30: " + requestedCapacity);
+        }
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.ids = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new int[capacity];
+        this.hashes = new String[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    public boolean offer(long id, long timestamp, int randomValue, String hashValue) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    ids[index] = id;
+                    timestamps[index] = timestamp;
+                    values[index] = randomValue;
+                    hashes[index] = hashValue;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest record and hands it to {@code consumer}, or discards it when
+     * {@code consumer} is null.
+     *
+     * @return false if the ring is empty
+     */
+    public boolean poll(RecordSink consumer) {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    long id = ids[index];
+                    long timestamp = timestamps[index];
+                    int randomValue = values[index];
+                    String hashValue = hashes[index];
+                    hashes[index] = null;
+                    sequences.set(index, position + capacity);
+                    if (consumer != null) {
+                        consumer.accept(id, timestamp, randomValue, hashValue);
+                    }
+                    return true;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    public int drain(RecordSink consumer, int maxRecords) {
+        int drained = 0;
+        while (drained < maxRecords && poll(consumer)) {
+            drained++;
+        }
+        return drained;
+    }
+
+    public static DataRecordMessage toMessage(long id, long timestamp, int randomValue, String hashValue) {
+        return new DataRecordMessage(id == NO_ID ? null : id, timestamp, randomValue, hashValue);
+    }
+
+    public static long idOf(DataRecordMessage message) {
+        return message.getId() != null ? message.getId() : NO_ID;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,96 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.dataflowsystem.generator.service.RedisService;
+import com.dataflow.model.DataRecordMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link BatchBuffer} backed by a Redis list, shared by every generator instance
+ * pointing at the same key.
+ * <p>
+ * Offered records are staged in a small local ring and pushed to Redis in pipelined
+ * bulk writes, either when the stage fills up, on the flush interval, or right before
+ * a drain. Draining pops records atomically, so nothing pushed concurrently by another
+ * instance is lost. Records Redis rejected are parked in {@link RedisService}'s fallback
+ * buffer and are drained first.
+ */
+@Slf4j
+public class RedisBatchBuffer implements BatchBuffer {
+
+    private final RedisService redisService;
+    private final String key;
+    private final RecordRingBuffer staging;
+    private final int flushThreshold;
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public RedisBatchBuffer(RedisService redisService, String key, int stagingCapacity) {
+        this.redisService = redisService;
+        this.key = key;
+        this.staging = new RecordRingBuffer(stagingCapacity);
+        this.flushThreshold = staging.capacity() / 2;
+    }
+
+    @Override
+    public boolean offer(long id, long timestamp, int randomValue, String hashValue) {
+        while (!staging.offer(id, timestamp, randomValue, hashValue)) {
+            flush();
+        }
+        if (staging.size() >= flushThreshold && flushLock.tryLock()) {
+            try {
+                flushStaged();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<DataRecordMessage> drain(int maxRecords) {
+        flush();
+        List<DataRecordMessage> batch = redisService.drainFallback(maxRecords);
+        if (batch.size() < maxRecords) {
+            List<DataRecordMessage> popped = redisService.drainBatch(key, maxRecords - batch.size());
+            if (batch.isEmpty()) {
+                return popped;
+            }
+            batch.addAll(popped);
+        }
+        return batch;
+    }
+
+    @Override
+    public long size() {
+        return staging.size() + redisService.getFallbackSize() + redisService.getBatchSize(key);
+    }
+
+    /**
+     * Pushes everything currently staged to Redis.
+     */
+    @Scheduled(fixedDelayString = "${batch.redis.flush-interval-ms:50}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushStaged();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushStaged() {
+        int pending = staging.size();
+        if (pending == 0) {
+            return;
+        }
+        List<DataRecordMessage> records = new ArrayList<>(pending);
+        staging.drain((id, timestamp, randomValue, hashValue) ->
+                records.add(RecordRingBuffer.toMessage(id, timestamp, randomValue, hashValue)), pending);
+        redisService.addAllToBatch(key, records);
+        log.debug("Flushed {} staged records to Redis key {}", records.size(), key);
+    }
+}
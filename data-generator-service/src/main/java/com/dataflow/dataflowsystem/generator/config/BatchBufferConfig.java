@@ -0,0 +1,33 @@
+package com.dataflow.dataflowsystem.generator.config;
+
+import com.dataflow.dataflowsystem.generator.buffer.BatchBuffer;
+import com.dataflow.dataflowsystem.generator.buffer.LocalBatchBuffer;
+import com.dataflow.dataflowsystem.generator.buffer.OverflowPolicy;
+import com.dataflow.dataflowsystem.generator.buffer.RedisBatchBuffer;
+import com.dataflow.dataflowsystem.generator.service.RedisService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BatchBufferConfig {
+
+    public static final String BATCH_KEY = "dataBatch";
+
+    @Bean
+    @ConditionalOnProperty(name = "batch.buffer.mode", havingValue = "local")
+    public BatchBuffer localBatchBuffer(@Value("${batch.buffer.capacity:65536}") int capacity,
+                                        @Value("${batch.buffer.overflow-policy:drop-oldest}") String overflowPolicy,
+                                        MeterRegistry meterRegistry) {
+        return new LocalBatchBuffer(capacity, OverflowPolicy.from(overflowPolicy), meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "batch.buffer.mode", havingValue = "redis", matchIfMissing = true)
+    public BatchBuffer redisBatchBuffer(RedisService redisService,
+                                        @Value("${batch.redis.staging-capacity:8192}") int stagingCapacity) {
+        return new RedisBatchBuffer(redisService, BATCH_KEY, stagingCapacity);
+    }
+}
@@ -0,0 +1,71 @@
+package com.dataflow.dataflowsystem.generator.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "generator")
+@Getter
+@Setter
+public class GeneratorProperties {
+    private boolean enabled = true;
+    /** 0-1023, unique per generator instance; goes into every record ID. Derived from the host name when unset. */
+    private Integer instanceId;
+    /** Target records per second across all workers; negative means unthrottled. */
+    private double rate = 5;
+    private int workers = 1;
+    /** Fixed seed for reproducible value sequences; a random seed is used when unset. */
+    private Long seed;
+    /** Upper bound on records a worker emits per pacing step. */
+    private int chunkSize = 1024;
+    /** Name of the entry in {@code profiles} that drives the rate; the flat {@code rate} is used when unset. */
+    private String profile;
+    private long profileTickMs = 100;
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    @Getter
+    @Setter
+    public static class Profile {
+        /** Restart from the first phase when the last one ends; otherwise generation stops. */
+        private boolean loop = true;
+        /** Probability that a record's value is above 90; uniform 0-100 when unset. */
+        private Double highValueShare;
+        private List<Phase> phases = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    public static class Phase {
+        private PhaseType type = PhaseType.CONSTANT;
+        private Duration duration;
+        /** constant: the rate; step: the base rate; sine: the mean rate. */
+        private double rate;
+        /** ramp: start and end rates. */
+        private double from;
+        private double to;
+        /** step: rate during a burst. */
+        private double peakRate;
+        /** step: burst spacing; sine: wave length (24h for a diurnal curve). */
+        private Duration period;
+        /** step: how long each burst lasts. */
+        private Duration burstDuration;
+        /** sine: peak deviation from the mean rate. */
+        private double amplitude;
+        /** sine: shifts the curve, e.g. to put a diurnal peak at a given hour. */
+        private Duration offset = Duration.ZERO;
+        /** trace: location of a recorded {@code seconds,rate} CSV (file path or classpath: URL). */
+        private String trace;
+    }
+
+    public enum PhaseType {
+        CONSTANT, RAMP, STEP, SINE, TRACE
+    }
+}
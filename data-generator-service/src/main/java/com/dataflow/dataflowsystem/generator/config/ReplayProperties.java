@@ -0,0 +1,26 @@
+package com.dataflow.dataflowsystem.generator.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.time.ZoneId;
+
+@Configuration
+@ConfigurationProperties(prefix = "replay")
+@Getter
+@Setter
+public class ReplayProperties {
+    /** The filter's {@code storage.paths.filtered} directory, mounted into the generator. */
+    private String directory = "/data/dataflow/filtered";
+    /** The filter's {@code storage.paths.archive} directory, where compaction merges closed minute files. */
+    private String archiveDirectory = "/data/dataflow/archive";
+    /** Zone the filter used for its per-minute and archive file names. */
+    private ZoneId zone = ZoneId.systemDefault();
+    /** Most records per replayed batch. */
+    private int batchSize = 1000;
+    /** Paced replays send records due within this window together instead of one batch per timestamp. */
+    private Duration pacingGranularity = Duration.ofMillis(10);
+}
@@ -0,0 +1,50 @@
+package com.dataflow.dataflowsystem.generator.config;
+
+import com.dataflow.dataflowsystem.generator.handler.SlowConsumerPolicy;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "websocket")
+@Getter
+@Setter
+public class WebSocketProperties {
+    private long cleanupInterval = 60000;
+    private Binary binary = new Binary();
+    private Send send = new Send();
+    private Resume resume = new Resume();
+
+    @Getter
+    @Setter
+    public static class Binary {
+        /** Offer the binary subprotocol; clients that do not ask for it keep receiving JSON. */
+        private boolean enabled = true;
+        /** Deflate binary frames; trades generator CPU for bandwidth. */
+        private boolean compress = false;
+        /** Smallest batch worth compressing. */
+        private int compressMinRecords = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class Send {
+        /** Batches each session may have waiting before the slow-consumer policy applies. */
+        private int queueCapacity = 16;
+        private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+        /** With {@code disconnect}, how long the oldest queued batch may wait before the session is dropped. */
+        private Duration lagThreshold = Duration.ofSeconds(10);
+        /** With {@code coalesce}, the largest merged batch; beyond it the oldest batch is dropped instead. */
+        private int coalesceMaxRecords = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Resume {
+        /** Records of recent batches kept for reconnecting consumers; 0 disables resuming. */
+        private int bufferRecords = 100_000;
+    }
+}
@@ -0,0 +1,213 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import com.dataflow.dataflowsystem.generator.profile.ValueDistribution;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multi-threaded record generator paced to a target rate.
+ * <p>
+ * Each worker owns a {@link SplittableRandom} split from a single root (so a fixed
+ * seed and worker count reproduce the same value sequence per worker), its own
+ * {@link RecordHasher}, and a credit accumulator: elapsed time times the per-worker
+ * rate is converted into records, emitted in chunks of at most {@code chunk-size}.
+ * The target rate and value distribution can be changed while running, which is
+ * how workload profiles drive it.
+ */
+@Component
+@Slf4j
+public class GenerationEngine {
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final GeneratorProperties properties;
+    private final RecordSink sink;
+    private final RecordIdGenerator idGenerator;
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile double targetRate;
+    private volatile ValueDistribution valueDistribution = ValueDistribution.UNIFORM;
+    private volatile double achievedRate;
+    private volatile boolean running;
+    private long lastSampleCount;
+    private long lastSampleNanos;
+
+    public GenerationEngine(GeneratorProperties properties, RecordSink sink, RecordIdGenerator idGenerator,
+                            MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.sink = sink;
+        this.idGenerator = idGenerator;
+        this.targetRate = properties.getRate();
+
+        Gauge.builder("generator.rate.target", this, GenerationEngine::getTargetRate)
+                .description("Target records per second")
+                .register(meterRegistry);
+        Gauge.builder("generator.rate.achieved", this, GenerationEngine::getAchievedRate)
+                .description("Records per second generated over the last sample interval")
+                .register(meterRegistry);
+        Gauge.builder("generator.rate.attainment", this, GenerationEngine::getAttainment)
+                .description("Achieved rate as a fraction of the target rate")
+                .register(meterRegistry);
+        FunctionCounter.builder("generator.records.generated", generated, LongAdder::sum)
+                .register(meterRegistry);
+        FunctionCounter.builder("generator.records.failed", failed, LongAdder::sum)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (properties.isEnabled()) {
+            start();
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        int workerCount = Math.max(1, properties.getWorkers());
+        SplittableRandom root = properties.getSeed() != null
+                ? new SplittableRandom(properties.getSeed())
+                : new SplittableRandom();
+
+        running = true;
+        lastSampleCount = generated.sum();
+        lastSampleNanos = System.nanoTime();
+        for (int i = 0; i < workerCount; i++) {
+            SplittableRandom random = root.split();
+            Thread worker = new Thread(() -> runWorker(random, workerCount), "generator-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("Generation engine started: workers={}, targetRate={}/s, seed={}",
+                workerCount, targetRate, properties.getSeed());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        log.info("Generation engine stopped after {} records", generated.sum());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public void setTargetRate(double targetRate) {
+        this.targetRate = targetRate;
+    }
+
+    public void setValueDistribution(ValueDistribution valueDistribution) {
+        this.valueDistribution = valueDistribution;
+    }
+
+    public double getAchievedRate() {
+        return achievedRate;
+    }
+
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    private double getAttainment() {
+        double target = targetRate;
+        return target > 0 ? achievedRate / target : Double.NaN;
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public synchronized void sampleRate() {
+        long now = System.nanoTime();
+        long count = generated.sum();
+        long elapsed = now - lastSampleNanos;
+        if (elapsed > 0) {
+            achievedRate = (count - lastSampleCount) * 1e9 / elapsed;
+        }
+        lastSampleCount = count;
+        lastSampleNanos = now;
+    }
+
+    private void runWorker(SplittableRandom random, int workerCount) {
+        RecordHasher hasher = new RecordHasher();
+        int chunkSize = Math.max(1, properties.getChunkSize());
+        long lastNanos = System.nanoTime();
+        double credit = 0;
+
+        while (running) {
+            double rate = targetRate;
+            long now = System.nanoTime();
+            int count;
+            if (rate < 0) {
+                count = chunkSize;
+            } else if (rate == 0) {
+                lastNanos = now;
+                credit = 0;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            } else {
+                double perWorkerRate = rate / workerCount;
+                credit = Math.min(credit + (now - lastNanos) * perWorkerRate / 1e9, chunkSize);
+                lastNanos = now;
+                count = (int) credit;
+                if (count == 0) {
+                    long waitNanos = (long) ((1 - credit) * 1e9 / perWorkerRate);
+                    LockSupport.parkNanos(Math.min(waitNanos, MAX_PARK_NANOS));
+                    continue;
+                }
+                credit -= count;
+            }
+            emit(random, hasher, count);
+        }
+    }
+
+    private void emit(SplittableRandom random, RecordHasher hasher, int count) {
+        ValueDistribution distribution = valueDistribution;
+        long timestamp = System.currentTimeMillis();
+        int emitted = 0;
+        try {
+            for (; emitted < count; emitted++) {
+                int value = distribution.next(random);
+                sink.accept(idGenerator.nextId(), timestamp, value, hasher.hash(timestamp, value));
+            }
+        } catch (Exception e) {
+            failed.add(count - emitted);
+            log.warn("Record sink failed after {} of {} records: {}", emitted, count, e.getMessage());
+        } finally {
+            generated.add(emitted);
+        }
+    }
+}
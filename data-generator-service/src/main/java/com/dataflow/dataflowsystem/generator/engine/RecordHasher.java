@@ -0,0 +1,78 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the last two hex characters of {@code md5(timestamp + value)} without
+ * allocating: digits are written into a reused byte buffer, the digest lands in a
+ * reused array and the result comes from a table of interned two-character strings.
+ * Output is identical to {@code DigestUtils.md5DigestAsHex(...)} followed by a
+ * two-character suffix. Instances are not thread-safe; use one per thread.
+ */
+public final class RecordHasher {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String[] HEX_PAIRS = new String[256];
+    private static final ThreadLocal<RecordHasher> LOCAL = ThreadLocal.withInitial(RecordHasher::new);
+
+    static {
+        for (int i = 0; i < HEX_PAIRS.length; i++) {
+            HEX_PAIRS[i] = new String(new char[]{HEX[i >>> 4], HEX[i & 0x0f]}).intern();
+        }
+    }
+
+    private final MessageDigest md5;
+    private final byte[] input = new byte[40];
+    private final byte[] digest = new byte[16];
+
+    public RecordHasher() {
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    public static String hashOf(long timestamp, int value) {
+        return LOCAL.get().hash(timestamp, value);
+    }
+
+    public String hash(long timestamp, int value) {
+        int length = writeDecimal(timestamp, input, 0);
+        length = writeDecimal(value, input, length);
+        md5.update(input, 0, length);
+        try {
+            md5.digest(digest, 0, digest.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException("MD5 digest failed", e);
+        }
+        return HEX_PAIRS[digest[15] & 0xff];
+    }
+
+    static int writeDecimal(long value, byte[] buffer, int offset) {
+        if (value == 0) {
+            buffer[offset] = '0';
+            return offset + 1;
+        }
+        int position = offset;
+        // Work with the negated value so Long.MIN_VALUE does not overflow
+        long remaining = value;
+        if (value < 0) {
+            buffer[position++] = '-';
+        } else {
+            remaining = -value;
+        }
+        int digits = 0;
+        for (long probe = remaining; probe != 0; probe /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' - (remaining % 10));
+            remaining /= 10;
+        }
+        return end;
+    }
+}
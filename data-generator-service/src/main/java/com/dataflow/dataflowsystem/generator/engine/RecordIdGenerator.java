@@ -0,0 +1,88 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snowflake-style record IDs: 41 bits of milliseconds since {@link #EPOCH}, 10 bits of
+ * generator instance and a 12-bit sequence within the millisecond. IDs from one instance
+ * strictly increase, and instances with distinct {@code generator.instance-id}s never collide.
+ * <p>
+ * Time and sequence live in a single atomic counter, so concurrent workers never block
+ * each other. When more than 4096 IDs are taken within one millisecond, or the wall clock
+ * steps back, the counter simply runs ahead of the clock until the clock catches up.
+ */
+@Component
+@Slf4j
+public class RecordIdGenerator {
+
+    public static final Instant EPOCH = Instant.parse("2024-01-01T00:00:00Z");
+    public static final int INSTANCE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_INSTANCE_ID = (1 << INSTANCE_BITS) - 1;
+
+    private static final long EPOCH_MS = EPOCH.toEpochMilli();
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long instanceBits;
+    /** Milliseconds since the epoch shifted left by the sequence bits, plus the sequence. */
+    private final AtomicLong last = new AtomicLong();
+
+    @Autowired
+    public RecordIdGenerator(GeneratorProperties properties) {
+        this(properties.getInstanceId() != null ? properties.getInstanceId() : derivedInstanceId());
+    }
+
+    public RecordIdGenerator(int instanceId) {
+        if (instanceId < 0 || instanceId > MAX_INSTANCE_ID) {
+            throw new IllegalArgumentException("Instance ID must be between 0 and " + MAX_INSTANCE_ID + ": " + instanceId);
+        }
+        this.instanceBits = (long) instanceId << SEQUENCE_BITS;
+        log.info("Record IDs use instance {}", instanceId);
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MS) << SEQUENCE_BITS;
+        long next;
+        long current;
+        do {
+            current = last.get();
+            next = Math.max(current + 1, now);
+        } while (!last.compareAndSet(current, next));
+        return ((next & ~SEQUENCE_MASK) << INSTANCE_BITS) | instanceBits | (next & SEQUENCE_MASK);
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> (INSTANCE_BITS + SEQUENCE_BITS)) + EPOCH_MS;
+    }
+
+    public static int instanceOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_INSTANCE_ID);
+    }
+
+    /**
+     * Falls back to a hash of the host name, as the filter does for its instance ID. Set
+     * {@code generator.instance-id} explicitly when running several generators, since two
+     * host names can hash to the same value.
+     */
+    private static int derivedInstanceId() {
+        String name = System.getenv("INSTANCE_ID");
+        if (name == null) {
+            try {
+                name = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                name = "default-instance";
+            }
+        }
+        int instanceId = (name.hashCode() & Integer.MAX_VALUE) % (MAX_INSTANCE_ID + 1);
+        log.warn("generator.instance-id not set, derived {} from '{}'", instanceId, name);
+        return instanceId;
+    }
+}
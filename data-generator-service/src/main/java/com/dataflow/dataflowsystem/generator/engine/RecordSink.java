@@ -0,0 +1,10 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+/**
+ * Receives generated records as primitives so the generation loop does not
+ * have to box a {@code DataRecordMessage} per record.
+ */
+@FunctionalInterface
+public interface RecordSink {
+    void accept(long id, long timestamp, int randomValue, String hashValue);
+}
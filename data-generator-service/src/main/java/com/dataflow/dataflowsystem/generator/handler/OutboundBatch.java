@@ -0,0 +1,107 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import com.dataflow.model.DataRecordMessage;
+import com.dataflow.model.codec.BinaryFrameCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch queued for one or more sessions. Each wire encoding is produced at most once,
+ * by whichever session sender needs it first, and shared with the others.
+ * <p>
+ * The sequence number identifies the batch across sessions so a reconnecting consumer
+ * can resume after the last one it processed; subsets selected for a subscription keep
+ * the sequence of the batch they came from.
+ */
+public final class OutboundBatch {
+
+    private final List<DataRecordMessage> records;
+    private final long sequence;
+    private final long enqueuedAtNanos;
+    private byte[] binaryFrame;
+    private boolean binaryFailed;
+    private String jsonFrame;
+
+    public OutboundBatch(List<DataRecordMessage> records) {
+        this(records, BinaryFrameCodec.NO_SEQUENCE);
+    }
+
+    public OutboundBatch(List<DataRecordMessage> records, long sequence) {
+        this(records, sequence, System.nanoTime());
+    }
+
+    private OutboundBatch(List<DataRecordMessage> records, long sequence, long enqueuedAtNanos) {
+        this.records = records;
+        this.sequence = sequence;
+        this.enqueuedAtNanos = enqueuedAtNanos;
+    }
+
+    /**
+     * Concatenates two batches; the result keeps the older enqueue time so lag keeps counting,
+     * and the newer sequence since it covers both.
+     */
+    public static OutboundBatch merge(OutboundBatch older, OutboundBatch newer) {
+        List<DataRecordMessage> merged = new ArrayList<>(older.records.size() + newer.records.size());
+        merged.addAll(older.records);
+        merged.addAll(newer.records);
+        return new OutboundBatch(merged, newer.sequence, older.enqueuedAtNanos);
+    }
+
+    /**
+     * The same records under the same sequence, timed as if enqueued now; used when a
+     * buffered batch is sent again.
+     */
+    public OutboundBatch requeued() {
+        return new OutboundBatch(records, sequence, System.nanoTime());
+    }
+
+    /**
+     * A subset of this batch under the same sequence.
+     */
+    public OutboundBatch select(List<DataRecordMessage> selected) {
+        return new OutboundBatch(selected, sequence, enqueuedAtNanos);
+    }
+
+    public List<DataRecordMessage> getRecords() {
+        return records;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the batch's sequence number, or {@link BinaryFrameCodec#NO_SEQUENCE}
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getEnqueuedAtNanos() {
+        return enqueuedAtNanos;
+    }
+
+    /**
+     * @return the binary frame, or null if the records cannot be binary-encoded
+     */
+    public synchronized byte[] binaryFrame(BinaryFrameCodec codec) {
+        if (binaryFrame == null && !binaryFailed) {
+            try {
+                binaryFrame = codec.encode(records, sequence);
+            } catch (IllegalArgumentException e) {
+                binaryFailed = true;
+            }
+        }
+        return binaryFrame;
+    }
+
+    public synchronized String jsonFrame(ObjectMapper objectMapper) throws JsonProcessingException {
+        if (jsonFrame == null) {
+            jsonFrame = objectMapper.writeValueAsString(records);
+        }
+        return jsonFrame;
+    }
+}
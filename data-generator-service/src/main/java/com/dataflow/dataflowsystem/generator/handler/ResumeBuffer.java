@@ -0,0 +1,71 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The most recent batches sent to the stream, kept so a consumer that reconnects can be
+ * sent what it missed. Bounded by records rather than batches, since batch sizes vary
+ * with load; the oldest batches are evicted first.
+ * <p>
+ * Batches must be added in sequence order. Not thread-safe; the handler calls it under
+ * the same lock that assigns sequence numbers.
+ */
+public final class ResumeBuffer {
+
+    private final int capacityRecords;
+    private final Deque<OutboundBatch> batches = new ArrayDeque<>();
+    private long records;
+
+    public ResumeBuffer(int capacityRecords) {
+        this.capacityRecords = capacityRecords;
+    }
+
+    public void add(OutboundBatch batch) {
+        if (capacityRecords <= 0) {
+            return;
+        }
+        batches.addLast(batch);
+        records += batch.size();
+        while (records > capacityRecords && batches.size() > 1) {
+            records -= batches.pollFirst().size();
+        }
+    }
+
+    /**
+     * @return buffered batches with a sequence above {@code sequence}, oldest first
+     */
+    public List<OutboundBatch> after(long sequence) {
+        List<OutboundBatch> missed = new ArrayList<>();
+        Iterator<OutboundBatch> newestFirst = batches.descendingIterator();
+        while (newestFirst.hasNext()) {
+            OutboundBatch batch = newestFirst.next();
+            if (batch.getSequence() <= sequence) {
+                break;
+            }
+            missed.add(batch);
+        }
+        Collections.reverse(missed);
+        return missed;
+    }
+
+    /**
+     * @return the sequence of the oldest batch still buffered, or -1 if there is none
+     */
+    public long getOldestSequence() {
+        OutboundBatch oldest = batches.peekFirst();
+        return oldest != null ? oldest.getSequence() : -1;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public int getBatches() {
+        return batches.size();
+    }
+}
@@ -0,0 +1,304 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded outbound queue for a single session. {@link #enqueue} never blocks; a drain
+ * task on the shared executor sends queued batches in order, so a slow consumer only
+ * ever holds up its own queue. At most one drain task per session runs at a time,
+ * which also keeps {@link WebSocketSession#sendMessage} single-threaded as it requires.
+ * <p>
+ * Once the consumer grants its first credit the session is flow controlled: every queued
+ * record consumes one credit, and batches dropped before sending are refunded.
+ */
+@Slf4j
+public final class SessionSender {
+
+    @FunctionalInterface
+    public interface Encoder {
+        WebSocketMessage<?> encode(WebSocketSession session, OutboundBatch batch) throws IOException;
+    }
+
+    private final WebSocketSession session;
+    private final Encoder encoder;
+    private final Executor executor;
+    private final Consumer<WebSocketSession> onDisconnect;
+    private final int queueCapacity;
+    private final SlowConsumerPolicy policy;
+    private final long lagThresholdNanos;
+    private final int coalesceMaxRecords;
+
+    private final Deque<OutboundBatch> queue = new ArrayDeque<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+    private volatile boolean flowControlled;
+    private final AtomicLong credit = new AtomicLong();
+    /** Sequence of the first batch queued on this session, or -1 until one is. */
+    private long firstSequence = -1;
+
+    private final LongAdder droppedRecords = new LongAdder();
+    private final MeterRegistry meterRegistry;
+    private final Timer sendLatency;
+    private final Timer queueWait;
+    private final List<Meter> meters;
+
+    public SessionSender(WebSocketSession session, Encoder encoder, Executor executor,
+                         Consumer<WebSocketSession> onDisconnect, int queueCapacity,
+                         SlowConsumerPolicy policy, Duration lagThreshold, int coalesceMaxRecords,
+                         MeterRegistry meterRegistry) {
+        this.session = session;
+        this.encoder = encoder;
+        this.executor = executor;
+        this.onDisconnect = onDisconnect;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.policy = policy;
+        this.lagThresholdNanos = lagThreshold.toNanos();
+        this.coalesceMaxRecords = coalesceMaxRecords;
+        this.meterRegistry = meterRegistry;
+
+        String sessionId = session.getId();
+        this.sendLatency = Timer.builder("websocket.session.send.latency")
+                .description("Time spent writing one batch to the session")
+                .tag("session", sessionId)
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("websocket.session.queue.wait")
+                .description("Time a batch waited in the session queue before being sent")
+                .tag("session", sessionId)
+                .register(meterRegistry);
+        this.meters = List.of(
+                sendLatency,
+                queueWait,
+                Gauge.builder("websocket.session.queue.depth", this, SessionSender::getQueueDepth)
+                        .description("Batches waiting to be sent to the session")
+                        .tag("session", sessionId)
+                        .register(meterRegistry),
+                Gauge.builder("websocket.session.credit", credit, AtomicLong::get)
+                        .description("Records the consumer has granted but not yet been sent")
+                        .tag("session", sessionId)
+                        .register(meterRegistry),
+                FunctionCounter.builder("websocket.session.dropped.records", droppedRecords, LongAdder::sum)
+                        .description("Records discarded because the session could not keep up")
+                        .tag("session", sessionId)
+                        .tag("policy", policy.name().toLowerCase())
+                        .register(meterRegistry));
+    }
+
+    /**
+     * Queues {@code batch} for sending, applying the slow-consumer policy if the queue is full.
+     *
+     * @return false if the session was disconnected instead
+     */
+    public boolean enqueue(OutboundBatch batch) {
+        boolean disconnect = false;
+        synchronized (queue) {
+            if (closed) {
+                return false;
+            }
+            if (firstSequence < 0) {
+                firstSequence = batch.getSequence();
+            }
+            if (policy == SlowConsumerPolicy.DISCONNECT && isLagging(batch.getEnqueuedAtNanos())) {
+                disconnect = true;
+            } else if (queue.size() < queueCapacity) {
+                queue.addLast(batch);
+                consumeCredit(batch.size());
+            } else if (policy == SlowConsumerPolicy.DISCONNECT) {
+                disconnect = true;
+            } else if (policy == SlowConsumerPolicy.COALESCE
+                    && queue.peekLast().size() + batch.size() <= coalesceMaxRecords) {
+                queue.addLast(OutboundBatch.merge(queue.pollLast(), batch));
+                consumeCredit(batch.size());
+            } else {
+                int evicted = queue.pollFirst().size();
+                droppedRecords.add(evicted);
+                consumeCredit(batch.size() - evicted);
+                queue.addLast(batch);
+            }
+        }
+
+        if (disconnect) {
+            disconnect(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Queues batches a reconnecting consumer missed ahead of everything queued so far. Only
+     * batches older than the first one this session was given are taken, so nothing is
+     * sent twice; they bypass the queue capacity, as the consumer asked for all of them.
+     *
+     * @param missed batches in sequence order
+     * @return the number of batches queued
+     */
+    public int resume(List<OutboundBatch> missed) {
+        int queued = 0;
+        synchronized (queue) {
+            if (closed) {
+                return 0;
+            }
+            for (int i = missed.size() - 1; i >= 0; i--) {
+                OutboundBatch batch = missed.get(i);
+                if (firstSequence >= 0 && batch.getSequence() >= firstSequence) {
+                    continue;
+                }
+                queue.addFirst(batch);
+                consumeCredit(batch.size());
+                queued++;
+            }
+        }
+        if (queued > 0) {
+            scheduleDrain();
+        }
+        return queued;
+    }
+
+    /**
+     * Adds credit granted by the consumer and switches the session to flow-controlled mode.
+     */
+    public void grantCredit(long records) {
+        flowControlled = true;
+        credit.addAndGet(records);
+    }
+
+    /**
+     * @return records this session may still be sent, or {@link Long#MAX_VALUE} if the
+     * consumer does not use flow control
+     */
+    public long getAvailableCredit() {
+        return flowControlled ? Math.max(0, credit.get()) : Long.MAX_VALUE;
+    }
+
+    public int getQueueDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Stops sending, discards whatever is queued and unregisters this session's meters.
+     */
+    public void close() {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+        }
+        meters.forEach(meterRegistry::remove);
+    }
+
+    private void consumeCredit(long records) {
+        if (flowControlled) {
+            credit.addAndGet(-records);
+        }
+    }
+
+    private boolean isLagging(long nowNanos) {
+        OutboundBatch oldest = queue.peekFirst();
+        return oldest != null && nowNanos - oldest.getEnqueuedAtNanos() > lagThresholdNanos;
+    }
+
+    private void disconnect(CloseStatus status) {
+        log.warn("Disconnecting slow session {}: {} batches queued", session.getId(), getQueueDepth());
+        synchronized (queue) {
+            queue.forEach(queued -> droppedRecords.add(queued.size()));
+        }
+        close();
+        onDisconnect.accept(session);
+        try {
+            executor.execute(() -> closeSession(status));
+        } catch (RejectedExecutionException e) {
+            closeSession(status);
+        }
+    }
+
+    private void closeSession(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.debug("Error closing session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            log.warn("Sender executor rejected drain for session {}", session.getId());
+        }
+    }
+
+    private void drain() {
+        try {
+            OutboundBatch batch;
+            while ((batch = poll()) != null) {
+                if (!send(batch)) {
+                    return;
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+        // A batch may have been queued after the last poll but before draining was cleared
+        if (getQueueDepth() > 0 && !closed) {
+            scheduleDrain();
+        }
+    }
+
+    private OutboundBatch poll() {
+        synchronized (queue) {
+            return closed ? null : queue.pollFirst();
+        }
+    }
+
+    private boolean send(OutboundBatch batch) {
+        long start = System.nanoTime();
+        queueWait.record(start - batch.getEnqueuedAtNanos(), TimeUnit.NANOSECONDS);
+        try {
+            WebSocketMessage<?> message = encoder.encode(session, batch);
+            session.sendMessage(message);
+            sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("Batch of {} records sent to session {} ({} bytes)",
+                    batch.size(), session.getId(), message.getPayloadLength());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error sending batch to session {}: {}", session.getId(), e.getMessage());
+            droppedRecords.add(batch.size());
+            close();
+            onDisconnect.accept(session);
+            return false;
+        }
+    }
+}
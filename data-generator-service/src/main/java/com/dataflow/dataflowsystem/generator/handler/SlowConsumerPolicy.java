@@ -0,0 +1,13 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+/**
+ * What a session's sender does when its outbound queue is full.
+ */
+public enum SlowConsumerPolicy {
+    /** Discard the oldest queued batch. */
+    DROP,
+    /** Merge the new batch into the last queued one, so nothing is lost while the consumer catches up. */
+    COALESCE,
+    /** Close the session once the queue is full or the oldest batch has waited past the lag threshold. */
+    DISCONNECT
+}
@@ -0,0 +1,139 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import com.dataflow.model.DataRecordMessage;
+import com.dataflow.model.Subscription;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * A validated, normalized {@link Subscription}. Two sessions that asked for the same
+ * records get equal predicates, so the handler selects each batch once per distinct
+ * subscription rather than once per session.
+ */
+public final class SubscriptionPredicate implements Predicate<DataRecordMessage> {
+
+    private final int minValue;
+    private final int maxValue;
+    private final String hashPrefix;
+    private final double sampleRatio;
+    /** Zero when not partitioned. */
+    private final int partitionCount;
+    private final BitSet partitions;
+
+    private SubscriptionPredicate(int minValue, int maxValue, String hashPrefix, double sampleRatio,
+                                  int partitionCount, BitSet partitions) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.hashPrefix = hashPrefix;
+        this.sampleRatio = sampleRatio;
+        this.partitionCount = partitionCount;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return the predicate, or null if {@code subscription} matches every record
+     * @throws IllegalArgumentException if the subscription is inconsistent
+     */
+    public static SubscriptionPredicate of(Subscription subscription) {
+        if (subscription == null) {
+            return null;
+        }
+        int min = subscription.getMinValue() != null ? subscription.getMinValue() : Integer.MIN_VALUE;
+        int max = subscription.getMaxValue() != null ? subscription.getMaxValue() : Integer.MAX_VALUE;
+        if (min > max) {
+            throw new IllegalArgumentException("minValue " + min + " is greater than maxValue " + max);
+        }
+        String prefix = subscription.getHashPrefix();
+        prefix = prefix == null || prefix.isEmpty() ? null : prefix.toUpperCase(Locale.ROOT);
+        double ratio = subscription.getSampleRatio() != null ? subscription.getSampleRatio() : 1.0;
+        if (!(ratio >= 0.0 && ratio <= 1.0)) {
+            throw new IllegalArgumentException("sampleRatio must be between 0 and 1, was " + ratio);
+        }
+        int count = 0;
+        BitSet partitions = null;
+        if (subscription.getPartitionCount() != null || subscription.getPartitions() != null) {
+            count = subscription.getPartitionCount() != null ? subscription.getPartitionCount() : 0;
+            if (count <= 0 || subscription.getPartitions() == null) {
+                throw new IllegalArgumentException("partitions need a positive partitionCount, was "
+                        + subscription.getPartitionCount());
+            }
+            partitions = new BitSet(count);
+            for (Integer partition : subscription.getPartitions()) {
+                if (partition == null || partition < 0 || partition >= count) {
+                    throw new IllegalArgumentException("partition " + partition + " is not below partitionCount " + count);
+                }
+                partitions.set(partition);
+            }
+            if (partitions.cardinality() == count) {
+                count = 0;
+                partitions = null;
+            }
+        }
+        if (min == Integer.MIN_VALUE && max == Integer.MAX_VALUE && prefix == null && ratio == 1.0 && count == 0) {
+            return null;
+        }
+        return new SubscriptionPredicate(min, max, prefix, ratio, count, partitions);
+    }
+
+    @Override
+    public boolean test(DataRecordMessage record) {
+        Integer value = record.getRandomValue();
+        if (value == null ? minValue != Integer.MIN_VALUE || maxValue != Integer.MAX_VALUE
+                : value < minValue || value > maxValue) {
+            return false;
+        }
+        if (hashPrefix != null) {
+            String hash = record.getHashValue();
+            if (hash == null || !hash.regionMatches(true, 0, hashPrefix, 0, hashPrefix.length())) {
+                return false;
+            }
+        }
+        if (partitionCount > 0 && !partitions.get(Subscription.partitionOf(record.getHashValue(), partitionCount))) {
+            return false;
+        }
+        return sampleRatio >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRatio;
+    }
+
+    public List<DataRecordMessage> select(List<DataRecordMessage> records) {
+        List<DataRecordMessage> selected = new ArrayList<>();
+        for (DataRecordMessage record : records) {
+            if (test(record)) {
+                selected.add(record);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SubscriptionPredicate other)) {
+            return false;
+        }
+        return minValue == other.minValue && maxValue == other.maxValue
+                && Double.compare(sampleRatio, other.sampleRatio) == 0
+                && Objects.equals(hashPrefix, other.hashPrefix)
+                && partitionCount == other.partitionCount && Objects.equals(partitions, other.partitions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minValue, maxValue, hashPrefix, sampleRatio, partitionCount, partitions);
+    }
+
+    @Override
+    public String toString() {
+        return "value in [" + minValue + ", " + maxValue + "]"
+                + (hashPrefix != null ? ", hash " + hashPrefix + "*" : "")
+                + (sampleRatio < 1.0 ? ", sample " + sampleRatio : "")
+                + (partitionCount > 0 ? ", partitions " + partitions + " of " + partitionCount : "");
+    }
+}
@@ -1,82 +1,314 @@
 package com.dataflow.dataflowsystem.generator.handler;
 
 import com.dataflow.dataflowsystem.generator.aop.MonitorMetrics;
+import com.dataflow.dataflowsystem.generator.config.WebSocketProperties;
+import com.dataflow.model.ControlMessage;
 import com.dataflow.model.DataRecordMessage;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.dataflow.model.Subscription;
+import com.dataflow.model.codec.BinaryFrameCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Slf4j
-public class WebSocketHandler extends TextWebSocketHandler {
+public class WebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
 
     @Getter
     private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<String, SessionSender> senders = new ConcurrentHashMap<>();
+    /** Only sessions that subscribed to part of the stream have an entry. */
+    private final Map<String, SubscriptionPredicate> subscriptions = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper;
+    private final BinaryFrameCodec frameCodec;
+    private final List<String> subProtocols;
+    private final WebSocketProperties.Send sendProperties;
+    private final MeterRegistry meterRegistry;
+    /** Unbounded, but each session runs at most one drain task, so it never exceeds one thread per session. */
+    private final ExecutorService senderExecutor;
+    private final Counter skippedRecords;
+    /**
+     * Seeded from the clock so sequences keep increasing across generator restarts, and a
+     * consumer resuming from a previous run is never mistaken for being up to date.
+     */
+    private final long startSequence = System.currentTimeMillis() * 1000;
+    private final AtomicLong sequence = new AtomicLong(startSequence);
+    private final ResumeBuffer resumeBuffer;
+    private final Counter resumedBatches;
+    private final Counter unrecoverableBatches;
 
-    public WebSocketHandler(ObjectMapper objectMapper) {
+    public WebSocketHandler(ObjectMapper objectMapper, WebSocketProperties properties, MeterRegistry meterRegistry) {
         this.objectMapper = objectMapper;
+        this.sendProperties = properties.getSend();
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senderExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.skippedRecords = Counter.builder("websocket.subscription.skipped.records")
+                .description("Records not sent to a session because they fall outside its subscription")
+                .register(meterRegistry);
+        this.resumeBuffer = new ResumeBuffer(properties.getResume().getBufferRecords());
+        this.resumedBatches = Counter.builder("websocket.resume.batches")
+                .description("Buffered batches sent again to reconnecting sessions")
+                .register(meterRegistry);
+        this.unrecoverableBatches = Counter.builder("websocket.resume.unrecoverable.batches")
+                .description("Batches a reconnecting session missed that were no longer buffered")
+                .register(meterRegistry);
+        WebSocketProperties.Binary binary = properties.getBinary();
+        this.frameCodec = new BinaryFrameCodec(binary.isCompress(), binary.getCompressMinRecords());
+        this.subProtocols = binary.isEnabled()
+                ? List.of(BinaryFrameCodec.SUBPROTOCOL, BinaryFrameCodec.JSON_SUBPROTOCOL)
+                : List.of(BinaryFrameCodec.JSON_SUBPROTOCOL);
+    }
+
+    /**
+     * Sessions that negotiated {@link BinaryFrameCodec#SUBPROTOCOL} get binary frames;
+     * everyone else, including clients that request no subprotocol, gets JSON text.
+     */
+    @Override
+    public List<String> getSubProtocols() {
+        return subProtocols;
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        log.info("New WebSocket connection established: {}", session.getId());
+        log.info("New WebSocket connection established: {} (protocol: {})",
+                session.getId(), isBinary(session) ? BinaryFrameCodec.SUBPROTOCOL : "json");
+        senders.put(session.getId(), new SessionSender(
+                session, this::encode, senderExecutor, this::removeSession,
+                sendProperties.getQueueCapacity(), sendProperties.getSlowConsumerPolicy(),
+                sendProperties.getLagThreshold(), sendProperties.getCoalesceMaxRecords(), meterRegistry));
         sessions.add(session);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         log.info("WebSocket connection closed: {} with status: {}", session.getId(), status);
-        sessions.remove(session);
+        removeSession(session);
     }
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) {
         log.error("Transport error for session {}: {}", session.getId(), exception.getMessage());
-        sessions.remove(session);
+        removeSession(session);
+    }
+
+    /**
+     * Consumers talk back with {@link ControlMessage} text frames: credit grants,
+     * subscriptions and resume requests. An invalid subscription closes the session rather
+     * than silently sending it the full stream.
+     */
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        ControlMessage control;
+        try {
+            control = objectMapper.readValue(message.getPayload(), ControlMessage.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable control message from session {}: {}", session.getId(), e.getMessage());
+            return;
+        }
+        SessionSender sender = senders.get(session.getId());
+        if (sender == null) {
+            log.debug("Ignoring control message from closed session {}", session.getId());
+            return;
+        }
+        if (control.getType() == ControlMessage.Type.CREDIT && control.getRecords() != null) {
+            sender.grantCredit(control.getRecords());
+            log.debug("Session {} granted {} records of credit", session.getId(), control.getRecords());
+        } else if (control.getType() == ControlMessage.Type.SUBSCRIBE) {
+            subscribe(session, control.getSubscription());
+        } else if (control.getType() == ControlMessage.Type.RESUME && control.getSequence() != null) {
+            resume(session, sender, control.getSequence());
+        } else {
+            log.warn("Ignoring unsupported control message from session {}: {}", session.getId(), control.getType());
+        }
     }
 
+    /**
+     * The most records every open session can currently take. Sessions that do not use
+     * flow control never limit it, so with none of them it is {@link Long#MAX_VALUE}.
+     */
+    public long getAvailableCredit() {
+        long available = Long.MAX_VALUE;
+        for (WebSocketSession session : sessions) {
+            SessionSender sender = senders.get(session.getId());
+            if (sender != null && session.isOpen()) {
+                available = Math.min(available, sender.getAvailableCredit());
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Hands {@code records} to every open session's outbound queue and returns without
+     * waiting for any of them to be written. Subscribed sessions get only their matching
+     * records, selected once per distinct subscription and shared like the full batch.
+     * <p>
+     * Each call is one batch with the next sequence number, also kept in the resume buffer
+     * for consumers that are disconnected right now. Synchronized so sessions receive
+     * batches in sequence order; none of the work inside blocks.
+     */
     @MonitorMetrics(value = "websocket_send", operation = "send_batch")
-    public void sendBatch(List<DataRecordMessage> records) throws JsonProcessingException {
-        String message = objectMapper.writeValueAsString(records);
+    public synchronized void sendBatch(List<DataRecordMessage> records) {
+        OutboundBatch fullBatch = new OutboundBatch(records, sequence.incrementAndGet());
+        resumeBuffer.add(fullBatch);
+        Map<SubscriptionPredicate, OutboundBatch> selections = new HashMap<>();
 
         for (WebSocketSession session : sessions) {
             if (!session.isOpen()) {
                 log.info("Removing closed session: {}", session.getId());
-                sessions.remove(session);
+                removeSession(session);
+                continue;
+            }
+            // Removed by another thread since the iteration started
+            SessionSender sender = senders.get(session.getId());
+            if (sender == null) {
                 continue;
             }
+            SubscriptionPredicate predicate = subscriptions.get(session.getId());
+            OutboundBatch batch = predicate == null ? fullBatch
+                    : selections.computeIfAbsent(predicate, p -> fullBatch.select(p.select(records)));
+            skippedRecords.increment(records.size() - batch.size());
+            if (batch.size() > 0) {
+                sender.enqueue(batch);
+            }
+        }
+        log.info("Batch of {} records queued for {} sessions", records.size(), sessions.size());
+    }
+
+    public SessionSender getSender(WebSocketSession session) {
+        return senders.get(session.getId());
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        senders.values().forEach(SessionSender::close);
+        senders.clear();
+        senderExecutor.shutdownNow();
+    }
+
+    private void subscribe(WebSocketSession session, Subscription subscription) {
+        SubscriptionPredicate predicate;
+        try {
+            predicate = SubscriptionPredicate.of(subscription);
+        } catch (IllegalArgumentException e) {
+            log.warn("Closing session {} after invalid subscription: {}", session.getId(), e.getMessage());
+            removeSession(session);
             try {
-                session.sendMessage(new TextMessage(message));
-                log.info("Batch sent to session {}: {}", session.getId(), message);
-            } catch (IOException e) {
-                log.error("Error sending batch to session {}: {}", session.getId(), e.getMessage());
-                sessions.remove(session);
+                session.close(CloseStatus.POLICY_VIOLATION.withReason("Invalid subscription"));
+            } catch (IOException closeError) {
+                log.debug("Error closing session {}: {}", session.getId(), closeError.getMessage());
+            }
+            return;
+        }
+        if (predicate == null) {
+            subscriptions.remove(session.getId());
+            log.info("Session {} subscribed to the full stream", session.getId());
+        } else {
+            subscriptions.put(session.getId(), predicate);
+            log.info("Session {} subscribed to {}", session.getId(), predicate);
+        }
+    }
+
+    /**
+     * Queues the buffered batches {@code session} missed after {@code lastSequence}, the
+     * last batch it processed on its previous session, ahead of the live stream. Batches
+     * already evicted from the buffer are lost; they are counted and logged. Only binary
+     * frames carry sequence numbers, so JSON consumers have nothing to resume from.
+     */
+    private synchronized void resume(WebSocketSession session, SessionSender sender, long lastSequence) {
+        long oldest = resumeBuffer.getOldestSequence();
+        long current = sequence.get();
+        if (lastSequence >= current) {
+            log.info("Session {} is up to date at sequence {}", session.getId(), lastSequence);
+            return;
+        }
+        // Batches from before this generator started were never ours to buffer
+        long from = Math.max(lastSequence, startSequence);
+        if (oldest < 0 ? current > from : oldest > from + 1) {
+            long unrecoverable = (oldest < 0 ? current : oldest - 1) - from;
+            unrecoverableBatches.increment(unrecoverable);
+            log.warn("Session {} resumed after sequence {} but {} missed batches are no longer buffered",
+                    session.getId(), lastSequence, unrecoverable);
+        }
+
+        SubscriptionPredicate predicate = subscriptions.get(session.getId());
+        List<OutboundBatch> missed = new ArrayList<>();
+        long records = 0;
+        for (OutboundBatch batch : resumeBuffer.after(lastSequence)) {
+            OutboundBatch resent = batch.requeued();
+            if (predicate != null) {
+                resent = resent.select(predicate.select(resent.getRecords()));
+            }
+            if (resent.size() > 0) {
+                missed.add(resent);
+                records += resent.size();
+            }
+        }
+        int queued = sender.resume(missed);
+        resumedBatches.increment(queued);
+        log.info("Session {} resumed after sequence {}: {} batches ({} records) queued again",
+                session.getId(), lastSequence, queued, records);
+    }
+
+    private void removeSession(WebSocketSession session) {
+        sessions.remove(session);
+        subscriptions.remove(session.getId());
+        SessionSender sender = senders.remove(session.getId());
+        if (sender != null) {
+            sender.close();
+        }
+    }
+
+    private WebSocketMessage<?> encode(WebSocketSession session, OutboundBatch batch) throws IOException {
+        if (isBinary(session)) {
+            byte[] frame = batch.binaryFrame(frameCodec);
+            if (frame != null) {
+                return new BinaryMessage(frame);
             }
+            log.warn("Batch cannot be encoded as a binary frame, sending JSON to session {}", session.getId());
         }
+        return new TextMessage(batch.jsonFrame(objectMapper));
+    }
+
+    private static boolean isBinary(WebSocketSession session) {
+        return BinaryFrameCodec.SUBPROTOCOL.equals(session.getAcceptedProtocol());
     }
 
     @Scheduled(fixedRateString = "${websocket.cleanup-interval}")
     public void cleanupInactiveSessions() {
-        sessions.removeIf(session -> {
+        for (WebSocketSession session : sessions) {
             if (!session.isOpen()) {
                 log.info("Cleaning up inactive session: {}", session.getId());
-                return true;
+                removeSession(session);
             }
-            return false;
-        });
+        }
     }
 }
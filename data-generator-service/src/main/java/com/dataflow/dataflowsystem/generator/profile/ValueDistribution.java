@@ -0,0 +1,31 @@
+package com.dataflow.dataflowsystem.generator.profile;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws the {@code randomValue} of a generated record.
+ */
+@FunctionalInterface
+public interface ValueDistribution {
+
+    int HIGH_VALUE_THRESHOLD = 90;
+    int MAX_VALUE = 100;
+
+    ValueDistribution UNIFORM = random -> random.nextInt(MAX_VALUE + 1);
+
+    int next(SplittableRandom random);
+
+    /**
+     * Values above {@value #HIGH_VALUE_THRESHOLD} (the ones the filter routes to Kafka)
+     * appear with probability {@code share}; both sides stay uniform internally.
+     */
+    static ValueDistribution highValueShare(double share) {
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("high-value-share must be between 0 and 1: " + share);
+        }
+        int highValues = MAX_VALUE - HIGH_VALUE_THRESHOLD;
+        return random -> random.nextDouble() < share
+                ? HIGH_VALUE_THRESHOLD + 1 + random.nextInt(highValues)
+                : random.nextInt(HIGH_VALUE_THRESHOLD + 1);
+    }
+}
@@ -0,0 +1,238 @@
+package com.dataflow.dataflowsystem.generator.profile;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ResourceUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled {@code generator.profiles} entry: a sequence of timed phases, each a
+ * function from time-within-phase to records per second.
+ */
+public final class WorkloadProfile {
+
+    @FunctionalInterface
+    interface RateShape {
+        double rateAt(long elapsedMillis);
+    }
+
+    private record CompiledPhase(long startMillis, long durationMillis, RateShape shape) {
+    }
+
+    private final String name;
+    private final boolean loop;
+    private final ValueDistribution valueDistribution;
+    private final List<CompiledPhase> phases;
+    private final long totalMillis;
+
+    private WorkloadProfile(String name, boolean loop, ValueDistribution valueDistribution,
+                            List<CompiledPhase> phases, long totalMillis) {
+        this.name = name;
+        this.loop = loop;
+        this.valueDistribution = valueDistribution;
+        this.phases = phases;
+        this.totalMillis = totalMillis;
+    }
+
+    public static WorkloadProfile compile(String name, GeneratorProperties.Profile profile) {
+        if (profile.getPhases() == null || profile.getPhases().isEmpty()) {
+            throw new IllegalArgumentException("Profile '" + name + "' has no phases");
+        }
+        List<CompiledPhase> phases = new ArrayList<>();
+        long start = 0;
+        for (int i = 0; i < profile.getPhases().size(); i++) {
+            GeneratorProperties.Phase phase = profile.getPhases().get(i);
+            String label = name + ".phases[" + i + "]";
+            TracePoints trace = phase.getType() == GeneratorProperties.PhaseType.TRACE
+                    ? TracePoints.load(label, phase.getTrace())
+                    : null;
+            long duration = phase.getDuration() != null
+                    ? positiveMillis(label + ".duration", phase.getDuration())
+                    : trace != null ? trace.lengthMillis() : 0;
+            if (duration <= 0) {
+                throw new IllegalArgumentException(label + ".duration is required");
+            }
+            phases.add(new CompiledPhase(start, duration, shape(label, phase, duration, trace)));
+            start += duration;
+        }
+        ValueDistribution distribution = profile.getHighValueShare() != null
+                ? ValueDistribution.highValueShare(profile.getHighValueShare())
+                : ValueDistribution.UNIFORM;
+        return new WorkloadProfile(name, profile.isLoop(), distribution, List.copyOf(phases), start);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ValueDistribution getValueDistribution() {
+        return valueDistribution;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public boolean isFinished(long elapsedMillis) {
+        return !loop && elapsedMillis >= totalMillis;
+    }
+
+    /**
+     * Rate in records per second at {@code elapsedMillis} since the profile started;
+     * zero once a non-looping profile has finished.
+     */
+    public double rateAt(long elapsedMillis) {
+        if (elapsedMillis < 0) {
+            elapsedMillis = 0;
+        }
+        if (elapsedMillis >= totalMillis) {
+            if (!loop) {
+                return 0;
+            }
+            elapsedMillis %= totalMillis;
+        }
+        for (CompiledPhase phase : phases) {
+            if (elapsedMillis < phase.startMillis() + phase.durationMillis()) {
+                return Math.max(0, phase.shape().rateAt(elapsedMillis - phase.startMillis()));
+            }
+        }
+        return 0;
+    }
+
+    private static RateShape shape(String label, GeneratorProperties.Phase phase, long duration, TracePoints trace) {
+        switch (phase.getType()) {
+            case CONSTANT: {
+                double rate = phase.getRate();
+                return elapsed -> rate;
+            }
+            case RAMP: {
+                double from = phase.getFrom();
+                double slope = (phase.getTo() - from) / duration;
+                return elapsed -> from + slope * elapsed;
+            }
+            case STEP: {
+                long period = positiveMillis(label + ".period", phase.getPeriod());
+                long burst = positiveMillis(label + ".burst-duration", phase.getBurstDuration());
+                if (burst > period) {
+                    throw new IllegalArgumentException(label + ".burst-duration must not exceed period");
+                }
+                double base = phase.getRate();
+                double peak = phase.getPeakRate();
+                return elapsed -> elapsed % period < burst ? peak : base;
+            }
+            case SINE: {
+                long period = positiveMillis(label + ".period", phase.getPeriod());
+                long offset = phase.getOffset() != null ? phase.getOffset().toMillis() : 0;
+                double mean = phase.getRate();
+                double amplitude = phase.getAmplitude();
+                double radiansPerMilli = 2 * Math.PI / period;
+                return elapsed -> mean + amplitude * Math.sin((elapsed + offset) * radiansPerMilli);
+            }
+            case TRACE:
+                return trace::rateAt;
+            default:
+                throw new IllegalArgumentException(label + ": unsupported phase type " + phase.getType());
+        }
+    }
+
+    private static long positiveMillis(String label, Duration duration) {
+        if (duration == null || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(label + " must be a positive duration");
+        }
+        return duration.toMillis();
+    }
+
+    /**
+     * Recorded rate samples as {@code seconds,rate} lines ({@code #} comments allowed),
+     * linearly interpolated between samples and held after the last one.
+     */
+    static final class TracePoints {
+        private final long[] offsetsMillis;
+        private final double[] rates;
+
+        TracePoints(long[] offsetsMillis, double[] rates) {
+            this.offsetsMillis = offsetsMillis;
+            this.rates = rates;
+        }
+
+        static TracePoints load(String label, String location) {
+            if (location == null || location.isBlank()) {
+                throw new IllegalArgumentException(label + ".trace is required for trace phases");
+            }
+            Resource resource = ResourceUtils.isUrl(location)
+                    ? new DefaultResourceLoader().getResource(location)
+                    : new FileSystemResource(location);
+            List<Long> offsets = new ArrayList<>();
+            List<Double> rates = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                long previous = -1;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] parts = line.split(",");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException(label + ": malformed trace line '" + line + "'");
+                    }
+                    long offset = Math.round(Double.parseDouble(parts[0].trim()) * 1000);
+                    if (offset <= previous) {
+                        throw new IllegalArgumentException(label + ": trace offsets must increase at '" + line + "'");
+                    }
+                    previous = offset;
+                    offsets.add(offset);
+                    rates.add(Double.parseDouble(parts[1].trim()));
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(label + ": cannot read trace " + location, e);
+            }
+            if (offsets.isEmpty()) {
+                throw new IllegalArgumentException(label + ": trace " + location + " is empty");
+            }
+            long[] offsetArray = new long[offsets.size()];
+            double[] rateArray = new double[rates.size()];
+            for (int i = 0; i < offsetArray.length; i++) {
+                offsetArray[i] = offsets.get(i);
+                rateArray[i] = rates.get(i);
+            }
+            return new TracePoints(offsetArray, rateArray);
+        }
+
+        long lengthMillis() {
+            return offsetsMillis[offsetsMillis.length - 1];
+        }
+
+        double rateAt(long elapsedMillis) {
+            if (elapsedMillis <= offsetsMillis[0]) {
+                return rates[0];
+            }
+            int last = offsetsMillis.length - 1;
+            if (elapsedMillis >= offsetsMillis[last]) {
+                return rates[last];
+            }
+            int low = 0;
+            int high = last;
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (offsetsMillis[mid] <= elapsedMillis) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            double fraction = (double) (elapsedMillis - offsetsMillis[low]) / (offsetsMillis[high] - offsetsMillis[low]);
+            return rates[low] + fraction * (rates[high] - rates[low]);
+        }
+    }
+}
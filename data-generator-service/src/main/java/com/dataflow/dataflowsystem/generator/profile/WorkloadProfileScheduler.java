@@ -0,0 +1,80 @@
+package com.dataflow.dataflowsystem.generator.profile;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import com.dataflow.dataflowsystem.generator.engine.GenerationEngine;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drives the {@link GenerationEngine} target rate from the active workload profile,
+ * re-evaluating the profile every {@code generator.profile-tick-ms}.
+ */
+@Component
+@Slf4j
+public class WorkloadProfileScheduler {
+
+    private final GeneratorProperties properties;
+    private final GenerationEngine engine;
+    private final Map<String, WorkloadProfile> profiles = new ConcurrentHashMap<>();
+
+    private volatile WorkloadProfile activeProfile;
+    private volatile long startedAtMillis;
+    private volatile boolean finishedLogged;
+
+    public WorkloadProfileScheduler(GeneratorProperties properties, GenerationEngine engine) {
+        this.properties = properties;
+        this.engine = engine;
+    }
+
+    @PostConstruct
+    public void init() {
+        // Compile everything up front so a broken profile fails startup, not a later switch
+        properties.getProfiles().forEach((name, profile) -> profiles.put(name, WorkloadProfile.compile(name, profile)));
+        if (properties.getProfile() != null && !properties.getProfile().isBlank()) {
+            activate(properties.getProfile());
+        }
+    }
+
+    public void activate(String name) {
+        WorkloadProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown workload profile: " + name + ", known: " + profiles.keySet());
+        }
+        startedAtMillis = System.currentTimeMillis();
+        finishedLogged = false;
+        activeProfile = profile;
+        engine.setValueDistribution(profile.getValueDistribution());
+        engine.setTargetRate(profile.rateAt(0));
+        log.info("Activated workload profile '{}' ({} ms per cycle)", name, profile.getTotalMillis());
+    }
+
+    public void deactivate() {
+        activeProfile = null;
+        engine.setValueDistribution(ValueDistribution.UNIFORM);
+        engine.setTargetRate(properties.getRate());
+        log.info("Workload profile deactivated, back to flat rate {}/s", properties.getRate());
+    }
+
+    public WorkloadProfile getActiveProfile() {
+        return activeProfile;
+    }
+
+    @Scheduled(fixedRateString = "${generator.profile-tick-ms:100}")
+    public void tick() {
+        WorkloadProfile profile = activeProfile;
+        if (profile == null) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - startedAtMillis;
+        engine.setTargetRate(profile.rateAt(elapsed));
+        if (profile.isFinished(elapsed) && !finishedLogged) {
+            finishedLogged = true;
+            log.info("Workload profile '{}' finished, generation paused", profile.getName());
+        }
+    }
+}
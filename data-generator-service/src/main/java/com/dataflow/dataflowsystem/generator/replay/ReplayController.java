@@ -0,0 +1,61 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+
+/**
+ * {@code POST /replay?from=2024-01-01T10:00:00Z&to=2024-01-01T11:00:00Z&speed=10} starts a
+ * replay; {@code speed} is a multiple of the recorded rate or {@code max}.
+ * {@code GET /replay} reports progress and {@code DELETE /replay} cancels.
+ */
+@RestController
+@RequestMapping("/replay")
+@Slf4j
+public class ReplayController {
+
+    private final ReplayService replayService;
+
+    public ReplayController(ReplayService replayService) {
+        this.replayService = replayService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> start(@RequestParam Instant from,
+                                   @RequestParam Instant to,
+                                   @RequestParam(defaultValue = "1") String speed) {
+        try {
+            double multiplier = "max".equalsIgnoreCase(speed) ? 0 : Double.parseDouble(speed);
+            if (multiplier < 0) {
+                throw new IllegalArgumentException("Replay speed must be positive or 'max', was " + speed);
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(replayService.start(from, to, multiplier));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected replay request: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @GetMapping
+    public ReplayStatus status() {
+        return replayService.getStatus();
+    }
+
+    @DeleteMapping
+    public ResponseEntity<ReplayStatus> cancel() {
+        if (!replayService.cancel()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(replayService.getStatus());
+    }
+}
@@ -0,0 +1,352 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import com.dataflow.model.DataRecordMessage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the filter's output files: one {@code yyyy-MM-dd-HH-mm-<instance>.txt} file per
+ * minute and instance, each line {@code timestamp,value,hash[,id]}, and the hourly
+ * {@code yyyy-MM-dd-HH-<instance>.txt.gz} or daily {@code yyyy-MM-dd-<instance>.txt.gz}
+ * archives compaction merges closed minute files into. Minute files are memory-mapped and
+ * parsed straight from the mapped bytes; archives are decompressed and parsed a chunk at a
+ * time. Only the hash becomes a String.
+ */
+@Slf4j
+public final class ReplayReader {
+
+    private static final Pattern FILE_NAME = Pattern.compile("(\\d{4}-\\d{2}-\\d{2}-\\d{2}-\\d{2})-.+\\.txt");
+    private static final Pattern HOURLY_ARCHIVE = Pattern.compile("(\\d{4}-\\d{2}-\\d{2}-\\d{2})-.+\\.txt\\.gz");
+    private static final Pattern DAILY_ARCHIVE = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})-.+\\.txt\\.gz");
+    private static final String ARCHIVE_EXTENSION = ".txt.gz";
+    private static final DateTimeFormatter MINUTE = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm");
+    private static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final long MINUTE_MS = 60_000;
+    private static final int MAX_HASH_BYTES = 64;
+    private static final int ARCHIVE_CHUNK_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final Path archiveDirectory;
+    private final ZoneId zone;
+
+    private record Archive(Path file, Instant start, Instant end) {
+    }
+
+    /**
+     * @param archiveDirectory the filter's {@code storage.paths.archive}; may not exist yet
+     */
+    public ReplayReader(Path directory, Path archiveDirectory, ZoneId zone) {
+        this.directory = directory;
+        this.archiveDirectory = archiveDirectory;
+        this.zone = zone;
+    }
+
+    /**
+     * Files that may hold records in {@code [from, to)}, grouped by the period they cover
+     * and ordered by its start. A period is a minute, or an archive's hour or day together
+     * with any minute files inside it that other instances have not compacted yet, so
+     * records still come out in timestamp order.
+     */
+    public NavigableMap<Instant, List<Path>> minutes(Instant from, Instant to) throws IOException {
+        NavigableMap<Instant, List<Path>> minutes = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Replay directory not found: " + directory);
+        }
+        NavigableMap<Instant, Instant> windows = new TreeMap<>();
+        for (Archive archive : archives(from, to)) {
+            Map.Entry<Instant, Instant> last = windows.lastEntry();
+            Instant start = archive.start();
+            if (last != null && last.getValue().isAfter(start)) {
+                start = last.getKey();
+                windows.put(start, last.getValue().isAfter(archive.end()) ? last.getValue() : archive.end());
+            } else {
+                windows.put(start, archive.end());
+            }
+            minutes.computeIfAbsent(start, m -> new ArrayList<>()).add(archive.file());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    return;
+                }
+                Instant minute;
+                try {
+                    minute = LocalDateTime.parse(matcher.group(1), MINUTE).atZone(zone).toInstant();
+                } catch (DateTimeParseException e) {
+                    log.debug("Skipping {}: {}", file, e.getMessage());
+                    return;
+                }
+                if (minute.isBefore(to) && minute.plusMillis(MINUTE_MS).isAfter(from)) {
+                    Map.Entry<Instant, Instant> window = windows.floorEntry(minute);
+                    Instant period = window != null && window.getValue().isAfter(minute) ? window.getKey() : minute;
+                    minutes.computeIfAbsent(period, m -> new ArrayList<>()).add(file);
+                }
+            });
+        }
+        for (Map.Entry<Instant, List<Path>> entry : minutes.entrySet()) {
+            entry.getValue().sort(Comparator.naturalOrder());
+        }
+        return minutes;
+    }
+
+    /**
+     * Archives overlapping {@code [from, to)}, ordered by the start of the window they cover.
+     */
+    private List<Archive> archives(Instant from, Instant to) throws IOException {
+        List<Archive> archives = new ArrayList<>();
+        if (archiveDirectory == null || !Files.isDirectory(archiveDirectory)) {
+            return archives;
+        }
+        try (Stream<Path> files = Files.list(archiveDirectory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                Matcher hourly = HOURLY_ARCHIVE.matcher(name);
+                Matcher daily = DAILY_ARCHIVE.matcher(name);
+                LocalDateTime start;
+                LocalDateTime end;
+                try {
+                    if (hourly.matches()) {
+                        start = LocalDateTime.parse(hourly.group(1), HOUR);
+                        end = start.plusHours(1);
+                    } else if (daily.matches()) {
+                        start = LocalDate.parse(daily.group(1), DAY).atStartOfDay();
+                        end = start.plusDays(1);
+                    } else {
+                        return;
+                    }
+                } catch (DateTimeParseException e) {
+                    log.debug("Skipping {}: {}", file, e.getMessage());
+                    return;
+                }
+                Instant startInstant = start.atZone(zone).toInstant();
+                Instant endInstant = end.atZone(zone).toInstant();
+                if (startInstant.isBefore(to) && endInstant.isAfter(from)) {
+                    archives.add(new Archive(file, startInstant, endInstant));
+                }
+            });
+        }
+        archives.sort(Comparator.comparing(Archive::start));
+        return archives;
+    }
+
+    /**
+     * Records from all of a period's files with timestamps in {@code [from, to)},
+     * sorted by timestamp so instances writing the same minute interleave correctly.
+     * Records an interrupted compaction appended to an archive twice are read once.
+     */
+    public static List<DataRecordMessage> readMinute(List<Path> files, Instant from, Instant to) throws IOException {
+        List<DataRecordMessage> records = new ArrayList<>();
+        long fromMs = from.toEpochMilli();
+        long toMs = to.toEpochMilli();
+        boolean archived = false;
+        for (Path file : files) {
+            boolean archive = isArchive(file);
+            archived |= archive;
+            for (DataRecordMessage record : archive ? readArchive(file, fromMs, toMs) : read(file)) {
+                if (record.getTimestamp() >= fromMs && record.getTimestamp() < toMs) {
+                    records.add(record);
+                }
+            }
+        }
+        if (archived) {
+            Set<Long> ids = new HashSet<>();
+            records.removeIf(record -> record.getId() != null && !ids.add(record.getId()));
+        }
+        records.sort(Comparator.comparingLong(DataRecordMessage::getTimestamp));
+        return records;
+    }
+
+    static boolean isArchive(Path file) {
+        return file.getFileName().toString().endsWith(ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * Records of a gzip archive with timestamps in {@code [from, to)}. The archive is
+     * parsed in chunks of whole lines, so only the records kept are held in memory.
+     */
+    static List<DataRecordMessage> readArchive(Path file, long fromMs, long toMs) throws IOException {
+        List<DataRecordMessage> records = new ArrayList<>();
+        List<DataRecordMessage> chunk = new ArrayList<>();
+        byte[] buffer = new byte[ARCHIVE_CHUNK_BYTES];
+        int filled = 0;
+        int skipped = 0;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), ARCHIVE_CHUNK_BYTES)) {
+            for (int read; ; ) {
+                if (filled == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if ((read = in.read(buffer, filled, buffer.length - filled)) < 0) {
+                    break;
+                }
+                filled += read;
+                int lines = lastNewline(buffer, filled) + 1;
+                if (lines > 0) {
+                    skipped += parse(ByteBuffer.wrap(buffer, 0, lines), chunk);
+                    keep(chunk, fromMs, toMs, records);
+                    System.arraycopy(buffer, lines, buffer, 0, filled - lines);
+                    filled -= lines;
+                }
+            }
+        }
+        skipped += parse(ByteBuffer.wrap(buffer, 0, filled), chunk);
+        keep(chunk, fromMs, toMs, records);
+        if (skipped > 0) {
+            log.warn("Skipped {} malformed lines in {}", skipped, file);
+        }
+        return records;
+    }
+
+    private static void keep(List<DataRecordMessage> chunk, long fromMs, long toMs, List<DataRecordMessage> records) {
+        for (DataRecordMessage record : chunk) {
+            if (record.getTimestamp() >= fromMs && record.getTimestamp() < toMs) {
+                records.add(record);
+            }
+        }
+        chunk.clear();
+    }
+
+    private static int lastNewline(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static List<DataRecordMessage> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            List<DataRecordMessage> records = new ArrayList<>((int) (size / 20) + 1);
+            int skipped = parse(mapped, records);
+            if (skipped > 0) {
+                log.warn("Skipped {} malformed lines in {}", skipped, file);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Parses {@code timestamp,value,hash[,id]} lines from {@code buffer} into {@code records}.
+     * A final line without a newline is still read, as the filter may be mid-write.
+     *
+     * @return the number of malformed lines skipped
+     */
+    static int parse(ByteBuffer buffer, List<DataRecordMessage> records) {
+        byte[] hash = new byte[MAX_HASH_BYTES];
+        int skipped = 0;
+        int limit = buffer.limit();
+        int pos = buffer.position();
+        while (pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd;
+            if (end > pos && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > pos && !parseLine(buffer, pos, end, hash, records)) {
+                skipped++;
+            }
+            pos = lineEnd + 1;
+        }
+        return skipped;
+    }
+
+    private static boolean parseLine(ByteBuffer buffer, int start, int end, byte[] hash,
+                                     List<DataRecordMessage> records) {
+        int firstComma = indexOf(buffer, start, end, (byte) ',');
+        int secondComma = firstComma < 0 ? -1 : indexOf(buffer, firstComma + 1, end, (byte) ',');
+        int thirdComma = secondComma < 0 ? -1 : indexOf(buffer, secondComma + 1, end, (byte) ',');
+        int hashEnd = thirdComma < 0 ? end : thirdComma;
+        if (secondComma < 0 || hashEnd - secondComma - 1 > hash.length) {
+            return false;
+        }
+        long timestamp;
+        long value;
+        Long id = null;
+        try {
+            timestamp = parseLong(buffer, start, firstComma);
+            value = parseLong(buffer, firstComma + 1, secondComma);
+            if (thirdComma >= 0) {
+                id = parseLong(buffer, thirdComma + 1, end);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        int hashLength = hashEnd - secondComma - 1;
+        for (int i = 0; i < hashLength; i++) {
+            hash[i] = buffer.get(secondComma + 1 + i);
+        }
+        String hashValue = new String(hash, 0, hashLength, StandardCharsets.US_ASCII);
+        records.add(new DataRecordMessage(id, timestamp, (int) value, "null".equals(hashValue) ? null : hashValue));
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseLong(ByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to || to - i > 19) {
+            throw new NumberFormatException();
+        }
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            result = result * 10 + digit;
+            if (result < 0) {
+                throw new NumberFormatException();
+            }
+        }
+        return negative ? -result : result;
+    }
+}
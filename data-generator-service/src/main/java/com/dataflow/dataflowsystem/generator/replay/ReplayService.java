@@ -0,0 +1,243 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import com.dataflow.dataflowsystem.generator.config.ReplayProperties;
+import com.dataflow.dataflowsystem.generator.handler.WebSocketHandler;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Re-emits records recorded by the filter through {@link WebSocketHandler#sendBatch},
+ * the same path live batches take, so subscriptions, flow control and slow-consumer
+ * handling all apply. Records keep their original timestamps. A paced replay keeps the
+ * recorded spacing divided by {@code speed}; an unpaced one sends as fast as the
+ * consumers grant credit. One replay runs at a time, on its own thread, independently
+ * of live generation.
+ */
+@Service
+@Slf4j
+public class ReplayService {
+
+    private static final long CREDIT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final WebSocketHandler webSocketHandler;
+    private final ReplayProperties properties;
+    private final Counter recordsSent;
+    private final Counter filesRead;
+
+    private volatile Job job;
+
+    public ReplayService(WebSocketHandler webSocketHandler, ReplayProperties properties, MeterRegistry meterRegistry) {
+        this.webSocketHandler = webSocketHandler;
+        this.properties = properties;
+        this.recordsSent = Counter.builder("replay.records.sent")
+                .description("Recorded records re-emitted to the sessions")
+                .register(meterRegistry);
+        this.filesRead = Counter.builder("replay.files.read")
+                .description("Filter output files read by replays")
+                .register(meterRegistry);
+        Gauge.builder("replay.running", this, service -> service.isRunning() ? 1 : 0)
+                .description("Whether a replay is in progress")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts replaying records with timestamps in {@code [from, to)}.
+     *
+     * @param speed multiple of the recorded rate; zero or negative replays unpaced
+     * @throws IllegalArgumentException if the range is empty
+     * @throws IllegalStateException    if a replay is already running
+     */
+    public synchronized ReplayStatus start(Instant from, Instant to, double speed) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("Replay range is empty: " + from + " to " + to);
+        }
+        if (Double.isNaN(speed) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Replay speed must be finite, was " + speed);
+        }
+        if (isRunning()) {
+            throw new IllegalStateException("A replay is already running");
+        }
+        Job started = new Job(from, to, speed);
+        job = started;
+        started.thread.start();
+        log.info("Replay started: {} to {} at {}", from, to, started.speedLabel());
+        return started.status();
+    }
+
+    /**
+     * @return false if no replay was running
+     */
+    public synchronized boolean cancel() {
+        Job current = job;
+        if (current == null || current.state != ReplayStatus.State.RUNNING) {
+            return false;
+        }
+        current.state = ReplayStatus.State.CANCELLED;
+        LockSupport.unpark(current.thread);
+        return true;
+    }
+
+    public ReplayStatus getStatus() {
+        Job current = job;
+        return current != null ? current.status() : ReplayStatus.idle();
+    }
+
+    public boolean isRunning() {
+        Job current = job;
+        return current != null && current.state == ReplayStatus.State.RUNNING;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+    }
+
+    private final class Job {
+        private final Instant from;
+        private final Instant to;
+        private final double speed;
+        private final Thread thread;
+        private volatile ReplayStatus.State state = ReplayStatus.State.RUNNING;
+        private volatile int files;
+        private volatile long sent;
+        private volatile long position = Long.MIN_VALUE;
+        private volatile String error;
+
+        private long firstTimestamp = Long.MIN_VALUE;
+        private long startNanos;
+
+        Job(Instant from, Instant to, double speed) {
+            this.from = from;
+            this.to = to;
+            this.speed = speed;
+            this.thread = new Thread(this::run, "generator-replay");
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                replay();
+                finish(ReplayStatus.State.COMPLETED, null);
+            } catch (IOException | RuntimeException e) {
+                log.error("Replay failed: {}", e.getMessage(), e);
+                finish(ReplayStatus.State.FAILED, e.getMessage());
+            }
+            log.info("Replay {}: {} records from {} files", state.name().toLowerCase(), sent, files);
+        }
+
+        private synchronized void finish(ReplayStatus.State outcome, String message) {
+            if (state == ReplayStatus.State.RUNNING) {
+                error = message;
+                state = outcome;
+            }
+        }
+
+        private void replay() throws IOException {
+            ReplayReader reader = new ReplayReader(Paths.get(properties.getDirectory()),
+                    Paths.get(properties.getArchiveDirectory()), properties.getZone());
+            NavigableMap<Instant, List<Path>> minutes = reader.minutes(from, to);
+            int batchSize = Math.max(1, properties.getBatchSize());
+            long granularityNanos = properties.getPacingGranularity().toNanos();
+            List<DataRecordMessage> batch = new ArrayList<>(batchSize);
+
+            for (Map.Entry<Instant, List<Path>> minute : minutes.entrySet()) {
+                List<DataRecordMessage> records = ReplayReader.readMinute(minute.getValue(), from, to);
+                files += minute.getValue().size();
+                filesRead.increment(minute.getValue().size());
+                for (DataRecordMessage record : records) {
+                    if (speed > 0) {
+                        long wait = dueNanos(record.getTimestamp()) - System.nanoTime();
+                        if (wait > granularityNanos) {
+                            if (!send(batch)) {
+                                return;
+                            }
+                            batch = new ArrayList<>(batchSize);
+                            if (!sleep(wait)) {
+                                return;
+                            }
+                        }
+                    }
+                    batch.add(record);
+                    if (batch.size() >= batchSize) {
+                        if (!send(batch)) {
+                            return;
+                        }
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+            send(batch);
+        }
+
+        private long dueNanos(long timestamp) {
+            if (firstTimestamp == Long.MIN_VALUE) {
+                firstTimestamp = timestamp;
+                startNanos = System.nanoTime();
+            }
+            return startNanos + (long) ((timestamp - firstTimestamp) * 1_000_000 / speed);
+        }
+
+        /**
+         * Sends {@code batch} in pieces no larger than the consumers' credit.
+         *
+         * @return false if the replay was cancelled meanwhile
+         */
+        private boolean send(List<DataRecordMessage> batch) {
+            int offset = 0;
+            while (offset < batch.size()) {
+                if (state != ReplayStatus.State.RUNNING) {
+                    return false;
+                }
+                long credit = webSocketHandler.getAvailableCredit();
+                if (credit <= 0) {
+                    LockSupport.parkNanos(this, CREDIT_POLL_NANOS);
+                    continue;
+                }
+                int end = (int) Math.min(batch.size(), offset + credit);
+                List<DataRecordMessage> piece = offset == 0 && end == batch.size()
+                        ? batch : new ArrayList<>(batch.subList(offset, end));
+                webSocketHandler.sendBatch(piece);
+                offset = end;
+                sent += piece.size();
+                recordsSent.increment(piece.size());
+                position = piece.get(piece.size() - 1).getTimestamp();
+            }
+            return state == ReplayStatus.State.RUNNING;
+        }
+
+        private boolean sleep(long nanos) {
+            long deadline = System.nanoTime() + nanos;
+            long remaining;
+            while (state == ReplayStatus.State.RUNNING && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            return state == ReplayStatus.State.RUNNING;
+        }
+
+        private String speedLabel() {
+            return speed > 0 ? speed + "x" : "max";
+        }
+
+        private ReplayStatus status() {
+            long last = position;
+            return new ReplayStatus(state, from, to, speedLabel(), files, sent,
+                    last == Long.MIN_VALUE ? null : Instant.ofEpochMilli(last), error);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of the current or last replay, as reported by {@code GET /replay}.
+ */
+@Getter
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReplayStatus {
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    private final State state;
+    private final Instant from;
+    private final Instant to;
+    /** Replay speed relative to the recording, or "max". */
+    private final String speed;
+    private final int filesRead;
+    private final long recordsSent;
+    /** Timestamp of the last record sent. */
+    private final Instant position;
+    private final String error;
+
+    static ReplayStatus idle() {
+        return new ReplayStatus(State.IDLE, null, null, null, 0, 0, null, null);
+    }
+}
@@ -1,96 +1,74 @@
 package com.dataflow.dataflowsystem.generator.service;
 
 import com.dataflow.dataflowsystem.generator.aop.MonitorMetrics;
+import com.dataflow.dataflowsystem.generator.buffer.BatchBuffer;
 import com.dataflow.dataflowsystem.generator.handler.WebSocketHandler;
 import com.dataflow.model.DataRecordMessage;
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.retry.annotation.Retry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.util.DigestUtils;
 
 import java.util.List;
-import java.util.Random;
 
 @Service
 @Slf4j
 public class DataGeneratorService {
 
     private final WebSocketHandler webSocketHandler;
-    private final RedisService redisService;
-    private final Random random = new Random();
+    private final BatchBuffer batchBuffer;
+    private final Counter creditStalls;
+    private final Counter failedRecords;
 
     @Value("${batch.size:100}")
     private int batchSize;
 
-    @Value("${batch.processing-interval-ms:1000}")
-    private long processingInterval;
-
     public DataGeneratorService(WebSocketHandler webSocketHandler,
-                                RedisService redisService) {
+                                BatchBuffer batchBuffer,
+                                MeterRegistry meterRegistry) {
         this.webSocketHandler = webSocketHandler;
-        this.redisService = redisService;
-    }
-
-    @Scheduled(fixedRate = 200)
-    @MonitorMetrics(value = "websocket_send", operation = "generate_message")
-    @CircuitBreaker(name = "filterServiceCircuitBreaker", fallbackMethod = "fallbackGenerateData")
-    public void generateData() {
-        DataRecordMessage record = generateDataRecord();
-        redisService.addToBatch("dataBatch", record);
-        log.info("Generated data record: timestamp={}, randomValue={}, hashValue={}",
-                record.getTimestamp(), record.getRandomValue(), record.getHashValue());
+        this.batchBuffer = batchBuffer;
+        this.creditStalls = Counter.builder("generator.flow.stalls")
+                .description("Send cycles skipped because a flow-controlled consumer had no credit left")
+                .register(meterRegistry);
+        this.failedRecords = Counter.builder("generator.send.failed.records")
+                .description("Records drained from the buffer that could not be handed to the sessions")
+                .register(meterRegistry);
     }
 
-    @Scheduled(fixedRateString = "${batch.processing-interval-ms:1000}")
+    /**
+     * Sends the next batch of up to {@code batch.size} records. Called by the
+     * {@code AdaptiveBatcher} whenever a flush is due. The handler only queues the batch
+     * for each session; a session that fails to write it is dropped by its own sender.
+     * A batch the handler rejects has already left the buffer: it is counted as lost and
+     * the error passed on, rather than retried, which would only drain the next batch.
+     *
+     * @return the records handed to the sessions, empty if nothing was sent
+     */
     @MonitorMetrics(value = "websocket_send", operation = "send_batch")
-    @CircuitBreaker(name = "websocketCircuitBreaker", fallbackMethod = "fallbackSendBatch")
-    @Retry(name = "websocketRetry", fallbackMethod = "fallbackRetrySendBatch")
-    public void sendBatch() {
-        List<DataRecordMessage> batchCache = redisService.getBatch("dataBatch");
-
-        if (batchCache.isEmpty()) {
-            log.info("No data to send: Batch is empty.");
-            return;
+    public List<DataRecordMessage> sendBatch() {
+        long credit = webSocketHandler.getAvailableCredit();
+        if (credit <= 0) {
+            // Records stay buffered until every flow-controlled consumer grants more credit
+            creditStalls.increment();
+            log.debug("No credit from consumers, records stay buffered");
+            return List.of();
         }
+        List<DataRecordMessage> batch = batchBuffer.drain((int) Math.min(batchSize, credit));
 
-        List<DataRecordMessage> limitedBatch = batchCache.stream()
-                .limit(batchSize)
-                .toList();
+        if (batch.isEmpty()) {
+            log.debug("No data to send: Batch is empty.");
+            return List.of();
+        }
 
         try {
-            webSocketHandler.sendBatch(limitedBatch);
-            redisService.clearBatch("dataBatch");
-            log.info("Successfully sent batch of size: {}", batchCache.size());
-        } catch (Exception e) {
-            log.error("Failed to send batch of size {}. Error: {}", batchCache.size(), e.getMessage(), e);
+            webSocketHandler.sendBatch(batch);
+        } catch (RuntimeException e) {
+            failedRecords.increment(batch.size());
+            throw e;
         }
-    }
-
-    public void fallbackSendBatch(Throwable t) {
-        log.warn("Fallback triggered for sendBatch due to: {}", t.getMessage(), t);
-    }
-
-    public void fallbackGenerateData(Throwable t) {
-        log.warn("Circuit breaker triggered for data generation: {}", t.getMessage(), t);
-    }
-
-    public void fallbackRetrySendBatch(Throwable t) {
-        log.warn("Retry exhausted for batch sending: {}", t.getMessage(), t);
-    }
-
-    public DataRecordMessage generateDataRecord() {
-        Long timestamp = System.currentTimeMillis();
-        Integer randomValue = random.nextInt(101);
-        String hashValue = generateHashValue(timestamp, randomValue);
-        return new DataRecordMessage(timestamp, randomValue, hashValue);
-    }
-
-    public String generateHashValue(Long timestamp, Integer value) {
-        String combined = timestamp + value.toString();
-        String combinedMd5 = DigestUtils.md5DigestAsHex(combined.getBytes());
-        return combinedMd5.substring(combinedMd5.length() - 2);
+        log.info("Successfully sent batch of size: {}", batch.size());
+        return batch;
     }
 }
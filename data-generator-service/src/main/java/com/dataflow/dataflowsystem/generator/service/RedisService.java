@@ -1,15 +1,23 @@
 package com.dataflow.dataflowsystem.generator.service;
 
+import com.dataflow.dataflowsystem.generator.buffer.RecordRingBuffer;
 import com.dataflow.model.DataRecordMessage;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 @Slf4j
@@ -17,12 +25,26 @@ public class RedisService {
 
     private final RedisTemplate<String, DataRecordMessage> redisTemplate;
     private final ListOperations<String, DataRecordMessage> listOps;
-    @Value("${batch.buffer-size:500}")
-    private int bufferSize;
+    /** Holds records Redis refused; drained ahead of the Redis list so they go out first. */
+    private final RecordRingBuffer fallbackBuffer;
+    private final LongAdder fallbackDropped = new LongAdder();
 
-    public RedisService(RedisTemplate<String, DataRecordMessage> redisTemplate) {
+    @Value("${batch.redis.pipeline-chunk:500}")
+    private int pipelineChunk = 500;
+
+    public RedisService(RedisTemplate<String, DataRecordMessage> redisTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${batch.redis.fallback-capacity:65536}") int fallbackCapacity) {
         this.redisTemplate = redisTemplate;
         this.listOps = redisTemplate.opsForList();
+        this.fallbackBuffer = new RecordRingBuffer(fallbackCapacity);
+
+        Gauge.builder("redis.fallback.buffer.size", fallbackBuffer, RecordRingBuffer::size)
+                .description("Records held locally while Redis is unavailable")
+                .register(meterRegistry);
+        FunctionCounter.builder("redis.fallback.buffer.dropped", fallbackDropped, LongAdder::sum)
+                .description("Records evicted from the full fallback buffer")
+                .register(meterRegistry);
     }
 
     @CircuitBreaker(name = "redisCircuitBreaker", fallbackMethod = "fallbackAddToBatch")
@@ -31,20 +53,90 @@ public class RedisService {
         listOps.rightPush(key, message);
     }
 
+    /**
+     * Appends {@code messages} with one pipelined round trip, split into
+     * {@code RPUSH} commands of at most {@code batch.redis.pipeline-chunk} values.
+     * Not retried: this runs on the flush path under its lock, so a failed write goes
+     * straight to the local fallback buffer instead of waiting out the retry backoff.
+     */
+    @CircuitBreaker(name = "redisCircuitBreaker", fallbackMethod = "fallbackAddAllToBatch")
+    public void addAllToBatch(String key, List<DataRecordMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ListOperations<String, DataRecordMessage> ops =
+                        ((RedisOperations<String, DataRecordMessage>) operations).opsForList();
+                for (int from = 0; from < messages.size(); from += pipelineChunk) {
+                    ops.rightPushAll(key, messages.subList(from, Math.min(messages.size(), from + pipelineChunk)));
+                }
+                return null;
+            }
+        });
+    }
+
     public void fallbackAddToBatch(String key, DataRecordMessage message, Throwable t) {
-        log.warn("Redis write failed for key {}: {}", key, t.getMessage());
+        log.warn("Redis write failed for key {}, keeping record locally: {}", key, t.getMessage());
+        addToFallback(message);
+    }
+
+    public void fallbackRetryAddToBatch(String key, DataRecordMessage message, Throwable t) {
+        log.warn("Retry failed for Redis write to key {}, keeping record locally: {}", key, t.getMessage());
+        addToFallback(message);
     }
 
-    public void fallbackRetryAddToBatch(Throwable t) {
-        log.warn("Retry failed for WebSocket batch sending: {}", t.getMessage());
+    public void fallbackAddAllToBatch(String key, List<DataRecordMessage> messages, Throwable t) {
+        log.warn("Redis bulk write of {} records failed for key {}, keeping them locally: {}",
+                messages.size(), key, t.getMessage());
+        messages.forEach(this::addToFallback);
     }
 
+    /**
+     * Atomically removes up to {@code count} records from the head of the list
+     * ({@code LPOP key count}, Redis 6.2+). Records pushed concurrently are never lost.
+     */
+    @CircuitBreaker(name = "redisCircuitBreaker", fallbackMethod = "fallbackDrainBatch")
+    public List<DataRecordMessage> drainBatch(String key, int count) {
+        if (count <= 0) {
+            return List.of();
+        }
+        List<DataRecordMessage> batch = listOps.leftPop(key, count);
+        return batch != null ? batch : List.of();
+    }
+
+    public List<DataRecordMessage> fallbackDrainBatch(String key, int count, Throwable t) {
+        log.warn("Redis drain failed for key {}: {}", key, t.getMessage());
+        return List.of();
+    }
+
+    /**
+     * Removes up to {@code maxRecords} records that were parked locally while Redis was down.
+     */
+    public List<DataRecordMessage> drainFallback(int maxRecords) {
+        List<DataRecordMessage> batch = new ArrayList<>(Math.min(maxRecords, fallbackBuffer.size()));
+        fallbackBuffer.drain((id, timestamp, randomValue, hashValue) ->
+                batch.add(RecordRingBuffer.toMessage(id, timestamp, randomValue, hashValue)), maxRecords);
+        return batch;
+    }
+
+    public long getBatchSize(String key) {
+        Long size = listOps.size(key);
+        return size != null ? size : 0;
+    }
 
-    public List<DataRecordMessage> getBatch(String key) {
-        return listOps.range(key, 0, bufferSize - 1);
+    public long getFallbackSize() {
+        return fallbackBuffer.size();
     }
 
-    public void clearBatch(String key) {
-        redisTemplate.delete(key);
+    private void addToFallback(DataRecordMessage message) {
+        while (!fallbackBuffer.offer(RecordRingBuffer.idOf(message), message.getTimestamp(),
+                message.getRandomValue(), message.getHashValue())) {
+            if (fallbackBuffer.poll(null)) {
+                fallbackDropped.increment();
+            }
+        }
     }
 }
@@ -0,0 +1,150 @@
+package com.dataflow.dataflowsystem.generator.batch;
+
+import com.dataflow.dataflowsystem.generator.buffer.BatchBuffer;
+import com.dataflow.dataflowsystem.generator.buffer.LocalBatchBuffer;
+import com.dataflow.dataflowsystem.generator.buffer.OverflowPolicy;
+import com.dataflow.dataflowsystem.generator.service.DataGeneratorService;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AdaptiveBatcherTest {
+
+    @Mock
+    private BatchBuffer batchBuffer;
+
+    @Mock
+    private DataGeneratorService dataGeneratorService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AdaptiveBatcher batcher;
+
+    @BeforeEach
+    void setup() {
+        lenient().when(batchBuffer.offer(anyLong(), anyLong(), anyInt(), anyString())).thenReturn(true);
+        lenient().when(dataGeneratorService.sendBatch()).thenReturn(List.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.stop();
+        }
+    }
+
+    @Test
+    void whenBatchSizeIsReached_thenFlushesBeforeLinger() {
+        batcher = start(10, 60_000, false);
+        when(dataGeneratorService.sendBatch()).thenReturn(records(10), List.of());
+
+        for (int i = 0; i < 10; i++) {
+            batcher.accept(1L, System.currentTimeMillis(), 42, "AB");
+        }
+
+        verify(dataGeneratorService, timeout(1000).atLeastOnce()).sendBatch();
+        assertEquals(1.0, meterRegistry.get("generator.batch.flushes").tag("trigger", "size").counter().count());
+        assertEquals(0, batcher.getPending());
+    }
+
+    @Test
+    void whenBatchIsPartial_thenFlushesAfterLinger() {
+        batcher = start(100, 50, false);
+        when(dataGeneratorService.sendBatch()).thenReturn(records(3), List.of());
+
+        for (int i = 0; i < 3; i++) {
+            batcher.accept(1L, System.currentTimeMillis(), 42, "AB");
+        }
+
+        verify(dataGeneratorService, timeout(1000).atLeastOnce()).sendBatch();
+        assertEquals(1.0, meterRegistry.get("generator.batch.flushes").tag("trigger", "linger").counter().count());
+        assertEquals(0.03, meterRegistry.get("generator.batch.fill.ratio").summary().mean(), 1e-9);
+    }
+
+    @Test
+    void whenFastLaneRecordArrives_thenFlushesImmediately() {
+        batcher = start(100, 60_000, true);
+        when(dataGeneratorService.sendBatch()).thenReturn(records(2), List.of());
+
+        batcher.accept(1L, System.currentTimeMillis(), 10, "AB");
+        verify(dataGeneratorService, after(100).never()).sendBatch();
+        batcher.accept(1L, System.currentTimeMillis(), 95, "AB");
+
+        verify(dataGeneratorService, timeout(1000).atLeastOnce()).sendBatch();
+        assertEquals(1.0, meterRegistry.get("generator.batch.flushes").tag("trigger", "fast-lane").counter().count());
+    }
+
+    @Test
+    void whenBufferRejectsRecord_thenItIsNotCountedAsPending() {
+        batcher = new AdaptiveBatcher(batchBuffer, dataGeneratorService, meterRegistry, 10, 60_000, false, 90);
+        when(batchBuffer.offer(anyLong(), anyLong(), anyInt(), anyString())).thenReturn(false);
+
+        batcher.accept(1L, System.currentTimeMillis(), 42, "AB");
+
+        assertEquals(0, batcher.getPending());
+    }
+
+    @Test
+    void whenTheBufferOverflowed_thenLaterBatchesStillWaitForSizeOrLinger() {
+        LocalBatchBuffer ring = new LocalBatchBuffer(16, OverflowPolicy.DROP_OLDEST, meterRegistry);
+        AtomicBoolean stalled = new AtomicBoolean(true);
+        when(dataGeneratorService.sendBatch()).thenAnswer(invocation -> stalled.get() ? List.of() : ring.drain(10));
+        batcher = new AdaptiveBatcher(ring, dataGeneratorService, meterRegistry, 10, 500, false, 90);
+        batcher.start();
+
+        // No credit: 24 of these are evicted from the ring
+        for (int i = 0; i < 40; i++) {
+            batcher.accept(i, System.currentTimeMillis(), 42, "AB");
+        }
+        stalled.set(false);
+        waitUntil(() -> meterRegistry.get("generator.batch.flushes").tag("trigger", "size").counter().count() == 2.0);
+        clearInvocations(dataGeneratorService);
+
+        for (int i = 0; i < 3; i++) {
+            batcher.accept(100 + i, System.currentTimeMillis(), 42, "AB");
+        }
+        verify(dataGeneratorService, after(100).never()).sendBatch();
+        for (int i = 3; i < 10; i++) {
+            batcher.accept(100 + i, System.currentTimeMillis(), 42, "AB");
+        }
+
+        verify(dataGeneratorService, timeout(1000).atLeastOnce()).sendBatch();
+        assertEquals(3.0, meterRegistry.get("generator.batch.flushes").tag("trigger", "size").counter().count());
+        assertEquals(0, ring.size());
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 5s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private AdaptiveBatcher start(int batchSize, long lingerMs, boolean fastLane) {
+        AdaptiveBatcher started = new AdaptiveBatcher(batchBuffer, dataGeneratorService, meterRegistry,
+                batchSize, lingerMs, fastLane, 90);
+        started.start();
+        return started;
+    }
+
+    private static List<DataRecordMessage> records(int count) {
+        return Collections.nCopies(count, new DataRecordMessage(System.currentTimeMillis(), 42, "AB"));
+    }
+}
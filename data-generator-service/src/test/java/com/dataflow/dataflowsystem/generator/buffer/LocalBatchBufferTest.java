@@ -0,0 +1,119 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalBatchBufferTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void whenDrain_thenRecordsComeOutInInsertionOrder() {
+        LocalBatchBuffer buffer = new LocalBatchBuffer(8, OverflowPolicy.DROP_OLDEST, meterRegistry);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(i + 1, i, i, "h" + i);
+        }
+
+        List<DataRecordMessage> batch = buffer.drain(3);
+
+        assertEquals(3, batch.size());
+        assertEquals(0L, batch.get(0).getTimestamp());
+        assertEquals(1L, batch.get(0).getId());
+        assertEquals(2, batch.get(2).getRandomValue());
+        assertEquals(2, buffer.size());
+        assertEquals(List.of(3L, 4L), buffer.drain(10).stream().map(DataRecordMessage::getTimestamp).toList());
+        assertTrue(buffer.drain(10).isEmpty());
+    }
+
+    @Test
+    void whenCapacityIsNotPowerOfTwo_thenItIsRoundedUp() {
+        new LocalBatchBuffer(100, OverflowPolicy.DROP_OLDEST, meterRegistry);
+
+        assertEquals(128.0, meterRegistry.get("batch.buffer.capacity").gauge().value());
+    }
+
+    @Test
+    void whenFullWithDropOldest_thenOldestRecordIsEvicted() {
+        LocalBatchBuffer buffer = new LocalBatchBuffer(4, OverflowPolicy.DROP_OLDEST, meterRegistry);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buffer.offer(i + 1, i, i, "h"));
+        }
+
+        List<DataRecordMessage> batch = buffer.drain(10);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L), batch.stream().map(DataRecordMessage::getTimestamp).toList());
+        assertEquals(2, buffer.getOverflowCount());
+        assertEquals(2.0, meterRegistry.get("batch.buffer.overflow").tag("policy", "drop_oldest").functionCounter().count());
+    }
+
+    @Test
+    void whenFullWithDropNewest_thenNewRecordIsRejected() {
+        LocalBatchBuffer buffer = new LocalBatchBuffer(4, OverflowPolicy.DROP_NEWEST, meterRegistry);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i + 1, i, i, "h"));
+        }
+
+        assertFalse(buffer.offer(4 + 1, 4, 4, "h"));
+        assertEquals(List.of(0L, 1L, 2L, 3L), buffer.drain(10).stream().map(DataRecordMessage::getTimestamp).toList());
+        assertEquals(1, buffer.getOverflowCount());
+    }
+
+    @Test
+    void whenFullWithBlock_thenProducerWaitsForDrain() throws Exception {
+        LocalBatchBuffer buffer = new LocalBatchBuffer(2, OverflowPolicy.BLOCK, meterRegistry);
+        buffer.offer(0 + 1, 0, 0, "h");
+        buffer.offer(1 + 1, 1, 1, "h");
+
+        CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            buffer.offer(2 + 1, 2, 2, "h");
+            offered.countDown();
+        });
+        producer.start();
+
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, buffer.drain(1).size());
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1L, 2L), buffer.drain(10).stream().map(DataRecordMessage::getTimestamp).toList());
+    }
+
+    @Test
+    void whenConcurrentProducers_thenNoRecordIsLostOrDuplicated() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        LocalBatchBuffer buffer = new LocalBatchBuffer(1024, OverflowPolicy.BLOCK, meterRegistry);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            long base = (long) p * perProducer;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.offer(base + i + 1, base + i, i % 101, "h");
+                }
+            });
+        }
+
+        List<DataRecordMessage> received = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received.size() < producers * perProducer && System.nanoTime() < deadline) {
+            received.addAll(buffer.drain(500));
+        }
+        executor.shutdown();
+
+        Set<Long> timestamps = new HashSet<>();
+        received.forEach(record -> timestamps.add(record.getTimestamp()));
+        assertEquals(producers * perProducer, received.size());
+        assertEquals(producers * perProducer, timestamps.size());
+    }
+}
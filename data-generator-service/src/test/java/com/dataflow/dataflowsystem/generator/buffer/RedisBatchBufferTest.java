@@ -0,0 +1,78 @@
+package com.dataflow.dataflowsystem.generator.buffer;
+
+import com.dataflow.dataflowsystem.generator.service.RedisService;
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RedisBatchBufferTest {
+
+    @Mock
+    private RedisService redisService;
+
+    private RedisBatchBuffer buffer;
+
+    @BeforeEach
+    void setup() {
+        buffer = new RedisBatchBuffer(redisService, "dataBatch", 8);
+    }
+
+    @Test
+    void whenOffer_thenRecordsArePushedInBulk() {
+        for (int i = 0; i < 3; i++) {
+            buffer.offer(i + 1, i, i, "h");
+        }
+        verify(redisService, never()).addAllToBatch(anyString(), anyList());
+
+        buffer.offer(3 + 1, 3, 3, "h");
+
+        ArgumentCaptor<List<DataRecordMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(redisService, times(1)).addAllToBatch(eq("dataBatch"), captor.capture());
+        assertEquals(List.of(0L, 1L, 2L, 3L), captor.getValue().stream().map(DataRecordMessage::getTimestamp).toList());
+        assertEquals(List.of(1L, 2L, 3L, 4L), captor.getValue().stream().map(DataRecordMessage::getId).toList());
+        verify(redisService, never()).addToBatch(anyString(), any());
+    }
+
+    @Test
+    void whenDrain_thenStagedRecordsAreFlushedBeforePopping() {
+        buffer.offer(1 + 1, 1, 1, "h");
+        when(redisService.drainFallback(10)).thenReturn(new ArrayList<>());
+        when(redisService.drainBatch("dataBatch", 10)).thenReturn(List.of(new DataRecordMessage(1L, 1, "h")));
+
+        List<DataRecordMessage> batch = buffer.drain(10);
+
+        assertEquals(1, batch.size());
+        var order = inOrder(redisService);
+        order.verify(redisService).addAllToBatch(eq("dataBatch"), anyList());
+        order.verify(redisService).drainBatch("dataBatch", 10);
+    }
+
+    @Test
+    void whenFallbackHoldsRecords_thenTheyAreDrainedFirst() {
+        DataRecordMessage parked = new DataRecordMessage(1L, 1, "01");
+        DataRecordMessage queued = new DataRecordMessage(2L, 2, "02");
+        when(redisService.drainFallback(5)).thenReturn(new ArrayList<>(List.of(parked)));
+        when(redisService.drainBatch("dataBatch", 4)).thenReturn(List.of(queued));
+
+        assertEquals(List.of(parked, queued), buffer.drain(5));
+    }
+
+    @Test
+    void whenFallbackFillsTheBatch_thenRedisIsNotPopped() {
+        when(redisService.drainFallback(1)).thenReturn(new ArrayList<>(List.of(new DataRecordMessage(1L, 1, "01"))));
+
+        assertEquals(1, buffer.drain(1).size());
+        verify(redisService, never()).drainBatch(anyString(), anyInt());
+    }
+}
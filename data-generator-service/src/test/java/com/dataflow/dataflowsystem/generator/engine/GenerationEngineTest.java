@@ -0,0 +1,98 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenerationEngineTest {
+
+    @Test
+    void whenSeeded_thenValueSequenceIsReproducible() throws Exception {
+        assertEquals(captureValues(7L, 200), captureValues(7L, 200));
+    }
+
+    @Test
+    void whenThrottled_thenRateStaysNearTarget() throws Exception {
+        GeneratorProperties properties = properties(1L, 2);
+        properties.setRate(2_000);
+        AtomicLong count = new AtomicLong();
+        GenerationEngine engine = new GenerationEngine(properties, (id, ts, value, hash) -> count.incrementAndGet(),
+                new RecordIdGenerator(1), new SimpleMeterRegistry());
+
+        engine.start();
+        Thread.sleep(500);
+        engine.stop();
+
+        assertTrue(count.get() > 500, "generated " + count.get());
+        assertTrue(count.get() < 1_500, "generated " + count.get());
+    }
+
+    @Test
+    void whenRateIsZero_thenNothingIsGenerated() throws Exception {
+        GeneratorProperties properties = properties(1L, 1);
+        properties.setRate(0);
+        AtomicLong count = new AtomicLong();
+        GenerationEngine engine = new GenerationEngine(properties, (id, ts, value, hash) -> count.incrementAndGet(),
+                new RecordIdGenerator(1), new SimpleMeterRegistry());
+
+        engine.start();
+        Thread.sleep(100);
+        engine.stop();
+
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    void whenGenerated_thenHashMatchesRecord() throws Exception {
+        GeneratorProperties properties = properties(3L, 1);
+        properties.setRate(-1);
+        List<String> mismatches = Collections.synchronizedList(new ArrayList<>());
+        RecordHasher hasher = new RecordHasher();
+        GenerationEngine engine = new GenerationEngine(properties, (id, ts, value, hash) -> {
+            if (!hash.equals(hasher.hash(ts, value)) || value < 0 || value > 100) {
+                mismatches.add(ts + "," + value + "," + hash);
+            }
+        }, new RecordIdGenerator(1), new SimpleMeterRegistry());
+
+        engine.start();
+        TimeUnit.MILLISECONDS.sleep(50);
+        engine.stop();
+
+        assertTrue(engine.getGeneratedCount() > 0);
+        assertTrue(mismatches.isEmpty(), mismatches::toString);
+    }
+
+    private static List<Integer> captureValues(long seed, int limit) throws Exception {
+        GeneratorProperties properties = properties(seed, 1);
+        properties.setRate(-1);
+        List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+        GenerationEngine engine = new GenerationEngine(properties, (id, ts, value, hash) -> {
+            if (values.size() < limit) {
+                values.add(value);
+            }
+        }, new RecordIdGenerator(1), new SimpleMeterRegistry());
+
+        engine.start();
+        while (values.size() < limit) {
+            Thread.sleep(5);
+        }
+        engine.stop();
+        return new ArrayList<>(values);
+    }
+
+    private static GeneratorProperties properties(long seed, int workers) {
+        GeneratorProperties properties = new GeneratorProperties();
+        properties.setSeed(seed);
+        properties.setWorkers(workers);
+        properties.setChunkSize(64);
+        return properties;
+    }
+}
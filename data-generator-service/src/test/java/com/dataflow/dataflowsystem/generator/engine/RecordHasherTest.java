@@ -0,0 +1,46 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.DigestUtils;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordHasherTest {
+
+    @Test
+    void whenHash_thenMatchesDigestUtilsSuffix() {
+        RecordHasher hasher = new RecordHasher();
+        SplittableRandom random = new SplittableRandom(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            long timestamp = 1_700_000_000_000L + random.nextLong(1_000_000_000L);
+            int value = random.nextInt(101);
+
+            assertEquals(legacyHash(timestamp, value), hasher.hash(timestamp, value));
+        }
+    }
+
+    @Test
+    void whenHashEdgeValues_thenMatchesDigestUtilsSuffix() {
+        RecordHasher hasher = new RecordHasher();
+
+        assertEquals(legacyHash(0L, 0), hasher.hash(0L, 0));
+        assertEquals(legacyHash(Long.MAX_VALUE, 100), hasher.hash(Long.MAX_VALUE, 100));
+        assertEquals(legacyHash(Long.MIN_VALUE, 7), hasher.hash(Long.MIN_VALUE, 7));
+        assertEquals(legacyHash(-15L, -3), hasher.hash(-15L, -3));
+    }
+
+    @Test
+    void whenHashRepeated_thenSameInstanceIsReturned() {
+        RecordHasher hasher = new RecordHasher();
+
+        assertSame(hasher.hash(1234567890L, 42), hasher.hash(1234567890L, 42));
+    }
+
+    private static String legacyHash(long timestamp, int value) {
+        String md5 = DigestUtils.md5DigestAsHex((timestamp + Integer.toString(value)).getBytes());
+        return md5.substring(md5.length() - 2);
+    }
+}
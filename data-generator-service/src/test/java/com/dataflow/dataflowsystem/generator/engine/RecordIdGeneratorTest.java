@@ -0,0 +1,76 @@
+package com.dataflow.dataflowsystem.generator.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordIdGeneratorTest {
+
+    @Test
+    void whenIdsAreTakenInBulk_thenTheyStrictlyIncrease() {
+        RecordIdGenerator generator = new RecordIdGenerator(7);
+
+        long previous = generator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            long next = generator.nextId();
+            assertTrue(next > previous, previous + " then " + next);
+            previous = next;
+        }
+    }
+
+    @Test
+    void whenDecoded_thenTimeAndInstanceAreRecovered() {
+        long before = System.currentTimeMillis();
+        long id = new RecordIdGenerator(1023).nextId();
+
+        assertEquals(1023, RecordIdGenerator.instanceOf(id));
+        assertTrue(RecordIdGenerator.timestampOf(id) >= before);
+        assertTrue(RecordIdGenerator.timestampOf(id) <= System.currentTimeMillis() + 1);
+        assertTrue(id > 0);
+    }
+
+    @Test
+    void whenInstancesDiffer_thenIdsNeverCollide() {
+        RecordIdGenerator first = new RecordIdGenerator(1);
+        RecordIdGenerator second = new RecordIdGenerator(2);
+        Set<Long> ids = new HashSet<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(ids.add(first.nextId()));
+            assertTrue(ids.add(second.nextId()));
+        }
+    }
+
+    @Test
+    void whenCalledConcurrently_thenIdsAreUnique() throws Exception {
+        RecordIdGenerator generator = new RecordIdGenerator(3);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(200_000, ids.size());
+    }
+
+    @Test
+    void whenInstanceIdIsOutOfRange_thenIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> new RecordIdGenerator(1024));
+        assertThrows(IllegalArgumentException.class, () -> new RecordIdGenerator(-1));
+    }
+}
@@ -0,0 +1,65 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumeBufferTest {
+
+    @Test
+    void whenAskedForBatchesAfterSequence_thenNewerOnesAreReturnedOldestFirst() {
+        ResumeBuffer buffer = new ResumeBuffer(1_000);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            buffer.add(batch(10, sequence));
+        }
+
+        assertEquals(List.of(4L, 5L), sequences(buffer.after(3)));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences(buffer.after(0)));
+        assertTrue(buffer.after(5).isEmpty());
+    }
+
+    @Test
+    void whenOverCapacity_thenOldestBatchesAreEvicted() {
+        ResumeBuffer buffer = new ResumeBuffer(25);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            buffer.add(batch(10, sequence));
+        }
+
+        assertEquals(4, buffer.getOldestSequence());
+        assertEquals(20, buffer.getRecords());
+        assertEquals(List.of(4L, 5L), sequences(buffer.after(0)));
+    }
+
+    @Test
+    void whenBatchExceedsCapacity_thenNewestIsStillKept() {
+        ResumeBuffer buffer = new ResumeBuffer(5);
+
+        buffer.add(batch(10, 1));
+        buffer.add(batch(10, 2));
+
+        assertEquals(1, buffer.getBatches());
+        assertEquals(2, buffer.getOldestSequence());
+    }
+
+    @Test
+    void whenDisabled_thenNothingIsKept() {
+        ResumeBuffer buffer = new ResumeBuffer(0);
+
+        buffer.add(batch(10, 1));
+
+        assertEquals(-1, buffer.getOldestSequence());
+        assertTrue(buffer.after(0).isEmpty());
+    }
+
+    private static OutboundBatch batch(int size, long sequence) {
+        return new OutboundBatch(Collections.nCopies(size, new DataRecordMessage(1L, 42, "AB")), sequence);
+    }
+
+    private static List<Long> sequences(List<OutboundBatch> batches) {
+        return batches.stream().map(OutboundBatch::getSequence).toList();
+    }
+}
@@ -0,0 +1,166 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionSenderTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Integer> sentSizes = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    private WebSocketSession session;
+
+    @BeforeEach
+    void setup() throws Exception {
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        // The first send blocks until released, so later batches pile up in the queue
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void whenQueueFullWithDrop_thenOldestBatchIsDiscarded() {
+        SessionSender sender = sender(SlowConsumerPolicy.DROP, 2);
+
+        sender.enqueue(batch(1));
+        awaitSendStarted();
+        sender.enqueue(batch(2));
+        sender.enqueue(batch(3));
+        sender.enqueue(batch(4));
+        release.countDown();
+
+        waitUntil(() -> sentSizes.size() == 3);
+        assertEquals(List.of(1, 3, 4), sentSizes);
+        assertEquals(2, sender.getDroppedRecords());
+    }
+
+    @Test
+    void whenQueueFullWithCoalesce_thenBatchesAreMerged() {
+        SessionSender sender = sender(SlowConsumerPolicy.COALESCE, 2);
+
+        sender.enqueue(batch(1));
+        awaitSendStarted();
+        sender.enqueue(batch(2));
+        sender.enqueue(batch(3));
+        sender.enqueue(batch(4));
+        assertEquals(2, sender.getQueueDepth());
+        release.countDown();
+
+        waitUntil(() -> sentSizes.size() == 3);
+        assertEquals(List.of(1, 2, 7), sentSizes);
+        assertEquals(0, sender.getDroppedRecords());
+    }
+
+    @Test
+    void whenQueueFullWithDisconnect_thenSessionIsClosed() throws Exception {
+        SessionSender sender = sender(SlowConsumerPolicy.DISCONNECT, 1);
+
+        sender.enqueue(batch(1));
+        awaitSendStarted();
+        assertTrue(sender.enqueue(batch(2)));
+        assertFalse(sender.enqueue(batch(3)));
+
+        assertTrue(disconnected.get());
+        verify(session, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertThrows(Exception.class, () -> meterRegistry.get("websocket.session.queue.depth").gauge());
+    }
+
+    @Test
+    void whenEnqueue_thenQueueDepthIsExposed() {
+        SessionSender sender = sender(SlowConsumerPolicy.COALESCE, 4);
+
+        sender.enqueue(batch(1));
+        awaitSendStarted();
+        sender.enqueue(batch(1));
+
+        assertEquals(1.0, meterRegistry.get("websocket.session.queue.depth").tag("session", "s1").gauge().value());
+        release.countDown();
+        waitUntil(() -> sentSizes.size() == 2);
+        assertEquals(2, meterRegistry.get("websocket.session.send.latency").timer().count());
+    }
+
+    @Test
+    void whenResumed_thenOlderMissedBatchesGoAheadOfQueuedOnes() {
+        SessionSender sender = sender(SlowConsumerPolicy.DROP, 4);
+
+        sender.enqueue(batch(1, 10));
+        awaitSendStarted();
+        sender.enqueue(batch(2, 11));
+        // 10 and 11 were already given to this session, so only 8 and 9 are taken
+        assertEquals(2, sender.resume(List.of(batch(3, 8), batch(4, 9), batch(5, 10), batch(6, 11))));
+        release.countDown();
+
+        waitUntil(() -> sentSizes.size() == 4);
+        assertEquals(List.of(1, 3, 4, 2), sentSizes);
+    }
+
+    private SessionSender sender(SlowConsumerPolicy policy, int capacity) {
+        return new SessionSender(session, this::encode, executor, s -> disconnected.set(true),
+                capacity, policy, Duration.ofMinutes(1), 1_000, meterRegistry);
+    }
+
+    private WebSocketMessage<?> encode(WebSocketSession target, OutboundBatch batch) {
+        sentSizes.add(batch.size());
+        return new TextMessage(String.valueOf(batch.size()));
+    }
+
+    private void awaitSendStarted() {
+        waitUntil(() -> !sentSizes.isEmpty());
+    }
+
+    private static OutboundBatch batch(int size) {
+        return new OutboundBatch(records(size));
+    }
+
+    private static OutboundBatch batch(int size, long sequence) {
+        return new OutboundBatch(records(size), sequence);
+    }
+
+    private static List<DataRecordMessage> records(int size) {
+        DataRecordMessage[] records = new DataRecordMessage[size];
+        for (int i = 0; i < size; i++) {
+            records[i] = new DataRecordMessage((long) i, 42, "AB");
+        }
+        return List.of(records);
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 5s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
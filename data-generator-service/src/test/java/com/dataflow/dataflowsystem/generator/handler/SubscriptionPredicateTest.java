@@ -0,0 +1,96 @@
+package com.dataflow.dataflowsystem.generator.handler;
+
+import com.dataflow.model.DataRecordMessage;
+import com.dataflow.model.Subscription;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionPredicateTest {
+
+    @Test
+    void whenSubscriptionIsEmpty_thenNoPredicateIsNeeded() {
+        assertNull(SubscriptionPredicate.of(null));
+        assertNull(SubscriptionPredicate.of(new Subscription()));
+    }
+
+    @Test
+    void whenValueRangeAndHashPrefix_thenBothMustMatch() {
+        Subscription subscription = subscription(50, 100, "a", null);
+        SubscriptionPredicate predicate = SubscriptionPredicate.of(subscription);
+
+        assertTrue(predicate.test(new DataRecordMessage(1L, 50, "A1")));
+        assertTrue(predicate.test(new DataRecordMessage(1L, 100, "ab")));
+        assertFalse(predicate.test(new DataRecordMessage(1L, 49, "A1")));
+        assertFalse(predicate.test(new DataRecordMessage(1L, 75, "B1")));
+        assertFalse(predicate.test(new DataRecordMessage(1L, 75, null)));
+    }
+
+    @Test
+    void whenSampling_thenRoughlyThatShareIsSelected() {
+        SubscriptionPredicate predicate = SubscriptionPredicate.of(subscription(null, null, null, 0.25));
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            records.add(new DataRecordMessage((long) i, i % 101, "AB"));
+        }
+
+        int selected = predicate.select(records).size();
+
+        assertTrue(selected > 4_500 && selected < 5_500, "selected " + selected);
+    }
+
+    @Test
+    void whenPartitioned_thenEachRecordMatchesExactlyOneShare() {
+        List<DataRecordMessage> records = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            records.add(new DataRecordMessage((long) i, i % 101, String.format("%08X", i * 2654435761L & 0xFFFFFFFFL)));
+        }
+        SubscriptionPredicate first = SubscriptionPredicate.of(partitioned(8, List.of(0, 1, 2)));
+        SubscriptionPredicate second = SubscriptionPredicate.of(partitioned(8, List.of(3, 4, 5, 6, 7)));
+
+        int selected = 0;
+        for (DataRecordMessage record : records) {
+            assertNotEquals(first.test(record), second.test(record));
+            selected += first.test(record) ? 1 : 0;
+        }
+
+        assertTrue(selected > 3_400 && selected < 4_100, "selected " + selected);
+        assertNull(SubscriptionPredicate.of(partitioned(4, List.of(3, 2, 1, 0))));
+        assertTrue(SubscriptionPredicate.of(partitioned(4, List.of())).select(records).isEmpty());
+    }
+
+    @Test
+    void whenSubscriptionsAreEquivalent_thenPredicatesAreEqual() {
+        assertEquals(SubscriptionPredicate.of(subscription(90, null, "ab", 1.0)),
+                SubscriptionPredicate.of(subscription(90, null, "AB", null)));
+        assertNotEquals(SubscriptionPredicate.of(subscription(90, null, null, null)),
+                SubscriptionPredicate.of(subscription(91, null, null, null)));
+    }
+
+    @Test
+    void whenSubscriptionIsInconsistent_thenIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> SubscriptionPredicate.of(subscription(10, 5, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> SubscriptionPredicate.of(subscription(null, null, null, -0.1)));
+        assertThrows(IllegalArgumentException.class, () -> SubscriptionPredicate.of(partitioned(4, List.of(4))));
+        assertThrows(IllegalArgumentException.class, () -> SubscriptionPredicate.of(partitioned(null, List.of(0))));
+    }
+
+    private static Subscription subscription(Integer min, Integer max, String prefix, Double ratio) {
+        Subscription subscription = new Subscription();
+        subscription.setMinValue(min);
+        subscription.setMaxValue(max);
+        subscription.setHashPrefix(prefix);
+        subscription.setSampleRatio(ratio);
+        return subscription;
+    }
+
+    private static Subscription partitioned(Integer count, List<Integer> partitions) {
+        Subscription subscription = new Subscription();
+        subscription.setPartitionCount(count);
+        subscription.setPartitions(partitions);
+        return subscription;
+    }
+}
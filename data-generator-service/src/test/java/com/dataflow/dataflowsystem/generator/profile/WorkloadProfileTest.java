@@ -0,0 +1,120 @@
+package com.dataflow.dataflowsystem.generator.profile;
+
+import com.dataflow.dataflowsystem.generator.config.GeneratorProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadProfileTest {
+
+    @Test
+    void whenRamp_thenRateIsLinearAndStopsWithoutLoop() {
+        GeneratorProperties.Phase ramp = phase(GeneratorProperties.PhaseType.RAMP, Duration.ofSeconds(10));
+        ramp.setFrom(100);
+        ramp.setTo(1100);
+        WorkloadProfile profile = WorkloadProfile.compile("ramp", profile(false, ramp));
+
+        assertEquals(100, profile.rateAt(0), 1e-9);
+        assertEquals(600, profile.rateAt(5_000), 1e-9);
+        assertEquals(0, profile.rateAt(10_000), 1e-9);
+        assertTrue(profile.isFinished(10_000));
+    }
+
+    @Test
+    void whenStep_thenBurstsRepeatEachPeriod() {
+        GeneratorProperties.Phase step = phase(GeneratorProperties.PhaseType.STEP, Duration.ofMinutes(1));
+        step.setRate(10);
+        step.setPeakRate(1000);
+        step.setPeriod(Duration.ofSeconds(10));
+        step.setBurstDuration(Duration.ofSeconds(2));
+        WorkloadProfile profile = WorkloadProfile.compile("step", profile(true, step));
+
+        assertEquals(1000, profile.rateAt(1_000), 1e-9);
+        assertEquals(10, profile.rateAt(5_000), 1e-9);
+        assertEquals(1000, profile.rateAt(21_500), 1e-9);
+    }
+
+    @Test
+    void whenSine_thenPeaksAtQuarterPeriodAndLoops() {
+        GeneratorProperties.Phase sine = phase(GeneratorProperties.PhaseType.SINE, Duration.ofHours(24));
+        sine.setRate(500);
+        sine.setAmplitude(400);
+        sine.setPeriod(Duration.ofHours(24));
+        WorkloadProfile profile = WorkloadProfile.compile("diurnal", profile(true, sine));
+
+        assertEquals(900, profile.rateAt(Duration.ofHours(6).toMillis()), 1e-6);
+        assertEquals(100, profile.rateAt(Duration.ofHours(18).toMillis()), 1e-6);
+        assertEquals(profile.rateAt(Duration.ofHours(6).toMillis()),
+                profile.rateAt(Duration.ofHours(30).toMillis()), 1e-6);
+        assertFalse(profile.isFinished(Duration.ofHours(48).toMillis()));
+    }
+
+    @Test
+    void whenTrace_thenInterpolatesBetweenSamples() {
+        GeneratorProperties.Phase trace = phase(GeneratorProperties.PhaseType.TRACE, null);
+        trace.setTrace("classpath:profiles/test-trace.csv");
+        WorkloadProfile profile = WorkloadProfile.compile("trace", profile(false, trace));
+
+        assertEquals(20_000, profile.getTotalMillis());
+        assertEquals(100, profile.rateAt(0), 1e-9);
+        assertEquals(200, profile.rateAt(5_000), 1e-9);
+        assertEquals(300, profile.rateAt(15_000), 1e-9);
+    }
+
+    @Test
+    void whenPhasesChained_thenEachPhaseStartsFromZero() {
+        GeneratorProperties.Phase constant = phase(GeneratorProperties.PhaseType.CONSTANT, Duration.ofSeconds(5));
+        constant.setRate(50);
+        GeneratorProperties.Phase ramp = phase(GeneratorProperties.PhaseType.RAMP, Duration.ofSeconds(5));
+        ramp.setFrom(0);
+        ramp.setTo(500);
+        WorkloadProfile profile = WorkloadProfile.compile("chain", profile(true, constant, ramp));
+
+        assertEquals(50, profile.rateAt(4_999), 1e-9);
+        assertEquals(0, profile.rateAt(5_000), 1e-9);
+        assertEquals(250, profile.rateAt(7_500), 1e-9);
+        assertEquals(50, profile.rateAt(10_000), 1e-9);
+    }
+
+    @Test
+    void whenPhaseMissingPeriod_thenCompileFails() {
+        GeneratorProperties.Phase step = phase(GeneratorProperties.PhaseType.STEP, Duration.ofMinutes(1));
+
+        assertThrows(IllegalArgumentException.class, () -> WorkloadProfile.compile("bad", profile(true, step)));
+    }
+
+    @Test
+    void whenHighValueShare_thenShareOfValuesAbove90Matches() {
+        ValueDistribution distribution = ValueDistribution.highValueShare(0.5);
+        SplittableRandom random = new SplittableRandom(1);
+        int high = 0;
+        int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            int value = distribution.next(random);
+            assertTrue(value >= 0 && value <= 100);
+            if (value > 90) {
+                high++;
+            }
+        }
+
+        assertEquals(0.5, (double) high / samples, 0.01);
+    }
+
+    private static GeneratorProperties.Phase phase(GeneratorProperties.PhaseType type, Duration duration) {
+        GeneratorProperties.Phase phase = new GeneratorProperties.Phase();
+        phase.setType(type);
+        phase.setDuration(duration);
+        return phase;
+    }
+
+    private static GeneratorProperties.Profile profile(boolean loop, GeneratorProperties.Phase... phases) {
+        GeneratorProperties.Profile profile = new GeneratorProperties.Profile();
+        profile.setLoop(loop);
+        profile.setPhases(List.of(phases));
+        return profile;
+    }
+}
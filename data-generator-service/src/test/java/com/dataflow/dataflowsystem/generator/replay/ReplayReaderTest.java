@@ -0,0 +1,126 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void whenLinesAreValid_thenAllRecordsAreParsed() {
+        List<DataRecordMessage> records = new ArrayList<>();
+
+        int skipped = ReplayReader.parse(buffer("1700000000000,95,AB\r\n1700000000001,7,null\n1700000000002,-3,C"), records);
+
+        assertEquals(0, skipped);
+        assertEquals(List.of(
+                new DataRecordMessage(1700000000000L, 95, "AB"),
+                new DataRecordMessage(1700000000001L, 7, null),
+                new DataRecordMessage(1700000000002L, -3, "C")), records);
+    }
+
+    @Test
+    void whenLinesCarryRecordIds_thenIdsAreKept() {
+        List<DataRecordMessage> records = new ArrayList<>();
+
+        int skipped = ReplayReader.parse(buffer("1,95,AB,9223372036854775807\n2,7,null,42\n3,1,AB,9223372036854775808\n"), records);
+
+        assertEquals(1, skipped);
+        assertEquals(List.of(
+                new DataRecordMessage(Long.MAX_VALUE, 1L, 95, "AB"),
+                new DataRecordMessage(42L, 2L, 7, null)), records);
+    }
+
+    @Test
+    void whenLinesAreMalformed_thenTheyAreSkipped() {
+        List<DataRecordMessage> records = new ArrayList<>();
+
+        int skipped = ReplayReader.parse(buffer("x,1,AB\n1,2\n\n1,99999999999,AB\n5,6,CD\n"), records);
+
+        assertEquals(3, skipped);
+        assertEquals(List.of(new DataRecordMessage(5L, 6, "CD")), records);
+    }
+
+    @Test
+    void whenFilesSpanMinutesAndInstances_thenOnlyRangeIsReadInTimestampOrder() throws Exception {
+        Files.writeString(directory.resolve("2024-01-01-10-00-filter-a.txt"), "1704103200500,1,AA\n1704103200900,2,BB\n");
+        Files.writeString(directory.resolve("2024-01-01-10-00-filter-b.txt"), "1704103200700,3,CC\n");
+        Files.writeString(directory.resolve("2024-01-01-10-01-filter-a.txt"), "1704103260000,4,DD\n");
+        Files.writeString(directory.resolve("2024-01-01-10-05-filter-a.txt"), "1704103500000,5,EE\n");
+        Files.writeString(directory.resolve("notes.txt"), "ignored");
+        ReplayReader reader = new ReplayReader(directory, directory.resolve("archive"), ZoneOffset.UTC);
+        Instant from = Instant.parse("2024-01-01T10:00:00.600Z");
+        Instant to = Instant.parse("2024-01-01T10:02:00Z");
+
+        NavigableMap<Instant, List<Path>> minutes = reader.minutes(from, to);
+        List<DataRecordMessage> first = ReplayReader.readMinute(minutes.firstEntry().getValue(), from, to);
+
+        assertEquals(2, minutes.size());
+        assertEquals(2, minutes.firstEntry().getValue().size());
+        assertEquals(List.of(3, 2), first.stream().map(DataRecordMessage::getRandomValue).toList());
+    }
+
+    @Test
+    void whenHoursAreArchived_thenArchivesAndLeftoverMinuteFilesAreReadTogether() throws Exception {
+        Path archives = Files.createDirectories(directory.resolve("archive"));
+        StringBuilder firstMember = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            firstMember.append(1704103200000L + i * 2).append(',').append(i % 101).append(",ABCDEF,").append(i).append('\n');
+        }
+        // A second gzip member, as a later pass appends, repeating the last record as a crash would
+        gzip(archives.resolve("2024-01-01-10-filter-a.txt.gz"), firstMember.toString(), "1704103219998,0,ABCDEF,9999\n1704103219999,1,ZZ,10000");
+        gzip(archives.resolve("2024-01-01-11-filter-a.txt.gz"), "1704106800000,7,AA,20000\n");
+        gzip(archives.resolve("2024-01-02-filter-a.txt.gz"), "1704189600000,8,AA,30000\n");
+        Files.writeString(directory.resolve("2024-01-01-10-30-filter-b.txt"), "1704105000000,3,BB,40000\n");
+        Files.writeString(directory.resolve("2024-01-01-11-30-filter-b.txt"), "1704108600000,4,BB,40001\n");
+        ReplayReader reader = new ReplayReader(directory, archives, ZoneOffset.UTC);
+        Instant from = Instant.parse("2024-01-01T10:00:00.001Z");
+        Instant to = Instant.parse("2024-01-01T11:00:00.001Z");
+
+        NavigableMap<Instant, List<Path>> periods = reader.minutes(from, to);
+        List<DataRecordMessage> hour = ReplayReader.readMinute(periods.firstEntry().getValue(), from, to);
+
+        assertEquals(List.of(Instant.parse("2024-01-01T10:00:00Z"), Instant.parse("2024-01-01T11:00:00Z")),
+                List.copyOf(periods.keySet()));
+        assertEquals(List.of("2024-01-01-10-30-filter-b.txt", "2024-01-01-10-filter-a.txt.gz"),
+                periods.firstEntry().getValue().stream().map(file -> file.getFileName().toString()).toList());
+        assertEquals(10_001, hour.size());
+        assertEquals(Long.valueOf(1), hour.get(0).getId());
+        assertEquals(Long.valueOf(10_000), hour.get(9_999).getId());
+        assertEquals(Long.valueOf(40_000), hour.get(10_000).getId());
+        assertEquals(List.of(20000L), ReplayReader.readMinute(periods.lastEntry().getValue(), from, to).stream()
+                .map(DataRecordMessage::getId).toList());
+    }
+
+    private static void gzip(Path file, String... members) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (String member : members) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(member.getBytes(StandardCharsets.US_ASCII));
+                gzip.finish();
+            }
+        }
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,132 @@
+package com.dataflow.dataflowsystem.generator.replay;
+
+import com.dataflow.dataflowsystem.generator.config.ReplayProperties;
+import com.dataflow.dataflowsystem.generator.handler.WebSocketHandler;
+import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplayServiceTest {
+
+    private static final Instant FROM = Instant.parse("2024-01-01T10:00:00Z");
+    private static final Instant TO = Instant.parse("2024-01-01T11:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final WebSocketHandler webSocketHandler = mock(WebSocketHandler.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ReplayService replayService;
+
+    @BeforeEach
+    void setup() throws Exception {
+        StringBuilder minute = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            minute.append(1704103200000L + i * 100).append(',').append(i).append(",AB\n");
+        }
+        Files.writeString(directory.resolve("2024-01-01-10-00-filter.txt"), minute);
+        ReplayProperties properties = new ReplayProperties();
+        properties.setDirectory(directory.toString());
+        properties.setZone(ZoneOffset.UTC);
+        properties.setBatchSize(4);
+        replayService = new ReplayService(webSocketHandler, properties, meterRegistry);
+        when(webSocketHandler.getAvailableCredit()).thenReturn(Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        replayService.shutdown();
+    }
+
+    @Test
+    void whenReplayingAtMaxSpeed_thenRecordsAreSentInBatches() {
+        replayService.start(FROM, TO, 0);
+
+        awaitState(ReplayStatus.State.COMPLETED);
+        ArgumentCaptor<List<DataRecordMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(webSocketHandler, times(3)).sendBatch(captor.capture());
+        assertEquals(List.of(4, 4, 2), captor.getAllValues().stream().map(List::size).toList());
+        assertEquals(10, replayService.getStatus().getRecordsSent());
+        assertEquals(10.0, meterRegistry.get("replay.records.sent").counter().count());
+    }
+
+    @Test
+    void whenPaced_thenRecordedSpacingIsKept() {
+        long start = System.nanoTime();
+
+        replayService.start(FROM, TO, 2);
+
+        awaitState(ReplayStatus.State.COMPLETED);
+        // 900ms of recording at 2x
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(10, replayService.getStatus().getRecordsSent());
+    }
+
+    @Test
+    void whenConsumerGrantsLessCredit_thenBatchesAreSplit() {
+        // Batches of 4, 4 and 2 become 3+1, 3+1 and 2
+        when(webSocketHandler.getAvailableCredit()).thenReturn(3L);
+
+        replayService.start(FROM, TO, 0);
+
+        awaitState(ReplayStatus.State.COMPLETED);
+        verify(webSocketHandler, times(5)).sendBatch(anyList());
+    }
+
+    @Test
+    void whenCancelled_thenReplayStops() {
+        when(webSocketHandler.getAvailableCredit()).thenReturn(0L);
+        replayService.start(FROM, TO, 0);
+
+        assertThrows(IllegalStateException.class, () -> replayService.start(FROM, TO, 0));
+        assertTrue(replayService.cancel());
+
+        awaitState(ReplayStatus.State.CANCELLED);
+        verify(webSocketHandler, never()).sendBatch(anyList());
+    }
+
+    @Test
+    void whenRangeIsEmpty_thenIllegalArgument() {
+        assertThrows(IllegalArgumentException.class, () -> replayService.start(TO, FROM, 1));
+    }
+
+    @Test
+    void whenDirectoryIsMissing_thenReplayFails() {
+        ReplayProperties properties = new ReplayProperties();
+        properties.setDirectory(directory.resolve("missing").toString());
+        ReplayService missing = new ReplayService(webSocketHandler, properties, new SimpleMeterRegistry());
+
+        missing.start(FROM, TO, 0);
+
+        waitUntil(() -> missing.getStatus().getState() == ReplayStatus.State.FAILED);
+        assertNotNull(missing.getStatus().getError());
+    }
+
+    private void awaitState(ReplayStatus.State state) {
+        waitUntil(() -> replayService.getStatus().getState() == state);
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 5s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.dataflow.dataflowsystem.generator.service;
 
+import com.dataflow.dataflowsystem.generator.buffer.BatchBuffer;
 import com.dataflow.dataflowsystem.generator.handler.WebSocketHandler;
 import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.List;
 
@@ -21,76 +24,71 @@ class DataGeneratorServiceTest {
     private WebSocketHandler webSocketHandler;
 
     @Mock
-    private RedisService redisService;
+    private BatchBuffer batchBuffer;
+
+    private SimpleMeterRegistry meterRegistry;
 
     private DataGeneratorService dataGeneratorService;
 
     @BeforeEach
     void setup() {
-        dataGeneratorService = new DataGeneratorService(webSocketHandler, redisService);
-    }
-
-    @Test
-    void whenGenerateData_thenDataIsStoredInRedis() {
-        dataGeneratorService.generateData();
-
-        verify(redisService, times(1)).addToBatch(eq("dataBatch"), any(DataRecordMessage.class));
+        meterRegistry = new SimpleMeterRegistry();
+        lenient().when(webSocketHandler.getAvailableCredit()).thenReturn(Long.MAX_VALUE);
+        dataGeneratorService = new DataGeneratorService(webSocketHandler, batchBuffer, meterRegistry);
     }
 
     @Test
     void whenSendBatch_thenBatchIsSentSuccessfully() throws Exception {
         DataRecordMessage message = new DataRecordMessage(System.currentTimeMillis(), 42, "AB");
-        when(redisService.getBatch("dataBatch")).thenReturn(List.of(message));
+        when(batchBuffer.drain(anyInt())).thenReturn(List.of(message));
 
-        dataGeneratorService.sendBatch();
+        List<DataRecordMessage> sent = dataGeneratorService.sendBatch();
 
-        verify(webSocketHandler, times(1)).sendBatch(anyList());
-        verify(redisService, times(1)).clearBatch("dataBatch");
+        verify(webSocketHandler, times(1)).sendBatch(List.of(message));
+        assertEquals(List.of(message), sent);
     }
 
     @Test
-    void whenSendBatchFails_thenRetryMechanismTriggers() throws Exception {
+    void whenSendBatchFails_thenTheDrainedRecordsAreCountedAsLost() throws Exception {
         DataRecordMessage message = new DataRecordMessage(System.currentTimeMillis(), 42, "AB");
-        when(redisService.getBatch("dataBatch")).thenReturn(List.of(message));
+        when(batchBuffer.drain(anyInt())).thenReturn(List.of(message, message));
         doThrow(new RuntimeException("WebSocket error")).when(webSocketHandler).sendBatch(anyList());
 
-        dataGeneratorService.sendBatch();
+        assertThrows(RuntimeException.class, () -> dataGeneratorService.sendBatch());
 
-        verify(webSocketHandler, atLeastOnce()).sendBatch(anyList());
-        verify(redisService, never()).clearBatch("dataBatch");
+        verify(batchBuffer, times(1)).drain(anyInt());
+        verify(batchBuffer, never()).offer(anyLong(), anyLong(), anyInt(), anyString());
+        assertEquals(2.0, meterRegistry.get("generator.send.failed.records").counter().count());
     }
 
     @Test
     void whenBatchIsEmpty_thenNoDataIsSent() throws Exception {
-        when(redisService.getBatch("dataBatch")).thenReturn(List.of());
+        when(batchBuffer.drain(anyInt())).thenReturn(List.of());
 
         dataGeneratorService.sendBatch();
 
         verify(webSocketHandler, never()).sendBatch(anyList());
-        verify(redisService, never()).clearBatch("dataBatch");
     }
 
     @Test
-    void whenGenerateHashValue_thenConsistentOutput() {
-        Long timestamp = 1234567890L;
-        Integer value = 42;
+    void whenConsumerHasNoCredit_thenRecordsStayBuffered() throws Exception {
+        when(webSocketHandler.getAvailableCredit()).thenReturn(0L);
 
-        String hash1 = dataGeneratorService.generateHashValue(timestamp, value);
-        String hash2 = dataGeneratorService.generateHashValue(timestamp, value);
+        dataGeneratorService.sendBatch();
 
-        assertEquals(hash1, hash2);
-        assertEquals(2, hash1.length());
+        verify(batchBuffer, never()).drain(anyInt());
+        verify(webSocketHandler, never()).sendBatch(anyList());
+        assertEquals(1.0, meterRegistry.get("generator.flow.stalls").counter().count());
     }
 
     @Test
-    void whenCircuitBreakerOpens_thenFallbackIsTriggered() {
-        dataGeneratorService.fallbackGenerateData(new RuntimeException("Circuit breaker open"));
-        verifyNoInteractions(redisService, webSocketHandler);
-    }
+    void whenCreditIsBelowBatchSize_thenDrainIsCapped() throws Exception {
+        ReflectionTestUtils.setField(dataGeneratorService, "batchSize", 100);
+        when(webSocketHandler.getAvailableCredit()).thenReturn(30L);
+        when(batchBuffer.drain(30)).thenReturn(List.of(new DataRecordMessage(1L, 1, "AB")));
 
-    @Test
-    void whenRetryFails_thenFallbackIsTriggered() {
-        dataGeneratorService.fallbackRetrySendBatch(new RuntimeException("Retry exhausted"));
-        verifyNoInteractions(redisService, webSocketHandler);
+        dataGeneratorService.sendBatch();
+
+        verify(batchBuffer).drain(30);
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,14 @@
 package com.dataflow.dataflowsystem.generator.service;
 
 import com.dataflow.model.DataRecordMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 
 import java.util.List;
 
@@ -22,13 +24,15 @@ class RedisServiceTest {
     @Mock
     private ListOperations<String, DataRecordMessage> listOps;
 
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     private RedisService redisService;
 
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
         when(redisTemplate.opsForList()).thenReturn(listOps); // Mock binding
-        redisService = new RedisService(redisTemplate);
+        redisService = new RedisService(redisTemplate, meterRegistry, 4);
     }
 
     @Test
@@ -41,42 +45,73 @@ class RedisServiceTest {
     }
 
     @Test
-    void whenGetBatch_thenDataIsRetrieved() {
+    void whenDrainBatch_thenExactCountIsPoppedAtomically() {
         DataRecordMessage message = new DataRecordMessage(System.currentTimeMillis(), 42, "AB");
+        when(listOps.leftPop("dataBatch", 100)).thenReturn(List.of(message));
+
+        List<DataRecordMessage> batch = redisService.drainBatch("dataBatch", 100);
 
-        when(listOps.range("dataBatch", 0, -1)).thenReturn(List.of(message));
+        assertEquals(List.of(message), batch);
+        verify(listOps, never()).range(anyString(), anyLong(), anyLong());
+        verify(redisTemplate, never()).delete(anyString());
+    }
 
-        List<DataRecordMessage> batch = redisService.getBatch("dataBatch");
+    @Test
+    void whenDrainBatchOnMissingKey_thenEmptyListIsReturned() {
+        when(listOps.leftPop("dataBatch", 100)).thenReturn(null);
 
-        assertFalse(batch.isEmpty());
-        assertEquals(1, batch.size());
+        assertTrue(redisService.drainBatch("dataBatch", 100).isEmpty());
     }
 
     @Test
-    void whenGetBatch_thenEmptyListIsReturned() {
-        when(listOps.range("dataBatch", 0, 499)).thenReturn(List.of());  // Mocking an empty list
+    void whenAddAllToBatch_thenSinglePipelineIsUsed() {
+        List<DataRecordMessage> messages = List.of(
+                new DataRecordMessage(1L, 1, "01"), new DataRecordMessage(2L, 2, "02"));
 
-        List<DataRecordMessage> batch = redisService.getBatch("dataBatch");
+        redisService.addAllToBatch("dataBatch", messages);
 
-        assertTrue(batch.isEmpty());  // ✅ Now correctly expecting an empty list
+        verify(redisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+        verify(listOps, never()).rightPush(anyString(), any());
     }
 
     @Test
-    void whenClearBatch_thenDataIsDeleted() {
-        redisService.clearBatch("dataBatch");
+    void whenAddAllToBatchWithNoRecords_thenRedisIsNotCalled() {
+        redisService.addAllToBatch("dataBatch", List.of());
 
-        verify(redisTemplate, times(1)).delete("dataBatch");
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
     }
 
     @Test
-    void whenFallbackAddToBatch_thenLogWarning() {
-        redisService.fallbackAddToBatch("dataBatch", new DataRecordMessage(), new RuntimeException("Error"));
+    void whenFallbackAddToBatch_thenRecordIsKeptLocally() {
+        DataRecordMessage message = new DataRecordMessage(1L, 42, "AB");
+
+        redisService.fallbackAddToBatch("dataBatch", message, new RuntimeException("Error"));
+
         verifyNoInteractions(listOps);
+        assertEquals(1, redisService.getFallbackSize());
+        assertEquals(List.of(message), redisService.drainFallback(10));
+        assertEquals(0, redisService.getFallbackSize());
     }
 
     @Test
-    void whenFallbackRetrySendBatch_thenLogWarning() {
-        redisService.fallbackRetryAddToBatch(new RuntimeException("Retry Error"));
+    void whenFallbackAddAllToBatch_thenRecordsAreKeptLocally() {
+        redisService.fallbackAddAllToBatch("dataBatch",
+                List.of(new DataRecordMessage(1L, 1, "01"), new DataRecordMessage(2L, 2, "02")),
+                new RuntimeException("Error"));
+
         verifyNoInteractions(listOps);
+        assertEquals(2, redisService.drainFallback(10).size());
+    }
+
+    @Test
+    void whenFallbackBufferIsFull_thenOldestRecordsAreEvicted() {
+        for (long i = 0; i < 6; i++) {
+            redisService.fallbackAddToBatch("dataBatch", new DataRecordMessage(i, 1, "01"), new RuntimeException());
+        }
+
+        List<DataRecordMessage> kept = redisService.drainFallback(10);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L), kept.stream().map(DataRecordMessage::getTimestamp).toList());
+        assertEquals(2.0, meterRegistry.get("redis.fallback.buffer.dropped").functionCounter().count());
     }
 }
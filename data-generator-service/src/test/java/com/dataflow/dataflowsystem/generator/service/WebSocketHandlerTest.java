@@ -1,12 +1,20 @@
 package com.dataflow.dataflowsystem.generator.service;
 
+import com.dataflow.dataflowsystem.generator.config.WebSocketProperties;
 import com.dataflow.dataflowsystem.generator.handler.WebSocketHandler;
+import com.dataflow.model.ControlMessage;
 import com.dataflow.model.DataRecordMessage;
+import com.dataflow.model.Subscription;
+import com.dataflow.model.codec.BinaryFrameCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -26,8 +34,9 @@ class WebSocketHandlerTest {
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
-        webSocketHandler = new WebSocketHandler(new ObjectMapper());
-        webSocketHandler.getSessions().add(session);
+        when(session.getId()).thenReturn("session-1");
+        webSocketHandler = new WebSocketHandler(new ObjectMapper(), new WebSocketProperties(), new SimpleMeterRegistry());
+        webSocketHandler.afterConnectionEstablished(session);
     }
 
     @Test
@@ -48,7 +57,121 @@ class WebSocketHandlerTest {
 
         webSocketHandler.sendBatch(List.of(message));
 
-        verify(session, times(1)).sendMessage(any(TextMessage.class));
+        verify(session, timeout(1000).times(1)).sendMessage(any(TextMessage.class));
+    }
+
+    @Test
+    void whenOneSessionIsSlow_thenOthersStillReceiveBatches() throws Exception {
+        WebSocketSession slowSession = mock(WebSocketSession.class);
+        when(slowSession.getId()).thenReturn("slow");
+        when(slowSession.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            Thread.sleep(5_000);
+            return null;
+        }).when(slowSession).sendMessage(any());
+        when(session.isOpen()).thenReturn(true);
+        webSocketHandler.afterConnectionEstablished(slowSession);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            webSocketHandler.sendBatch(List.of(new DataRecordMessage((long) i, 42, "AB")));
+        }
+
+        verify(session, timeout(1000).times(5)).sendMessage(any(TextMessage.class));
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        webSocketHandler.shutdown();
+    }
+
+    @Test
+    void whenSessionNegotiatedBinary_thenBinaryFrameIsSent() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAcceptedProtocol()).thenReturn(BinaryFrameCodec.SUBPROTOCOL);
+        DataRecordMessage message = new DataRecordMessage(1_700_000_000_000L, 42, "AB");
+
+        webSocketHandler.sendBatch(List.of(message));
+
+        ArgumentCaptor<BinaryMessage> captor = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(session, timeout(1000).times(1)).sendMessage(captor.capture());
+        assertEquals(List.of(message), new BinaryFrameCodec().decode(captor.getValue().getPayload()));
+    }
+
+    @Test
+    void whenBinaryDisabled_thenOnlyJsonIsOffered() {
+        WebSocketProperties properties = new WebSocketProperties();
+        properties.getBinary().setEnabled(false);
+
+        assertEquals(List.of(BinaryFrameCodec.JSON_SUBPROTOCOL),
+                new WebSocketHandler(new ObjectMapper(), properties, new SimpleMeterRegistry()).getSubProtocols());
+        assertEquals(BinaryFrameCodec.SUBPROTOCOL, webSocketHandler.getSubProtocols().get(0));
+    }
+
+    @Test
+    void whenSessionSubscribed_thenOnlyMatchingRecordsAreSent() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        Subscription subscription = new Subscription();
+        subscription.setMinValue(91);
+        subscribe(session, subscription);
+
+        webSocketHandler.sendBatch(List.of(
+                new DataRecordMessage(1L, 42, "AB"),
+                new DataRecordMessage(2L, 95, "CD")));
+
+        ArgumentCaptor<TextMessage> captor = ArgumentCaptor.forClass(TextMessage.class);
+        verify(session, timeout(1000).times(1)).sendMessage(captor.capture());
+        assertTrue(captor.getValue().getPayload().contains("\"randomValue\":95"));
+        assertFalse(captor.getValue().getPayload().contains("\"randomValue\":42"));
+    }
+
+    @Test
+    void whenNothingMatchesSubscription_thenNoFrameIsSent() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        Subscription subscription = new Subscription();
+        subscription.setHashPrefix("ff");
+        subscribe(session, subscription);
+
+        webSocketHandler.sendBatch(List.of(new DataRecordMessage(1L, 42, "AB")));
+
+        verify(session, after(200).never()).sendMessage(any());
+    }
+
+    @Test
+    void whenSubscriptionIsInvalid_thenSessionIsClosed() throws Exception {
+        Subscription subscription = new Subscription();
+        subscription.setSampleRatio(1.5);
+
+        subscribe(session, subscription);
+
+        verify(session).close(argThat(status -> status.getCode() == CloseStatus.POLICY_VIOLATION.getCode()));
+        assertFalse(webSocketHandler.getSessions().contains(session));
+    }
+
+    @Test
+    void whenSessionResumes_thenBatchesSentWhileDisconnectedAreSentInOrder() throws Exception {
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAcceptedProtocol()).thenReturn(BinaryFrameCodec.SUBPROTOCOL);
+        webSocketHandler.sendBatch(List.of(new DataRecordMessage(1L, 42, "AB")));
+        ArgumentCaptor<BinaryMessage> first = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(session, timeout(1000)).sendMessage(first.capture());
+        long lastSequence = BinaryFrameCodec.sequenceOf(first.getValue().getPayload());
+
+        webSocketHandler.afterConnectionClosed(session, CloseStatus.GOING_AWAY);
+        webSocketHandler.sendBatch(List.of(new DataRecordMessage(2L, 42, "AB")));
+        webSocketHandler.sendBatch(List.of(new DataRecordMessage(3L, 42, "AB")));
+
+        WebSocketSession reconnected = mock(WebSocketSession.class);
+        when(reconnected.getId()).thenReturn("session-2");
+        when(reconnected.isOpen()).thenReturn(true);
+        when(reconnected.getAcceptedProtocol()).thenReturn(BinaryFrameCodec.SUBPROTOCOL);
+        webSocketHandler.afterConnectionEstablished(reconnected);
+        webSocketHandler.handleMessage(reconnected,
+                new TextMessage(new ObjectMapper().writeValueAsString(ControlMessage.resume(lastSequence))));
+
+        ArgumentCaptor<BinaryMessage> resumed = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(reconnected, timeout(1000).times(2)).sendMessage(resumed.capture());
+        assertEquals(List.of(lastSequence + 1, lastSequence + 2), resumed.getAllValues().stream()
+                .map(frame -> BinaryFrameCodec.sequenceOf(frame.getPayload()))
+                .toList());
+        assertEquals(2L, new BinaryFrameCodec().decode(resumed.getAllValues().get(0).getPayload()).get(0).getTimestamp());
     }
 
     @Test
@@ -57,7 +180,31 @@ class WebSocketHandlerTest {
 
         webSocketHandler.sendBatch(List.of(new DataRecordMessage()));
 
-        verify(session, never()).sendMessage(any(TextMessage.class));
+        verify(session, after(200).never()).sendMessage(any(TextMessage.class));
+        assertFalse(webSocketHandler.getSessions().contains(session));
+    }
+
+    @Test
+    void whenSessionWasNeverEstablished_thenItIsSkipped() throws IOException {
+        WebSocketSession unknown = mock(WebSocketSession.class);
+        when(unknown.getId()).thenReturn("unknown");
+        when(unknown.isOpen()).thenReturn(true);
+        webSocketHandler.getSessions().add(unknown);
+
+        webSocketHandler.sendBatch(List.of(new DataRecordMessage(1L, 42, "AB")));
+
+        verify(unknown, after(200).never()).sendMessage(any());
+        assertNull(webSocketHandler.getSender(unknown));
+    }
+
+    @Test
+    void whenCreditArrivesAfterTheSessionClosed_thenNoSenderIsCreated() throws Exception {
+        webSocketHandler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+        webSocketHandler.handleMessage(session,
+                new TextMessage(new ObjectMapper().writeValueAsString(ControlMessage.credit(100))));
+
+        assertNull(webSocketHandler.getSender(session));
     }
 
     @Test
@@ -65,4 +212,9 @@ class WebSocketHandlerTest {
         webSocketHandler.handleTransportError(session, new RuntimeException("Error"));
         assertFalse(webSocketHandler.getSessions().contains(session));
     }
+
+    private void subscribe(WebSocketSession target, Subscription subscription) throws Exception {
+        String payload = new ObjectMapper().writeValueAsString(ControlMessage.subscribe(subscription));
+        webSocketHandler.handleMessage(target, new TextMessage(payload));
+    }
 }
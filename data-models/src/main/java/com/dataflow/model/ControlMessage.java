@@ -0,0 +1,58 @@
+package com.dataflow.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Text frame sent by a consumer back to the generator over the data WebSocket.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ControlMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        /** Grants the generator {@code records} more records it may send on this session. */
+        CREDIT,
+        /** Replaces the session's {@code subscription}; null resubscribes to the full stream. */
+        SUBSCRIBE,
+        /**
+         * Sent by a reconnecting consumer: asks for the still-buffered batches after
+         * {@code sequence}, the last one it processed on its previous session.
+         */
+        RESUME
+    }
+
+    private Type type;
+
+    private Long records;
+
+    private Subscription subscription;
+
+    private Long sequence;
+
+    public static ControlMessage credit(long records) {
+        ControlMessage message = new ControlMessage();
+        message.setType(Type.CREDIT);
+        message.setRecords(records);
+        return message;
+    }
+
+    public static ControlMessage subscribe(Subscription subscription) {
+        ControlMessage message = new ControlMessage();
+        message.setType(Type.SUBSCRIBE);
+        message.setSubscription(subscription);
+        return message;
+    }
+
+    public static ControlMessage resume(long sequence) {
+        ControlMessage message = new ControlMessage();
+        message.setType(Type.RESUME);
+        message.setSequence(sequence);
+        return message;
+    }
+}
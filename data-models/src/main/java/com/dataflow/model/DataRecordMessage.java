@@ -13,6 +13,14 @@ import java.io.Serializable;
 public class DataRecordMessage implements Serializable {
     private static final long serialVersionUID = 6942318612266764949L;
 
+    /**
+     * Globally unique, time-ordered record ID assigned by the generator (time, instance and
+     * sequence bits). Sinks use it to skip records they have already stored. Null for
+     * records that predate IDs.
+     */
+    @JsonProperty("id")
+    private Long id;
+
     @JsonProperty("timestamp")
     private Long timestamp;
 
@@ -21,4 +29,8 @@ public class DataRecordMessage implements Serializable {
 
     @JsonProperty("hashValue")
     private String hashValue;
+
+    public DataRecordMessage(Long timestamp, Integer randomValue, String hashValue) {
+        this(null, timestamp, randomValue, hashValue);
+    }
 }
@@ -0,0 +1,56 @@
+package com.dataflow.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Records a consumer wants on its data WebSocket. Every criterion is optional and they
+ * combine with AND; a subscription with nothing set matches the full stream.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Subscription implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Smallest {@code randomValue} to receive, inclusive. */
+    private Integer minValue;
+
+    /** Largest {@code randomValue} to receive, inclusive. */
+    private Integer maxValue;
+
+    /** Only records whose {@code hashValue} starts with this, case-insensitive. */
+    private String hashPrefix;
+
+    /** Fraction of the matching records to receive, from 0 to 1. */
+    private Double sampleRatio;
+
+    /** Number of hash partitions the stream is split into, see {@link #partitionOf}. */
+    private Integer partitionCount;
+
+    /** Only records in these partitions, each below {@link #partitionCount}. */
+    private List<Integer> partitions;
+
+    /**
+     * The partition of a record with {@code hashValue} among {@code partitionCount}. Records
+     * sharing a hash value, as duplicates do, always fall in the same partition; records
+     * without one fall in partition 0.
+     */
+    public static int partitionOf(String hashValue, int partitionCount) {
+        if (hashValue == null) {
+            return 0;
+        }
+        // The finalizer of MurmurHash3, so similar hashes spread over every partition
+        int h = hashValue.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, partitionCount);
+    }
+}
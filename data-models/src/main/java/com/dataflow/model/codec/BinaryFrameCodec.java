@@ -0,0 +1,302 @@
+package com.dataflow.model.codec;
+
+import com.dataflow.model.DataRecordMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Columnar binary encoding of a record batch for the generator to filter WebSocket link.
+ * <p>
+ * Frame layout (big-endian):
+ * <pre>
+ *   magic     u16   0xDF5A
+ *   version   u8    1
+ *   flags     u8    bit 0: payload is deflated, bit 1: payload starts with an ID column,
+ *                   bit 2: a batch sequence number follows the header
+ *   count     i32   number of records
+ *   hashWidth u8    bytes per hash slot
+ *   [sequence i64]  the sender's batch sequence number, never compressed
+ *   payload         [count x i64 id] | count x i64 timestamp | count x i32 value | count x hashWidth ASCII hash
+ * </pre>
+ * Hashes shorter than {@code hashWidth} are zero-padded; an empty slot decodes to {@code null}.
+ * The ID column is present when every record has an ID and absent when none has.
+ * Timestamps and values must be non-null, hashes ASCII and IDs all set or all unset,
+ * otherwise {@link #encode} throws {@link IllegalArgumentException} and the caller should
+ * fall back to JSON.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BinaryFrameCodec {
+
+    /** WebSocket subprotocol carrying frames produced by this codec. */
+    public static final String SUBPROTOCOL = "dataflow.binary.v1";
+    /** WebSocket subprotocol carrying the JSON array encoding. */
+    public static final String JSON_SUBPROTOCOL = "dataflow.json.v1";
+
+    public static final short MAGIC = (short) 0xDF5A;
+    public static final byte VERSION = 1;
+    public static final int FLAG_DEFLATE = 1;
+    public static final int FLAG_IDS = 2;
+    public static final int FLAG_SEQUENCE = 4;
+    public static final int HEADER_BYTES = 9;
+    /** Passed to and returned by {@link #encode(List, long)} and {@link #sequenceOf} for unsequenced frames. */
+    public static final long NO_SEQUENCE = -1;
+
+    private static final int MAX_HASH_WIDTH = 255;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final boolean compress;
+    private final int compressMinRecords;
+
+    /**
+     * @param compress           deflate the payload of frames with at least {@code compressMinRecords} records
+     * @param compressMinRecords below this size compression costs more than it saves
+     */
+    public BinaryFrameCodec(boolean compress, int compressMinRecords) {
+        this.compress = compress;
+        this.compressMinRecords = compressMinRecords;
+    }
+
+    public BinaryFrameCodec() {
+        this(false, Integer.MAX_VALUE);
+    }
+
+    public byte[] encode(List<DataRecordMessage> records) {
+        return encode(records, NO_SEQUENCE);
+    }
+
+    /**
+     * @param sequence the batch's sequence number, or {@link #NO_SEQUENCE} to leave it out
+     */
+    public byte[] encode(List<DataRecordMessage> records, long sequence) {
+        int count = records.size();
+        int hashWidth = hashWidth(records);
+        boolean ids = hasIds(records);
+        int payloadBytes = count * (recordBytes(hashWidth) + (ids ? Long.BYTES : 0));
+
+        ByteBuffer payload = ByteBuffer.allocate(payloadBytes);
+        if (ids) {
+            for (DataRecordMessage record : records) {
+                payload.putLong(record.getId());
+            }
+        }
+        for (DataRecordMessage record : records) {
+            payload.putLong(requireNonNull(record.getTimestamp(), "timestamp"));
+        }
+        for (DataRecordMessage record : records) {
+            payload.putInt(requireNonNull(record.getRandomValue(), "randomValue"));
+        }
+        byte[] payloadArray = payload.array();
+        int offset = payload.position();
+        for (DataRecordMessage record : records) {
+            String hash = record.getHashValue();
+            if (hash != null) {
+                for (int i = 0; i < hash.length(); i++) {
+                    payloadArray[offset + i] = (byte) hash.charAt(i);
+                }
+            }
+            offset += hashWidth;
+        }
+
+        boolean sequenced = sequence != NO_SEQUENCE;
+        int flags = (ids ? FLAG_IDS : 0) | (sequenced ? FLAG_SEQUENCE : 0);
+        int headerBytes = HEADER_BYTES + (sequenced ? Long.BYTES : 0);
+        if (compress && count >= compressMinRecords) {
+            byte[] frame = deflatedFrame(payloadArray, headerBytes);
+            if (frame != null) {
+                writeHeader(ByteBuffer.wrap(frame), flags | FLAG_DEFLATE, count, hashWidth, sequence);
+                return frame;
+            }
+        }
+        ByteBuffer frame = ByteBuffer.allocate(headerBytes + payloadBytes);
+        writeHeader(frame, flags, count, hashWidth, sequence).put(payloadArray);
+        return frame.array();
+    }
+
+    /**
+     * Reads only the header of {@code frame}.
+     *
+     * @return the frame's batch sequence number, or {@link #NO_SEQUENCE} if it has none
+     */
+    public static long sequenceOf(ByteBuffer frame) {
+        ByteBuffer in = frame.slice();
+        if (in.remaining() < HEADER_BYTES || in.getShort(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a binary record frame");
+        }
+        if ((in.get(3) & FLAG_SEQUENCE) == 0) {
+            return NO_SEQUENCE;
+        }
+        if (in.remaining() < HEADER_BYTES + Long.BYTES) {
+            throw new IllegalArgumentException("Truncated frame header");
+        }
+        return in.getLong(HEADER_BYTES);
+    }
+
+    public List<DataRecordMessage> decode(ByteBuffer frame) {
+        ByteBuffer in = frame.slice();
+        if (in.remaining() < HEADER_BYTES || in.getShort() != MAGIC) {
+            throw new IllegalArgumentException("Not a binary record frame");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version: " + version);
+        }
+        int flags = in.get();
+        int count = in.getInt();
+        int hashWidth = in.get() & 0xFF;
+        boolean ids = (flags & FLAG_IDS) != 0;
+        if ((flags & FLAG_SEQUENCE) != 0) {
+            if (in.remaining() < Long.BYTES) {
+                throw new IllegalArgumentException("Truncated frame header");
+            }
+            in.getLong();
+        }
+        long expectedBytes = (long) count * (recordBytes(hashWidth) + (ids ? Long.BYTES : 0));
+        if (count < 0 || expectedBytes > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IllegalArgumentException("Invalid record count: " + count);
+        }
+
+        int payloadBytes = (int) expectedBytes;
+        ByteBuffer payload = (flags & FLAG_DEFLATE) != 0 ? inflate(in, payloadBytes) : in;
+        if (payload.remaining() < payloadBytes) {
+            throw new IllegalArgumentException("Truncated frame: expected " + payloadBytes
+                    + " payload bytes, got " + payload.remaining());
+        }
+
+        int idsAt = payload.position();
+        int base = idsAt + (ids ? count * Long.BYTES : 0);
+        int valuesAt = base + count * Long.BYTES;
+        int hashesAt = valuesAt + count * Integer.BYTES;
+        byte[] hashBytes = new byte[hashWidth];
+        List<DataRecordMessage> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long timestamp = payload.getLong(base + i * Long.BYTES);
+            int value = payload.getInt(valuesAt + i * Integer.BYTES);
+            payload.get(hashesAt + i * hashWidth, hashBytes);
+            Long id = ids ? payload.getLong(idsAt + i * Long.BYTES) : null;
+            records.add(new DataRecordMessage(id, timestamp, value, hashString(hashBytes)));
+        }
+        return records;
+    }
+
+    public List<DataRecordMessage> decode(byte[] frame) {
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    private static ByteBuffer writeHeader(ByteBuffer frame, int flags, int count, int hashWidth, long sequence) {
+        frame.putShort(MAGIC)
+                .put(VERSION)
+                .put((byte) flags)
+                .putInt(count)
+                .put((byte) hashWidth);
+        return (flags & FLAG_SEQUENCE) != 0 ? frame.putLong(sequence) : frame;
+    }
+
+    /**
+     * @return the deflated payload behind {@code headerBytes} reserved bytes, or null
+     * if compressing did not make it smaller
+     */
+    private static byte[] deflatedFrame(byte[] payload, int headerBytes) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] out = new byte[headerBytes + payload.length];
+        int length = headerBytes;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                return null;
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private static ByteBuffer inflate(ByteBuffer in, int payloadBytes) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(in);
+        byte[] out = new byte[payloadBytes];
+        try {
+            int inflated = 0;
+            while (inflated < payloadBytes && !inflater.finished()) {
+                int n = inflater.inflate(out, inflated, payloadBytes - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            return ByteBuffer.wrap(out, 0, inflated);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed frame", e);
+        }
+    }
+
+    private static int recordBytes(int hashWidth) {
+        return Long.BYTES + Integer.BYTES + hashWidth;
+    }
+
+    private static boolean hasIds(List<DataRecordMessage> records) {
+        int withId = 0;
+        for (DataRecordMessage record : records) {
+            if (record.getId() != null) {
+                withId++;
+            }
+        }
+        if (withId != 0 && withId != records.size()) {
+            throw new IllegalArgumentException("Only " + withId + " of " + records.size() + " records have an ID");
+        }
+        return withId != 0;
+    }
+
+    private static int hashWidth(List<DataRecordMessage> records) {
+        int width = 0;
+        for (DataRecordMessage record : records) {
+            String hash = record.getHashValue();
+            if (hash == null) {
+                continue;
+            }
+            for (int i = 0; i < hash.length(); i++) {
+                char c = hash.charAt(i);
+                if (c == 0 || c > 0x7F) {
+                    throw new IllegalArgumentException("Hash is not printable ASCII: " + hash);
+                }
+            }
+            width = Math.max(width, hash.length());
+        }
+        if (width > MAX_HASH_WIDTH) {
+            throw new IllegalArgumentException("Hash longer than " + MAX_HASH_WIDTH + " characters");
+        }
+        return width;
+    }
+
+    private static String hashString(byte[] bytes) {
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        if (length == 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) bytes[i];
+        }
+        return new String(chars);
+    }
+
+    private static <T> T requireNonNull(T value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("Record has no " + field);
+        }
+        return value;
+    }
+}
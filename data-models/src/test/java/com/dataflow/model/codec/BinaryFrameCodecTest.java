@@ -0,0 +1,143 @@
+package com.dataflow.model.codec;
+
+import com.dataflow.model.DataRecordMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryFrameCodecTest {
+
+    @Test
+    void whenRoundTrip_thenRecordsAreUnchanged() {
+        List<DataRecordMessage> records = randomRecords(500);
+        BinaryFrameCodec codec = new BinaryFrameCodec();
+
+        byte[] frame = codec.encode(records);
+
+        assertEquals(BinaryFrameCodec.HEADER_BYTES + 500 * (8 + 4 + 2), frame.length);
+        assertEquals(records, codec.decode(frame));
+    }
+
+    @Test
+    void whenCompressed_thenFrameIsSmallerAndDecodesWithAnyCodec() {
+        List<DataRecordMessage> records = randomRecords(500);
+
+        byte[] plain = new BinaryFrameCodec().encode(records);
+        byte[] deflated = new BinaryFrameCodec(true, 100).encode(records);
+
+        assertEquals(BinaryFrameCodec.FLAG_DEFLATE, deflated[3]);
+        assertTrue(deflated.length < plain.length);
+        assertEquals(records, new BinaryFrameCodec().decode(deflated));
+    }
+
+    @Test
+    void whenBelowCompressionThreshold_thenFrameIsNotCompressed() {
+        byte[] frame = new BinaryFrameCodec(true, 100).encode(randomRecords(10));
+
+        assertEquals(0, frame[3]);
+    }
+
+    @Test
+    void whenHashesDifferInLength_thenShortOnesArePaddedAndNullSurvives() {
+        List<DataRecordMessage> records = List.of(
+                new DataRecordMessage(1L, 1, "A"),
+                new DataRecordMessage(2L, 2, "ABCDEF"),
+                new DataRecordMessage(3L, 3, null));
+
+        assertEquals(records, new BinaryFrameCodec().decode(new BinaryFrameCodec().encode(records)));
+    }
+
+    @Test
+    void whenRecordsHaveIds_thenIdColumnIsFlaggedAndRoundTrips() {
+        List<DataRecordMessage> records = List.of(
+                new DataRecordMessage(10L, 1L, 1, "AB"),
+                new DataRecordMessage(11L, 2L, 2, "CD"));
+
+        byte[] frame = new BinaryFrameCodec().encode(records);
+
+        assertEquals(BinaryFrameCodec.FLAG_IDS, frame[3]);
+        assertEquals(BinaryFrameCodec.HEADER_BYTES + 2 * (8 + 8 + 4 + 2), frame.length);
+        assertEquals(records, new BinaryFrameCodec().decode(frame));
+        assertEquals(records, new BinaryFrameCodec().decode(new BinaryFrameCodec(true, 1).encode(records)));
+    }
+
+    @Test
+    void whenOnlySomeRecordsHaveIds_thenIllegalArgument() {
+        List<DataRecordMessage> records = List.of(
+                new DataRecordMessage(10L, 1L, 1, "AB"),
+                new DataRecordMessage(2L, 2, "CD"));
+
+        assertThrows(IllegalArgumentException.class, () -> new BinaryFrameCodec().encode(records));
+    }
+
+    @Test
+    void whenSequenced_thenSequenceIsReadFromHeaderAndRecordsDecode() {
+        List<DataRecordMessage> records = randomRecords(500);
+
+        byte[] plain = new BinaryFrameCodec().encode(records, 42);
+        byte[] deflated = new BinaryFrameCodec(true, 100).encode(records, 43);
+
+        assertEquals(BinaryFrameCodec.FLAG_SEQUENCE, plain[3]);
+        assertEquals(42, BinaryFrameCodec.sequenceOf(ByteBuffer.wrap(plain)));
+        assertEquals(43, BinaryFrameCodec.sequenceOf(ByteBuffer.wrap(deflated)));
+        assertEquals(records, new BinaryFrameCodec().decode(plain));
+        assertEquals(records, new BinaryFrameCodec().decode(deflated));
+        assertEquals(BinaryFrameCodec.NO_SEQUENCE,
+                BinaryFrameCodec.sequenceOf(ByteBuffer.wrap(new BinaryFrameCodec().encode(records))));
+    }
+
+    @Test
+    void whenEmptyBatch_thenHeaderOnly() {
+        byte[] frame = new BinaryFrameCodec().encode(List.of());
+
+        assertEquals(BinaryFrameCodec.HEADER_BYTES, frame.length);
+        assertTrue(new BinaryFrameCodec().decode(frame).isEmpty());
+    }
+
+    @Test
+    void whenFrameIsSlicedFromLargerBuffer_thenOnlyFrameBytesAreRead() {
+        List<DataRecordMessage> records = randomRecords(3);
+        byte[] frame = new BinaryFrameCodec().encode(records);
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length + 8);
+        buffer.putInt(0xCAFE).put(frame).flip().position(4);
+
+        assertEquals(records, new BinaryFrameCodec().decode(buffer));
+    }
+
+    @Test
+    void whenRecordCannotBeEncoded_thenIllegalArgument() {
+        BinaryFrameCodec codec = new BinaryFrameCodec();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.encode(List.of(new DataRecordMessage(null, 1, "AB"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.encode(List.of(new DataRecordMessage(1L, 1, "é"))));
+    }
+
+    @Test
+    void whenFrameIsInvalid_thenIllegalArgument() {
+        BinaryFrameCodec codec = new BinaryFrameCodec();
+        byte[] frame = codec.encode(randomRecords(10));
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("[{}]".getBytes()));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode(ByteBuffer.wrap(frame, 0, frame.length - 1)));
+    }
+
+    private static List<DataRecordMessage> randomRecords(int count) {
+        SplittableRandom random = new SplittableRandom(7);
+        List<DataRecordMessage> records = new ArrayList<>(count);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += random.nextInt(3);
+            records.add(new DataRecordMessage(timestamp, random.nextInt(101),
+                    String.format("%02X", random.nextInt(256))));
+        }
+        return records;
+    }
+}
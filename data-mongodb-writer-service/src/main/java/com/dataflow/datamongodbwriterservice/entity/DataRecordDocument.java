@@ -25,9 +25,13 @@ public class DataRecordDocument {
     private String hashValue;
     private List<DataRecordDocument> nestedRecords = new ArrayList<>();
 
+    /**
+     * Records carrying a generator ID keep it as the document ID, so a redelivered record
+     * maps to the same document instead of a new one.
+     */
     public static DataRecordDocument fromDataRecord(DataRecordMessage record) {
         DataRecordDocument doc = new DataRecordDocument();
-        doc.setId(String.valueOf(UUID.randomUUID()));
+        doc.setId(record.getId() != null ? String.valueOf(record.getId()) : String.valueOf(UUID.randomUUID()));
         doc.setTimestamp(record.getTimestamp());
         doc.setRandomValue(record.getRandomValue());
         doc.setHashValue(record.getHashValue());
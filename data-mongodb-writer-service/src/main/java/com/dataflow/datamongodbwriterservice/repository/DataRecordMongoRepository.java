@@ -6,6 +6,8 @@ import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -16,4 +18,10 @@ public interface DataRecordMongoRepository extends MongoRepository<DataRecordDoc
     @Update("{ '$push' : { 'nestedRecords' : ?1 } }")
     void addNestedRecord(String id, DataRecordDocument nestedRecord);
 
+    @Query(value = "{ '_id' : { '$in' : ?0 } }", fields = "{ '_id' : 1 }")
+    List<DataRecordDocument> findIdsByIdIn(Collection<String> ids);
+
+    @Query(value = "{ 'nestedRecords._id' : { '$in' : ?0 } }", fields = "{ 'nestedRecords._id' : 1 }")
+    List<DataRecordDocument> findParentsOfNestedIds(Collection<String> ids);
+
 }
@@ -8,7 +8,9 @@ import org.jeasy.rules.api.RulesEngine;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Service
 @Slf4j
@@ -25,8 +27,14 @@ public class MongoDbService {
     public void processBatch(List<DataRecordMessage> messages) {
         try {
             List<DataRecordDocument> newDocuments = new ArrayList<>();
+            Set<String> stored = storedRecordIds(messages);
+            int skipped = 0;
 
             for (DataRecordMessage message : messages) {
+                if (message.getId() != null && !stored.add(String.valueOf(message.getId()))) {
+                    skipped++;
+                    continue;
+                }
 
                 if (ruleEngineService.evaluateRules(message)) {
                     repository.findFirstByOrderByTimestampDesc().ifPresentOrElse(
@@ -46,10 +54,40 @@ public class MongoDbService {
             }
 
             repository.saveAll(newDocuments);
+            if (skipped > 0) {
+                log.info("Skipped {} records already stored.", skipped);
+            }
             log.info("Batch of {} documents processed and saved.", newDocuments.size());
 
         } catch (Exception e) {
             log.error("Error processing batch: {}", e.getMessage(), e);
         }
     }
+
+    /**
+     * IDs of the batch's records already stored, either as documents or nested in one.
+     */
+    private Set<String> storedRecordIds(List<DataRecordMessage> messages) {
+        Set<String> ids = new HashSet<>();
+        for (DataRecordMessage message : messages) {
+            if (message.getId() != null) {
+                ids.add(String.valueOf(message.getId()));
+            }
+        }
+        Set<String> stored = new HashSet<>();
+        if (ids.isEmpty()) {
+            return stored;
+        }
+        for (DataRecordDocument doc : repository.findIdsByIdIn(ids)) {
+            stored.add(doc.getId());
+        }
+        for (DataRecordDocument parent : repository.findParentsOfNestedIds(ids)) {
+            for (DataRecordDocument nested : parent.getNestedRecords()) {
+                if (ids.contains(nested.getId())) {
+                    stored.add(nested.getId());
+                }
+            }
+        }
+        return stored;
+    }
 }